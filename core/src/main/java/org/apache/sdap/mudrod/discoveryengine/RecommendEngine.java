@@ -8,6 +8,7 @@ import org.apache.sdap.mudrod.recommendation.pre.NormalizeFeatures;
 import org.apache.sdap.mudrod.recommendation.pre.SessionCooccurence;
 import org.apache.sdap.mudrod.recommendation.process.AbstractBasedSimilarity;
 import org.apache.sdap.mudrod.recommendation.process.FeatureBasedSimilarity;
+import org.apache.sdap.mudrod.recommendation.process.RecommendationStoreBuilder;
 import org.apache.sdap.mudrod.recommendation.process.SessionBasedCF;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,6 +64,9 @@ public class RecommendEngine extends DiscoveryEngineAbstract {
     DiscoveryStepAbstract sbCF = new SessionBasedCF(this.props, this.es, this.spark);
     sbCF.execute();
 
+    DiscoveryStepAbstract store = new RecommendationStoreBuilder(this.props, this.es, this.spark);
+    store.execute();
+
     endTime = System.currentTimeMillis();
 
     LOG.info("Recommendation processing ends. Took {}s", (endTime - startTime) / 1000);
@@ -22,22 +22,27 @@ import org.apache.sdap.mudrod.main.MudrodEngine;
 import org.apache.sdap.mudrod.utils.ESTransportClient;
 import org.elasticsearch.action.admin.indices.analyze.AnalyzeResponse;
 import org.elasticsearch.action.admin.indices.analyze.AnalyzeResponse.AnalyzeToken;
-import org.elasticsearch.action.admin.indices.get.GetIndexRequest;
-import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
 import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsResponse;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.bulk.BackoffPolicy;
 import org.elasticsearch.action.bulk.BulkProcessor;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.metadata.MappingMetaData;
-import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.cluster.metadata.MetaData;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
 import org.elasticsearch.common.unit.ByteSizeUnit;
@@ -45,11 +50,13 @@ import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.Fuzziness;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.IndexNotFoundException;
 import org.elasticsearch.index.query.MatchAllQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.node.Node;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
 import org.elasticsearch.search.suggest.Suggest;
 import org.elasticsearch.search.suggest.SuggestBuilder;
 import org.elasticsearch.search.suggest.SuggestBuilders;
@@ -59,6 +66,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
 import java.time.Instant;
 import java.time.LocalDate;
@@ -67,6 +75,8 @@ import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -79,9 +89,27 @@ public class ESDriver implements Serializable {
 
   private static final Logger LOG = LoggerFactory.getLogger(ESDriver.class);
   private static final long serialVersionUID = 1L;
+  private static final String GENERATION = "generation";
+  private static final String VERSION_SEPARATOR = "_v";
   private transient Client client = null;
   private transient Node node = null;
   private transient BulkProcessor bulkProcessor = null;
+  // cached view of the cluster's indices, aliases and types, see getClusterMetadata()
+  private transient volatile ClusterMetadata clusterMetadata = null;
+  private transient ScheduledExecutorService metadataRefresher = null;
+  // a lookup that misses reloads the view at most this often
+  private static final long METADATA_MISS_RELOAD_MILLIS = 1000;
+  // previous versions of a rebuilt type kept for rollback, see publishVersion()
+  private int retainedVersions = 1;
+
+  /**
+   * Snapshot of the index, alias and type names in the cluster.
+   */
+  private static final class ClusterMetadata {
+    final Map<String, Set<String>> indexTypes = new HashMap<>();
+    final Set<String> aliases = new HashSet<>();
+    final long loadedAt = System.currentTimeMillis();
+  }
 
   /**
    * Default constructor for this class. To load client configuration call
@@ -102,6 +130,91 @@ public class ESDriver implements Serializable {
     } catch (IOException e) {
       LOG.error("Error whilst constructing Elastcisearch client.", e);
     }
+    retainedVersions = Integer.parseInt(props.getProperty(MudrodConstants.ES_RETAINED_VERSIONS, "1"));
+  }
+
+  /**
+   * Start reloading the cached cluster metadata in the background. Only
+   * long-lived drivers such as the service's need this; others reload the
+   * view when a lookup misses.
+   *
+   * @param intervalSeconds seconds between reloads
+   */
+  public synchronized void startMetadataRefresh(long intervalSeconds) {
+    if (metadataRefresher != null || intervalSeconds <= 0) {
+      return;
+    }
+    metadataRefresher = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "es-metadata-refresher");
+      t.setDaemon(true);
+      return t;
+    });
+    metadataRefresher.scheduleWithFixedDelay(() -> {
+      try {
+        loadClusterMetadata();
+      } catch (Exception e) {
+        LOG.warn("Error reloading cluster metadata, keeping the previous view.", e);
+      }
+    }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  private ClusterMetadata getClusterMetadata() {
+    ClusterMetadata metadata = clusterMetadata;
+    return metadata != null ? metadata : loadClusterMetadata();
+  }
+
+  private ClusterMetadata loadClusterMetadata() {
+    MetaData metaData = getClient().admin().cluster().prepareState().clear().setMetaData(true).execute().actionGet().getState().metaData();
+    ClusterMetadata metadata = new ClusterMetadata();
+    for (ObjectObjectCursor<String, IndexMetaData> index : metaData.indices()) {
+      Set<String> types = new HashSet<>();
+      index.value.getMappings().keysIt().forEachRemaining(types::add);
+      metadata.indexTypes.put(index.key, types);
+      index.value.getAliases().keysIt().forEachRemaining(metadata.aliases::add);
+    }
+    clusterMetadata = metadata;
+    return metadata;
+  }
+
+  /**
+   * Drop the cached cluster metadata, so the next lookup reloads it. Called
+   * after this driver creates an index.
+   */
+  public void invalidateClusterMetadata() {
+    clusterMetadata = null;
+  }
+
+  /**
+   * Check whether an index or alias exists, using the cached cluster
+   * metadata instead of asking the master node on every call
+   *
+   * @param index index or alias name
+   * @return true if the index or alias exists
+   */
+  public boolean indexExists(String index) {
+    ClusterMetadata metadata = getClusterMetadata();
+    if (!metadata.indexTypes.containsKey(index) && !metadata.aliases.contains(index) && System.currentTimeMillis() - metadata.loadedAt > METADATA_MISS_RELOAD_MILLIS) {
+      // the index may have been created by another process since the last reload
+      metadata = loadClusterMetadata();
+    }
+    return metadata.indexTypes.containsKey(index) || metadata.aliases.contains(index);
+  }
+
+  /**
+   * Check whether a type exists in an index, using the cached cluster
+   * metadata. A miss always reloads the view, as types are created
+   * implicitly by indexing.
+   *
+   * @param index index name
+   * @param type  type name
+   * @return true if the index has a mapping for the type
+   */
+  public boolean typeExists(String index, String type) {
+    Set<String> types = getClusterMetadata().indexTypes.get(index);
+    if (types == null || !types.contains(type)) {
+      types = loadClusterMetadata().indexTypes.get(index);
+    }
+    return types != null && types.contains(type);
   }
 
   public void createBulkProcessor() {
@@ -146,6 +259,7 @@ public class ESDriver implements Serializable {
 
     getClient().admin().indices().prepareCreate(indexName).setSettings(Settings.builder().loadFromSource(settingsJson)).execute().actionGet();
     getClient().admin().indices().preparePutMapping(indexName).setType("_default_").setSource(mappingJson).execute().actionGet();
+    invalidateClusterMetadata();
   }
 
   public String customAnalyzing(String indexName, String str) throws InterruptedException, ExecutionException {
@@ -178,19 +292,8 @@ public class ESDriver implements Serializable {
   }
 
   public void deleteAllByQuery(String index, String type, QueryBuilder query) {
-    ImmutableOpenMap<String, MappingMetaData> mappings = getClient()
-            .admin()
-            .cluster()
-            .prepareState()
-            .execute()
-            .actionGet()
-            .getState()
-            .metaData()
-            .index(index)
-            .getMappings();
-    
     //check if the type exists
-    if (!mappings.containsKey(type))
+    if (!typeExists(index, type))
       return;
     
     createBulkProcessor();
@@ -225,17 +328,11 @@ public class ESDriver implements Serializable {
 
   public List<String> getTypeListWithPrefix(Object object, Object object2) {
     ArrayList<String> typeList = new ArrayList<>();
-    GetMappingsResponse res;
-    try {
-      res = getClient().admin().indices().getMappings(new GetMappingsRequest().indices(object.toString())).get();
-      ImmutableOpenMap<String, MappingMetaData> mapping = res.mappings().get(object.toString());
-      for (ObjectObjectCursor<String, MappingMetaData> c : mapping) {
-        if (c.key.startsWith(object2.toString())) {
-          typeList.add(c.key);
-        }
+    Set<String> types = getClusterMetadata().indexTypes.getOrDefault(object.toString(), Collections.emptySet());
+    for (String type : types) {
+      if (type.startsWith(object2.toString())) {
+        typeList.add(type);
       }
-    } catch (InterruptedException | ExecutionException e) {
-      LOG.error("Error whilst obtaining type list from Elasticsearch mappings.", e);
     }
     return typeList;
   }
@@ -243,7 +340,7 @@ public class ESDriver implements Serializable {
   public List<String> getIndexListWithPrefix(Object object) {
 
     LOG.info("Retrieving index list with prefix: {}", object.toString());
-    String[] indices = client.admin().indices().getIndex(new GetIndexRequest()).actionGet().getIndices();
+    Set<String> indices = getClusterMetadata().indexTypes.keySet();
 
     ArrayList<String> indexList = new ArrayList<>();
     for (String indexName : indices) {
@@ -255,20 +352,65 @@ public class ESDriver implements Serializable {
     return indexList;
   }
 
+  /**
+   * Prepare a search that only fetches the requested part of each hit's
+   * source, optionally reading some (numeric) fields from doc values instead.
+   *
+   * @param index          index name in Elasticsearch
+   * @param type           type name in Elasticsearch
+   * @param query          the query
+   * @param includes       source fields to fetch, or null for all
+   * @param excludes       source fields to leave out, or null for none
+   * @param docValueFields fields to read from doc values, see {@link #getDocValue(SearchHit, String)}
+   * @return a search request builder
+   */
+  public SearchRequestBuilder prepareSearch(String index, String type, QueryBuilder query, String[] includes, String[] excludes, String... docValueFields) {
+    SearchRequestBuilder builder = getClient().prepareSearch(index).setTypes(type).setQuery(query).setFetchSource(includes, excludes);
+    for (String field : docValueFields) {
+      builder.addDocValueField(field);
+    }
+    return builder;
+  }
+
+  /**
+   * Get a field requested through doc values, falling back to the source.
+   *
+   * @param hit   search hit
+   * @param field field name
+   * @return the field value, or null if the hit has no such field
+   */
+  public static Object getDocValue(SearchHit hit, String field) {
+    SearchHitField docValue = hit.field(field);
+    if (docValue != null) {
+      return docValue.getValue();
+    }
+    return hit.getSource() == null ? null : hit.getSource().get(field);
+  }
+
+  /**
+   * @param response search response
+   * @return total number of source bytes returned in the response
+   */
+  public static long getSourceBytes(SearchResponse response) {
+    long bytes = 0;
+    for (SearchHit hit : response.getHits().getHits()) {
+      if (hit.hasSource()) {
+        bytes += hit.getSourceRef().length();
+      }
+    }
+    return bytes;
+  }
+
   public String searchByQuery(String index, String type, String query) throws IOException, InterruptedException, ExecutionException {
     return searchByQuery(index, type, query, false);
   }
 
   @SuppressWarnings("unchecked")
   public String searchByQuery(String index, String type, String query, Boolean bDetail) throws IOException, InterruptedException, ExecutionException {
-    boolean exists = getClient().admin().indices().prepareExists(index).execute().actionGet().isExists();
-    if (!exists) {
+    if (!indexExists(index)) {
       return null;
     }
 
-    QueryBuilder qb = QueryBuilders.queryStringQuery(query);
-    SearchResponse response = getClient().prepareSearch(index).setTypes(type).setQuery(qb).setSize(500).execute().actionGet();
-
     // Map of K,V pairs where key is the field name from search result and value is the that should be returned for that field. Not always the same.
     Map<String, String> fieldsToReturn = new HashMap<>();
 
@@ -307,6 +449,10 @@ public class ESDriver implements Serializable {
       fieldsToReturn.put("Dataset-AlongTrackResolution", "Dataset-AlongTrackResolution");
     }
 
+    QueryBuilder qb = QueryBuilders.queryStringQuery(query);
+    SearchResponse response = prepareSearch(index, type, qb, fieldsToReturn.keySet().toArray(new String[0]), null).setSize(500).execute().actionGet();
+    long parseStart = System.nanoTime();
+
     List<Map<String, Object>> searchResults = new ArrayList<>();
 
     for (SearchHit hit : response.getHits().getHits()) {
@@ -370,7 +516,10 @@ public class ESDriver implements Serializable {
     Map<String, List<?>> pdResults = new HashMap<>();
     pdResults.put("PDResults", searchResults);
 
-    return new GsonBuilder().create().toJson(pdResults);
+    String json = new GsonBuilder().create().toJson(pdResults);
+    LOG.debug("Fetched {} hits with {} source bytes in {}ms, parsed in {}ms", response.getHits().getHits().length, getSourceBytes(response), response.getTookInMillis(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - parseStart));
+    return json;
   }
 
   /**
@@ -427,8 +576,7 @@ public class ESDriver implements Serializable {
   }
 
   public List<String> autoComplete(String index, String term) {
-    boolean exists = this.getClient().admin().indices().prepareExists(index).execute().actionGet().isExists();
-    if (!exists) {
+    if (!indexExists(index)) {
       return new ArrayList<>();
     }
 
@@ -454,7 +602,227 @@ public class ESDriver implements Serializable {
     return suggestList;
   }
 
+  /**
+   * Record that the content of an index has been rebuilt, so that results
+   * cached from it (e.g. by the service) can be discarded.
+   *
+   * @param index index name
+   * @return the new generation
+   */
+  public long bumpIndexGeneration(String index) {
+    long generation = System.currentTimeMillis();
+    try {
+      getClient().prepareIndex(index, MudrodConstants.INDEX_GENERATION_TYPE, GENERATION).setSource(jsonBuilder().startObject().field(GENERATION, generation).endObject()).execute()
+          .actionGet();
+    } catch (IOException e) {
+      LOG.error("Error whilst updating the generation of index {}", index, e);
+    }
+    return generation;
+  }
+
+  /**
+   * @param index index name
+   * @return the generation last recorded by {@link #bumpIndexGeneration(String)},
+   * or 0 if none has been recorded
+   */
+  public long getIndexGeneration(String index) {
+    try {
+      GetResponse response = getClient().prepareGet(index, MudrodConstants.INDEX_GENERATION_TYPE, GENERATION).execute().actionGet();
+      if (response.isExists()) {
+        return ((Number) response.getSource().get(GENERATION)).longValue();
+      }
+    } catch (IndexNotFoundException e) {
+      LOG.debug("Index {} does not exist yet", index);
+    }
+    return 0L;
+  }
+
+  /**
+   * @param index index name
+   * @param type  type name
+   * @return the alias through which the published version of a rebuilt
+   * type is searched
+   */
+  public static String versionAlias(String index, String type) {
+    return (index + "_" + type).toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Resolve the index to search for a type that is rebuilt through
+   * {@link #createVersion(String, String)}: its alias once a version has
+   * been published, otherwise the index itself, where the type was written
+   * before it was versioned.
+   *
+   * @param index index name
+   * @param type  type name
+   * @return an alias or index name
+   */
+  public String resolveIndex(String index, String type) {
+    String alias = versionAlias(index, type);
+    return indexExists(alias) ? alias : index;
+  }
+
+  /**
+   * Create an empty index to rebuild a type into, with the analysis
+   * settings and default mapping of the index, while searches keep reading
+   * the published version. Pass it to {@link #publishVersion(String, String, String)}
+   * once it is complete, or to {@link #discardVersion(String)} if the
+   * rebuild fails.
+   *
+   * @param index index name
+   * @param type  type name
+   * @return the name of the new version
+   */
+  public String createVersion(String index, String type) {
+    String version = versionAlias(index, type) + VERSION_SEPARATOR + System.currentTimeMillis();
+    CreateIndexRequestBuilder request = getClient().admin().indices().prepareCreate(version);
+    if (indexExists(index)) {
+      GetSettingsResponse settings = getClient().admin().indices().prepareGetSettings(index).execute().actionGet();
+      request.setSettings(settings.getIndexToSettings().get(index).filter(key -> key.startsWith("index.analysis.")));
+      GetMappingsResponse mappings = getClient().admin().indices().prepareGetMappings(index).setTypes("_default_").execute().actionGet();
+      MappingMetaData defaultMapping = mappings.getMappings().containsKey(index) ? mappings.getMappings().get(index).get("_default_") : null;
+      if (defaultMapping != null) {
+        try {
+          request.addMapping("_default_", defaultMapping.getSourceAsMap());
+        } catch (IOException e) {
+          throw new UncheckedIOException("Error reading the default mapping of " + index, e);
+        }
+      }
+    }
+    request.execute().actionGet();
+    invalidateClusterMetadata();
+    LOG.info("Rebuilding {}/{} into {}", index, type, version);
+    return version;
+  }
+
+  /**
+   * Make a complete version the one searched, by switching the alias of the
+   * type in a single atomic request, then drop the versions older than the
+   * retained ones in the background.
+   *
+   * @param index   index name
+   * @param type    type name
+   * @param version version created by {@link #createVersion(String, String)}
+   */
+  public void publishVersion(String index, String type, String version) {
+    getClient().admin().indices().prepareRefresh(version).execute().actionGet();
+    switchAlias(versionAlias(index, type), version);
+    if (typeExists(index, type)) {
+      LOG.info("{}/{} is now searched through {}, its documents in {} are no longer read", index, type, versionAlias(index, type), index);
+    }
+
+    List<String> stale = staleVersions(listVersions(index, type), version, retainedVersions);
+    if (!stale.isEmpty()) {
+      getClient().admin().indices().prepareDelete(stale.toArray(new String[0])).execute(ActionListener.wrap(response -> {
+        LOG.info("Dropped previous versions {}", stale);
+        invalidateClusterMetadata();
+      }, e -> LOG.warn("Error dropping previous versions {}", stale, e)));
+    }
+  }
+
+  /**
+   * Delete a version that failed to build, leaving the published one in
+   * place.
+   *
+   * @param version version created by {@link #createVersion(String, String)}
+   */
+  public void discardVersion(String version) {
+    try {
+      getClient().admin().indices().prepareDelete(version).execute().actionGet();
+    } catch (IndexNotFoundException e) {
+      LOG.debug("Version {} does not exist", version);
+    }
+    invalidateClusterMetadata();
+  }
+
+  /**
+   * Search the retained version preceding the published version of a type
+   * again, e.g. after a bad rebuild.
+   *
+   * @param index index name
+   * @param type  type name
+   * @return the version now searched
+   * @throws IllegalStateException if no earlier version is retained
+   */
+  public String rollbackVersion(String index, String type) {
+    String alias = versionAlias(index, type);
+    Set<String> current = aliasTargets(alias);
+    long published = current.stream().mapToLong(ESDriver::versionNumber).max().orElse(Long.MAX_VALUE);
+    for (String name : listVersions(index, type)) {
+      if (versionNumber(name) < published) {
+        switchAlias(alias, name);
+        getClient().admin().indices().prepareRefresh(name).execute().actionGet();
+        bumpIndexGeneration(index);
+        LOG.info("Rolled {}/{} back from {} to {}", index, type, current, name);
+        return name;
+      }
+    }
+    throw new IllegalStateException("No earlier version of " + index + "/" + type + " is retained");
+  }
+
+  private void switchAlias(String alias, String version) {
+    IndicesAliasesRequestBuilder request = getClient().admin().indices().prepareAliases();
+    for (String previous : aliasTargets(alias)) {
+      request.removeAlias(previous, alias);
+    }
+    request.addAlias(version, alias).execute().actionGet();
+    invalidateClusterMetadata();
+  }
+
+  private Set<String> aliasTargets(String alias) {
+    Set<String> targets = new HashSet<>();
+    if (!indexExists(alias)) {
+      return targets;
+    }
+    for (ObjectObjectCursor<String, List<AliasMetaData>> index : getClient().admin().indices().prepareGetAliases(alias).execute().actionGet().getAliases()) {
+      if (!index.value.isEmpty()) {
+        targets.add(index.key);
+      }
+    }
+    return targets;
+  }
+
+  /**
+   * @return the versions of a type, newest first
+   */
+  private List<String> listVersions(String index, String type) {
+    String prefix = versionAlias(index, type) + VERSION_SEPARATOR;
+    return loadClusterMetadata().indexTypes.keySet().stream().filter(name -> name.startsWith(prefix) && versionNumber(name) >= 0)
+        .sorted(Comparator.comparingLong(ESDriver::versionNumber).reversed()).collect(Collectors.toList());
+  }
+
+  /**
+   * Method of selecting the versions to drop once a version is published:
+   * those older than the retained number of versions preceding it. Newer
+   * versions, e.g. one still being built, are never selected.
+   *
+   * @param versions  versions of a type, in any order
+   * @param published the published version
+   * @param retained  number of older versions to keep
+   * @return the versions to drop, newest first
+   */
+  static List<String> staleVersions(List<String> versions, String published, int retained) {
+    long publishedNumber = versionNumber(published);
+    List<String> older = versions.stream().filter(name -> versionNumber(name) < publishedNumber)
+        .sorted(Comparator.comparingLong(ESDriver::versionNumber).reversed()).collect(Collectors.toList());
+    return new ArrayList<>(older.subList(Math.min(Math.max(retained, 0), older.size()), older.size()));
+  }
+
+  private static long versionNumber(String version) {
+    try {
+      return Long.parseLong(version.substring(version.lastIndexOf(VERSION_SEPARATOR) + VERSION_SEPARATOR.length()));
+    } catch (NumberFormatException e) {
+      return -1L;
+    }
+  }
+
   public void close() {
+    synchronized (this) {
+      if (metadataRefresher != null) {
+        metadataRefresher.shutdownNow();
+        metadataRefresher = null;
+      }
+    }
     client.close();
   }
 
@@ -0,0 +1,316 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.integration;
+
+import org.apache.sdap.mudrod.utils.LinkageTriple;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.Map.Entry;
+
+/**
+ * Read-only, memory-mapped snapshot of the term linkage graph produced by the
+ * offline pipeline. The file holds a sorted term dictionary followed by one CSR
+ * adjacency block per linkage model, with the neighbours of every term sorted
+ * by descending weight.
+ *
+ * <pre>
+ * int magic, int version
+ * int modelCount, { int length, byte[length] utf8 } * modelCount
+ * int termCount, int[termCount + 1] termOffsets, byte[] termBytes
+ * { int[termCount + 1] rowPtr, int[nnz] targets, float[nnz] weights } * modelCount
+ * </pre>
+ *
+ * Lookups only use absolute reads on the mapped buffer, so a single instance
+ * can be shared by any number of threads.
+ */
+public class LinkageGraph {
+
+  private static final int MAGIC = 0x4D444C47;
+  private static final int VERSION = 1;
+
+  private final MappedByteBuffer buffer;
+  private final Map<String, Integer> modelIndex = new HashMap<>();
+  private final int termCount;
+  private final int termOffsetsPos;
+  private final int termBytesPos;
+  private final int[] rowPtrPos;
+  private final int[] targetsPos;
+  private final int[] weightsPos;
+
+  private LinkageGraph(MappedByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    int pos = 0;
+    if (buffer.getInt(pos) != MAGIC || buffer.getInt(pos + 4) != VERSION) {
+      throw new IOException("Not a linkage graph file, or unsupported version.");
+    }
+    pos += 8;
+
+    int modelCount = buffer.getInt(pos);
+    pos += 4;
+    for (int m = 0; m < modelCount; m++) {
+      int length = buffer.getInt(pos);
+      pos += 4;
+      byte[] name = new byte[length];
+      for (int i = 0; i < length; i++) {
+        name[i] = buffer.get(pos + i);
+      }
+      pos += length;
+      modelIndex.put(new String(name, StandardCharsets.UTF_8), m);
+    }
+
+    termCount = buffer.getInt(pos);
+    pos += 4;
+    termOffsetsPos = pos;
+    termBytesPos = termOffsetsPos + (termCount + 1) * 4;
+    pos = termBytesPos + buffer.getInt(termOffsetsPos + termCount * 4);
+
+    rowPtrPos = new int[modelCount];
+    targetsPos = new int[modelCount];
+    weightsPos = new int[modelCount];
+    for (int m = 0; m < modelCount; m++) {
+      rowPtrPos[m] = pos;
+      int nnz = buffer.getInt(pos + termCount * 4);
+      targetsPos[m] = rowPtrPos[m] + (termCount + 1) * 4;
+      weightsPos[m] = targetsPos[m] + nnz * 4;
+      pos = weightsPos[m] + nnz * 4;
+    }
+  }
+
+  /**
+   * Memory-map a linkage graph file.
+   *
+   * @param file graph file written by {@link #write(File, Map)}
+   * @return the mapped graph
+   * @throws IOException if the file cannot be read or is not a graph file
+   */
+  public static LinkageGraph open(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+      return new LinkageGraph(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * @param model linkage type name
+   * @return true if the graph contains an adjacency block for the model
+   */
+  public boolean hasModel(String model) {
+    return modelIndex.containsKey(model);
+  }
+
+  public int getTermCount() {
+    return termCount;
+  }
+
+  /**
+   * Method of getting the most related terms of a term in a linkage model
+   *
+   * @param term  input term
+   * @param model linkage type name
+   * @param size  maximum number of terms to return
+   * @return an ordered map from related term to weight, highest weight first
+   */
+  public Map<String, Double> getRelatedTerms(String term, String model, int size) {
+    Map<String, Double> related = new LinkedHashMap<>();
+    Integer m = modelIndex.get(model);
+    int id = findTerm(term);
+    if (m == null || id < 0) {
+      return related;
+    }
+
+    int start = buffer.getInt(rowPtrPos[m] + id * 4);
+    int end = Math.min(buffer.getInt(rowPtrPos[m] + (id + 1) * 4), start + size);
+    for (int i = start; i < end; i++) {
+      int target = buffer.getInt(targetsPos[m] + i * 4);
+      related.put(getTerm(target), (double) buffer.getFloat(weightsPos[m] + i * 4));
+    }
+    return related;
+  }
+
+  /**
+   * Method of reading the most related terms of a term as term ids, without
+   * creating any objects
+   *
+   * @param term    input term
+   * @param model   linkage type name
+   * @param ids     receives the ids of the related terms, highest weight first;
+   *                its length is the maximum number of terms read
+   * @param weights receives the weights of the related terms
+   * @return the number of related terms read
+   */
+  public int getRelatedTermIds(String term, String model, int[] ids, float[] weights) {
+    Integer m = modelIndex.get(model);
+    int id = findTerm(term);
+    if (m == null || id < 0) {
+      return 0;
+    }
+
+    int start = buffer.getInt(rowPtrPos[m] + id * 4);
+    int count = Math.min(buffer.getInt(rowPtrPos[m] + (id + 1) * 4) - start, ids.length);
+    for (int i = 0; i < count; i++) {
+      ids[i] = buffer.getInt(targetsPos[m] + (start + i) * 4);
+      weights[i] = buffer.getFloat(weightsPos[m] + (start + i) * 4);
+    }
+    return count;
+  }
+
+  private int findTerm(String term) {
+    byte[] key = term.getBytes(StandardCharsets.UTF_8);
+    int low = 0;
+    int high = termCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compareTerm(mid, key);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  private int compareTerm(int id, byte[] key) {
+    int start = termBytesPos + buffer.getInt(termOffsetsPos + id * 4);
+    int length = termBytesPos + buffer.getInt(termOffsetsPos + (id + 1) * 4) - start;
+    int n = Math.min(length, key.length);
+    for (int i = 0; i < n; i++) {
+      int cmp = (buffer.get(start + i) & 0xff) - (key[i] & 0xff);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return length - key.length;
+  }
+
+  /**
+   * @param id term id, see {@link #getRelatedTermIds(String, String, int[], float[])}
+   * @return the term
+   */
+  public String getTerm(int id) {
+    int start = termBytesPos + buffer.getInt(termOffsetsPos + id * 4);
+    int length = termBytesPos + buffer.getInt(termOffsetsPos + (id + 1) * 4) - start;
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = buffer.get(start + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Write a linkage graph file. The file is written next to the target and
+   * then moved into place, so readers never observe a partially written graph.
+   *
+   * @param file    target graph file
+   * @param triples a map from linkage type name to its directed edges
+   * @throws IOException if the file cannot be written
+   */
+  public static void write(File file, Map<String, List<LinkageTriple>> triples) throws IOException {
+    SortedMap<byte[], Integer> dictionary = new TreeMap<>(LinkageGraph::compareBytes);
+    for (List<LinkageTriple> edges : triples.values()) {
+      for (LinkageTriple edge : edges) {
+        dictionary.put(edge.keyA.getBytes(StandardCharsets.UTF_8), 0);
+        dictionary.put(edge.keyB.getBytes(StandardCharsets.UTF_8), 0);
+      }
+    }
+
+    Map<String, Integer> termIds = new HashMap<>();
+    int id = 0;
+    for (Entry<byte[], Integer> entry : dictionary.entrySet()) {
+      entry.setValue(id);
+      termIds.put(new String(entry.getKey(), StandardCharsets.UTF_8), id);
+      id++;
+    }
+    int termCount = dictionary.size();
+
+    File tmp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+
+      out.writeInt(triples.size());
+      for (String model : triples.keySet()) {
+        byte[] name = model.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(name.length);
+        out.write(name);
+      }
+
+      out.writeInt(termCount);
+      int offset = 0;
+      for (byte[] term : dictionary.keySet()) {
+        out.writeInt(offset);
+        offset += term.length;
+      }
+      out.writeInt(offset);
+      for (byte[] term : dictionary.keySet()) {
+        out.write(term);
+      }
+
+      for (List<LinkageTriple> edges : triples.values()) {
+        List<List<LinkageTriple>> rows = new ArrayList<>(termCount);
+        for (int i = 0; i < termCount; i++) {
+          rows.add(new ArrayList<>());
+        }
+        for (LinkageTriple edge : edges) {
+          if (!edge.keyA.equals(edge.keyB)) {
+            rows.get(termIds.get(edge.keyA)).add(edge);
+          }
+        }
+
+        int nnz = 0;
+        for (List<LinkageTriple> row : rows) {
+          row.sort((a, b) -> Double.compare(b.weight, a.weight));
+          out.writeInt(nnz);
+          nnz += row.size();
+        }
+        out.writeInt(nnz);
+        for (List<LinkageTriple> row : rows) {
+          for (LinkageTriple edge : row) {
+            out.writeInt(termIds.get(edge.keyB));
+          }
+        }
+        for (List<LinkageTriple> row : rows) {
+          for (LinkageTriple edge : row) {
+            out.writeFloat((float) edge.weight);
+          }
+        }
+      }
+    }
+
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static int compareBytes(byte[] a, byte[] b) {
+    int n = Math.min(a.length, b.length);
+    for (int i = 0; i < n; i++) {
+      int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return a.length - b.length;
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.integration;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.sdap.mudrod.discoveryengine.DiscoveryStepAbstract;
+import org.apache.sdap.mudrod.driver.ESDriver;
+import org.apache.sdap.mudrod.driver.SparkDriver;
+import org.apache.sdap.mudrod.main.MudrodConstants;
+import org.apache.sdap.mudrod.utils.LinkageTriple;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Exports the user history, clickstream, metadata and ontology linkage types
+ * from Elasticsearch into a {@link LinkageGraph} file, which the service
+ * memory-maps for related term lookups.
+ */
+public class LinkageGraphBuilder extends DiscoveryStepAbstract {
+
+  private static final long serialVersionUID = 1L;
+  private static final Logger LOG = LoggerFactory.getLogger(LinkageGraphBuilder.class);
+
+  public LinkageGraphBuilder(Properties props, ESDriver es, SparkDriver spark) {
+    super(props, es, spark);
+  }
+
+  @Override
+  public Object execute() {
+    String path = props.getProperty(MudrodConstants.LINKAGE_GRAPH_PATH);
+    if (StringUtils.isBlank(path)) {
+      LOG.info("No linkage graph path configured, skipping linkage graph export.");
+      return null;
+    }
+
+    LOG.info("Starting linkage graph export...");
+    startTime = System.currentTimeMillis();
+
+    Map<String, List<LinkageTriple>> triples = new LinkedHashMap<>();
+    triples.put(MudrodConstants.USER_HISTORY_LINKAGE_TYPE, readKeywordTriples(MudrodConstants.USER_HISTORY_LINKAGE_TYPE));
+    triples.put(MudrodConstants.CLICK_STREAM_LINKAGE_TYPE, readKeywordTriples(MudrodConstants.CLICK_STREAM_LINKAGE_TYPE));
+    triples.put(MudrodConstants.METADATA_LINKAGE_TYPE, readKeywordTriples(MudrodConstants.METADATA_LINKAGE_TYPE));
+    triples.put(MudrodConstants.ONTOLOGY_LINKAGE_TYPE, readConceptTriples(MudrodConstants.ONTOLOGY_LINKAGE_TYPE));
+
+    try {
+      LinkageGraph.write(new File(path), triples);
+    } catch (IOException e) {
+      LOG.error("Error writing linkage graph to {}", path, e);
+    }
+
+    endTime = System.currentTimeMillis();
+    LOG.info("Finished linkage graph export. Time elapsed: {}s", (endTime - startTime) / 1000);
+    return null;
+  }
+
+  @Override
+  public Object execute(Object o) {
+    return null;
+  }
+
+  /**
+   * Read a linkage type whose documents store both terms in a comma separated
+   * "keywords" field. Such linkages are symmetric, so both directions are kept.
+   */
+  private List<LinkageTriple> readKeywordTriples(String type) {
+    List<LinkageTriple> triples = new ArrayList<>();
+    for (Map<String, Object> source : scrollType(type)) {
+      String[] keywords = ((String) source.get("keywords")).split(",");
+      if (keywords.length < 2) {
+        continue;
+      }
+      double weight = ((Number) source.get("weight")).doubleValue();
+      triples.add(newTriple(keywords[0], keywords[1], weight));
+      triples.add(newTriple(keywords[1], keywords[0], weight));
+    }
+    return triples;
+  }
+
+  /**
+   * Read a linkage type whose documents store a directed concept_A to
+   * concept_B relation.
+   */
+  private List<LinkageTriple> readConceptTriples(String type) {
+    List<LinkageTriple> triples = new ArrayList<>();
+    for (Map<String, Object> source : scrollType(type)) {
+      double weight = ((Number) source.get("weight")).doubleValue();
+      triples.add(newTriple((String) source.get("concept_A"), (String) source.get("concept_B"), weight));
+    }
+    return triples;
+  }
+
+  private List<Map<String, Object>> scrollType(String type) {
+    List<Map<String, Object>> sources = new ArrayList<>();
+    SearchResponse scrollResp = es.getClient().prepareSearch(es.resolveIndex(props.getProperty(MudrodConstants.ES_INDEX_NAME), type)).setTypes(type).setScroll(new TimeValue(60000))
+        .setQuery(QueryBuilders.matchAllQuery()).setSize(1000).execute().actionGet();
+    while (scrollResp.getHits().getHits().length != 0) {
+      for (SearchHit hit : scrollResp.getHits().getHits()) {
+        sources.add(hit.getSource());
+      }
+      scrollResp = es.getClient().prepareSearchScroll(scrollResp.getScrollId()).setScroll(new TimeValue(600000)).execute().actionGet();
+    }
+    LOG.info("Read {} linkage documents from {}", sources.size(), type);
+    return sources;
+  }
+
+  private LinkageTriple newTriple(String keyA, String keyB, double weight) {
+    LinkageTriple triple = new LinkageTriple();
+    triple.keyA = keyA;
+    triple.keyB = keyB;
+    triple.weight = weight;
+    return triple;
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.integration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current {@link LinkageGraph} and swaps in a new one when the
+ * pipeline replaces the graph file on disk.
+ */
+public class LinkageGraphStore {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LinkageGraphStore.class);
+
+  private final File file;
+  private final AtomicReference<LinkageGraph> current = new AtomicReference<>();
+  private volatile long loadedModified = -1;
+  private ScheduledExecutorService watcher = null;
+
+  public LinkageGraphStore(File file) {
+    this.file = file;
+    reload();
+  }
+
+  /**
+   * @return the most recently loaded graph, or null if no graph has been loaded
+   */
+  public LinkageGraph get() {
+    return current.get();
+  }
+
+  /**
+   * Method of loading the graph file if it has changed since the last load
+   *
+   * @return true if a new graph was swapped in
+   */
+  public synchronized boolean reload() {
+    long modified = file.lastModified();
+    if (modified == 0L || modified == loadedModified) {
+      return false;
+    }
+
+    try {
+      LinkageGraph graph = LinkageGraph.open(file);
+      current.set(graph);
+      loadedModified = modified;
+      LOG.info("Loaded linkage graph {} with {} terms.", file.getAbsolutePath(), graph.getTermCount());
+      return true;
+    } catch (IOException e) {
+      LOG.error("Error loading linkage graph {}, keeping the previous version.", file.getAbsolutePath(), e);
+      return false;
+    }
+  }
+
+  /**
+   * Start checking the graph file for a new version in the background
+   *
+   * @param intervalSeconds seconds between checks
+   */
+  public synchronized void start(long intervalSeconds) {
+    if (watcher != null || intervalSeconds <= 0) {
+      return;
+    }
+    watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "linkage-graph-watcher");
+      t.setDaemon(true);
+      return t;
+    });
+    watcher.scheduleWithFixedDelay(this::reload, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  public synchronized void close() {
+    if (watcher != null) {
+      watcher.shutdownNow();
+      watcher = null;
+    }
+  }
+}
@@ -21,6 +21,8 @@ import org.apache.sdap.mudrod.discoveryengine.DiscoveryStepAbstract;
 import org.apache.sdap.mudrod.driver.ESDriver;
 import org.apache.sdap.mudrod.driver.SparkDriver;
 import org.apache.sdap.mudrod.main.MudrodConstants;
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
@@ -28,7 +30,6 @@ import org.elasticsearch.search.sort.SortOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.text.DecimalFormat;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ExecutionException;
@@ -36,13 +37,17 @@ import java.util.stream.Collectors;
 
 /**
  * Supports ability to integrate vocab similarity results from metadata, ontology, and web logs.
+ * Instances hold no per-request state and can be shared across threads.
  */
 public class LinkageIntegration extends DiscoveryStepAbstract {
 
   private static final Logger LOG = LoggerFactory.getLogger(LinkageIntegration.class);
   private static final long serialVersionUID = 1L;
-  transient List<LinkedTerm> termList = new ArrayList<>();
-  DecimalFormat df = new DecimalFormat("#.00");
+  private static final String[] LINKAGE_MODELS = { MudrodConstants.USER_HISTORY_LINKAGE_TYPE, MudrodConstants.CLICK_STREAM_LINKAGE_TYPE, MudrodConstants.METADATA_LINKAGE_TYPE,
+      MudrodConstants.ONTOLOGY_LINKAGE_TYPE };
+  // related terms read from each model, not counting the input term itself
+  private static final int RELATED_TERM_SIZE = 10;
+  private transient LinkageGraphStore graphStore = null;
   private static final String INDEX_NAME = MudrodConstants.ES_INDEX_NAME;
   private static final String WEIGHT = "weight";
 
@@ -53,7 +58,7 @@ public class LinkageIntegration extends DiscoveryStepAbstract {
   /**
    * The data structure to store semantic triple.
    */
-  class LinkedTerm {
+  static class LinkedTerm {
     String term = null;
     double weight = 0;
     String model = null;
@@ -87,7 +92,6 @@ public class LinkageIntegration extends DiscoveryStepAbstract {
    * similarity to the input query
    */
   public Map<String, Double> appyMajorRule(String input) {
-    termList = new ArrayList<>();
     Map<String, Double> termsMap = new HashMap<>();
     Map<String, List<LinkedTerm>> map = new HashMap<>();
     try {
@@ -113,7 +117,7 @@ public class LinkageIntegration extends DiscoveryStepAbstract {
       if (finalWeight < 0) finalWeight = 0;
       if (finalWeight > 1) finalWeight = 1;
       
-      termsMap.put(entry.getKey(), Double.parseDouble(df.format(finalWeight)));
+      termsMap.put(entry.getKey(), Math.round(finalWeight * 100) / 100.0);
     }
 
     return sortMapByValue(termsMap);
@@ -164,21 +168,62 @@ public class LinkageIntegration extends DiscoveryStepAbstract {
   }
 
   /**
-   * Method of aggregating terms from web logs, metadata, and ontology
+   * Method of aggregating terms from web logs, metadata, and ontology. Models
+   * present in the memory-mapped linkage graph are read locally; the rest are
+   * looked up in Elasticsearch concurrently, so the cost is bounded by the
+   * slowest query rather than their sum.
    *
    * @param input query string
    * @return a hash map where the string is a related term, and the list is
    * the similarities from different sources
    */
   public Map<String, List<LinkedTerm>> aggregateRelatedTermsFromAllmodel(String input) {
-    aggregateRelatedTerms(input, MudrodConstants.USER_HISTORY_LINKAGE_TYPE);
-    aggregateRelatedTerms(input, MudrodConstants.CLICK_STREAM_LINKAGE_TYPE);
-    aggregateRelatedTerms(input, MudrodConstants.METADATA_LINKAGE_TYPE);
-    aggregateRelatedTermsSWEET(input, MudrodConstants.ONTOLOGY_LINKAGE_TYPE);
+    LinkageGraph graph = graphStore == null ? null : graphStore.get();
+    Map<String, ListenableActionFuture<SearchResponse>> pending = new LinkedHashMap<>();
+    List<String> localModels = new ArrayList<>();
+    for (String model : LINKAGE_MODELS) {
+      if (graph != null && graph.hasModel(model)) {
+        localModels.add(model);
+      } else if (MudrodConstants.ONTOLOGY_LINKAGE_TYPE.equals(model)) {
+        pending.put(model, prepareRelatedTermsSWEETSearch(input, model).execute());
+      } else {
+        pending.put(model, prepareRelatedTermsSearch(input, model).execute());
+      }
+    }
+
+    List<LinkedTerm> termList = new ArrayList<>();
+    for (String model : localModels) {
+      int count = 0;
+      for (Entry<String, Double> entry : graph.getRelatedTerms(input, model, RELATED_TERM_SIZE + 1).entrySet()) {
+        if (!entry.getKey().equals(input) && count < RELATED_TERM_SIZE) {
+          termList.add(new LinkedTerm(entry.getKey(), entry.getValue(), model));
+          count++;
+        }
+      }
+    }
+
+    for (Entry<String, ListenableActionFuture<SearchResponse>> entry : pending.entrySet()) {
+      String model = entry.getKey();
+      if (MudrodConstants.ONTOLOGY_LINKAGE_TYPE.equals(model)) {
+        termList.addAll(extractRelatedTermsSWEET(entry.getValue().actionGet(), input, model));
+      } else {
+        termList.addAll(extractRelatedTerms(entry.getValue().actionGet(), input, model));
+      }
+    }
 
     return termList.stream().collect(Collectors.groupingBy(w -> w.term));
   }
 
+  /**
+   * Set the linkage graph store used to answer related term lookups locally.
+   * Lookups fall back to Elasticsearch when the store holds no graph.
+   *
+   * @param graphStore a linkage graph store, or null to always use Elasticsearch
+   */
+  public void setLinkageGraphStore(LinkageGraphStore graphStore) {
+    this.graphStore = graphStore;
+  }
+
   public int getModelweight(String model) {
     if (model.equals(MudrodConstants.USER_HISTORY_LINKAGE_TYPE)) {
       return Integer.parseInt(props.getProperty(MudrodConstants.USER_HISTORY_W));
@@ -215,45 +260,72 @@ public class LinkageIntegration extends DiscoveryStepAbstract {
     }
   }
 
-  public void aggregateRelatedTerms(String input, String model) {
-    //get the first 10 related terms
-    SearchResponse usrhis = es.getClient().prepareSearch(props.getProperty(INDEX_NAME)).setTypes(model).setQuery(QueryBuilders.termQuery("keywords", input)).addSort(WEIGHT, SortOrder.DESC).setSize(11)
-        .execute().actionGet();
+  /**
+   * Method of querying related terms from a web log or metadata linkage type
+   *
+   * @param input input query
+   * @param model source name
+   * @return a list of related terms
+   */
+  public List<LinkedTerm> aggregateRelatedTerms(String input, String model) {
+    SearchResponse usrhis = prepareRelatedTermsSearch(input, model).execute().actionGet();
+    return extractRelatedTerms(usrhis, input, model);
+  }
+
+  /**
+   * Method of querying related terms from ontology
+   *
+   * @param input input query
+   * @param model source name
+   * @return a list of related terms
+   */
+  public List<LinkedTerm> aggregateRelatedTermsSWEET(String input, String model) {
+    SearchResponse usrhis = prepareRelatedTermsSWEETSearch(input, model).execute().actionGet();
+    return extractRelatedTermsSWEET(usrhis, input, model);
+  }
 
+  // one more hit than the related terms, as the input term may be related to itself
+  private SearchRequestBuilder prepareRelatedTermsSearch(String input, String model) {
+    return es.getClient().prepareSearch(es.resolveIndex(props.getProperty(INDEX_NAME), model)).setTypes(model).setQuery(QueryBuilders.termQuery("keywords", input)).addSort(WEIGHT, SortOrder.DESC)
+        .setSize(RELATED_TERM_SIZE + 1);
+  }
+
+  private SearchRequestBuilder prepareRelatedTermsSWEETSearch(String input, String model) {
+    return es.getClient().prepareSearch(es.resolveIndex(props.getProperty(INDEX_NAME), model)).setTypes(model).setQuery(QueryBuilders.termQuery("concept_A", input)).addSort(WEIGHT, SortOrder.DESC)
+        .setSize(RELATED_TERM_SIZE + 1);
+  }
+
+  private List<LinkedTerm> extractRelatedTerms(SearchResponse usrhis, String input, String model) {
+    List<LinkedTerm> terms = new ArrayList<>();
     LOG.info("{} results", model);
     for (SearchHit hit : usrhis.getHits().getHits()) {
       Map<String, Object> result = hit.getSource();
       String keywords = (String) result.get("keywords");
       String relatedKey = extractRelated(keywords, input);
 
-      if (!relatedKey.equals(input)) {
+      if (!relatedKey.equals(input) && terms.size() < RELATED_TERM_SIZE) {
         LinkedTerm lTerm = new LinkedTerm(relatedKey, (double) result.get(WEIGHT), model);
         LOG.info("( {} {} )", relatedKey, (double) result.get(WEIGHT));
-        termList.add(lTerm);
+        terms.add(lTerm);
       }
 
     }
+    return terms;
   }
 
-  /**
-   * Method of querying related terms from ontology
-   *
-   * @param input input query
-   * @param model source name
-   */
-  public void aggregateRelatedTermsSWEET(String input, String model) {
-    SearchResponse usrhis = es.getClient().prepareSearch(props.getProperty(INDEX_NAME)).setTypes(model).setQuery(QueryBuilders.termQuery("concept_A", input)).addSort(WEIGHT, SortOrder.DESC)
-        .setSize(11).execute().actionGet();
+  private List<LinkedTerm> extractRelatedTermsSWEET(SearchResponse usrhis, String input, String model) {
+    List<LinkedTerm> terms = new ArrayList<>();
     LOG.info("{} results:", model);
     for (SearchHit hit : usrhis.getHits().getHits()) {
       Map<String, Object> result = hit.getSource();
       String conceptB = (String) result.get("concept_B");
-      if (!conceptB.equals(input)) {
+      if (!conceptB.equals(input) && terms.size() < RELATED_TERM_SIZE) {
         LinkedTerm lTerm = new LinkedTerm(conceptB, (double) result.get(WEIGHT), model);
         LOG.info("( {} {} )", conceptB, (double) result.get(WEIGHT));
-        termList.add(lTerm);
+        terms.add(lTerm);
       }
     }
+    return terms;
   }
 
   /**
@@ -48,6 +48,14 @@ public interface MudrodConstants {
 
   public static final String ES_INDEX_NAME = "mudrod.es.index";
 
+  public static final String INDEX_GENERATION_TYPE = "index.generation";
+
+  public static final String INDEX_GENERATION_CHECK_INTERVAL = "mudrod.index.generation.check.interval";
+
+  public static final String ES_METADATA_REFRESH_INTERVAL = "mudrod.es.metadata.refresh.interval";
+
+  public static final String ES_RETAINED_VERSIONS = "mudrod.es.retained.versions";
+
   public static final String FTP_PREFIX = "mudrod.ftp.prefix";
 
   public static final String FTP_TYPE = "raw.ftp";
@@ -68,6 +76,10 @@ public interface MudrodConstants {
 
   public static final String LOG_INDEX = "mudrod.log.index";
 
+  public static final String LINKAGE_GRAPH_PATH = "mudrod.linkage.graph.path";
+
+  public static final String LINKAGE_GRAPH_REFRESH_INTERVAL = "mudrod.linkage.graph.refresh.interval";
+
   public static final String METADATA_LINKAGE_TYPE = "metadata.linkage";
 
   public static final String METADATA_DOWNLOAD_URL = "mudrod.metadata.download.url";
@@ -97,6 +109,8 @@ public interface MudrodConstants {
 
   public static final String ONTOLOGY_INPUT_PATH = "mudrod.ontology.input.path";
 
+  public static final String ONTOLOGY_SNAPSHOT_PATH = "mudrod.ontology.snapshot.path";
+
   /** Defined on CLI */
   public static final String METADATA_DOWNLOAD = "mudrod.metadata.download";
 
@@ -118,6 +132,12 @@ public interface MudrodConstants {
 
   public static final String METADATA_FEATURE_SIM_TYPE = "metadata.feature.sim";
 
+  public static final String RECOM_NEIGHBOR_SIZE = "mudrod.recom.neighbor.size";
+
+  public static final String RECOM_MIN_SIMILARITY = "mudrod.recom.min.similarity";
+
+  public static final String RECOM_STORE_PATH = "mudrod.recom.store.path";
+
   public static final String METADATA_SESSION_SIM_TYPE = "metadata.session.sim";
 
   public static final String METADATA_TERM_MATRIX_PATH = "metadata.term.matrix.path";
@@ -126,6 +146,20 @@ public interface MudrodConstants {
 
   public static final String METADATA_SESSION_MATRIX_PATH = "metadata.session.matrix.path";
 
+  public static final String MATRIX_COMPRESS = "mudrod.matrix.compress";
+
+  public static final String MATRIX_CSV_EXPORT = "mudrod.matrix.csv.export";
+
+  public static final String MATRIX_LOCAL_MAX_CELLS = "mudrod.matrix.local.max.cells";
+
+  public static final String MATRIX_INCREMENTAL = "mudrod.matrix.incremental";
+
+  public static final String SVD_METHOD = "mudrod.svd.method";
+
+  public static final String SVD_OVERSAMPLING = "mudrod.svd.oversampling";
+
+  public static final String SVD_POWER_ITERATIONS = "mudrod.svd.power.iterations";
+
   public static final String REQUEST_RATE = "mudrod.request.rate";
 
   public static final String SESSION_PORT = "mudrod.session.port";
@@ -134,14 +168,32 @@ public interface MudrodConstants {
 
   public static final String SESSION_URL = "mudrod.session.url";
 
+  public static final String SIMILARITY_THRESHOLD = "mudrod.similarity.threshold";
+
+  public static final String SIMILARITY_LSH_BANDS = "mudrod.similarity.lsh.bands";
+
+  public static final String SIMILARITY_LSH_ROWS = "mudrod.similarity.lsh.rows";
+
+  public static final String SIMILARITY_MIN_WEIGHT = "mudrod.similarity.min.weight";
+
+  public static final String SIMILARITY_TOP_K = "mudrod.similarity.top.k";
+
+  public static final String SIMILARITY_NORMALIZE = "mudrod.similarity.normalize";
+
   public static final String SPARK_APP_NAME = "mudrod.spark.app.name";
 
   public static final String SPARK_MASTER = "mudrod.spark.master";
 
+  public static final String SPARK_STORAGE_LEVEL = "mudrod.spark.storage.level";
+
   public static final String RANKING_MODEL = "mudrod.ranking.model";
 
   public static final String RANKING_ML = "mudrod.ranking.machine.learning";
 
+  public static final String RANKING_WINDOW = "mudrod.ranking.window";
+
+  public static final String RANKING_WINDOW_TTL = "mudrod.ranking.window.ttl";
+
   public static final String REQUEST_TIME_GAP = "mudrod.request.time.gap";
 
   public static final String TIME_SUFFIX = "time.suffix";
@@ -160,6 +212,16 @@ public interface MudrodConstants {
 
   public static final String SEARCH_F = "mudrod.search.freq";
 
+  public static final String SEARCH_CACHE_SIZE = "mudrod.search.cache.size.mb";
+
+  public static final String SEARCH_CACHE_TTL = "mudrod.search.cache.ttl";
+
+  public static final String SEARCH_MAX_RESULT_WINDOW = "mudrod.search.max.result.window";
+
+  public static final String REQUEST_COALESCING = "mudrod.request.coalescing";
+
+  public static final String AUTOCOMPLETE_REFRESH_INTERVAL = "mudrod.autocomplete.refresh.interval";
+
   public static final String DOWNLOAD_F = "mudrod.download.freq";
 
 }
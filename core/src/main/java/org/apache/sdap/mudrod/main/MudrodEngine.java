@@ -19,6 +19,7 @@ import org.apache.commons.cli.GnuParser;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.OptionGroup;
 import org.apache.commons.cli.Options;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
@@ -29,6 +30,7 @@ import org.apache.sdap.mudrod.discoveryengine.RecommendEngine;
 import org.apache.sdap.mudrod.discoveryengine.WeblogDiscoveryEngine;
 import org.apache.sdap.mudrod.driver.ESDriver;
 import org.apache.sdap.mudrod.driver.SparkDriver;
+import org.apache.sdap.mudrod.integration.LinkageGraphBuilder;
 import org.apache.sdap.mudrod.integration.LinkageIntegration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -66,6 +68,7 @@ public class MudrodEngine {
   private static final String ES_HOST = "esHost";
   private static final String ES_TCP_PORT = "esTCPPort";
   private static final String ES_HTTP_PORT = "esPort";
+  private static final String ROLLBACK = "rollback";
 
   /**
    * Public constructor for this class.
@@ -218,6 +221,9 @@ public class MudrodEngine {
     DiscoveryEngineAbstract wd = new WeblogDiscoveryEngine(props, es, spark);
     wd.preprocess();
     wd.process();
+
+    LinkageGraphBuilder graph = new LinkageGraphBuilder(props, es, spark);
+    graph.execute();
     LOG.info("Logs have been ingested successfully");
   }
 
@@ -232,6 +238,9 @@ public class MudrodEngine {
     DiscoveryEngineAbstract recom = new RecommendEngine(props, es, spark);
     recom.preprocess();
     recom.process();
+
+    LinkageGraphBuilder graph = new LinkageGraphBuilder(props, es, spark);
+    graph.execute();
     LOG.info("Metadata has been ingested successfully.");
   }
 
@@ -247,6 +256,9 @@ public class MudrodEngine {
     DiscoveryEngineAbstract recom = new RecommendEngine(props, es, spark);
     recom.preprocess();
     recom.process();
+
+    LinkageGraphBuilder graph = new LinkageGraphBuilder(props, es, spark);
+    graph.execute();
     LOG.info("Full ingest has finished successfully.");
   }
 
@@ -266,6 +278,9 @@ public class MudrodEngine {
     md.preprocess();
     md.process();
 
+    LinkageGraphBuilder graph = new LinkageGraphBuilder(props, es, spark);
+    graph.execute();
+
     LinkageIntegration li = new LinkageIntegration(props, es, spark);
     li.execute();
 
@@ -305,7 +320,15 @@ public class MudrodEngine {
 
     // argument options
     Option dataDirOpt = OptionBuilder.hasArg(true).withArgName("/path/to/data/directory").hasArgs(1).withDescription("the data directory to be processed by Mudrod").withLongOpt("dataDirectory")
-        .isRequired().create(DATA_DIR);
+        .create(DATA_DIR);
+
+    // rollback of a rebuilt linkage or similarity type, instead of processing a data directory
+    Option rollbackOpt = OptionBuilder.hasArg(true).withArgName("type_name").hasArgs(1).withDescription("search the previous version of a rebuilt Elasticsearch type again")
+        .withLongOpt("rollbackType").create(ROLLBACK);
+    OptionGroup targetGroup = new OptionGroup();
+    targetGroup.addOption(dataDirOpt);
+    targetGroup.addOption(rollbackOpt);
+    targetGroup.setRequired(true);
 
     Option esHostOpt = OptionBuilder.hasArg(true).withArgName("host_name").hasArgs(1).withDescription("elasticsearch cluster unicast host").withLongOpt("elasticSearchHost").isRequired(false)
         .create(ES_HOST);
@@ -323,7 +346,7 @@ public class MudrodEngine {
     options.addOption(metaIngestOpt);
     options.addOption(fullIngestOpt);
     options.addOption(processingOpt);
-    options.addOption(dataDirOpt);
+    options.addOptionGroup(targetGroup);
     options.addOption(esHostOpt);
     options.addOption(esTCPPortOpt);
     options.addOption(esPortOpt);
@@ -343,14 +366,8 @@ public class MudrodEngine {
         processingType = FULL_INGEST;
       }
 
-      String dataDir = line.getOptionValue(DATA_DIR).replace("\\", "/");
-      if (!dataDir.endsWith("/")) {
-        dataDir += "/";
-      }
-
       MudrodEngine me = new MudrodEngine();
       me.loadConfig();
-      me.props.put(DATA_DIR, dataDir);
 
       if (line.hasOption(ES_HOST)) {
         String esHost = line.getOptionValue(ES_HOST);
@@ -368,6 +385,22 @@ public class MudrodEngine {
       }
 
       me.es = new ESDriver(me.getConfig());
+      if (line.hasOption(ROLLBACK)) {
+        String type = line.getOptionValue(ROLLBACK);
+        try {
+          me.es.rollbackVersion(me.props.getProperty(MudrodConstants.ES_INDEX_NAME), type);
+        } catch (IllegalStateException e) {
+          LOG.error("Error rolling back type {}", type, e);
+        }
+        me.end();
+        return;
+      }
+
+      String dataDir = line.getOptionValue(DATA_DIR).replace("\\", "/");
+      if (!dataDir.endsWith("/")) {
+        dataDir += "/";
+      }
+      me.props.put(DATA_DIR, dataDir);
       me.spark = new SparkDriver(me.getConfig());
       loadPathConfig(me, dataDir);
       if (processingType != null) {
@@ -391,7 +424,7 @@ public class MudrodEngine {
       me.end();
     } catch (Exception e) {
       HelpFormatter formatter = new HelpFormatter();
-      formatter.printHelp("MudrodEngine: 'dataDir' argument is mandatory. " + "User must also provide an ingest method.", new Options());
+      formatter.printHelp("MudrodEngine: 'dataDir' or 'rollback' argument is mandatory. " + "With 'dataDir', user must also provide an ingest method.", new Options());
       LOG.error("Error whilst parsing command line.", e);
     }
   }
@@ -399,16 +432,42 @@ public class MudrodEngine {
   private static void loadPathConfig(MudrodEngine me, String dataDir) {
     me.props.put(MudrodConstants.ONTOLOGY_INPUT_PATH, dataDir + "SWEET_ocean/");
     me.props.put(MudrodConstants.ONTOLOGY_PATH, dataDir + "ocean_triples.csv");
-    me.props.put(MudrodConstants.USER_HISTORY_PATH, dataDir + "userhistorymatrix.csv");
-    me.props.put(MudrodConstants.CLICKSTREAM_PATH, dataDir + "clickstreammatrix.csv");
-    me.props.put(MudrodConstants.METADATA_MATRIX_PATH, dataDir + "metadatamatrix.csv");
-    me.props.put(MudrodConstants.CLICKSTREAM_SVD_PATH, dataDir + "clickstreamsvdmatrix_tmp.csv");
-    me.props.put(MudrodConstants.METADATA_SVD_PATH, dataDir + "metadatasvdMatrix_tmp.csv");
+    me.props.put(MudrodConstants.USER_HISTORY_PATH, dataDir + "userhistorymatrix");
+    me.props.put(MudrodConstants.CLICKSTREAM_PATH, dataDir + "clickstreammatrix");
+    me.props.put(MudrodConstants.METADATA_MATRIX_PATH, dataDir + "metadatamatrix");
+    me.props.put(MudrodConstants.CLICKSTREAM_SVD_PATH, dataDir + "clickstreamsvdmatrix_tmp");
+    me.props.put(MudrodConstants.METADATA_SVD_PATH, dataDir + "metadatasvdMatrix_tmp");
     me.props.put(MudrodConstants.RAW_METADATA_PATH, dataDir + me.props.getProperty(MudrodConstants.RAW_METADATA_TYPE));
 
-    me.props.put(MudrodConstants.METADATA_TERM_MATRIX_PATH, dataDir + "metadata_term_tfidf.csv");
-    me.props.put(MudrodConstants.METADATA_WORD_MATRIX_PATH, dataDir + "metadata_word_tfidf.csv");
-    me.props.put(MudrodConstants.METADATA_SESSION_MATRIX_PATH, dataDir + "metadata_session_coocurrence_matrix.csv");
+    me.props.put(MudrodConstants.METADATA_TERM_MATRIX_PATH, dataDir + "metadata_term_tfidf");
+    me.props.put(MudrodConstants.METADATA_WORD_MATRIX_PATH, dataDir + "metadata_word_tfidf");
+    me.props.put(MudrodConstants.METADATA_SESSION_MATRIX_PATH, dataDir + "metadata_session_coocurrence_matrix");
+
+    loadDataPathConfig(me.props, dataDir);
+  }
+
+  /**
+   * Method of defaulting the paths of the files written by the pipeline and
+   * read by the service to files in the data directory, unless they are
+   * configured.
+   *
+   * @param props   configuration
+   * @param dataDir data directory, ignored when blank
+   */
+  public static void loadDataPathConfig(Properties props, String dataDir) {
+    if (StringUtils.isBlank(dataDir)) {
+      return;
+    }
+    String dir = dataDir.endsWith("/") ? dataDir : dataDir + "/";
+    if (StringUtils.isBlank(props.getProperty(MudrodConstants.LINKAGE_GRAPH_PATH))) {
+      props.put(MudrodConstants.LINKAGE_GRAPH_PATH, dir + "linkage_graph.bin");
+    }
+    if (StringUtils.isBlank(props.getProperty(MudrodConstants.RECOM_STORE_PATH))) {
+      props.put(MudrodConstants.RECOM_STORE_PATH, dir + "recommendation_store.bin");
+    }
+    if (StringUtils.isBlank(props.getProperty(MudrodConstants.ONTOLOGY_SNAPSHOT_PATH))) {
+      props.put(MudrodConstants.ONTOLOGY_SNAPSHOT_PATH, dir + "sweetAll.snapshot");
+    }
   }
 
   /**
@@ -65,6 +65,7 @@ public class ApiHarvester extends DiscoveryStepAbstract {
     es.destroyBulkProcessor();
     endTime = System.currentTimeMillis();
     es.refreshIndex();
+    es.bumpIndexGeneration(props.getProperty(MudrodConstants.ES_INDEX_NAME));
     LOG.info("Metadata harvesting completed. Time elapsed: {}", (endTime - startTime) / 1000);
     return null;
   }
@@ -71,7 +71,8 @@ public class MatrixGenerator extends DiscoveryStepAbstract {
                       props.getProperty(MudrodConstants.ES_INDEX_NAME),
                       props.getProperty(MudrodConstants.RAW_METADATA_TYPE));
       LabeledRowMatrix wordDocMatrix = MatrixUtil.createWordDocMatrix(metadataTermsRDD);
-      MatrixUtil.exportToCSV(wordDocMatrix.rowMatrix, wordDocMatrix.rowkeys, wordDocMatrix.colkeys, metadataMatrixFile);
+      MatrixUtil.exportMatrix(wordDocMatrix.rowMatrix, wordDocMatrix.rowkeys, wordDocMatrix.colkeys, metadataMatrixFile, props);
+      wordDocMatrix.unpersist();
 
     } catch (Exception e) {
       LOG.error("Error during Metadata matrix generaion: {}", e);
@@ -19,11 +19,11 @@ import org.apache.sdap.mudrod.driver.SparkDriver;
 import org.apache.sdap.mudrod.main.MudrodConstants;
 import org.apache.sdap.mudrod.semantics.SVDAnalyzer;
 import org.apache.sdap.mudrod.utils.LinkageTriple;
+import org.apache.spark.api.java.JavaRDD;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
-import java.util.List;
 import java.util.Properties;
 
 /**
@@ -72,9 +72,9 @@ public class MetadataAnalyzer extends DiscoveryStepAbstract implements Serializa
       String svdMatrixFileName = props.getProperty(MudrodConstants.METADATA_SVD_PATH);
 
       analyzer.getSVDMatrix(metadataMatrixFile, svdDimension, svdMatrixFileName);
-      List<LinkageTriple> triples = analyzer.calTermSimfromMatrix(svdMatrixFileName);
+      JavaRDD<LinkageTriple> triples = analyzer.calTermSimRDD(svdMatrixFileName, 1);
 
-      analyzer.saveToES(triples, props.getProperty(MudrodConstants.ES_INDEX_NAME), MudrodConstants.METADATA_LINKAGE_TYPE);
+      analyzer.saveToES(triples, props.getProperty(MudrodConstants.ES_INDEX_NAME), MudrodConstants.METADATA_LINKAGE_TYPE, false, false);
 
     } catch (Exception e) {
       e.printStackTrace();
@@ -13,6 +13,7 @@
  */
 package org.apache.sdap.mudrod.ontology;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.sdap.mudrod.main.MudrodConstants;
 import org.apache.sdap.mudrod.ontology.process.EsipCOROntology;
 import org.apache.sdap.mudrod.ontology.process.EsipPortalOntology;
@@ -74,7 +75,7 @@ public class OntologyFactory {
       ontImpl = new EsipPortalOntology();
       break;
     default:
-      ontImpl = new LocalOntology();
+      ontImpl = new LocalOntology(StringUtils.trimToNull(props.getProperty(MudrodConstants.ONTOLOGY_SNAPSHOT_PATH)));
       break;
     }
     return ontImpl;
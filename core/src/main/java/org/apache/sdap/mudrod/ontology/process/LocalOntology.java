@@ -28,11 +28,16 @@ import org.apache.sdap.mudrod.ontology.Ontology;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -43,6 +48,9 @@ import java.util.Map;
  * which are cached locally and available on the runtime classpath e.g.
  * in <code>src/main/resource/ontology/...</code>.
  * From here we can test and iterate on how use of ontology can enhance search.
+ * Synonyms and subclasses are looked up in an {@link OntologySnapshot}, read
+ * from disk or from the classpath when one is available, and otherwise
+ * extracted from the ontology read with Jena.
  */
 public class LocalOntology implements Ontology {
 
@@ -50,15 +58,39 @@ public class LocalOntology implements Ontology {
 
   public static final String DELIMITER_SEARCHTERM = " ";
 
-  private Map<Object, Object> searchTerms = new HashMap<>();
+  public static final String SWEET_URL = "http://sweetontology.net/sweetAll";
+
+  /**
+   * Classpath location of the snapshot of the SWEET ontology, see
+   * {@link OntologySnapshot#main(String[])}
+   */
+  public static final String SNAPSHOT_RESOURCE = "ontology/sweetAll.snapshot";
+
+  private Map<String, Map<OntResource, String>> searchTerms = new HashMap<>();
   private static OntologyParser parser;
   private static OntModel ontologyModel;
   private Ontology ontology;
   private static Map<AnonId, String> mAnonIDs = new HashMap<>();
   private static int mAnonCount = 0;
   private List<String> ontArrayList;
+  private String snapshotPath;
+  private OntologySnapshot snapshot;
 
   public LocalOntology() {
+    this(null);
+  }
+
+  /**
+   * @param snapshotPath file of the ontology snapshot, read if it exists, and
+   *                     written once the ontology has been read with Jena
+   *                     otherwise. Null to only look for the snapshot on the
+   *                     classpath.
+   */
+  public LocalOntology(String snapshotPath) {
+    this(snapshotPath, true);
+  }
+
+  LocalOntology(String snapshotPath, boolean load) {
     //only initialize all the static variables
     //if first time called to this ontology constructor
     if (ontology == null) {
@@ -68,9 +100,10 @@ public class LocalOntology implements Ontology {
       parser = new OwlParser();
       ontology = this;
     }
-    if (ontologyModel == null)
-      ontologyModel = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM, null);
-    load();
+    this.snapshotPath = snapshotPath;
+    if (load) {
+      load();
+    }
   }
 
   /**
@@ -87,15 +120,20 @@ public class LocalOntology implements Ontology {
   }
 
   /**
-   * Load the default <i>sweetAll.owl</i> ontology
+   * Load the default <i>sweetAll.owl</i> ontology, from its snapshot if one
+   * is found on disk or on the classpath, otherwise
    * from <a href="http://sweetontology.net/sweetAll">
-   * http://sweetontology.net/sweetAll</a>
+   * http://sweetontology.net/sweetAll</a>, in which case the snapshot is
+   * written for the next start.
    */
   @Override
   public void load() {
+    if (loadSnapshot()) {
+      return;
+    }
     URL ontURL = null;
     try {
-      ontURL = new URL("http://sweetontology.net/sweetAll");
+      ontURL = new URL(SWEET_URL);
       //ontURL = new URL("https://raw.githubusercontent.com/ESIPFed/sweet/master/2.4/reprDataProduct.owl");
     } catch (MalformedURLException e) {
       LOG.error("Error when attempting to create URL resource: ", e);
@@ -111,13 +149,47 @@ public class LocalOntology implements Ontology {
     if (!ontArrayList.isEmpty()) {
       load(ontArrayList.toArray(new String[0]));
     }
+    if (snapshotPath != null && snapshot != null && snapshot.size() > 0) {
+      try {
+        snapshot.write(new File(snapshotPath));
+        LOG.info("Wrote the ontology snapshot {}", snapshotPath);
+      } catch (IOException e) {
+        LOG.error("Error writing the ontology snapshot {}", snapshotPath, e);
+      }
+    }
+  }
+
+  private boolean loadSnapshot() {
+    if (snapshotPath != null && new File(snapshotPath).isFile()) {
+      try (InputStream in = new FileInputStream(snapshotPath)) {
+        snapshot = OntologySnapshot.read(in);
+        LOG.info("Loaded {} ontology search terms from {}", snapshot.size(), snapshotPath);
+        return true;
+      } catch (IOException e) {
+        LOG.warn("Error reading the ontology snapshot {}, reading the ontology instead", snapshotPath, e);
+      }
+    }
+    try (InputStream in = getClass().getClassLoader().getResourceAsStream(SNAPSHOT_RESOURCE)) {
+      if (in != null) {
+        snapshot = OntologySnapshot.read(in);
+        LOG.info("Loaded {} ontology search terms from the classpath", snapshot.size());
+        return true;
+      }
+    } catch (IOException e) {
+      LOG.warn("Error reading the ontology snapshot {} from the classpath, reading the ontology instead", SNAPSHOT_RESOURCE, e);
+    }
+    return false;
   }
 
   /**
-   * Load a string array of local URIs which refernece .owl files.
+   * Load a string array of local URIs which refernece .owl files with Jena,
+   * replacing any snapshot loaded before.
    */
   @Override
   public void load(String[] urls) {
+    if (ontologyModel == null) {
+      ontologyModel = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM, null);
+    }
     for (String url1 : urls) {
       String url = url1.trim();
       if (!"".equals(url) && LOG.isInfoEnabled())
@@ -125,6 +197,7 @@ public class LocalOntology implements Ontology {
       load(ontologyModel, url);
     }
     parser.parse(ontology, ontologyModel);
+    snapshot = OntologySnapshot.fromSearchTerms(searchTerms);
   }
 
   private void load(Object m, String url) {
@@ -151,12 +224,21 @@ public class LocalOntology implements Ontology {
   /**
    * Return the {@link org.apache.jena.ontology.OntModel} instance
    * which created from input ontology resources.
-   * @return a constructed {@link org.apache.jena.ontology.OntModel}
+   * @return a constructed {@link org.apache.jena.ontology.OntModel}, or null
+   * if the ontology has only been loaded from its snapshot
    */
   public static OntModel getModel() {
     return ontologyModel;
   }
 
+  /**
+   * Return the snapshot answering synonym and subclass lookups.
+   * @return an {@link OntologySnapshot}, or null if nothing has been loaded
+   */
+  public OntologySnapshot getSnapshot() {
+    return snapshot;
+  }
+
   /**
    * Return the loaded Ontology resources.
    * @return a {@link java.util.List} of resources.
@@ -184,40 +266,10 @@ public class LocalOntology implements Ontology {
    */
   @Override
   public Iterator<String> subclasses(String entitySearchTerm) {
-    Map<OntResource, String> classMap = retrieve(entitySearchTerm);
-    Map<String, String> subclasses = new HashMap<>();
-
-    for (OntResource resource : classMap.keySet()) {
-      if (resource instanceof OntClass) {
-        //get subclasses N.B. we only get direct sub-classes e.g. direct children
-        //it is possible for us to navigate the entire class tree if we wish, we simply
-        //need to pass the .listSubClasses(true) boolean parameter.
-        for (Iterator<?> i = ((OntClass) resource).listSubClasses(); i.hasNext();) {
-          OntResource subclass = (OntResource) i.next();
-          for (Iterator<?> j = subclass.listLabels(null); j.hasNext();) {
-            Literal l = (Literal) j.next();
-            subclasses.put(l.toString(), "1");
-          }
-        }
-        //get individuals
-        for (Iterator<?> i = ((OntClass) resource).listInstances(); i.hasNext(); ) {
-          OntResource subclass = (OntResource) i.next();
-          for (Iterator<?> j = subclass.listLabels(null); j.hasNext();) {
-            Literal l = (Literal) j.next();
-            subclasses.put(l.toString(), "1");
-          }
-        }
-      } else if (resource instanceof Individual) {
-        for (Iterator<?> i = resource.listSameAs(); i.hasNext();) {
-          OntResource subclass = (OntResource) i.next();
-          for (Iterator<?> j = subclass.listLabels(null); j.hasNext();) {
-            Literal l = (Literal) j.next();
-            subclasses.put(l.toString(), "1");
-          }
-        }
-      }
+    if (snapshot == null) {
+      return Collections.emptyIterator();
     }
-    return subclasses.keySet().iterator();
+    return snapshot.subclasses(entitySearchTerm).iterator();
   }
 
   /**
@@ -229,46 +281,11 @@ public class LocalOntology implements Ontology {
    * or an empty if no synonyms exist for the given queryKeyPhrase.
    */
   @Override
-  public Iterator synonyms(String queryKeyPhrase) {
-
-    Map<?, ?> classMap = retrieve(queryKeyPhrase);
-
-    Map<Object, Object> synonyms = new HashMap<>();
-
-    Iterator<?> iter = classMap.keySet().iterator();
-    while (iter.hasNext()) {
-      OntResource resource = (OntResource) iter.next();
-
-      //listLabels
-      for (Iterator<?> i = resource.listLabels(null); i.hasNext();) {
-        Literal l = (Literal) i.next();
-        synonyms.put(l.toString(), "1");
-      }
-
-      if (resource instanceof Individual) {
-        //get all individuals same as this one
-        for (Iterator<?> i = resource.listSameAs(); i.hasNext();) {
-          Individual individual = (Individual) i.next();
-          //add labels
-          for (Iterator<?> j = individual.listLabels(null); j.hasNext();) {
-            Literal l = (Literal) i.next();
-            synonyms.put(l.toString(), "1");
-          }
-        }
-      } else if (resource instanceof OntClass) {
-        //list equivalent classes
-        for (Iterator<?> i = ((OntClass) resource).listEquivalentClasses(); i.hasNext();) {
-          OntClass equivClass = (OntClass) i.next();
-          //add labels
-          for (Iterator<?> j = equivClass.listLabels(null); j.hasNext();) {
-            Literal l = (Literal) j.next();
-            synonyms.put(l.toString(), "1");
-          }
-        }
-      }
+  public Iterator<String> synonyms(String queryKeyPhrase) {
+    if (snapshot == null) {
+      return Collections.emptyIterator();
     }
-
-    return synonyms.keySet().iterator();
+    return snapshot.synonyms(queryKeyPhrase).iterator();
   }
 
   public void addSearchTerm(String label, OntResource resource) {
@@ -292,8 +309,7 @@ public class LocalOntology implements Ontology {
    * matches.
    */
   public Map<OntResource, String> retrieve(String label) {
-    @SuppressWarnings("unchecked")
-    Map<OntResource, String> m = (Map<OntResource, String>) searchTerms.get(label.toLowerCase());
+    Map<OntResource, String> m = searchTerms.get(label.toLowerCase());
     if (m == null) {
       m = new HashMap<>();
     }
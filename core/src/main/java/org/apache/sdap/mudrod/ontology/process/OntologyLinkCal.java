@@ -19,7 +19,6 @@ import org.apache.sdap.mudrod.driver.SparkDriver;
 import org.apache.sdap.mudrod.main.MudrodConstants;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.common.xcontent.XContentBuilder;
-import org.elasticsearch.index.query.QueryBuilders;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
@@ -36,14 +35,14 @@ public class OntologyLinkCal extends DiscoveryStepAbstract {
 
   public OntologyLinkCal(Properties props, ESDriver es, SparkDriver spark) {
     super(props, es, spark);
-    es.deleteAllByQuery(props.getProperty(MudrodConstants.ES_INDEX_NAME), MudrodConstants.ONTOLOGY_LINKAGE_TYPE, QueryBuilders.matchAllQuery());
-    addSWEETMapping();
   }
 
   /**
    * Method of adding mapping for triples extracted from SWEET
+   *
+   * @param index index name
    */
-  public void addSWEETMapping() {
+  public void addSWEETMapping(String index) {
     XContentBuilder Mapping;
     try {
       Mapping = jsonBuilder().startObject().startObject(MudrodConstants.ONTOLOGY_LINKAGE_TYPE).startObject("properties").startObject("concept_A").field("type", "string")
@@ -51,7 +50,7 @@ public class OntologyLinkCal extends DiscoveryStepAbstract {
 
           .endObject().endObject().endObject();
 
-      es.getClient().admin().indices().preparePutMapping(props.getProperty(MudrodConstants.ES_INDEX_NAME))
+      es.getClient().admin().indices().preparePutMapping(index)
       .setType(MudrodConstants.ONTOLOGY_LINKAGE_TYPE).setSource(Mapping).execute().actionGet();
     } catch (IOException e) {
       e.printStackTrace();
@@ -59,12 +58,17 @@ public class OntologyLinkCal extends DiscoveryStepAbstract {
   }
 
   /**
-   * Method of calculating and importing SWEET triples into Elasticsearch
+   * Method of calculating and importing SWEET triples into Elasticsearch. The
+   * triples are written into a new version of the type, published only if
+   * they are all read.
    */
   @Override
   public Object execute() {
-    es.deleteType(props.getProperty(MudrodConstants.ES_INDEX_NAME), MudrodConstants.ONTOLOGY_LINKAGE_TYPE);
+    String index = props.getProperty(MudrodConstants.ES_INDEX_NAME);
+    String version = es.createVersion(index, MudrodConstants.ONTOLOGY_LINKAGE_TYPE);
+    addSWEETMapping(version);
     es.createBulkProcessor();
+    boolean complete = false;
 
     BufferedReader br = null;
     String line = "";
@@ -80,12 +84,13 @@ public class OntologyLinkCal extends DiscoveryStepAbstract {
           weight = 0.9;
         }
 
-        IndexRequest ir = new IndexRequest(props.getProperty(MudrodConstants.ES_INDEX_NAME), MudrodConstants.ONTOLOGY_LINKAGE_TYPE).source(
+        IndexRequest ir = new IndexRequest(version, MudrodConstants.ONTOLOGY_LINKAGE_TYPE).source(
             jsonBuilder().startObject().field("concept_A", es.customAnalyzing(props.getProperty(MudrodConstants.ES_INDEX_NAME), strList[2]))
                 .field("concept_B", es.customAnalyzing(props.getProperty(MudrodConstants.ES_INDEX_NAME), strList[0])).field("weight", weight).endObject());
         es.getBulkProcessor().add(ir);
 
       }
+      complete = true;
 
     } catch (IOException e) {
       e.printStackTrace();
@@ -98,12 +103,18 @@ public class OntologyLinkCal extends DiscoveryStepAbstract {
       if (br != null) {
         try {
           br.close();
-          es.destroyBulkProcessor();
-          es.refreshIndex();
         } catch (IOException e) {
           e.printStackTrace();
         }
       }
+      es.destroyBulkProcessor();
+    }
+
+    if (complete) {
+      es.publishVersion(index, MudrodConstants.ONTOLOGY_LINKAGE_TYPE, version);
+      es.bumpIndexGeneration(index);
+    } else {
+      es.discardVersion(version);
     }
     return null;
   }
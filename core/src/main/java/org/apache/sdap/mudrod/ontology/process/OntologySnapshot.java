@@ -0,0 +1,314 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.ontology.process;
+
+import org.apache.jena.ontology.Individual;
+import org.apache.jena.ontology.OntClass;
+import org.apache.jena.ontology.OntResource;
+import org.apache.jena.rdf.model.Literal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The part of a parsed ontology that {@link LocalOntology#synonyms(String)}
+ * and {@link LocalOntology#subclasses(String)} need: the search terms, and
+ * for each resource they name its labels, its narrower resources (the
+ * subclasses and instances of a class, the sameAs individuals of an
+ * individual) and its synonymous resources (the equivalent classes of a
+ * class, the sameAs individuals of an individual). It is written as a
+ * compact binary file, so it can be loaded in milliseconds instead of
+ * reading and parsing the OWL files with Jena.
+ *
+ * <p>The file is gzipped and holds, after a magic number and a version, the
+ * label table, then for each resource the ids of its labels, narrower and
+ * synonymous resources, then each search term with the ids of the resources
+ * it names.
+ */
+public class OntologySnapshot {
+
+  private static final Logger LOG = LoggerFactory.getLogger(OntologySnapshot.class);
+
+  private static final int MAGIC = 0x4D4F4E54;
+  private static final int VERSION = 1;
+
+  private final String[] labels;
+  private final int[][] resourceLabels;
+  private final int[][] narrower;
+  private final int[][] synonymous;
+  private final Map<String, int[]> terms;
+
+  private OntologySnapshot(String[] labels, int[][] resourceLabels, int[][] narrower, int[][] synonymous, Map<String, int[]> terms) {
+    this.labels = labels;
+    this.resourceLabels = resourceLabels;
+    this.narrower = narrower;
+    this.synonymous = synonymous;
+    this.terms = terms;
+  }
+
+  /**
+   * Method of extracting a snapshot from the search terms of an ontology
+   * parsed with Jena, see {@link LocalOntology#addSearchTerm(String, OntResource)}
+   *
+   * @param searchTerms a map from lower case search term to the resources it
+   *                    names, as keys
+   * @return the snapshot
+   */
+  public static OntologySnapshot fromSearchTerms(Map<String, Map<OntResource, String>> searchTerms) {
+    Map<String, Integer> labelIds = new HashMap<>();
+    List<String> labels = new ArrayList<>();
+    Map<OntResource, Integer> resourceIds = new HashMap<>();
+    List<int[]> resourceLabels = new ArrayList<>();
+    Function<OntResource, Integer> resourceId = resource -> resourceIds.computeIfAbsent(resource, r -> {
+      Set<Integer> ids = new LinkedHashSet<>();
+      for (Iterator<?> i = r.listLabels(null); i.hasNext();) {
+        ids.add(labelIds.computeIfAbsent(((Literal) i.next()).toString(), label -> {
+          labels.add(label);
+          return labels.size() - 1;
+        }));
+      }
+      resourceLabels.add(toArray(ids));
+      return resourceLabels.size() - 1;
+    });
+
+    Map<String, int[]> terms = new HashMap<>();
+    Set<OntResource> named = new LinkedHashSet<>();
+    for (Entry<String, Map<OntResource, String>> term : searchTerms.entrySet()) {
+      Set<Integer> ids = new LinkedHashSet<>();
+      for (OntResource resource : term.getValue().keySet()) {
+        ids.add(resourceId.apply(resource));
+        named.add(resource);
+      }
+      terms.put(term.getKey(), toArray(ids));
+    }
+
+    // only the resources named by a search term need their relations
+    Map<Integer, int[]> down = new HashMap<>();
+    Map<Integer, int[]> same = new HashMap<>();
+    for (OntResource resource : named) {
+      Set<Integer> narrowerIds = new LinkedHashSet<>();
+      Set<Integer> synonymousIds = new LinkedHashSet<>();
+      if (resource instanceof OntClass) {
+        for (Iterator<?> i = ((OntClass) resource).listSubClasses(); i.hasNext();) {
+          narrowerIds.add(resourceId.apply((OntResource) i.next()));
+        }
+        for (Iterator<?> i = ((OntClass) resource).listInstances(); i.hasNext();) {
+          narrowerIds.add(resourceId.apply((OntResource) i.next()));
+        }
+        for (Iterator<?> i = ((OntClass) resource).listEquivalentClasses(); i.hasNext();) {
+          synonymousIds.add(resourceId.apply((OntResource) i.next()));
+        }
+      } else if (resource instanceof Individual) {
+        for (Iterator<?> i = resource.listSameAs(); i.hasNext();) {
+          int id = resourceId.apply((OntResource) i.next());
+          narrowerIds.add(id);
+          synonymousIds.add(id);
+        }
+      }
+      int id = resourceIds.get(resource);
+      down.put(id, toArray(narrowerIds));
+      same.put(id, toArray(synonymousIds));
+    }
+
+    // resources only reached through a relation have no relations of their own
+    int[][] narrower = new int[resourceLabels.size()][];
+    int[][] synonymous = new int[resourceLabels.size()][];
+    for (int id = 0; id < narrower.length; id++) {
+      narrower[id] = down.getOrDefault(id, new int[0]);
+      synonymous[id] = same.getOrDefault(id, new int[0]);
+    }
+    return new OntologySnapshot(labels.toArray(new String[0]), resourceLabels.toArray(new int[0][]), narrower, synonymous, terms);
+  }
+
+  /**
+   * Method of reading a snapshot written by {@link #write(File)}
+   *
+   * @param in input stream, not closed
+   * @return the snapshot
+   * @throws IOException if the stream is not a snapshot or cannot be read
+   */
+  public static OntologySnapshot read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in)));
+    if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+      throw new IOException("Not an ontology snapshot, or an unsupported version");
+    }
+    String[] labels = new String[data.readInt()];
+    for (int i = 0; i < labels.length; i++) {
+      labels[i] = data.readUTF();
+    }
+    int resourceCount = data.readInt();
+    int[][] resourceLabels = new int[resourceCount][];
+    int[][] narrower = new int[resourceCount][];
+    int[][] synonymous = new int[resourceCount][];
+    for (int i = 0; i < resourceCount; i++) {
+      resourceLabels[i] = readIds(data);
+      narrower[i] = readIds(data);
+      synonymous[i] = readIds(data);
+    }
+    int termCount = data.readInt();
+    Map<String, int[]> terms = new HashMap<>(termCount * 2);
+    for (int i = 0; i < termCount; i++) {
+      String term = data.readUTF();
+      terms.put(term, readIds(data));
+    }
+    return new OntologySnapshot(labels, resourceLabels, narrower, synonymous, terms);
+  }
+
+  /**
+   * Method of writing the snapshot. It is written to a temporary file which
+   * is then moved into place, so readers never see a partial snapshot.
+   *
+   * @param file target file
+   * @throws IOException if the file cannot be written
+   */
+  public void write(File file) throws IOException {
+    File dir = file.getAbsoluteFile().getParentFile();
+    if (dir != null) {
+      Files.createDirectories(dir.toPath());
+    }
+    File tmp = new File(dir, file.getName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(labels.length);
+      for (String label : labels) {
+        out.writeUTF(label);
+      }
+      out.writeInt(resourceLabels.length);
+      for (int i = 0; i < resourceLabels.length; i++) {
+        writeIds(out, resourceLabels[i]);
+        writeIds(out, narrower[i]);
+        writeIds(out, synonymous[i]);
+      }
+      out.writeInt(terms.size());
+      for (Entry<String, int[]> term : terms.entrySet()) {
+        out.writeUTF(term.getKey());
+        writeIds(out, term.getValue());
+      }
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @param term a search term, any case
+   * @return the labels of the resources named by the term and of their
+   * synonymous resources
+   */
+  public Set<String> synonyms(String term) {
+    Set<String> result = new LinkedHashSet<>();
+    for (int resource : resourcesOf(term)) {
+      addLabels(result, resourceLabels[resource]);
+      for (int other : synonymous[resource]) {
+        addLabels(result, resourceLabels[other]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @param term a search term, any case
+   * @return the labels of the narrower resources of the resources named by
+   * the term
+   */
+  public Set<String> subclasses(String term) {
+    Set<String> result = new LinkedHashSet<>();
+    for (int resource : resourcesOf(term)) {
+      for (int other : narrower[resource]) {
+        addLabels(result, resourceLabels[other]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the number of search terms
+   */
+  public int size() {
+    return terms.size();
+  }
+
+  private int[] resourcesOf(String term) {
+    int[] resources = terms.get(term.toLowerCase());
+    return resources == null ? new int[0] : resources;
+  }
+
+  private void addLabels(Set<String> result, int[] ids) {
+    for (int id : ids) {
+      result.add(labels[id]);
+    }
+  }
+
+  private static int[] toArray(Collection<Integer> ids) {
+    return ids.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  private static int[] readIds(DataInputStream in) throws IOException {
+    int[] ids = new int[in.readInt()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = in.readInt();
+    }
+    return ids;
+  }
+
+  private static void writeIds(DataOutputStream out, int[] ids) throws IOException {
+    out.writeInt(ids.length);
+    for (int id : ids) {
+      out.writeInt(id);
+    }
+  }
+
+  /**
+   * Build step writing the snapshot of ontology resources, by default the
+   * SWEET ontology, e.g. to <code>src/main/resources/ontology/sweetAll.snapshot</code>
+   * so that it is found on the classpath by {@link LocalOntology}.
+   *
+   * @param args the snapshot file, followed by the ontology URIs to read
+   * @throws IOException if the snapshot cannot be written
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      LOG.error("Usage: OntologySnapshot <snapshot file> [ontology URI...]");
+      return;
+    }
+    String[] urls = new String[args.length - 1];
+    System.arraycopy(args, 1, urls, 0, urls.length);
+    LocalOntology ontology = new LocalOntology(null, false);
+    ontology.load(urls.length == 0 ? new String[] { LocalOntology.SWEET_URL } : urls);
+    OntologySnapshot snapshot = ontology.getSnapshot();
+    snapshot.write(new File(args[0]));
+    LOG.info("Wrote {} search terms to {}", snapshot.size(), args[0]);
+  }
+}
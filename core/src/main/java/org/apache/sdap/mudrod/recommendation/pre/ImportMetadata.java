@@ -53,6 +53,7 @@ public class ImportMetadata extends DiscoveryStepAbstract {
     importToES();
     endTime = System.currentTimeMillis();
     es.refreshIndex();
+    es.bumpIndexGeneration(props.getProperty(MudrodConstants.ES_INDEX_NAME));
     LOG.info("Finished Metadata Harvesting time elapsed: {}s", (endTime - startTime) / 1000);
     return null;
   }
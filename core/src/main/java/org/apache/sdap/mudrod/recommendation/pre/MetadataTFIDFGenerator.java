@@ -81,11 +81,13 @@ public class MetadataTFIDFGenerator extends DiscoveryStepAbstract {
 
     LabeledRowMatrix wordtfidfMatrix = opt.tFIDFTokens(metadataWords, spark);
 
-    MatrixUtil.exportToCSV(
+    MatrixUtil.exportMatrix(
             wordtfidfMatrix.rowMatrix,
             wordtfidfMatrix.rowkeys,
             wordtfidfMatrix.colkeys,
-            props.getProperty(MudrodConstants.METADATA_WORD_MATRIX_PATH));
+            props.getProperty(MudrodConstants.METADATA_WORD_MATRIX_PATH),
+            props);
+    wordtfidfMatrix.unpersist();
 
     return wordtfidfMatrix;
   }
@@ -104,11 +106,13 @@ public class MetadataTFIDFGenerator extends DiscoveryStepAbstract {
 
     LabeledRowMatrix tokentfidfMatrix = opt.tFIDFTokens(metadataTokens, spark);
 
-    MatrixUtil.exportToCSV(
+    MatrixUtil.exportMatrix(
             tokentfidfMatrix.rowMatrix,
             tokentfidfMatrix.rowkeys,
             tokentfidfMatrix.colkeys,
-            props.getProperty(MudrodConstants.METADATA_TERM_MATRIX_PATH));
+            props.getProperty(MudrodConstants.METADATA_TERM_MATRIX_PATH),
+            props);
+    tokentfidfMatrix.unpersist();
 
     return tokentfidfMatrix;
   }
@@ -19,10 +19,10 @@ import org.apache.sdap.mudrod.driver.SparkDriver;
 import org.apache.sdap.mudrod.main.MudrodConstants;
 import org.apache.sdap.mudrod.semantics.SVDAnalyzer;
 import org.apache.sdap.mudrod.utils.LinkageTriple;
+import org.apache.spark.api.java.JavaRDD;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
 import java.util.Properties;
 
 /**
@@ -53,8 +53,8 @@ public class AbstractBasedSimilarity extends DiscoveryStepAbstract {
       // for comparison
       SVDAnalyzer svd = new SVDAnalyzer(props, es, spark);
       svd.getSVDMatrix(props.getProperty(MudrodConstants.METADATA_WORD_MATRIX_PATH), 150, props.getProperty(MudrodConstants.METADATA_WORD_MATRIX_PATH));
-      List<LinkageTriple> tripleList = svd.calTermSimfromMatrix(props.getProperty(MudrodConstants.METADATA_WORD_MATRIX_PATH));
-      svd.saveToES(tripleList, props.getProperty(MudrodConstants.ES_INDEX_NAME), MudrodConstants.METADATA_WORD_SIM_TYPE, true, true);
+      JavaRDD<LinkageTriple> triples = svd.calTermSimRDD(props.getProperty(MudrodConstants.METADATA_WORD_MATRIX_PATH), 1);
+      svd.saveToES(triples, props.getProperty(MudrodConstants.ES_INDEX_NAME), MudrodConstants.METADATA_WORD_SIM_TYPE, true, true);
 
     } catch (Exception e) {
       e.printStackTrace();
@@ -21,12 +21,13 @@ import org.apache.sdap.mudrod.discoveryengine.DiscoveryStepAbstract;
 import org.apache.sdap.mudrod.driver.ESDriver;
 import org.apache.sdap.mudrod.driver.SparkDriver;
 import org.apache.sdap.mudrod.main.MudrodConstants;
+import org.apache.sdap.mudrod.recommendation.structure.EncodedMetadata;
+import org.apache.sdap.mudrod.recommendation.structure.MetadataEncoder;
 import org.apache.sdap.mudrod.recommendation.structure.MetadataFeature;
 import org.apache.sdap.mudrod.recommendation.structure.PODAACMetadataFeature;
 
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
@@ -36,11 +37,13 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.text.DecimalFormat;
-import java.util.Properties;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.stream.IntStream;
 
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 
@@ -49,7 +52,6 @@ public class FeatureBasedSimilarity extends DiscoveryStepAbstract implements Ser
 
   private static final Logger LOG = LoggerFactory.getLogger(FeatureBasedSimilarity.class);
 
-  private DecimalFormat df = new DecimalFormat("#.000");
   // a map from variable to its type
   MetadataFeature metadata = null;
   public Map<String, Integer> variableTypes;
@@ -87,13 +89,8 @@ public class FeatureBasedSimilarity extends DiscoveryStepAbstract implements Ser
   public Object execute() {
     LOG.info("Calculating metadata feature based similarity starts.");
     startTime = System.currentTimeMillis();
-    es.deleteType(indexName, variableSimType);
-    addMapping(es, indexName, variableSimType);
 
     featureSimilarity(es);
-    es.refreshIndex();
-    normalizeVariableWeight(es);
-    es.refreshIndex();
     endTime = System.currentTimeMillis();
     LOG.info("Calculating metadata feature based similarity ends. Took {}s", (endTime - startTime) / 1000);
     return null;
@@ -104,10 +101,16 @@ public class FeatureBasedSimilarity extends DiscoveryStepAbstract implements Ser
     return null;
   }
 
+  /**
+   * Method of calculating the weighted feature similarity between all
+   * metadata and indexing the most similar neighbors of each metadata. The
+   * metadata are encoded once, each pair is visited once, yielding both
+   * directions, and the pairs are spread over all cores. The neighbors are
+   * written into a new version of the type, published once it is complete.
+   *
+   * @param es an instantiated {@link ESDriver}
+   */
   public void featureSimilarity(ESDriver es) {
-
-    es.createBulkProcessor();
-
     List<Map<String, Object>> metadatas = new ArrayList<>();
     SearchResponse scrollResp = es.getClient().prepareSearch(indexName).setTypes(metadataType).setScroll(new TimeValue(60000)).setQuery(QueryBuilders.matchAllQuery()).setSize(100).execute()
         .actionGet();
@@ -124,36 +127,85 @@ public class FeatureBasedSimilarity extends DiscoveryStepAbstract implements Ser
     }
 
     int size = metadatas.size();
+    int neighborSize = Integer.parseInt(props.getProperty(MudrodConstants.RECOM_NEIGHBOR_SIZE, "50"));
+    double minSimilarity = Double.parseDouble(props.getProperty(MudrodConstants.RECOM_MIN_SIMILARITY, "0"));
 
+    List<PriorityQueue<Neighbor>> neighbors = new ArrayList<>(size);
     for (int i = 0; i < size; i++) {
-      Map<String, Object> metadataA = metadatas.get(i);
-      String shortNameA = (String) metadataA.get(props.getProperty(MudrodConstants.METADATA_ID));
-      for (int j = 0; j < size; j++) {
-    	metadataA = metadatas.get(i);
-        Map<String, Object> metadataB = metadatas.get(j);
-        String shortNameB = (String) metadataB.get(props.getProperty(MudrodConstants.METADATA_ID));
-
-        try {
-          XContentBuilder contentBuilder = jsonBuilder().startObject();
-          contentBuilder.field("concept_A", shortNameA);
-          contentBuilder.field("concept_B", shortNameB);
-
-          // feature similarity
-          metadata.featureSimilarity(metadataA, metadataB, contentBuilder);
+      neighbors.add(new PriorityQueue<>(neighborSize + 1, Comparator.comparingDouble((Neighbor n) -> n.weight)));
+    }
 
-          contentBuilder.endObject();
+    MetadataEncoder encoder = new MetadataEncoder(metadata);
+    EncodedMetadata[] encoded = new EncodedMetadata[size];
+    for (int i = 0; i < size; i++) {
+      encoded[i] = encoder.encode(metadatas.get(i));
+    }
 
-          IndexRequest ir = new IndexRequest(indexName, variableSimType).source(contentBuilder);
-          es.getBulkProcessor().add(ir);
+    IntStream.range(0, size).parallel().forEach(i -> {
+      double[] weights = new double[2];
+      for (int j = i + 1; j < size; j++) {
+        encoder.weightedSimilarity(encoded[i], encoded[j], weights);
+        offerNeighbor(neighbors.get(i), j, weights[0], neighborSize, minSimilarity);
+        offerNeighbor(neighbors.get(j), i, weights[1], neighborSize, minSimilarity);
+      }
+    });
 
-        } catch (IOException e1) {
-          e1.printStackTrace();
+    String version = es.createVersion(indexName, variableSimType);
+    int docCount = 0;
+    try {
+      addMapping(es, version, variableSimType);
+      es.createBulkProcessor();
+      String idField = props.getProperty(MudrodConstants.METADATA_ID);
+      for (int i = 0; i < size; i++) {
+        String shortNameA = (String) metadatas.get(i).get(idField);
+        for (Neighbor neighbor : neighbors.get(i)) {
+          try {
+            XContentBuilder contentBuilder = jsonBuilder().startObject().field("concept_A", shortNameA).field("concept_B", metadatas.get(neighbor.index).get(idField))
+                .field("weight", neighbor.weight).endObject();
+            es.getBulkProcessor().add(new IndexRequest(version, variableSimType).source(contentBuilder));
+            docCount++;
+          } catch (IOException e) {
+            LOG.error("Error building feature similarity document for {}", shortNameA, e);
+          }
         }
+      }
+      es.destroyBulkProcessor();
+      es.publishVersion(indexName, variableSimType, version);
+    } catch (RuntimeException e) {
+      es.discardVersion(version);
+      throw e;
+    }
+    es.bumpIndexGeneration(indexName);
+    LOG.info("Indexed {} feature similarity neighbors for {} metadata.", docCount, size);
+  }
 
+  /**
+   * Keep a neighbor if it is above the similarity threshold and among the
+   * most similar neighbors seen so far.
+   */
+  private static void offerNeighbor(PriorityQueue<Neighbor> queue, int index, double weight, int neighborSize, double minSimilarity) {
+    // also rejects NaN, e.g. from metadata without a temporal extent
+    if (!(weight > minSimilarity)) {
+      return;
+    }
+    synchronized (queue) {
+      if (queue.size() < neighborSize) {
+        queue.add(new Neighbor(index, weight));
+      } else if (weight > queue.peek().weight) {
+        queue.poll();
+        queue.add(new Neighbor(index, weight));
       }
     }
+  }
+
+  private static class Neighbor {
+    final int index;
+    final double weight;
 
-    es.destroyBulkProcessor();
+    Neighbor(int index, double weight) {
+      this.index = index;
+      this.weight = weight;
+    }
   }
 
   public static void addMapping(ESDriver es, String index, String type) {
@@ -169,46 +221,4 @@ public class FeatureBasedSimilarity extends DiscoveryStepAbstract implements Ser
       e.printStackTrace();
     }
   }
-
-  public void normalizeVariableWeight(ESDriver es) {
-
-    es.createBulkProcessor();
-
-    double totalWeight = 0.0;
-    for (String variable : variableWeights.keySet()) {
-      totalWeight += variableWeights.get(variable);
-    }
-
-    SearchResponse scrollResp = es.getClient().prepareSearch(indexName).setTypes(variableSimType).setScroll(new TimeValue(60000)).setQuery(QueryBuilders.matchAllQuery()).setSize(100).execute()
-        .actionGet();
-    while (true) {
-      for (SearchHit hit : scrollResp.getHits().getHits()) {
-        Map<String, Object> similarities = hit.getSource();
-
-        double totalSim = 0.0;
-        for (String variable : variableWeights.keySet()) {
-          if (similarities.containsKey(variable + "_Sim")) {
-            double value = (double) similarities.get(variable + "_Sim");
-            double weight = variableWeights.get(variable);
-            totalSim += weight * value;
-          }
-        }
-
-        double weight = 0.0;
-        if(totalWeight != 0){
-          weight = totalSim / totalWeight;
-        }
-        
-        UpdateRequest ur = es.generateUpdateRequest(indexName, variableSimType, hit.getId(), "weight", weight);
-        es.getBulkProcessor().add(ur);
-      }
-
-      scrollResp = es.getClient().prepareSearchScroll(scrollResp.getScrollId()).setScroll(new TimeValue(600000)).execute().actionGet();
-      if (scrollResp.getHits().getHits().length == 0) {
-        break;
-      }
-    }
-
-    es.destroyBulkProcessor();
-  }
-}
\ No newline at end of file
+}
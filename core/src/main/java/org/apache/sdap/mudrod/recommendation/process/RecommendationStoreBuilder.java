@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.recommendation.process;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.sdap.mudrod.discoveryengine.DiscoveryStepAbstract;
+import org.apache.sdap.mudrod.driver.ESDriver;
+import org.apache.sdap.mudrod.driver.SparkDriver;
+import org.apache.sdap.mudrod.integration.LinkageGraph;
+import org.apache.sdap.mudrod.main.MudrodConstants;
+import org.apache.sdap.mudrod.utils.LinkageTriple;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Exports the top neighbors of every dataset in the feature, abstract and
+ * session similarity types into a {@link LinkageGraph} file, from which the
+ * service answers hybrid recommendation requests without Elasticsearch.
+ */
+public class RecommendationStoreBuilder extends DiscoveryStepAbstract {
+
+  private static final long serialVersionUID = 1L;
+  private static final Logger LOG = LoggerFactory.getLogger(RecommendationStoreBuilder.class);
+
+  public RecommendationStoreBuilder(Properties props, ESDriver es, SparkDriver spark) {
+    super(props, es, spark);
+  }
+
+  @Override
+  public Object execute() {
+    String path = props.getProperty(MudrodConstants.RECOM_STORE_PATH);
+    if (StringUtils.isBlank(path)) {
+      LOG.info("No recommendation store path configured, skipping recommendation store export.");
+      return null;
+    }
+
+    LOG.info("Starting recommendation store export...");
+    startTime = System.currentTimeMillis();
+
+    int neighborSize = Integer.parseInt(props.getProperty(MudrodConstants.RECOM_NEIGHBOR_SIZE, "50"));
+    Map<String, List<LinkageTriple>> triples = new LinkedHashMap<>();
+    triples.put(MudrodConstants.METADATA_FEATURE_SIM_TYPE, readTopNeighbors(MudrodConstants.METADATA_FEATURE_SIM_TYPE, neighborSize));
+    triples.put(MudrodConstants.METADATA_WORD_SIM_TYPE, readTopNeighbors(MudrodConstants.METADATA_WORD_SIM_TYPE, neighborSize));
+    triples.put(MudrodConstants.METADATA_SESSION_SIM_TYPE, readTopNeighbors(MudrodConstants.METADATA_SESSION_SIM_TYPE, neighborSize));
+
+    try {
+      LinkageGraph.write(new File(path), triples);
+    } catch (IOException e) {
+      LOG.error("Error writing recommendation store to {}", path, e);
+    }
+
+    endTime = System.currentTimeMillis();
+    LOG.info("Finished recommendation store export. Time elapsed: {}s", (endTime - startTime) / 1000);
+    return null;
+  }
+
+  @Override
+  public Object execute(Object o) {
+    return null;
+  }
+
+  /**
+   * Read the concept_A to concept_B similarities of a type, keeping the
+   * neighborSize most similar neighbors of each dataset.
+   */
+  private List<LinkageTriple> readTopNeighbors(String type, int neighborSize) {
+    Map<String, List<LinkageTriple>> neighbors = new HashMap<>();
+    SearchResponse scrollResp = es.getClient().prepareSearch(es.resolveIndex(props.getProperty(MudrodConstants.ES_INDEX_NAME), type)).setTypes(type).setScroll(new TimeValue(60000))
+        .setQuery(QueryBuilders.matchAllQuery()).setSize(1000).execute().actionGet();
+    while (scrollResp.getHits().getHits().length != 0) {
+      for (SearchHit hit : scrollResp.getHits().getHits()) {
+        Map<String, Object> source = hit.getSource();
+        LinkageTriple triple = new LinkageTriple();
+        triple.keyA = (String) source.get("concept_A");
+        triple.keyB = (String) source.get("concept_B");
+        triple.weight = ((Number) source.get("weight")).doubleValue();
+        if (!triple.keyA.equals(triple.keyB)) {
+          neighbors.computeIfAbsent(triple.keyA, k -> new ArrayList<>()).add(triple);
+        }
+      }
+      scrollResp = es.getClient().prepareSearchScroll(scrollResp.getScrollId()).setScroll(new TimeValue(600000)).execute().actionGet();
+    }
+
+    List<LinkageTriple> triples = new ArrayList<>();
+    for (List<LinkageTriple> row : neighbors.values()) {
+      row.sort((a, b) -> Double.compare(b.weight, a.weight));
+      triples.addAll(row.subList(0, Math.min(neighborSize, row.size())));
+    }
+    LOG.info("Kept {} neighbors of {} datasets from {}", triples.size(), neighbors.size(), type);
+    return triples;
+  }
+}
@@ -20,11 +20,11 @@ import org.apache.sdap.mudrod.main.MudrodConstants;
 import org.apache.sdap.mudrod.semantics.SemanticAnalyzer;
 import org.apache.sdap.mudrod.utils.LinkageTriple;
 import org.apache.sdap.mudrod.utils.SimilarityUtil;
+import org.apache.spark.api.java.JavaRDD;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.util.List;
 import java.util.Properties;
 
 /**
@@ -58,7 +58,7 @@ public class SessionBasedCF extends DiscoveryStepAbstract {
       File f = new File(session_metadatFile);
       if (f.exists()) {
         SemanticAnalyzer analyzer = new SemanticAnalyzer(props, es, spark);
-        List<LinkageTriple> triples = analyzer.calTermSimfromMatrix(session_metadatFile, SimilarityUtil.SIM_PEARSON, 1);
+        JavaRDD<LinkageTriple> triples = analyzer.calTermSimRDD(session_metadatFile, SimilarityUtil.SIM_PEARSON, 1);
         analyzer.saveToES(triples, props.getProperty(MudrodConstants.ES_INDEX_NAME), MudrodConstants.METADATA_SESSION_SIM_TYPE, true, false);
       }
 
@@ -0,0 +1,50 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.recommendation.structure;
+
+import java.io.Serializable;
+
+/**
+ * Compact, pre-parsed form of the features of one metadata record, created by
+ * {@link MetadataEncoder}.
+ */
+public class EncodedMetadata implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  static final byte MISSING = 0;
+  static final byte SINGLE = 1;
+  static final byte LIST = 2;
+
+  // spatial coverage: north, south, west, east, area
+  final double[] spatial;
+  // temporal coverage: start, end
+  final double start;
+  final double end;
+  // per categorical variable, the sorted dictionary ids of its values
+  final int[][] categories;
+  // per categorical variable, whether it was missing, a single value or a list
+  final byte[] categoryKinds;
+  // per ordinal variable, its value, or NaN if it is missing
+  final double[] ordinals;
+
+  EncodedMetadata(double[] spatial, double start, double end, int[][] categories, byte[] categoryKinds, double[] ordinals) {
+    this.spatial = spatial;
+    this.start = start;
+    this.end = end;
+    this.categories = categories;
+    this.categoryKinds = categoryKinds;
+    this.ordinals = ordinals;
+  }
+}
@@ -13,13 +13,15 @@
  */
 package org.apache.sdap.mudrod.recommendation.structure;
 
-import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
 import org.apache.sdap.mudrod.discoveryengine.DiscoveryStepAbstract;
 import org.apache.sdap.mudrod.driver.ESDriver;
 import org.apache.sdap.mudrod.driver.SparkDriver;
+import org.apache.sdap.mudrod.integration.LinkageGraph;
+import org.apache.sdap.mudrod.integration.LinkageGraphStore;
 import org.apache.sdap.mudrod.main.MudrodConstants;
 import org.apache.sdap.mudrod.main.MudrodEngine;
 import org.elasticsearch.action.search.SearchRequestBuilder;
@@ -29,7 +31,6 @@ import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.sort.SortOrder;
 
 import java.io.IOException;
-import java.text.DecimalFormat;
 import java.util.*;
 
 /**
@@ -41,13 +42,14 @@ public class HybridRecommendation extends DiscoveryStepAbstract {
    *
    */
   private static final long serialVersionUID = 1L;
-  // recommended metadata list
-  protected transient List<LinkedTerm> termList = new ArrayList<>();
-  // format decimal
-  DecimalFormat df = new DecimalFormat("#.00");
   // index name
   protected static final String INDEX_NAME = MudrodConstants.ES_INDEX_NAME;
   private static final String WEIGHT = "weight";
+  // similarity types and the names they are returned under
+  private static final String[] MODELS = { MudrodConstants.METADATA_FEATURE_SIM_TYPE, MudrodConstants.METADATA_WORD_SIM_TYPE, MudrodConstants.METADATA_SESSION_SIM_TYPE };
+  private static final String[] MODEL_NAMES = { "variableSim", "abstractSim", "sessionSim" };
+  // precomputed neighbors written by the pipeline, see RecommendationStoreBuilder
+  private transient LinkageGraphStore store = null;
 
   /**
    * recommended data class Date: Sep 12, 2016 2:25:28 AM
@@ -68,6 +70,16 @@ public class HybridRecommendation extends DiscoveryStepAbstract {
     super(props, es, spark);
   }
 
+  /**
+   * Serve recommendations from the precomputed neighbor store when it is
+   * loaded, instead of searching Elasticsearch.
+   *
+   * @param store the recommendation store
+   */
+  public void setRecommendationStore(LinkageGraphStore store) {
+    this.store = store;
+  }
+
   @Override
   public Object execute() {
     return null;
@@ -86,6 +98,11 @@ public class HybridRecommendation extends DiscoveryStepAbstract {
    * @return recommended dataset in json format
    */
   public JsonObject getRecomDataInJson(String input, int num) {
+    LinkageGraph graph = store == null ? null : store.get();
+    if (graph != null) {
+      return getRecomDataInJson(graph, input, num);
+    }
+
     JsonObject resultJson = new JsonObject();
 
     String type = MudrodConstants.METADATA_FEATURE_SIM_TYPE;
@@ -113,24 +130,25 @@ public class HybridRecommendation extends DiscoveryStepAbstract {
     for (String name : sortedVariableSimMap.keySet()) {
       if (hybirdSimMap.get(name) != null) {
         double sim = hybirdSimMap.get(name) + sortedVariableSimMap.get(name) /** 0.3 */;
-        hybirdSimMap.put(name, Double.parseDouble(df.format(sim)));
+        hybirdSimMap.put(name, sim);
       } else {
         double sim = sortedVariableSimMap.get(name);
-        hybirdSimMap.put(name, Double.parseDouble(df.format(sim)));
+        hybirdSimMap.put(name, sim);
       }
     }
 
     for (String name : sortedSessionSimMap.keySet()) {
       if (hybirdSimMap.get(name) != null) {
         double sim = hybirdSimMap.get(name) + sortedSessionSimMap.get(name) /** 0.1 */;
-        hybirdSimMap.put(name, Double.parseDouble(df.format(sim)));
+        hybirdSimMap.put(name, sim);
       } else {
         double sim = sortedSessionSimMap.get(name);
-        hybirdSimMap.put(name, Double.parseDouble(df.format(sim)));
+        hybirdSimMap.put(name, sim);
       }
     }
 
     Map<String, Double> sortedHybirdSimMap = this.sortMapByValue(hybirdSimMap);
+    sortedHybirdSimMap.replaceAll((name, sim) -> roundWeight(sim));
 
     JsonElement linkedJson = mapToJson(sortedHybirdSimMap, num);
     resultJson.add("linked", linkedJson);
@@ -138,6 +156,80 @@ public class HybridRecommendation extends DiscoveryStepAbstract {
     return resultJson;
   }
 
+  /**
+   * Get recommended data for a giving dataset from the precomputed neighbor
+   * store. The hybrid similarity is merged on primitive arrays and only the
+   * returned names are decoded.
+   *
+   * @param graph the loaded neighbor store
+   * @param input a giving dataset
+   * @param num   the number of recommended dataset
+   * @return recommended dataset in json format
+   */
+  protected JsonObject getRecomDataInJson(LinkageGraph graph, String input, int num) {
+    JsonObject resultJson = new JsonObject();
+    int[] ids = new int[num + 10];
+    float[] weights = new float[num + 10];
+    int[] linkedIds = new int[ids.length * MODELS.length];
+    double[] linkedWeights = new double[ids.length * MODELS.length];
+    int linkedCount = 0;
+
+    for (int m = 0; m < MODELS.length; m++) {
+      int count = graph.getRelatedTermIds(input, MODELS[m], ids, weights);
+      JsonArray nodes = new JsonArray();
+      for (int i = 0; i < count; i++) {
+        if (i < num) {
+          // the store keeps floats, print them without float to double noise
+          nodes.add(toJsonNode(graph.getTerm(ids[i]), Double.parseDouble(Float.toString(weights[i]))));
+        }
+
+        int k = 0;
+        while (k < linkedCount && linkedIds[k] != ids[i]) {
+          k++;
+        }
+        if (k == linkedCount) {
+          linkedIds[k] = ids[i];
+          linkedCount++;
+        }
+        linkedWeights[k] += weights[i];
+      }
+      resultJson.add(MODEL_NAMES[m], nodes);
+    }
+
+    // insertion sort by descending hybrid similarity, there are at most 3 * (num + 10) entries
+    for (int i = 1; i < linkedCount; i++) {
+      int id = linkedIds[i];
+      double weight = linkedWeights[i];
+      int j = i - 1;
+      while (j >= 0 && linkedWeights[j] < weight) {
+        linkedIds[j + 1] = linkedIds[j];
+        linkedWeights[j + 1] = linkedWeights[j];
+        j--;
+      }
+      linkedIds[j + 1] = id;
+      linkedWeights[j + 1] = weight;
+    }
+
+    JsonArray linked = new JsonArray();
+    for (int i = 0; i < Math.min(num, linkedCount); i++) {
+      linked.add(toJsonNode(graph.getTerm(linkedIds[i]), roundWeight(linkedWeights[i])));
+    }
+    resultJson.add("linked", linked);
+    return resultJson;
+  }
+
+  // hybrid similarities of both paths are summed first, then rounded to 2 decimals
+  private static double roundWeight(double weight) {
+    return Math.round(weight * 100) / 100.0;
+  }
+
+  private static JsonObject toJsonNode(String name, double weight) {
+    JsonObject node = new JsonObject();
+    node.addProperty("name", name);
+    node.addProperty("weight", weight);
+    return node;
+  }
+
   /**
    * Method of converting hashmap to JSON
    *
@@ -146,27 +238,14 @@ public class HybridRecommendation extends DiscoveryStepAbstract {
    * @return converted JSON object
    */
   protected JsonElement mapToJson(Map<String, Double> wordweights, int num) {
-    Gson gson = new Gson();
-
-    List<JsonObject> nodes = new ArrayList<>();
-    Set<String> words = wordweights.keySet();
-    int i = 0;
-    for (String wordB : words) {
-      JsonObject node = new JsonObject();
-      node.addProperty("name", wordB);
-      node.addProperty("weight", wordweights.get(wordB));
-      nodes.add(node);
-
-      i += 1;
-      if (i >= num) {
+    JsonArray nodes = new JsonArray();
+    for (Map.Entry<String, Double> word : wordweights.entrySet()) {
+      if (nodes.size() >= num) {
         break;
       }
+      nodes.add(toJsonNode(word.getKey(), word.getValue()));
     }
-
-    String nodesJson = gson.toJson(nodes);
-    JsonElement nodesElement = gson.fromJson(nodesJson, JsonElement.class);
-
-    return nodesElement;
+    return nodes;
   }
 
   /**
@@ -179,7 +258,6 @@ public class HybridRecommendation extends DiscoveryStepAbstract {
    * value
    */
   public Map<String, Double> getRelatedData(String type, String input, int num) {
-    termList = new ArrayList<>();
     Map<String, Double> termsMap = new HashMap<>();
     Map<String, Double> sortedMap = new HashMap<>();
     try {
@@ -206,10 +284,11 @@ public class HybridRecommendation extends DiscoveryStepAbstract {
    */
   public List<LinkedTerm> getRelatedDataFromES(String type, String input, int num) {
 
-    SearchRequestBuilder builder = es.getClient().prepareSearch(props.getProperty(INDEX_NAME)).setTypes(type).setQuery(QueryBuilders.termQuery("concept_A", input)).addSort(WEIGHT, SortOrder.DESC)
+    SearchRequestBuilder builder = es.getClient().prepareSearch(es.resolveIndex(props.getProperty(INDEX_NAME), type)).setTypes(type).setQuery(QueryBuilders.termQuery("concept_A", input)).addSort(WEIGHT, SortOrder.DESC)
         .setSize(num);
 
     SearchResponse usrhis = builder.execute().actionGet();
+    List<LinkedTerm> termList = new ArrayList<>();
 
     for (SearchHit hit : usrhis.getHits().getHits()) {
       Map<String, Object> result = hit.getSource();
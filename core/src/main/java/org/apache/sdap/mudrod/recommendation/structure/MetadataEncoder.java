@@ -0,0 +1,242 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.recommendation.structure;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes metadata records once into {@link EncodedMetadata} and computes the
+ * weighted feature similarity of two encoded records without allocating.
+ * Categorical values are dictionary encoded into sorted int arrays; ordinal,
+ * spatial and temporal values are kept as primitive doubles.
+ *
+ * The similarities are the same as those of
+ * {@link MetadataFeature#featureSimilarity(Map, Map)} and
+ * {@link MetadataFeature#weightedSimilarity(Map)}. Encoding is not thread
+ * safe, the similarity methods are.
+ */
+public class MetadataEncoder implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final String SPATIAL = "Spatial_Covergae";
+  private static final String TEMPORAL = "Temporal_Covergae";
+
+  private final MetadataFeature feature;
+  private final String[] categoricalVariables;
+  private final double[] categoricalWeights;
+  private final String[] ordinalVariables;
+  private final double[] ordinalWeights;
+  private final double spatialWeight;
+  private final double temporalWeight;
+  private final double totalWeight;
+  private final Map<String, Integer> dictionary = new HashMap<>();
+
+  public MetadataEncoder(MetadataFeature feature) {
+    this.feature = feature;
+
+    List<String> categorical = new ArrayList<>();
+    List<String> ordinal = new ArrayList<>();
+    for (Map.Entry<String, Integer> variable : feature.featureTypes.entrySet()) {
+      if (variable.getValue().equals(MetadataFeature.VAR_CATEGORICAL)) {
+        categorical.add(variable.getKey());
+      } else if (variable.getValue().equals(MetadataFeature.VAR_ORDINAL)) {
+        ordinal.add(variable.getKey());
+      }
+    }
+    categoricalVariables = categorical.toArray(new String[0]);
+    ordinalVariables = ordinal.toArray(new String[0]);
+    categoricalWeights = weightsOf(categoricalVariables);
+    ordinalWeights = weightsOf(ordinalVariables);
+    spatialWeight = feature.featureWeights.getOrDefault(SPATIAL, 0);
+    temporalWeight = feature.featureWeights.getOrDefault(TEMPORAL, 0);
+
+    double total = 0.0;
+    for (Integer weight : feature.featureWeights.values()) {
+      total += weight;
+    }
+    totalWeight = total;
+  }
+
+  private double[] weightsOf(String[] variables) {
+    double[] weights = new double[variables.length];
+    for (int i = 0; i < variables.length; i++) {
+      weights[i] = feature.featureWeights.getOrDefault(variables[i], 0);
+    }
+    return weights;
+  }
+
+  /**
+   * Method of encoding a normalized metadata record
+   *
+   * @param metadata metadata record, see {@link MetadataFeature#normalizeMetadataVariables(Map, Map)}
+   * @return the encoded record
+   */
+  public EncodedMetadata encode(Map<String, Object> metadata) {
+    int[][] categories = new int[categoricalVariables.length][];
+    byte[] kinds = new byte[categoricalVariables.length];
+    for (int i = 0; i < categoricalVariables.length; i++) {
+      Object value = metadata.get(categoricalVariables[i]);
+      if (value instanceof List) {
+        List<?> values = (List<?>) value;
+        int[] ids = new int[values.size()];
+        for (int j = 0; j < ids.length; j++) {
+          ids[j] = idOf(String.valueOf(values.get(j)));
+        }
+        // duplicates are kept, they count once each like in List.retainAll
+        Arrays.sort(ids);
+        categories[i] = ids;
+        kinds[i] = EncodedMetadata.LIST;
+      } else if (value instanceof String) {
+        categories[i] = new int[] { idOf((String) value) };
+        kinds[i] = EncodedMetadata.SINGLE;
+      } else {
+        kinds[i] = EncodedMetadata.MISSING;
+      }
+    }
+
+    double[] ordinals = new double[ordinalVariables.length];
+    for (int i = 0; i < ordinalVariables.length; i++) {
+      Object value = metadata.get(ordinalVariables[i]);
+      ordinals[i] = value == null ? Double.NaN : ((Number) value).doubleValue();
+    }
+
+    double[] temporal = feature.temporalCoverage(metadata);
+    return new EncodedMetadata(feature.spatialCoverage(metadata), temporal[0], temporal[1], categories, kinds, ordinals);
+  }
+
+  private int idOf(String value) {
+    return dictionary.computeIfAbsent(value, v -> dictionary.size());
+  }
+
+  /**
+   * Method of calculating the weighted similarity of metadata A to B
+   *
+   * @param a encoded metadata A
+   * @param b encoded metadata B
+   * @return weighted similarity of A to B
+   */
+  public double weightedSimilarity(EncodedMetadata a, EncodedMetadata b) {
+    if (totalWeight == 0) {
+      return 0.0;
+    }
+    return (symmetricSimilarity(a, b) + directionalSimilarity(a, b)) / totalWeight;
+  }
+
+  /**
+   * Method of calculating the weighted similarity of metadata A to B and of
+   * B to A, computing the symmetric spatial and temporal parts once
+   *
+   * @param a      encoded metadata A
+   * @param b      encoded metadata B
+   * @param result receives the similarity of A to B at index 0 and of B to A
+   *               at index 1
+   */
+  public void weightedSimilarity(EncodedMetadata a, EncodedMetadata b, double[] result) {
+    if (totalWeight == 0) {
+      result[0] = 0.0;
+      result[1] = 0.0;
+      return;
+    }
+    double symmetric = symmetricSimilarity(a, b);
+    result[0] = (symmetric + directionalSimilarity(a, b)) / totalWeight;
+    result[1] = (symmetric + directionalSimilarity(b, a)) / totalWeight;
+  }
+
+  private double symmetricSimilarity(EncodedMetadata a, EncodedMetadata b) {
+    return spatialWeight * spatialSimilarity(a.spatial, b.spatial) + temporalWeight * temporalSimilarity(a.start, a.end, b.start, b.end);
+  }
+
+  private double directionalSimilarity(EncodedMetadata a, EncodedMetadata b) {
+    double sum = 0.0;
+    for (int i = 0; i < categoricalVariables.length; i++) {
+      if (categoricalWeights[i] != 0) {
+        sum += categoricalWeights[i] * categoricalSimilarity(a.categoryKinds[i], a.categories[i], b.categoryKinds[i], b.categories[i]);
+      }
+    }
+    for (int i = 0; i < ordinalVariables.length; i++) {
+      if (ordinalWeights[i] != 0) {
+        sum += ordinalWeights[i] * ordinalSimilarity(a.ordinals[i], b.ordinals[i]);
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * @param a spatial coverage of A: north, south, west, east, area
+   * @param b spatial coverage of B
+   * @return the mean fraction of each area covered by the intersection
+   */
+  public static double spatialSimilarity(double[] a, double[] b) {
+    double xOverlap = Math.max(0, Math.min(a[3], b[3]) - Math.max(a[2], b[2]));
+    double yOverlap = Math.max(0, Math.min(a[0], b[0]) - Math.max(a[1], b[1]));
+    double overlapArea = xOverlap * yOverlap;
+    if (a[4] > 0 && b[4] > 0) {
+      return (overlapArea / a[4] + overlapArea / b[4]) * 0.5;
+    }
+    return 0.0;
+  }
+
+  /**
+   * @return the intersection of the two time spans divided by the geometric
+   * mean of their lengths
+   */
+  public static double temporalSimilarity(double startA, double endA, double startB, double endB) {
+    double intersect = Math.max(0, Math.min(endA, endB) - Math.max(startA, startB));
+    return intersect / (Math.sqrt(endA - startA) * Math.sqrt(endB - startB));
+  }
+
+  /**
+   * @return 1 if two single values are equal, the fraction of the values of
+   * list A that occur in list B, and 0 otherwise
+   */
+  static double categoricalSimilarity(byte kindA, int[] a, byte kindB, int[] b) {
+    if (kindA == EncodedMetadata.SINGLE) {
+      return kindB == EncodedMetadata.SINGLE && a[0] == b[0] ? 1.0 : 0.0;
+    }
+    if (kindA != EncodedMetadata.LIST || kindB != EncodedMetadata.LIST || a.length == 0) {
+      return 0.0;
+    }
+
+    int shared = 0;
+    int i = 0;
+    int j = 0;
+    while (i < a.length && j < b.length) {
+      if (a[i] < b[j]) {
+        i++;
+      } else if (a[i] > b[j]) {
+        j++;
+      } else {
+        shared++;
+        i++;
+      }
+    }
+    return (double) shared / a.length;
+  }
+
+  /**
+   * @return 1 minus the difference of B from A relative to A, at least 0
+   */
+  public static double ordinalSimilarity(double a, double b) {
+    if (Double.isNaN(a) || Double.isNaN(b) || a == 0.0) {
+      return 0.0;
+    }
+    return Math.max(0.0, 1 - Math.abs(b - a) / a);
+  }
+}
@@ -17,8 +17,6 @@
  */
 package org.apache.sdap.mudrod.recommendation.structure;
 
-import org.elasticsearch.common.xcontent.XContentBuilder;
-
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
@@ -45,11 +43,41 @@ public abstract class MetadataFeature implements Serializable {
     this.initFeatureWeight();
   }
 
-  public void featureSimilarity(Map<String, Object> metadataA, Map<String, Object> metadataB, XContentBuilder contentBuilder) {
-    this.spatialSimilarity(metadataA, metadataB, contentBuilder);
-    this.temporalSimilarity(metadataA, metadataB, contentBuilder);
-    this.categoricalVariablesSimilarity(metadataA, metadataB, contentBuilder);
-    this.ordinalVariablesSimilarity(metadataA, metadataB, contentBuilder);
+  /**
+   * Method of calculating the per feature similarities of metadata A to
+   * metadata B, keyed by feature name plus "_Sim"
+   *
+   * @param metadataA metadata A
+   * @param metadataB metadata B
+   * @return feature similarities
+   */
+  public Map<String, Double> featureSimilarity(Map<String, Object> metadataA, Map<String, Object> metadataB) {
+    Map<String, Double> similarities = new HashMap<>();
+    this.spatialSimilarity(metadataA, metadataB, similarities);
+    this.temporalSimilarity(metadataA, metadataB, similarities);
+    this.categoricalVariablesSimilarity(metadataA, metadataB, similarities);
+    this.ordinalVariablesSimilarity(metadataA, metadataB, similarities);
+    return similarities;
+  }
+
+  /**
+   * Method of combining feature similarities into one value using the
+   * feature weights
+   *
+   * @param similarities feature similarities, see {@link #featureSimilarity(Map, Map)}
+   * @return weighted similarity
+   */
+  public double weightedSimilarity(Map<String, Double> similarities) {
+    double totalWeight = 0.0;
+    double totalSim = 0.0;
+    for (Map.Entry<String, Integer> feature : featureWeights.entrySet()) {
+      totalWeight += feature.getValue();
+      Double similarity = similarities.get(feature.getKey() + "_Sim");
+      if (similarity != null) {
+        totalSim += feature.getValue() * similarity;
+      }
+    }
+    return totalWeight == 0 ? 0.0 : totalSim / totalWeight;
   }
 
   /* for normalization */
@@ -59,16 +87,30 @@ public abstract class MetadataFeature implements Serializable {
 
   public abstract void normalizeOtherVariables(Map<String, Object> metadata, Map<String, Object> updatedValues);
 
+  /* for encoding, see MetadataEncoder */
+
+  /**
+   * @param metadata normalized metadata
+   * @return spatial coverage: north, south, west and east bound and area
+   */
+  public abstract double[] spatialCoverage(Map<String, Object> metadata);
+
+  /**
+   * @param metadata normalized metadata
+   * @return temporal coverage: start and end time in milliseconds
+   */
+  public abstract double[] temporalCoverage(Map<String, Object> metadata);
+
   /* for similarity */
   public abstract void initFeatureType();
 
   public abstract void initFeatureWeight();
 
-  public abstract void spatialSimilarity(Map<String, Object> metadataA, Map<String, Object> metadataB, XContentBuilder contentBuilder);
+  public abstract void spatialSimilarity(Map<String, Object> metadataA, Map<String, Object> metadataB, Map<String, Double> similarities);
 
-  public abstract void temporalSimilarity(Map<String, Object> metadataA, Map<String, Object> metadataB, XContentBuilder contentBuilder);
+  public abstract void temporalSimilarity(Map<String, Object> metadataA, Map<String, Object> metadataB, Map<String, Double> similarities);
 
-  public abstract void categoricalVariablesSimilarity(Map<String, Object> metadataA, Map<String, Object> metadataB, XContentBuilder contentBuilder);
+  public abstract void categoricalVariablesSimilarity(Map<String, Object> metadataA, Map<String, Object> metadataB, Map<String, Double> similarities);
 
-  public abstract void ordinalVariablesSimilarity(Map<String, Object> metadataA, Map<String, Object> metadataB, XContentBuilder contentBuilder);
+  public abstract void ordinalVariablesSimilarity(Map<String, Object> metadataA, Map<String, Object> metadataB, Map<String, Double> similarities);
 }
@@ -17,9 +17,6 @@
  */
 package org.apache.sdap.mudrod.recommendation.structure;
 
-import org.elasticsearch.common.xcontent.XContentBuilder;
-
-import java.io.IOException;
 import java.util.regex.Pattern;
 import java.util.ArrayList;
 import java.util.List;
@@ -207,85 +204,34 @@ public class PODAACMetadataFeature extends MetadataFeature {
   }
 
   @Override
-  public void spatialSimilarity(Map<String, Object> metadataA, Map<String, Object> metadataB, XContentBuilder contentBuilder) {
-    // TODO Auto-generated method stub
-    double topA = (double) metadataA.get("DatasetCoverage-Derivative-NorthLat");
-    double bottomA = (double) metadataA.get("DatasetCoverage-Derivative-SouthLat");
-    double leftA = (double) metadataA.get("DatasetCoverage-Derivative-WestLon");
-    double rightA = (double) metadataA.get("DatasetCoverage-Derivative-EastLon");
-    double areaA = (double) metadataA.get("DatasetCoverage-Derivative-Area");
-
-    double topB = (double) metadataB.get("DatasetCoverage-Derivative-NorthLat");
-    double bottomB = (double) metadataB.get("DatasetCoverage-Derivative-SouthLat");
-    double leftB = (double) metadataB.get("DatasetCoverage-Derivative-WestLon");
-    double rightB = (double) metadataB.get("DatasetCoverage-Derivative-EastLon");
-    double areaB = (double) metadataB.get("DatasetCoverage-Derivative-Area");
-
-    // Intersect area
-    double xOverlap = Math.max(0, Math.min(rightA, rightB) - Math.max(leftA, leftB));
-    double yOverlap = Math.max(0, Math.min(topA, topB) - Math.max(bottomA, bottomB));
-    double overlapArea = xOverlap * yOverlap;
-
-    // Calculate coverage similarity
-    double similarity = 0.0;
-    if (areaA > 0 && areaB > 0) {
-      similarity = (overlapArea / areaA + overlapArea / areaB) * 0.5;
-    }
-
-    try {
-      contentBuilder.field("Spatial_Covergae_Sim", similarity);
-    } catch (IOException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
-    }
+  public double[] spatialCoverage(Map<String, Object> metadata) {
+    return new double[] { (double) metadata.get("DatasetCoverage-Derivative-NorthLat"), (double) metadata.get("DatasetCoverage-Derivative-SouthLat"),
+        (double) metadata.get("DatasetCoverage-Derivative-WestLon"), (double) metadata.get("DatasetCoverage-Derivative-EastLon"),
+        (double) metadata.get("DatasetCoverage-Derivative-Area") };
   }
 
   @Override
-  public void temporalSimilarity(Map<String, Object> metadataA, Map<String, Object> metadataB, XContentBuilder contentBuilder) {
-    // TODO Auto-generated method stub
-    double similarity = 0.0;
-    double startTimeA = Double.parseDouble((String) metadataA.get("Dataset-DatasetCoverage-StartTimeLong"));
-    String endTimeAStr = (String) metadataA.get("Dataset-DatasetCoverage-StopTimeLong");
-    double endTimeA = 0.0;
-    if ("".equals(endTimeAStr)) {
-      endTimeA = System.currentTimeMillis();
-    } else {
-      endTimeA = Double.parseDouble(endTimeAStr);
-    }
-    double timespanA = endTimeA - startTimeA;
+  public double[] temporalCoverage(Map<String, Object> metadata) {
+    double startTime = Double.parseDouble((String) metadata.get("Dataset-DatasetCoverage-StartTimeLong"));
+    String endTimeStr = (String) metadata.get("Dataset-DatasetCoverage-StopTimeLong");
+    double endTime = "".equals(endTimeStr) ? System.currentTimeMillis() : Double.parseDouble(endTimeStr);
+    return new double[] { startTime, endTime };
+  }
 
-    double startTimeB = Double.parseDouble((String) metadataB.get("Dataset-DatasetCoverage-StartTimeLong"));
-    String endTimeBStr = (String) metadataB.get("Dataset-DatasetCoverage-StopTimeLong");
-    double endTimeB = 0.0;
-    if ("".equals(endTimeBStr)) {
-      endTimeB = System.currentTimeMillis();
-    } else {
-      endTimeB = Double.parseDouble(endTimeBStr);
-    }
-    double timespanB = endTimeB - startTimeB;
-
-    double intersect = 0.0;
-    if (startTimeB >= endTimeA || endTimeB <= startTimeA) {
-      intersect = 0.0;
-    } else if (startTimeB >= startTimeA && endTimeB <= endTimeA) {
-      intersect = timespanB;
-    } else if (startTimeA >= startTimeB && endTimeA <= endTimeB) {
-      intersect = timespanA;
-    } else {
-      intersect = (startTimeA > startTimeB) ? (endTimeB - startTimeA) : (endTimeA - startTimeB);
-    }
+  @Override
+  public void spatialSimilarity(Map<String, Object> metadataA, Map<String, Object> metadataB, Map<String, Double> similarities) {
+    similarities.put("Spatial_Covergae_Sim", MetadataEncoder.spatialSimilarity(spatialCoverage(metadataA), spatialCoverage(metadataB)));
+  }
 
-    similarity = intersect / (Math.sqrt(timespanA) * Math.sqrt(timespanB));
-    try {
-      contentBuilder.field("Temporal_Covergae_Sim", similarity);
-    } catch (IOException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
-    }
+  @Override
+  public void temporalSimilarity(Map<String, Object> metadataA, Map<String, Object> metadataB, Map<String, Double> similarities) {
+    double[] a = temporalCoverage(metadataA);
+    double[] b = temporalCoverage(metadataB);
+    similarities.put("Temporal_Covergae_Sim", MetadataEncoder.temporalSimilarity(a[0], a[1], b[0], b[1]));
   }
 
   @Override
-  public void categoricalVariablesSimilarity(Map<String, Object> metadataA, Map<String, Object> metadataB, XContentBuilder contentBuilder) {
+  public void categoricalVariablesSimilarity(Map<String, Object> metadataA, Map<String, Object> metadataB, Map<String, Double> similarities) {
     // TODO Auto-generated method stub
     for (String variable : featureTypes.keySet()) {
       Integer type = featureTypes.get(variable);
@@ -315,17 +261,12 @@ public class PODAACMetadataFeature extends MetadataFeature {
         }
       }
 
-      try {
-        contentBuilder.field(variable + "_Sim", similarity);
-      } catch (IOException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      }
+      similarities.put(variable + "_Sim", similarity);
     }
   }
 
   @Override
-  public void ordinalVariablesSimilarity(Map<String, Object> metadataA, Map<String, Object> metadataB, XContentBuilder contentBuilder) {
+  public void ordinalVariablesSimilarity(Map<String, Object> metadataA, Map<String, Object> metadataB, Map<String, Double> similarities) {
     // TODO Auto-generated method stub
     for (String variable : featureTypes.keySet()) {
       Integer type = featureTypes.get(variable);
@@ -348,12 +289,7 @@ public class PODAACMetadataFeature extends MetadataFeature {
         }
       }
 
-      try {
-        contentBuilder.field(variable + "_Sim", similarity);
-      } catch (IOException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      }
+      similarities.put(variable + "_Sim", similarity);
     }
   }
 }
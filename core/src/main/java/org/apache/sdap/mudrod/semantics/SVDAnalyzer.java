@@ -15,13 +15,16 @@ package org.apache.sdap.mudrod.semantics;
 
 import org.apache.sdap.mudrod.driver.ESDriver;
 import org.apache.sdap.mudrod.driver.SparkDriver;
+import org.apache.sdap.mudrod.utils.LocalMatrixUtil;
 import org.apache.sdap.mudrod.utils.MatrixUtil;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.mllib.linalg.Vector;
 import org.apache.spark.mllib.linalg.distributed.RowMatrix;
+import scala.Tuple2;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
 
@@ -48,25 +51,46 @@ public class SVDAnalyzer extends SemanticAnalyzer {
   }
 
   /**
-   * GetSVDMatrix: Create SVD matrix csv file from original csv file.
+   * GetSVDMatrix: Create SVD matrix file from original matrix file. Matrices
+   * of at most mudrod.matrix.local.max.cells cells are decomposed on the
+   * driver, see {@link LocalMatrixUtil}.
    *
    * @param csvFileName       each row is a term, and each column is a document.
    * @param svdDimention      Dimension of SVD matrix
-   * @param svdMatrixFileName CSV file name of SVD matrix
+   * @param svdMatrixFileName file name of SVD matrix, see
+   *                          {@link MatrixUtil#exportMatrix(RowMatrix, List, List, String, Properties)}
    */
   public void getSVDMatrix(String csvFileName, int svdDimention, String svdMatrixFileName) {
 
-    JavaPairRDD<String, Vector> importRDD = MatrixUtil.loadVectorFromCSV(spark, csvFileName, 1);
-    JavaRDD<Vector> vectorRDD = importRDD.values();
-    RowMatrix wordDocMatrix = new RowMatrix(vectorRDD.rdd());
-    RowMatrix tfidfMatrix = MatrixUtil.createTFIDFMatrix(wordDocMatrix);
-    RowMatrix svdMatrix = MatrixUtil.buildSVDMatrix(tfidfMatrix, svdDimention);
+    JavaPairRDD<String, Vector> importRDD = MatrixUtil.loadMatrix(spark, csvFileName, 1);
+    if (importRDD == null) {
+      return;
+    }
+
+    List<String> rowKeys;
+    RowMatrix svdMatrix;
+    if (LocalMatrixUtil.fitsLocally(importRDD.count(), importRDD.values().first().size(), props)) {
+      List<Tuple2<String, Vector>> rows = importRDD.collect();
+      rowKeys = new ArrayList<>(rows.size());
+      Vector[] wordDocMatrix = new Vector[rows.size()];
+      for (int i = 0; i < wordDocMatrix.length; i++) {
+        rowKeys.add(rows.get(i)._1);
+        wordDocMatrix[i] = rows.get(i)._2;
+      }
+      Vector[] tfidfMatrix = LocalMatrixUtil.createTFIDFMatrix(wordDocMatrix);
+      svdMatrix = new RowMatrix(spark.sc.parallelize(Arrays.asList(LocalMatrixUtil.buildSVDMatrix(tfidfMatrix, svdDimention))).rdd());
+    } else {
+      JavaRDD<Vector> vectorRDD = importRDD.values();
+      RowMatrix wordDocMatrix = new RowMatrix(vectorRDD.rdd());
+      RowMatrix tfidfMatrix = MatrixUtil.createTFIDFMatrix(wordDocMatrix);
+      svdMatrix = MatrixUtil.buildSVDMatrix(tfidfMatrix, svdDimention, props);
+      rowKeys = importRDD.keys().collect();
+    }
 
-    List<String> rowKeys = importRDD.keys().collect();
     List<String> colKeys = new ArrayList<>();
     for (int i = 0; i < svdDimention; i++) {
       colKeys.add("dimension" + i);
     }
-    MatrixUtil.exportToCSV(svdMatrix, rowKeys, colKeys, svdMatrixFileName);
+    MatrixUtil.exportMatrix(svdMatrix, rowKeys, colKeys, svdMatrixFileName, props);
   }
 }
@@ -16,18 +16,25 @@ package org.apache.sdap.mudrod.semantics;
 import org.apache.sdap.mudrod.discoveryengine.MudrodAbstract;
 import org.apache.sdap.mudrod.driver.ESDriver;
 import org.apache.sdap.mudrod.driver.SparkDriver;
+import org.apache.sdap.mudrod.main.MudrodConstants;
+import org.apache.sdap.mudrod.utils.IncrementalMatrix;
 import org.apache.sdap.mudrod.utils.LinkageTriple;
+import org.apache.sdap.mudrod.utils.LocalMatrixUtil;
 import org.apache.sdap.mudrod.utils.MatrixUtil;
 import org.apache.sdap.mudrod.utils.SimilarityUtil;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.mllib.linalg.Vector;
 import org.apache.spark.mllib.linalg.distributed.CoordinateMatrix;
+import org.apache.spark.mllib.linalg.distributed.MatrixEntry;
+import scala.Tuple2;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 
 /**
  * ClassName: SemanticAnalyzer Function: Semantic analyzer
@@ -78,15 +85,112 @@ public class SemanticAnalyzer extends MudrodAbstract {
    * @return Linkage triple list
    */
   public List<LinkageTriple> calTermSimfromMatrix(String csvFileName, int skipRow) {
+    JavaRDD<LinkageTriple> triples = this.calTermSimRDD(csvFileName, skipRow);
+    return triples == null ? null : triples.collect();
+  }
 
-    JavaPairRDD<String, Vector> importRDD = MatrixUtil.loadVectorFromCSV(spark, csvFileName, skipRow);
+  /**
+   * Calculate term similarity from CSV matrix without collecting it, see
+   * {@link #calTermSimfromMatrix(String, int)}. Each pair of terms occurs once.
+   * Matrices of at most mudrod.matrix.local.max.cells cells, and of at most
+   * as many term pairs, are compared on the driver, keeping only the pairs
+   * {@link #saveToES(JavaRDD, String, String, boolean, boolean)} would write.
+   *
+   * @param csvFileName csv file of matrix, each row is a term, and each column is a
+   *                    dimension in feature space
+   * @param skipRow number of rows to skip in input CSV file e.g. header
+   * @return Linkage triple RDD, null if the file is missing or empty
+   */
+  public JavaRDD<LinkageTriple> calTermSimRDD(String csvFileName, int skipRow) {
+    return calTermSimRDD(csvFileName, skipRow, true);
+  }
+
+  /**
+   * @param select false to keep the pairs below mudrod.similarity.min.weight
+   *               or outside mudrod.similarity.top.k, e.g. to store them for
+   *               incremental updates
+   */
+  private JavaRDD<LinkageTriple> calTermSimRDD(String csvFileName, int skipRow, boolean select) {
+    if (!new File(csvFileName).exists()) {
+      return null;
+    }
+
+    JavaPairRDD<String, Vector> importRDD = MatrixUtil.loadMatrix(spark, csvFileName, skipRow);
     if (importRDD == null || importRDD.values().first().size() == 0) {
       return null;
     }
 
-    CoordinateMatrix simMatrix = SimilarityUtil.calculateSimilarityFromVector(importRDD.values());
+    long numRows = importRDD.count();
+    if (LocalMatrixUtil.fitsLocally(numRows, numRows, props) && LocalMatrixUtil.fitsLocally(numRows, importRDD.values().first().size(), props)) {
+      return calTermSimLocally(importRDD.collect(), select);
+    }
+
+    double threshold = Double.parseDouble(props.getProperty(MudrodConstants.SIMILARITY_THRESHOLD, "0"));
+    CoordinateMatrix simMatrix = SimilarityUtil.calculateSimilarityFromVector(importRDD.values(), threshold);
     JavaRDD<String> rowKeyRDD = importRDD.keys();
-    return SimilarityUtil.matrixToTriples(rowKeyRDD, simMatrix);
+    return SimilarityUtil.matrixToTripleRDD(rowKeyRDD, numRows, simMatrix);
+  }
+
+  /**
+   * Incremental version of {@link #calTermSimRDD(String, int)} for a matrix
+   * built by {@link IncrementalMatrix}. Only the pairs of the rows changed
+   * since the previous call are compared, the other similarities are those
+   * stored by the previous call; the first call compares all pairs. The
+   * result is stored for the next call.
+   *
+   * @param matrixFileName matrix directory, each row is a term
+   * @param incremental the running aggregate the matrix is exported from
+   * @return Linkage triple RDD, each pair of terms once, null if there are
+   * none
+   * @throws IOException if the stored similarities cannot be read or written
+   */
+  public JavaRDD<LinkageTriple> updateTermSimRDD(String matrixFileName, IncrementalMatrix incremental) throws IOException {
+    JavaRDD<LinkageTriple> previous = incremental.loadSimilarities(spark.sc);
+    Set<String> changed = incremental.changedRows();
+    if (previous != null && changed.isEmpty()) {
+      return previous;
+    }
+
+    JavaRDD<LinkageTriple> triples;
+    if (previous == null) {
+      triples = calTermSimRDD(matrixFileName, 1, false);
+    } else {
+      JavaPairRDD<String, Vector> importRDD = MatrixUtil.loadMatrix(spark, matrixFileName, 1);
+      triples = importRDD == null ? null : SimilarityUtil.updateSimilarityFromVector(importRDD, changed, previous);
+    }
+    if (triples == null) {
+      return null;
+    }
+
+    incremental.saveSimilarities(triples);
+    incremental.clearChangedRows();
+    return incremental.loadSimilarities(spark.sc);
+  }
+
+  // pairs below the DIMSUM threshold are dropped, as their distributed estimates are not reliable
+  private JavaRDD<LinkageTriple> calTermSimLocally(List<Tuple2<String, Vector>> rows, boolean select) {
+    Vector[] vectors = new Vector[rows.size()];
+    for (int i = 0; i < vectors.length; i++) {
+      vectors[i] = rows.get(i)._2;
+    }
+    double threshold = Double.parseDouble(props.getProperty(MudrodConstants.SIMILARITY_THRESHOLD, "0"));
+    double minSimilarity = threshold > 0 ? threshold : Double.NEGATIVE_INFINITY;
+    int topK = 0;
+    if (select) {
+      minSimilarity = Math.max(minSimilarity, Double.parseDouble(props.getProperty(MudrodConstants.SIMILARITY_MIN_WEIGHT, "0")));
+      topK = Integer.parseInt(props.getProperty(MudrodConstants.SIMILARITY_TOP_K, "0"));
+    }
+    List<LinkageTriple> triples = new ArrayList<>();
+    for (MatrixEntry entry : LocalMatrixUtil.calculateSimilarityFromVector(vectors, minSimilarity, topK)) {
+      LinkageTriple triple = new LinkageTriple();
+      triple.keyAId = entry.i();
+      triple.keyBId = entry.j();
+      triple.keyA = rows.get((int) entry.i())._1;
+      triple.keyB = rows.get((int) entry.j())._1;
+      triple.weight = entry.value();
+      triples.add(triple);
+    }
+    return spark.sc.parallelize(triples);
   }
 
   /**
@@ -104,27 +208,76 @@ public class SemanticAnalyzer extends MudrodAbstract {
    * @return Linkage triple list
    */
   public List<LinkageTriple> calTermSimfromMatrix(String csvFileName, int simType, int skipRow) {
+    JavaRDD<LinkageTriple> triples = this.calTermSimRDD(csvFileName, simType, skipRow);
+    return triples == null ? null : triples.collect();
+  }
 
-    JavaPairRDD<String, Vector> importRDD = MatrixUtil.loadVectorFromCSV(spark, csvFileName, skipRow);
-    if (importRDD.values().first().size() == 0) {
+  /**
+   * Calculate term similarity from CSV matrix without collecting it, see
+   * {@link #calTermSimfromMatrix(String, int, int)}. Each pair of terms occurs
+   * in both directions.
+   *
+   * @param csvFileName csv file of matrix, each row is a term, and each column is a
+   *                    dimension in feature space
+   * @param simType the type of similary calculation to execute
+   * @param skipRow number of rows to skip in input CSV file e.g. header
+   * @return Linkage triple RDD, null if the matrix is empty
+   */
+  public JavaRDD<LinkageTriple> calTermSimRDD(String csvFileName, int simType, int skipRow) {
+
+    JavaPairRDD<String, Vector> importRDD = MatrixUtil.loadMatrix(spark, csvFileName, skipRow);
+    if (importRDD == null || importRDD.values().first().size() == 0) {
       return null;
     }
 
-    JavaRDD<LinkageTriple> triples = SimilarityUtil.calculateSimilarityFromVector(importRDD, simType);
+    int bands = Integer.parseInt(props.getProperty(MudrodConstants.SIMILARITY_LSH_BANDS, "0"));
+    int rows = Integer.parseInt(props.getProperty(MudrodConstants.SIMILARITY_LSH_ROWS, "2"));
+    return SimilarityUtil.calculateSimilarityFromVector(importRDD, simType, bands, rows);
+  }
 
-    return triples.collect();
+  /**
+   * Method of saving linkage triples to Elasticsearch from the Spark executors,
+   * keeping only the triples of at least mudrod.similarity.min.weight and the
+   * mudrod.similarity.top.k heaviest ones of each term, normalized by term if
+   * mudrod.similarity.normalize is set: triples by their concept A, keywords
+   * pairs by both of their terms.
+   *
+   * @param triples
+   *          linkage triple RDD, see {@link #calTermSimRDD(String, int)}
+   * @param index
+   *          index name
+   * @param type
+   *          type name
+   * @param bTriple
+   *          true to save concept_A/concept_B triples, false to save keywords
+   * @param bSymmetry
+   *          true if each pair occurs once and is saved in both directions
+   */
+  public void saveToES(JavaRDD<LinkageTriple> triples, String index, String type, boolean bTriple, boolean bSymmetry) {
+    JavaRDD<LinkageTriple> selected = null;
+    if (triples != null) {
+      double minWeight = Double.parseDouble(props.getProperty(MudrodConstants.SIMILARITY_MIN_WEIGHT, "0"));
+      int topK = Integer.parseInt(props.getProperty(MudrodConstants.SIMILARITY_TOP_K, "0"));
+      // keywords documents hold each pair once, like symmetric triples
+      selected = SimilarityUtil.selectTriples(triples, minWeight, topK, bSymmetry || !bTriple);
+      if (normalizeWeights() && bTriple) {
+        LinkageTriple.saveTriplesToES(es, LinkageTriple.standardTriples(selected, bSymmetry), index, type, true, false);
+        return;
+      } else if (normalizeWeights()) {
+        selected = LinkageTriple.standardPairs(selected);
+      }
+    }
+    LinkageTriple.saveTriplesToES(es, selected, index, type, bTriple, bSymmetry);
   }
 
   public void saveToES(List<LinkageTriple> tripleList, String index, String type) {
-    try {
-      LinkageTriple.insertTriples(es, tripleList, index, type);
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
+    saveToES(tripleList, index, type, false, false);
   }
 
   /**
-   * Method of saving linkage triples to Elasticsearch.
+   * Method of saving linkage triples to Elasticsearch, normalized by term if
+   * mudrod.similarity.normalize is set: triples by their concept A, keywords
+   * pairs by both of their terms.
    *
    * @param tripleList
    *          linkage triple list
@@ -139,10 +292,20 @@ public class SemanticAnalyzer extends MudrodAbstract {
    */
   public void saveToES(List<LinkageTriple> tripleList, String index, String type, boolean bTriple, boolean bSymmetry) {
     try {
-      LinkageTriple.insertTriples(es, tripleList, index, type, bTriple, bSymmetry);
+      if (tripleList != null && normalizeWeights() && bTriple) {
+        LinkageTriple.insertTriples(es, LinkageTriple.standardTriples(tripleList, bSymmetry), index, type, true, false);
+      } else if (tripleList != null && normalizeWeights()) {
+        LinkageTriple.insertTriples(es, LinkageTriple.standardPairs(tripleList), index, type, false, bSymmetry);
+      } else {
+        LinkageTriple.insertTriples(es, tripleList, index, type, bTriple, bSymmetry);
+      }
     } catch (IOException e) {
       e.printStackTrace();
 
     }
   }
+
+  private boolean normalizeWeights() {
+    return Boolean.parseBoolean(props.getProperty(MudrodConstants.SIMILARITY_NORMALIZE, "false"));
+  }
 }
@@ -0,0 +1,293 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.ssearch;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.KeywordTokenizer;
+import org.apache.lucene.analysis.core.LowerCaseFilter;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup.LookupResult;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingSuggester;
+import org.apache.lucene.search.suggest.analyzing.FuzzySuggester;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.sdap.mudrod.driver.ESDriver;
+import org.apache.sdap.mudrod.main.MudrodConstants;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * In-memory autocomplete over the Dataset-Metadata phrases of the metadata
+ * index and the search keywords of the user sessions. Suggestions come from a
+ * Lucene FST that is matched with a Levenshtein automaton, so typos in a
+ * prefix are tolerated, and are ranked by popularity: the number of datasets
+ * carrying a phrase plus the number of times it was searched in sessions.
+ *
+ * Phrases are matched case-insensitively and suggested with the casing they
+ * were first read with.
+ *
+ * The suggester is rebuilt in the background whenever the generation of the
+ * Mudrod index changes, and every mudrod.autocomplete.refresh.interval seconds
+ * for the session keywords, and swapped in atomically, so lookups never wait
+ * for Elasticsearch.
+ */
+public class AutoCompleter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AutoCompleter.class);
+
+  private static final String METADATA_FIELD = "Dataset-Metadata";
+  private static final int MAX_EDITS = 2;
+  private static final int NON_FUZZY_PREFIX = 1;
+  private static final int MIN_FUZZY_LENGTH = 3;
+  private static final int MAX_SESSION_KEYWORDS = 10000;
+
+  private final Properties props;
+  private final ESDriver es;
+  private final AtomicReference<AnalyzingSuggester> current = new AtomicReference<>();
+  private volatile long builtGeneration = -1;
+  private volatile long builtAt = 0;
+  private ScheduledExecutorService refresher = null;
+
+  public AutoCompleter(Properties props, ESDriver es) {
+    this.props = props;
+    this.es = es;
+  }
+
+  /**
+   * @return true once a suggester has been built
+   */
+  public boolean isReady() {
+    return current.get() != null;
+  }
+
+  /**
+   * Method of suggesting completions of a partially typed term
+   *
+   * @param term the partially typed term
+   * @param num  maximum number of suggestions
+   * @return suggestions, most popular first
+   */
+  public List<String> suggest(String term, int num) {
+    List<String> suggestions = new ArrayList<>();
+    AnalyzingSuggester suggester = current.get();
+    if (suggester == null || term == null || term.trim().isEmpty()) {
+      return suggestions;
+    }
+
+    try {
+      for (LookupResult result : suggester.lookup(term.trim(), false, num)) {
+        suggestions.add(result.key.toString());
+      }
+    } catch (IOException e) {
+      LOG.error("Error looking up suggestions for {}", term, e);
+    }
+    return suggestions;
+  }
+
+  /**
+   * Method of rebuilding the suggester from the phrases and their weights,
+   * replacing the current one once it is complete
+   *
+   * @param phrases phrases mapped to their popularity, phrases differing only
+   *                in case are merged
+   * @throws IOException if the FST cannot be built
+   */
+  public void build(Map<String, Long> phrases) throws IOException {
+    Analyzer analyzer = new Analyzer() {
+      @Override
+      protected TokenStreamComponents createComponents(String fieldName) {
+        Tokenizer tokenizer = new KeywordTokenizer();
+        return new TokenStreamComponents(tokenizer, new LowerCaseFilter(tokenizer));
+      }
+    };
+    FuzzySuggester suggester = new FuzzySuggester(new RAMDirectory(), "autocomplete", analyzer, analyzer, AnalyzingSuggester.EXACT_FIRST | AnalyzingSuggester.PRESERVE_SEP,
+        256, -1, true, MAX_EDITS, true, NON_FUZZY_PREFIX, MIN_FUZZY_LENGTH, false);
+    Map<String, Long> merged = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    phrases.forEach((phrase, weight) -> merged.merge(phrase, weight, Long::sum));
+    suggester.build(new PhraseIterator(merged));
+    current.set(suggester);
+  }
+
+  /**
+   * Method of rebuilding the suggester from Elasticsearch if the Mudrod index
+   * has changed since the last build or the session keywords are due
+   *
+   * @return true if a new suggester was swapped in
+   */
+  public synchronized boolean refresh() {
+    String index = props.getProperty(MudrodConstants.ES_INDEX_NAME);
+    long start = System.currentTimeMillis();
+    long interval = TimeUnit.SECONDS.toMillis(Long.parseLong(props.getProperty(MudrodConstants.AUTOCOMPLETE_REFRESH_INTERVAL, "3600")));
+    // the first spelling read of a phrase is the one suggested
+    Map<String, Long> phrases = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    long generation;
+    try {
+      generation = es.getIndexGeneration(index);
+      if (generation == builtGeneration && (interval <= 0 || start - builtAt < interval)) {
+        return false;
+      }
+      readMetadataPhrases(index, phrases);
+      readSessionKeywords(phrases);
+      build(phrases);
+    } catch (Exception e) {
+      LOG.error("Error rebuilding autocomplete suggestions, keeping the previous version.", e);
+      return false;
+    }
+    builtGeneration = generation;
+    builtAt = start;
+    LOG.info("Built autocomplete suggester with {} phrases in {}ms.", phrases.size(), System.currentTimeMillis() - start);
+    return true;
+  }
+
+  /**
+   * Start building the suggester in the background and rebuilding it whenever
+   * the Mudrod index changes or the session keywords are due
+   *
+   * @param intervalSeconds seconds between checks for a changed index
+   */
+  public synchronized void start(long intervalSeconds) {
+    if (refresher != null) {
+      return;
+    }
+    refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "autocomplete-refresher");
+      t.setDaemon(true);
+      return t;
+    });
+    refresher.scheduleWithFixedDelay(this::refresh, 0, Math.max(intervalSeconds, 1), TimeUnit.SECONDS);
+  }
+
+  public synchronized void close() {
+    if (refresher != null) {
+      refresher.shutdownNow();
+      refresher = null;
+    }
+  }
+
+  private void readMetadataPhrases(String index, Map<String, Long> phrases) {
+    SearchResponse scrollResp = es.getClient().prepareSearch(index).setTypes(props.getProperty(MudrodConstants.RAW_METADATA_TYPE)).setScroll(new TimeValue(60000))
+        .setQuery(QueryBuilders.matchAllQuery()).setFetchSource(new String[] { METADATA_FIELD }, null).setSize(1000).execute().actionGet();
+    while (scrollResp.getHits().getHits().length != 0) {
+      for (SearchHit hit : scrollResp.getHits().getHits()) {
+        addPhrases(hit.getSource().get(METADATA_FIELD), 1, phrases);
+      }
+      scrollResp = es.getClient().prepareSearchScroll(scrollResp.getScrollId()).setScroll(new TimeValue(600000)).execute().actionGet();
+    }
+  }
+
+  private void readSessionKeywords(Map<String, Long> phrases) {
+    List<String> logIndices = es.getIndexListWithPrefix(props.getProperty(MudrodConstants.LOG_INDEX));
+    if (logIndices.isEmpty()) {
+      return;
+    }
+
+    SearchResponse sr = es.getClient().prepareSearch(logIndices.toArray(new String[0])).setTypes(MudrodConstants.SESSION_STATS_TYPE).setQuery(QueryBuilders.matchAllQuery())
+        .setSize(0).addAggregation(AggregationBuilders.terms("KeywordAgg").field("keywords").size(MAX_SESSION_KEYWORDS)).execute().actionGet();
+    Terms keywords = sr.getAggregations().get("KeywordAgg");
+    for (Terms.Bucket keyword : keywords.getBuckets()) {
+      for (String phrase : keyword.getKeyAsString().split(",")) {
+        addPhrase(phrase, keyword.getDocCount(), phrases);
+      }
+    }
+  }
+
+  /**
+   * The completion field may hold a single phrase, a list of phrases or a
+   * completion object with an "input" entry.
+   */
+  private static void addPhrases(Object value, long weight, Map<String, Long> phrases) {
+    if (value instanceof String) {
+      addPhrase((String) value, weight, phrases);
+    } else if (value instanceof Collection) {
+      for (Object item : (Collection<?>) value) {
+        addPhrases(item, weight, phrases);
+      }
+    } else if (value instanceof Map) {
+      addPhrases(((Map<?, ?>) value).get("input"), weight, phrases);
+    }
+  }
+
+  private static void addPhrase(String phrase, long weight, Map<String, Long> phrases) {
+    String trimmed = phrase.trim();
+    if (!trimmed.isEmpty()) {
+      phrases.merge(trimmed, weight, Long::sum);
+    }
+  }
+
+  private static class PhraseIterator implements InputIterator {
+    private final Iterator<Map.Entry<String, Long>> entries;
+    private long weight;
+
+    PhraseIterator(Map<String, Long> phrases) {
+      this.entries = phrases.entrySet().iterator();
+    }
+
+    @Override
+    public BytesRef next() {
+      if (!entries.hasNext()) {
+        return null;
+      }
+      Map.Entry<String, Long> entry = entries.next();
+      // the FST stores weights as ints
+      weight = Math.min(entry.getValue(), Integer.MAX_VALUE);
+      return new BytesRef(entry.getKey());
+    }
+
+    @Override
+    public long weight() {
+      return weight;
+    }
+
+    @Override
+    public BytesRef payload() {
+      return null;
+    }
+
+    @Override
+    public boolean hasPayloads() {
+      return false;
+    }
+
+    @Override
+    public Set<BytesRef> contexts() {
+      return null;
+    }
+
+    @Override
+    public boolean hasContexts() {
+      return false;
+    }
+  }
+}
@@ -17,36 +17,41 @@ import org.apache.sdap.mudrod.discoveryengine.MudrodAbstract;
 import org.apache.sdap.mudrod.driver.ESDriver;
 import org.apache.sdap.mudrod.driver.SparkDriver;
 import org.apache.sdap.mudrod.main.MudrodConstants;
+import org.apache.sdap.mudrod.utils.SparseMatrixFile;
+import org.apache.spark.mllib.linalg.SparseVector;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
 import java.util.Properties;
 
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 
 /**
  * Supports ability to import click stream data into Elasticsearch
- * through .csv file
+ * from the click stream matrix
  */
 public class ClickStreamImporter extends MudrodAbstract {
   /**
    *
    */
   private static final long serialVersionUID = 1L;
+  private static final Logger LOG = LoggerFactory.getLogger(ClickStreamImporter.class);
 
   public ClickStreamImporter(Properties props, ESDriver es, SparkDriver spark) {
     super(props, es, spark);
-    addClickStreamMapping();
   }
 
   /**
    * Method to add Elasticsearch mapping for click stream data
+   *
+   * @param index index name
    */
-  public void addClickStreamMapping() {
+  public void addClickStreamMapping(String index) {
     XContentBuilder mapping;
     String clickStreamMatrixType = props.getProperty(MudrodConstants.CLICK_STREAM_MATRIX_TYPE);
     try {
@@ -61,7 +66,7 @@ public class ClickStreamImporter extends MudrodAbstract {
               .endObject();
 
       es.getClient().admin().indices().preparePutMapping(
-              props.getProperty(MudrodConstants.ES_INDEX_NAME)).setType(
+              index).setType(
                       clickStreamMatrixType).setSource(
                               mapping).execute().actionGet();
     } catch (IOException e) {
@@ -70,46 +75,47 @@ public class ClickStreamImporter extends MudrodAbstract {
   }
 
   /**
-   * Method to import click stream CSV into Elasticsearch
+   * Method to import the click stream matrix into Elasticsearch, see
+   * {@link org.apache.sdap.mudrod.utils.SparseMatrixFile}. The matrix is
+   * written into a new version of the type, published only if it is read
+   * completely.
    */
-  public void importfromCSVtoES() {
+  public void importFromMatrixToES() {
     String clickStreamMatrixType = props.getProperty(MudrodConstants.CLICK_STREAM_MATRIX_TYPE);
     String esIndexName = props.getProperty(MudrodConstants.ES_INDEX_NAME);
-    es.deleteType(esIndexName, clickStreamMatrixType);
+    String matrixPath = props.getProperty(MudrodConstants.CLICKSTREAM_PATH);
+    String version = es.createVersion(esIndexName, clickStreamMatrixType);
+    addClickStreamMapping(version);
     es.createBulkProcessor();
-
-    BufferedReader br = null;
-    String cvsSplitBy = ",";
+    boolean complete = false;
 
     try {
-      br = new BufferedReader(new FileReader(props.getProperty(MudrodConstants.CLICKSTREAM_PATH)));
-      String line = br.readLine();
-      // first item needs to be skipped
-      String[] dataList = line.split(cvsSplitBy);
-      while ((line = br.readLine()) != null) {
-        String[] clicks = line.split(cvsSplitBy);
-        for (int i = 1; i < clicks.length; i++) {
-          if (!"0.0".equals(clicks[i])) {
-            IndexRequest ir = new IndexRequest(esIndexName, clickStreamMatrixType)
-                .source(jsonBuilder().startObject().field("query", clicks[0]).field(
-                        "dataID", dataList[i]).field("clicks", clicks[i]).endObject());
+      List<String> dataList = SparseMatrixFile.readColumnKeys(matrixPath);
+      SparseMatrixFile.forEachRow(matrixPath, (query, row) -> {
+        SparseVector clicks = row.toSparse();
+        for (int i = 0; i < clicks.indices().length; i++) {
+          try {
+            IndexRequest ir = new IndexRequest(version, clickStreamMatrixType)
+                .source(jsonBuilder().startObject().field("query", query).field(
+                        "dataID", dataList.get(clicks.indices()[i])).field("clicks", String.valueOf(clicks.values()[i])).endObject());
             es.getBulkProcessor().add(ir);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
           }
         }
-      }
-    } catch (FileNotFoundException e) {
-      e.printStackTrace();
-    } catch (IOException e) {
-      e.printStackTrace();
+      });
+      complete = true;
+    } catch (IOException | UncheckedIOException e) {
+      LOG.error("Error importing click stream matrix {}", matrixPath, e);
     } finally {
-      if (br != null) {
-        try {
-          br.close();
-          es.destroyBulkProcessor();
-        } catch (IOException e) {
-          e.printStackTrace();
-        }
-      }
+      es.destroyBulkProcessor();
+    }
+
+    if (complete) {
+      es.publishVersion(esIndexName, clickStreamMatrixType, version);
+      es.bumpIndexGeneration(esIndexName);
+    } else {
+      es.discardVersion(version);
     }
   }
 
@@ -34,9 +34,18 @@ import java.util.Properties;
  */
 public class Dispatcher extends MudrodAbstract {
   private static final Logger LOG = LoggerFactory.getLogger(Dispatcher.class);
+  private final LinkageIntegration li;
 
   public Dispatcher(Properties props, ESDriver es, SparkDriver spark) {
     super(props, es, spark);
+    this.li = new LinkageIntegration(props, es, null);
+  }
+
+  /**
+   * @return the linkage integration used for query expansion
+   */
+  public LinkageIntegration getLinkageIntegration() {
+    return li;
   }
 
   /**
@@ -47,7 +56,6 @@ public class Dispatcher extends MudrodAbstract {
    * @return a map from term to similarity
    */
   public Map<String, Double> getRelatedTerms(String input, int num) {
-    LinkageIntegration li = new LinkageIntegration(props, this.es, null);
     Map<String, Double> sortedMap = li.appyMajorRule(input);
     Map<String, Double> selected_Map = new HashMap<>();
     int count = 0;
@@ -68,7 +76,6 @@ public class Dispatcher extends MudrodAbstract {
    * @return a map from term to similarity
    */
   public Map<String, Double> getRelatedTermsByT(String input, double T) {
-    LinkageIntegration li = new LinkageIntegration(this.props, this.es, null);
     Map<String, Double> sortedMap = li.appyMajorRule(input);
     Map<String, Double> selected_Map = new HashMap<>();
 
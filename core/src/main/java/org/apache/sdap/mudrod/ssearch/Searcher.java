@@ -13,14 +13,14 @@
  */
 package org.apache.sdap.mudrod.ssearch;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 
 import org.apache.sdap.mudrod.discoveryengine.MudrodAbstract;
 import org.apache.sdap.mudrod.driver.ESDriver;
 import org.apache.sdap.mudrod.driver.SparkDriver;
+import org.apache.sdap.mudrod.main.MudrodConstants;
 import org.apache.sdap.mudrod.ssearch.structure.SResult;
+import org.apache.sdap.mudrod.ssearch.structure.SResultPage;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.index.query.BoolQueryBuilder;
@@ -28,11 +28,17 @@ import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.sort.SortOrder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 /**
@@ -43,11 +49,59 @@ public class Searcher extends MudrodAbstract implements Serializable {
    * 
    */
   private static final long serialVersionUID = 1L;
+  private static final Logger LOG = LoggerFactory.getLogger(Searcher.class);
   DecimalFormat ndForm = new DecimalFormat("#.##");
   static final Integer MAX_CHAR = 700;
+  static final int MAX_HITS = 500;
+  // source fields read by searchByQuery, everything else (e.g. Dataset-Metadata) is not fetched
+  static final String[] SOURCE_FIELDS = { "Dataset-ShortName", "Dataset-LongName", "DatasetParameter-Variable", "Dataset-Description", "DatasetCitation-ReleaseDateLong",
+      "Dataset-DatasetCoverage-StopTimeLong", "Dataset-ProcessingLevel", "DatasetSource-Sensor-ShortName" };
+  // numeric fields read from doc values rather than the source
+  static final String[] DOC_VALUE_FIELDS = { "DatasetCoverage-StartTimeLong-Long", "Dataset-UserPopularity", "Dataset-AllTimePopularity", "Dataset-MonthlyPopularity" };
+  // Elasticsearch's default index.max_result_window
+  static final int MAX_RESULT_WINDOW = 10000;
+  // number of recently re-ranked Rank-SVM windows kept for paging
+  static final int RANKED_WINDOW_CACHE_SIZE = 100;
+  private final Dispatcher dp;
+  private final int rankingWindow;
+  private final long rankingWindowTtl;
+  private final int maxResultWindow;
+  private final Map<String, RankedWindow> rankedWindows = new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * Rank-SVM window re-ranked for a query, with the time it expires at.
+   */
+  private static final class RankedWindow implements Serializable {
+    private static final long serialVersionUID = 1L;
+    final List<SResult> results;
+    final long expiresAt;
+
+    RankedWindow(List<SResult> results, long expiresAt) {
+      this.results = results;
+      this.expiresAt = expiresAt;
+    }
+  }
 
   public Searcher(Properties props, ESDriver es, SparkDriver spark) {
     super(props, es, spark);
+    this.dp = new Dispatcher(props, es, null);
+    this.maxResultWindow = Integer.parseInt(props.getProperty(MudrodConstants.SEARCH_MAX_RESULT_WINDOW, String.valueOf(MAX_RESULT_WINDOW)));
+    this.rankingWindow = Math.min(Integer.parseInt(props.getProperty(MudrodConstants.RANKING_WINDOW, String.valueOf(MAX_HITS))), maxResultWindow);
+    this.rankingWindowTtl = TimeUnit.SECONDS.toMillis(Long.parseLong(props.getProperty(MudrodConstants.RANKING_WINDOW_TTL, "60")));
+  }
+
+  /**
+   * @return the deepest result (from + size) that can be paged to
+   */
+  public int getMaxResultWindow() {
+    return maxResultWindow;
+  }
+
+  /**
+   * @return the dispatcher used to build semantic queries
+   */
+  public Dispatcher getDispatcher() {
+    return dp;
   }
 
   /**
@@ -90,17 +144,27 @@ public class Searcher extends MudrodAbstract implements Serializable {
    * @param rankOption a keyword used to dertermine the ElasticSearch SortOrder 
    * @return a list of search result
    */
-  @SuppressWarnings("unchecked")
   public List<SResult> searchByQuery(String index, String type, String query, String queryOperator, String rankOption) {
-    boolean exists = es.getClient()
-            .admin()
-            .indices()
-            .prepareExists(index)
-            .execute()
-            .actionGet()
-            .isExists();
-    if (!exists) {
-      return new ArrayList<>();
+    return searchByQuery(index, type, query, queryOperator, rankOption, 0, MAX_HITS).getResults();
+  }
+
+  /**
+   * Method of semantic search returning one page of results in Elasticsearch
+   * order
+   *
+   * @param index          index name in Elasticsearch
+   * @param type           type name in Elasticsearch
+   * @param query          regular query string
+   * @param queryOperator query mode- query, or, and
+   * @param rankOption a keyword used to dertermine the ElasticSearch SortOrder 
+   * @param from           offset of the first result
+   * @param size           maximum number of results
+   * @return a page of search results
+   */
+  @SuppressWarnings("unchecked")
+  public SResultPage searchByQuery(String index, String type, String query, String queryOperator, String rankOption, int from, int size) {
+    if (!es.indexExists(index)) {
+      return new SResultPage(new ArrayList<>(), 0, from);
     }
 
     SortOrder order = null;
@@ -142,24 +206,28 @@ public class Searcher extends MudrodAbstract implements Serializable {
       sortField = "DatasetCoverage-StopTimeLong-Long";
       order = SortOrder.DESC;
       break;
+    case "Rank-SVM":
+      // the re-ranking window has to hold the most relevant candidates
+      sortField = "_score";
+      order = SortOrder.DESC;
+      break;
     default:
       sortField = "Dataset-ShortName";
       order = SortOrder.ASC;
       break;
     }
 
-    Dispatcher dp = new Dispatcher(this.getConfig(), this.getES(), null);
     BoolQueryBuilder qb = dp.createSemQuery(query, 1.0, queryOperator);
     List<SResult> resultList = new ArrayList<>();
 
-    SearchRequestBuilder builder = es.getClient()
-            .prepareSearch(index)
-            .setTypes(type)
-            .setQuery(qb)
+    SearchRequestBuilder builder = es
+            .prepareSearch(index, type, qb, SOURCE_FIELDS, null, DOC_VALUE_FIELDS)
             .addSort(sortField, order)
-            .setSize(500)
+            .setFrom(Math.min(from, maxResultWindow))
+            .setSize((int) Math.max(0, Math.min(size, (long) maxResultWindow - from)))
             .setTrackScores(true);
     SearchResponse response = builder.execute().actionGet();
+    long parseStart = System.nanoTime();
 
     for (SearchHit hit : response.getHits().getHits()) {
       Map<String, Object> result = hit.getSource();
@@ -185,7 +253,7 @@ public class Searcher extends MudrodAbstract implements Serializable {
       String dateText = df2.format(date);
 
       // start date
-      Long start = (Long) result.get("DatasetCoverage-StartTimeLong-Long");
+      Long start = ((Number) ESDriver.getDocValue(hit, "DatasetCoverage-StartTimeLong-Long")).longValue();
       Date startDate = new Date(start);
       String startDateTxt = df2.format(startDate);
 
@@ -202,9 +270,9 @@ public class Searcher extends MudrodAbstract implements Serializable {
       String processingLevel = (String) result.get("Dataset-ProcessingLevel");
       Double proNum = getProLevelNum(processingLevel);
 
-      Double userPop = getPop(((Integer) result.get("Dataset-UserPopularity")).doubleValue());
-      Double allPop = getPop(((Integer) result.get("Dataset-AllTimePopularity")).doubleValue());
-      Double monthPop = getPop(((Integer) result.get("Dataset-MonthlyPopularity")).doubleValue());
+      Double userPop = getPop(((Number) ESDriver.getDocValue(hit, "Dataset-UserPopularity")).doubleValue());
+      Double allPop = getPop(((Number) ESDriver.getDocValue(hit, "Dataset-AllTimePopularity")).doubleValue());
+      Double monthPop = getPop(((Number) ESDriver.getDocValue(hit, "Dataset-MonthlyPopularity")).doubleValue());
 
       List<String> sensors = (List<String>) result.get("DatasetSource-Sensor-ShortName");
 
@@ -232,7 +300,66 @@ public class Searcher extends MudrodAbstract implements Serializable {
       resultList.add(re);
     }
 
-    return resultList;
+    LOG.debug("Fetched {} hits with {} source bytes in {}ms, parsed in {}ms", response.getHits().getHits().length, ESDriver.getSourceBytes(response), response.getTookInMillis(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - parseStart));
+    return new SResultPage(resultList, response.getHits().getTotalHits(), from);
+  }
+
+  /**
+   * Method of semantic search returning one page of ranked results. With
+   * Rank-SVM only the top candidates (mudrod.ranking.window) by relevance are
+   * re-ranked, and the page is taken from that re-ranked window; other rank
+   * options are paged by Elasticsearch directly.
+   *
+   * @param index          index name in Elasticsearch
+   * @param type           type name in Elasticsearch
+   * @param query          regular query string
+   * @param queryOperator query mode- query, or, and
+   * @param rankOption a keyword used to dertermine the ElasticSearch SortOrder 
+   * @param rr             selected ranking method
+   * @param from           offset of the first result
+   * @param size           maximum number of results
+   * @return a page of search results
+   */
+  public SResultPage searchPage(String index, String type, String query, String queryOperator, String rankOption, Ranker rr, int from, int size) {
+    if (!"Rank-SVM".equals(rankOption)) {
+      return searchByQuery(index, type, query, queryOperator, rankOption, from, size);
+    }
+
+    List<SResult> ranked = rankedWindow(index, type, query, queryOperator, rankOption, rr);
+    int start = Math.min(from, ranked.size());
+    int end = (int) Math.min((long) from + size, ranked.size());
+    return new SResultPage(new ArrayList<>(ranked.subList(start, end)), ranked.size(), from);
+  }
+
+  /**
+   * Method of getting the re-ranked Rank-SVM window of a query, reusing the
+   * one ranked for a previous page within mudrod.ranking.window.ttl as long
+   * as the index generation has not changed since
+   */
+  private List<SResult> rankedWindow(String index, String type, String query, String queryOperator, String rankOption, Ranker rr) {
+    if (rankingWindowTtl <= 0) {
+      return rr.rank(searchByQuery(index, type, query, queryOperator, rankOption, 0, rankingWindow).getResults());
+    }
+    String key = es.getIndexGeneration(index) + "\n" + index + "\n" + type + "\n" + query + "\n" + queryOperator;
+    long now = System.currentTimeMillis();
+    synchronized (rankedWindows) {
+      RankedWindow cached = rankedWindows.get(key);
+      if (cached != null && cached.expiresAt > now) {
+        return cached.results;
+      }
+    }
+
+    List<SResult> ranked = rr.rank(searchByQuery(index, type, query, queryOperator, rankOption, 0, rankingWindow).getResults());
+    synchronized (rankedWindows) {
+      rankedWindows.put(key, new RankedWindow(ranked, now + rankingWindowTtl));
+      Iterator<String> eldest = rankedWindows.keySet().iterator();
+      while (rankedWindows.size() > RANKED_WINDOW_CACHE_SIZE) {
+        eldest.next();
+        eldest.remove();
+      }
+    }
+    return ranked;
   }
 
   /**
@@ -247,31 +374,56 @@ public class Searcher extends MudrodAbstract implements Serializable {
    * @return search results
    */
   public String ssearch(String index, String type, String query, String queryOperator, String rankOption, Ranker rr) {
-    List<SResult> li = searchByQuery(index, type, query, queryOperator, rankOption);
-    if ("Rank-SVM".equals(rankOption)) {
-      li = rr.rank(li);
-    }
-    Gson gson = new Gson();
-    List<JsonObject> fileList = new ArrayList<>();
-
-    for (SResult aLi : li) {
-      JsonObject file = new JsonObject();
-      file.addProperty("Short Name", (String) SResult.get(aLi, "shortName"));
-      file.addProperty("Long Name", (String) SResult.get(aLi, "longName"));
-      file.addProperty("Topic", (String) SResult.get(aLi, "topic"));
-      file.addProperty("Description", (String) SResult.get(aLi, "description"));
-      file.addProperty("Release Date", (String) SResult.get(aLi, "relase_date"));
-      fileList.add(file);
-
-      file.addProperty("Start/End Date", (String) SResult.get(aLi, "startDate") + " - " + (String) SResult.get(aLi, "endDate"));
-      file.addProperty("Processing Level", (String) SResult.get(aLi, "processingLevel"));
-
-      file.addProperty("Sensor", (String) SResult.get(aLi, "sensors"));
+    StringWriter out = new StringWriter();
+    try {
+      ssearch(index, type, query, queryOperator, rankOption, rr, 0, MAX_HITS, out);
+    } catch (IOException e) {
+      // StringWriter does not throw IOException
+      throw new IllegalStateException(e);
     }
-    JsonElement fileListElement = gson.toJsonTree(fileList);
+    return out.toString();
+  }
+
+  /**
+   * Method of semantic search writing one page of JSON results directly to a
+   * writer, without building an intermediate JSON tree or string
+   *
+   * @param index          index name in Elasticsearch
+   * @param type           type name in Elasticsearch
+   * @param query          regular query string
+   * @param queryOperator query mode- query, or, and
+   * @param rankOption a keyword used to dertermine the ElasticSearch SortOrder 
+   * @param rr             selected ranking method
+   * @param from           offset of the first result
+   * @param size           maximum number of results
+   * @param out            writer the PDResults JSON is written to
+   * @throws IOException if the results cannot be written
+   */
+  public void ssearch(String index, String type, String query, String queryOperator, String rankOption, Ranker rr, int from, int size, Writer out) throws IOException {
+    SResultPage page = searchPage(index, type, query, queryOperator, rankOption, rr, from, size);
 
-    JsonObject pDResults = new JsonObject();
-    pDResults.add("PDResults", fileListElement);
-    return pDResults.toString();
+    JsonWriter writer = new JsonWriter(out);
+    writer.setHtmlSafe(true);
+    writer.setSerializeNulls(false);
+    writer.beginObject();
+    writer.name("PDResults");
+    writer.beginArray();
+    for (SResult aLi : page.getResults()) {
+      writer.beginObject();
+      writer.name("Short Name").value((String) SResult.get(aLi, "shortName"));
+      writer.name("Long Name").value((String) SResult.get(aLi, "longName"));
+      writer.name("Topic").value((String) SResult.get(aLi, "topic"));
+      writer.name("Description").value((String) SResult.get(aLi, "description"));
+      writer.name("Release Date").value((String) SResult.get(aLi, "relase_date"));
+      writer.name("Start/End Date").value((String) SResult.get(aLi, "startDate") + " - " + (String) SResult.get(aLi, "endDate"));
+      writer.name("Processing Level").value((String) SResult.get(aLi, "processingLevel"));
+      writer.name("Sensor").value((String) SResult.get(aLi, "sensors"));
+      writer.endObject();
+    }
+    writer.endArray();
+    writer.name("PDFrom").value(page.getFrom());
+    writer.name("PDTotal").value(page.getTotal());
+    writer.endObject();
+    writer.flush();
   }
 }
@@ -0,0 +1,48 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.ssearch.structure;
+
+import java.util.List;
+
+/**
+ * Data structure class for one page of search results
+ */
+public class SResultPage {
+  private final List<SResult> results;
+  private final long total;
+  private final int from;
+
+  /**
+   * @param results search results on this page
+   * @param total   total number of results that can be paged through
+   * @param from    offset of the first result on this page
+   */
+  public SResultPage(List<SResult> results, long total, int from) {
+    this.results = results;
+    this.total = total;
+    this.from = from;
+  }
+
+  public List<SResult> getResults() {
+    return results;
+  }
+
+  public long getTotal() {
+    return total;
+  }
+
+  public int getFrom() {
+    return from;
+  }
+}
@@ -0,0 +1,378 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.sdap.mudrod.main.MudrodConstants;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.Optional;
+import org.apache.spark.mllib.linalg.SparseVector;
+import org.apache.spark.mllib.linalg.Vector;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Running aggregate of a count matrix built from the daily log indices, so
+ * that a pipeline run only reads the indices added since the previous one.
+ * The counts of each log index are stored as a partial matrix named after
+ * the index suffix and folded into the aggregate by summing the rows of the
+ * same key; columns first seen in a partial are appended to those of the
+ * aggregate. Everything is kept in the directory &lt;matrix&gt;.parts:
+ * <ul>
+ * <li>one {@link SparseMatrixFile} per index suffix</li>
+ * <li>{@value #AGGREGATE_DIR}: the sum of the folded partial matrices</li>
+ * <li>{@value #FOLDED_FILE}: the suffixes folded into the aggregate</li>
+ * <li>{@value #CHANGED_FILE}: the keys of the rows changed since the
+ * similarities were last computed</li>
+ * <li>{@value #SIMILARITY_DIR}: the similarities computed last, as a Spark
+ * object file of {@link LinkageTriple}</li>
+ * </ul>
+ * Deleting the directory starts over from all log indices.
+ */
+public class IncrementalMatrix {
+
+  public static final String PARTS_SUFFIX = ".parts";
+
+  static final String AGGREGATE_DIR = "_aggregate";
+  static final String FOLDED_FILE = "_folded";
+  static final String CHANGED_FILE = "_changed";
+  // without a leading underscore, Hadoop input formats skip such paths
+  static final String SIMILARITY_DIR = "similarities";
+
+  private static final String TMP_SUFFIX = "._tmp";
+
+  private final Path dir;
+  private final boolean compress;
+
+  /**
+   * @param matrixPath path of the matrix exported from the aggregate
+   * @param props      the Mudrod configuration
+   */
+  public IncrementalMatrix(String matrixPath, Properties props) {
+    this.dir = new Path(matrixPath + PARTS_SUFFIX);
+    this.compress = Boolean.parseBoolean(props.getProperty(MudrodConstants.MATRIX_COMPRESS, "true"));
+  }
+
+  /**
+   * @param props the Mudrod configuration
+   * @return true if mudrod.matrix.incremental is set
+   */
+  public static boolean isEnabled(Properties props) {
+    return Boolean.parseBoolean(props.getProperty(MudrodConstants.MATRIX_INCREMENTAL, "false"));
+  }
+
+  /**
+   * @param index  log index name
+   * @param prefix log index prefix, mudrod.log.index
+   * @return the suffix of the index, usually the month it was imported for
+   */
+  public static String suffixOf(String index, String prefix) {
+    return index.startsWith(prefix) ? index.substring(prefix.length()) : index;
+  }
+
+  /**
+   * @param indices log index names
+   * @param prefix  log index prefix, mudrod.log.index
+   * @return the indices whose suffix has not been folded into the aggregate
+   * yet, sorted
+   * @throws IOException if the folded suffixes cannot be read
+   */
+  public List<String> pendingIndices(List<String> indices, String prefix) throws IOException {
+    Set<String> folded = foldedSuffixes();
+    List<String> pending = new ArrayList<>();
+    for (String index : indices) {
+      if (!folded.contains(suffixOf(index, prefix))) {
+        pending.add(index);
+      }
+    }
+    pending.sort(null);
+    return pending;
+  }
+
+  /**
+   * @return the suffixes folded into the aggregate, in folding order
+   * @throws IOException if the file cannot be read
+   */
+  public Set<String> foldedSuffixes() throws IOException {
+    return new LinkedHashSet<>(readKeys(FOLDED_FILE));
+  }
+
+  /**
+   * @param suffix log index suffix
+   * @return the path to export the counts of the log index to, see
+   * {@link MatrixUtil#exportMatrix(org.apache.spark.mllib.linalg.distributed.RowMatrix, List, List, String, Properties)}
+   */
+  public String partPath(String suffix) {
+    return new Path(dir, suffix).toString();
+  }
+
+  /**
+   * Method of adding the partial matrices of some suffixes to the aggregate
+   * and recording them as folded
+   *
+   * @param sc       spark context
+   * @param suffixes suffixes of the partial matrices, see
+   *                 {@link #partPath(String)}; a missing matrix has no
+   *                 counts
+   * @throws IOException if the matrices cannot be read or written
+   */
+  public void fold(JavaSparkContext sc, List<String> suffixes) throws IOException {
+    if (suffixes.isEmpty()) {
+      return;
+    }
+
+    String aggregatePath = new Path(dir, AGGREGATE_DIR).toString();
+    boolean hasAggregate = SparseMatrixFile.exists(aggregatePath);
+    List<String> columns = hasAggregate ? SparseMatrixFile.readColumnKeys(aggregatePath) : new ArrayList<>();
+    Map<String, Integer> columnIds = new HashMap<>();
+    for (String column : columns) {
+      columnIds.put(column, columnIds.size());
+    }
+
+    // existing columns keep their index, new ones are appended
+    List<JavaPairRDD<String, Vector>> parts = new ArrayList<>();
+    List<int[]> mappings = new ArrayList<>();
+    for (String suffix : suffixes) {
+      String partPath = partPath(suffix);
+      if (!SparseMatrixFile.exists(partPath)) {
+        continue;
+      }
+      List<String> partColumns = SparseMatrixFile.readColumnKeys(partPath);
+      int[] mapping = new int[partColumns.size()];
+      for (int i = 0; i < mapping.length; i++) {
+        String column = partColumns.get(i);
+        Integer id = columnIds.get(column);
+        if (id == null) {
+          id = columns.size();
+          columnIds.put(column, id);
+          columns.add(column);
+        }
+        mapping[i] = id;
+      }
+      parts.add(SparseMatrixFile.load(sc, partPath));
+      mappings.add(mapping);
+    }
+
+    JavaPairRDD<String, MatrixUtil.SparseRowBuffer> buffers = null;
+    if (hasAggregate) {
+      buffers = SparseMatrixFile.load(sc, aggregatePath).mapValues(row -> toBuffer(row, null));
+    }
+    for (int p = 0; p < parts.size(); p++) {
+      int[] mapping = mappings.get(p);
+      JavaPairRDD<String, MatrixUtil.SparseRowBuffer> part = parts.get(p).mapValues(row -> toBuffer(row, mapping));
+      buffers = buffers == null ? part : buffers.union(part);
+    }
+
+    if (!parts.isEmpty()) {
+      int size = columns.size();
+      SparseMatrixFile.write(buffers.reduceByKey(MatrixUtil.SparseRowBuffer::merge).mapValues(buffer -> buffer.toVector(size)), columns, aggregatePath, compress);
+    }
+
+    Set<String> folded = foldedSuffixes();
+    folded.addAll(suffixes);
+    writeKeys(FOLDED_FILE, folded);
+  }
+
+  private static MatrixUtil.SparseRowBuffer toBuffer(Vector row, int[] mapping) {
+    MatrixUtil.SparseRowBuffer buffer = new MatrixUtil.SparseRowBuffer();
+    SparseVector active = row.toSparse();
+    for (int k = 0; k < active.indices().length; k++) {
+      int index = active.indices()[k];
+      buffer.add(mapping == null ? index : mapping[index], active.values()[k]);
+    }
+    return buffer;
+  }
+
+  /**
+   * @param sc spark context
+   * @return the rows of the aggregate keyed by row key, null if nothing was
+   * folded yet
+   * @throws IOException if the aggregate cannot be read
+   */
+  public JavaPairRDD<String, Vector> loadAggregate(JavaSparkContext sc) throws IOException {
+    String aggregatePath = new Path(dir, AGGREGATE_DIR).toString();
+    return SparseMatrixFile.exists(aggregatePath) ? SparseMatrixFile.load(sc, aggregatePath) : null;
+  }
+
+  /**
+   * @return the column keys of the aggregate
+   * @throws IOException if the aggregate cannot be read
+   */
+  public List<String> aggregateColumns() throws IOException {
+    return SparseMatrixFile.readColumnKeys(new Path(dir, AGGREGATE_DIR).toString());
+  }
+
+  /**
+   * Method of exporting the aggregate as it is
+   *
+   * @param sc   spark context
+   * @param path matrix directory, replaced if it exists
+   * @throws IOException if the matrix cannot be written
+   */
+  public void exportAggregate(JavaSparkContext sc, String path) throws IOException {
+    JavaPairRDD<String, Vector> rows = loadAggregate(sc);
+    if (rows != null) {
+      SparseMatrixFile.write(rows, aggregateColumns(), path, compress);
+    }
+  }
+
+  /**
+   * Method of comparing two versions of a matrix whose columns may differ
+   *
+   * @param before     rows of the previous version keyed by row key
+   * @param beforeCols column keys of the previous version
+   * @param after      rows of the new version keyed by row key
+   * @param afterCols  column keys of the new version
+   * @return the keys of the rows added, removed, or holding a different
+   * value under some column key
+   */
+  public static Set<String> changedRows(JavaPairRDD<String, Vector> before, List<String> beforeCols, JavaPairRDD<String, Vector> after, List<String> afterCols) {
+    Map<String, Integer> afterIds = new HashMap<>();
+    for (String column : afterCols) {
+      afterIds.put(column, afterIds.size());
+    }
+    int[] mapping = new int[beforeCols.size()];
+    for (int i = 0; i < mapping.length; i++) {
+      mapping[i] = afterIds.getOrDefault(beforeCols.get(i), -1);
+    }
+
+    List<String> changed = before.fullOuterJoin(after).filter(row -> !sameRow(row._2._1, row._2._2, mapping)).keys().collect();
+    return new LinkedHashSet<>(changed);
+  }
+
+  private static boolean sameRow(Optional<Vector> before, Optional<Vector> after, int[] mapping) {
+    if (!before.isPresent() || !after.isPresent() || before.get().numNonzeros() != after.get().numNonzeros()) {
+      return false;
+    }
+    SparseVector active = before.get().toSparse();
+    for (int k = 0; k < active.indices().length; k++) {
+      int index = mapping[active.indices()[k]];
+      if (index < 0 || after.get().apply(index) != active.values()[k]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the keys of the rows changed since {@link #clearChangedRows()}
+   * @throws IOException if the file cannot be read
+   */
+  public Set<String> changedRows() throws IOException {
+    return new LinkedHashSet<>(readKeys(CHANGED_FILE));
+  }
+
+  /**
+   * Method of recording changed rows until the similarities are updated
+   *
+   * @param keys row keys
+   * @throws IOException if the file cannot be written
+   */
+  public void addChangedRows(Collection<String> keys) throws IOException {
+    Set<String> changed = changedRows();
+    changed.addAll(keys);
+    writeKeys(CHANGED_FILE, changed);
+  }
+
+  /**
+   * Method of forgetting the changed rows once the similarities are updated
+   *
+   * @throws IOException if the file cannot be deleted
+   */
+  public void clearChangedRows() throws IOException {
+    Path file = new Path(dir, CHANGED_FILE);
+    file.getFileSystem(new Configuration()).delete(file, false);
+  }
+
+  /**
+   * @param sc spark context
+   * @return the similarities stored last, null if there are none
+   * @throws IOException if the directory cannot be checked
+   */
+  public JavaRDD<LinkageTriple> loadSimilarities(JavaSparkContext sc) throws IOException {
+    Path similarities = new Path(dir, SIMILARITY_DIR);
+    if (!similarities.getFileSystem(new Configuration()).exists(similarities)) {
+      return null;
+    }
+    return sc.objectFile(similarities.toString());
+  }
+
+  /**
+   * Method of storing similarities, replacing the previous ones once they are
+   * written, so they may be computed from the previous ones
+   *
+   * @param triples linkage triples
+   * @throws IOException if the similarities cannot be written
+   */
+  public void saveSimilarities(JavaRDD<LinkageTriple> triples) throws IOException {
+    Path similarities = new Path(dir, SIMILARITY_DIR);
+    Path tmp = new Path(dir, SIMILARITY_DIR + TMP_SUFFIX);
+    FileSystem fs = similarities.getFileSystem(new Configuration());
+    fs.delete(tmp, true);
+    triples.saveAsObjectFile(tmp.toString());
+    fs.delete(similarities, true);
+    if (!fs.rename(tmp, similarities)) {
+      throw new IOException("Unable to move " + tmp + " to " + similarities);
+    }
+  }
+
+  private List<String> readKeys(String name) throws IOException {
+    Path file = new Path(dir, name);
+    FileSystem fs = file.getFileSystem(new Configuration());
+    if (!fs.exists(file)) {
+      return new ArrayList<>();
+    }
+    try (DataInputStream in = new DataInputStream(fs.open(file))) {
+      int size = in.readInt();
+      String[] keys = new String[size];
+      for (int i = 0; i < size; i++) {
+        keys[i] = in.readUTF();
+      }
+      return new ArrayList<>(Arrays.asList(keys));
+    }
+  }
+
+  // written through a temporary file so that a failed run leaves the previous list
+  private void writeKeys(String name, Collection<String> keys) throws IOException {
+    Path file = new Path(dir, name);
+    Path tmp = new Path(dir, name + TMP_SUFFIX);
+    FileSystem fs = file.getFileSystem(new Configuration());
+    fs.mkdirs(dir);
+    try (DataOutputStream out = fs.create(tmp, true)) {
+      out.writeInt(keys.size());
+      for (String key : keys) {
+        out.writeUTF(key);
+      }
+    }
+    fs.delete(file, false);
+    if (!fs.rename(tmp, file)) {
+      throw new IOException("Unable to move " + tmp + " to " + file);
+    }
+  }
+}
@@ -13,6 +13,8 @@
  */
 package org.apache.sdap.mudrod.utils;
 
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.mllib.linalg.Vector;
 import org.apache.spark.mllib.linalg.distributed.RowMatrix;
 
 import java.util.List;
@@ -30,9 +32,22 @@ public class LabeledRowMatrix {
   // wordDocMatrix: a matrix in which each row is corresponding to a term and
   // each column is a doc.
   public RowMatrix rowMatrix;
+  // rows cached by MatrixUtil so that they stay aligned with rowkeys
+  JavaPairRDD<String, Vector> cachedRows;
 
   public LabeledRowMatrix() {
     // TODO Auto-generated constructor stub
   }
 
+  /**
+   * Release the cached rows once the matrix has been consumed. Rows read
+   * afterwards are recomputed and may no longer line up with rowkeys.
+   */
+  public void unpersist() {
+    if (cachedRows != null) {
+      cachedRows.unpersist(false);
+      cachedRows = null;
+    }
+  }
+
 }
@@ -13,22 +13,21 @@
  */
 package org.apache.sdap.mudrod.utils;
 
+import com.google.gson.JsonObject;
 import org.apache.sdap.mudrod.driver.ESDriver;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
 import org.elasticsearch.action.index.IndexRequest;
-import org.elasticsearch.action.search.SearchRequestBuilder;
-import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.action.update.UpdateRequest;
-import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
-import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.search.SearchHit;
-import org.elasticsearch.search.aggregations.AggregationBuilders;
-import org.elasticsearch.search.aggregations.bucket.terms.Terms;
-import org.elasticsearch.search.sort.SortOrder;
+import org.elasticsearch.spark.rdd.api.java.JavaEsSpark;
+import scala.Tuple2;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.text.DecimalFormat;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -53,8 +52,6 @@ public class LinkageTriple implements Serializable {
   public String keyA;
   // keyB: TermB
   public String keyB;
-  // df: Format number
-  public static DecimalFormat df = new DecimalFormat("#.00");
 
   public LinkageTriple() {
   }
@@ -73,16 +70,38 @@ public class LinkageTriple implements Serializable {
     LinkageTriple.insertTriples(es, triples, index, type, false, false);
   }
 
+  /**
+   * Method of rebuilding a type from linkage triples. The triples are written
+   * into a new version of the type, which replaces the searched one only once
+   * it is complete, see {@link ESDriver#createVersion(String, String)}.
+   *
+   * @param es        the Elasticsearch driver
+   * @param triples   linkage triples, null publishes an empty type
+   * @param index     index name
+   * @param type      type name
+   * @param bTriple   true to write concept_A/concept_B documents, false to
+   *                  write keywords documents
+   * @param bSymmetry true to also write each triple in the reverse direction
+   * @throws IOException if a document cannot be built
+   */
   public static void insertTriples(ESDriver es, List<LinkageTriple> triples, String index, String type, Boolean bTriple, boolean bSymmetry) throws IOException {
-    es.deleteType(index, type);
-    if (bTriple) {
-      LinkageTriple.addMapping(es, index, type);
-    }
-
-    if (triples == null) {
-      return;
+    String version = es.createVersion(index, type);
+    try {
+      if (bTriple) {
+        LinkageTriple.addMapping(es, version, type);
+      }
+      if (triples != null) {
+        writeTriples(es, triples, version, type, bTriple, bSymmetry);
+      }
+      es.publishVersion(index, type, version);
+    } catch (IOException | RuntimeException e) {
+      es.discardVersion(version);
+      throw e;
     }
+    es.bumpIndexGeneration(index);
+  }
 
+  private static void writeTriples(ESDriver es, List<LinkageTriple> triples, String index, String type, boolean bTriple, boolean bSymmetry) throws IOException {
     es.createBulkProcessor();
     for (LinkageTriple triple : triples) {
 
@@ -95,13 +114,7 @@ public class LinkageTriple implements Serializable {
       } else {
         jsonBuilder.field("keywords", triple.keyA + "," + triple.keyB);
       }
-      double tripleWeight = 0;
-      try {
-        tripleWeight = Double.parseDouble(df.format(triple.weight));
-      } catch (NumberFormatException  e) {
-        // do nothing, triple weight is 0 as it cannot be parsed
-      }
-      jsonBuilder.field("weight", tripleWeight);
+      jsonBuilder.field("weight", formatWeight(triple.weight));
       jsonBuilder.endObject();
 
       IndexRequest ir = new IndexRequest(index, type).source(jsonBuilder);
@@ -112,7 +125,7 @@ public class LinkageTriple implements Serializable {
         symmetryJsonBuilder.field("concept_A", triple.keyB);
         symmetryJsonBuilder.field("concept_B", triple.keyA);
 
-        symmetryJsonBuilder.field("weight", Double.parseDouble(df.format(triple.weight)));
+        symmetryJsonBuilder.field("weight", formatWeight(triple.weight));
 
         symmetryJsonBuilder.endObject();
 
@@ -123,6 +136,77 @@ public class LinkageTriple implements Serializable {
     es.destroyBulkProcessor();
   }
 
+  /**
+   * Method of writing linkage triples to Elasticsearch directly from the Spark
+   * executors, in the same document format as
+   * {@link #insertTriples(ESDriver, List, String, String, Boolean, boolean)},
+   * so the triples are never collected in the driver. Like that method, the
+   * type is rebuilt into a new version published once it is complete.
+   *
+   * @param es        the Elasticsearch driver
+   * @param triples   linkage triples, null publishes an empty type
+   * @param index     index name
+   * @param type      type name
+   * @param bTriple   true to write concept_A/concept_B documents, false to
+   *                  write keywords documents
+   * @param bSymmetry true to also write each triple in the reverse direction
+   */
+  public static void saveTriplesToES(ESDriver es, JavaRDD<LinkageTriple> triples, String index, String type, boolean bTriple, boolean bSymmetry) {
+    String version = es.createVersion(index, type);
+    try {
+      if (bTriple) {
+        LinkageTriple.addMapping(es, version, type);
+      }
+      if (triples != null) {
+        JavaEsSpark.saveJsonToEs(toJson(triples, bTriple, bSymmetry), version + "/" + type);
+      }
+      es.publishVersion(index, type, version);
+    } catch (RuntimeException e) {
+      es.discardVersion(version);
+      throw e;
+    }
+    es.bumpIndexGeneration(index);
+  }
+
+  private static JavaRDD<String> toJson(JavaRDD<LinkageTriple> triples, boolean bTriple, boolean bSymmetry) {
+    return triples.flatMap(triple -> {
+      List<String> json = new ArrayList<>(2);
+      double weight = formatWeight(triple.weight);
+      if (bTriple) {
+        json.add(tripleJson(triple.keyA, triple.keyB, weight));
+        if (bSymmetry) {
+          json.add(tripleJson(triple.keyB, triple.keyA, weight));
+        }
+      } else {
+        JsonObject doc = new JsonObject();
+        doc.addProperty("keywords", triple.keyA + "," + triple.keyB);
+        doc.addProperty("weight", weight);
+        json.add(doc.toString());
+      }
+      return json.iterator();
+    });
+  }
+
+  private static String tripleJson(String conceptA, String conceptB, double weight) {
+    JsonObject doc = new JsonObject();
+    doc.addProperty("concept_A", conceptA);
+    doc.addProperty("concept_B", conceptB);
+    doc.addProperty("weight", weight);
+    return doc.toString();
+  }
+
+  /**
+   * Round a weight to two decimals, half even like a DecimalFormat("#.00"),
+   * without shared state, so it can be used from several threads. Weights
+   * that are not finite become 0.
+   */
+  static double formatWeight(double weight) {
+    if (Double.isNaN(weight) || Double.isInfinite(weight)) {
+      return 0;
+    }
+    return new BigDecimal(weight).setScale(2, RoundingMode.HALF_EVEN).doubleValue();
+  }
+
   public static void addMapping(ESDriver es, String index, String type) {
     XContentBuilder mapping;
     try {
@@ -137,59 +221,126 @@ public class LinkageTriple implements Serializable {
     }
   }
 
-  public static void standardTriples(ESDriver es, String index, String type) throws IOException {
-    es.createBulkProcessor();
-
-    SearchResponse sr = es.getClient().prepareSearch(index).setTypes(type).setQuery(QueryBuilders.matchAllQuery()).setSize(0)
-        .addAggregation(AggregationBuilders.terms("concepts").field("concept_A").size(0)).execute().actionGet();
-    Terms concepts = sr.getAggregations().get("concepts");
-
-    for (Terms.Bucket entry : concepts.getBuckets()) {
-      String concept = (String) entry.getKey();
-      double maxSim = LinkageTriple.getMaxSimilarity(es, index, type, concept);
-      if (maxSim == 1.0) {
-        continue;
-      }
-
-      SearchResponse scrollResp = es.getClient().prepareSearch(index).setTypes(type).setScroll(new TimeValue(60000)).setQuery(QueryBuilders.termQuery("concept_A", concept))
-          .addSort("weight", SortOrder.DESC).setSize(100).execute().actionGet();
-
-      while (true) {
-        for (SearchHit hit : scrollResp.getHits().getHits()) {
-          Map<String, Object> metadata = hit.getSource();
-          double sim = (double) metadata.get("weight");
-          double newSim = sim / maxSim;
-          UpdateRequest ur = es.generateUpdateRequest(index, type, hit.getId(), "weight", Double.parseDouble(df.format(newSim)));
-          es.getBulkProcessor().add(ur);
-        }
-
-        scrollResp = es.getClient().prepareSearchScroll(scrollResp.getScrollId()).setScroll(new TimeValue(600000)).execute().actionGet();
-        if (scrollResp.getHits().getHits().length == 0) {
-          break;
-        }
+  /**
+   * Method of normalizing the weights of linkage triples by concept before
+   * they are written: each weight is divided by the largest weight of its
+   * concept A, and rounded like the weights written by
+   * {@link #insertTriples(ESDriver, List, String, String, Boolean, boolean)}.
+   *
+   * @param triples   linkage triples
+   * @param bSymmetry true if each triple also stands for the reverse one,
+   *                  which is then normalized by the weights of concept B
+   * @return the normalized triples, each one in a single direction, to be
+   * written with bSymmetry false
+   */
+  public static List<LinkageTriple> standardTriples(List<LinkageTriple> triples, boolean bSymmetry) {
+    List<LinkageTriple> directed = new ArrayList<>();
+    Map<String, Double> maxWeights = new HashMap<>();
+    for (LinkageTriple triple : triples) {
+      for (LinkageTriple oriented : directions(triple, bSymmetry)) {
+        directed.add(oriented);
+        maxWeights.merge(oriented.keyA, oriented.weight, Math::max);
       }
     }
+    for (LinkageTriple triple : directed) {
+      triple.weight = standardWeight(triple.weight, maxWeights.get(triple.keyA));
+    }
+    return directed;
+  }
 
-    es.destroyBulkProcessor();
+  /**
+   * Method of normalizing the weights of linkage triples by concept inside
+   * Spark, see {@link #standardTriples(List, boolean)}
+   *
+   * @param triples   linkage triples
+   * @param bSymmetry true if each triple also stands for the reverse one
+   * @return the normalized triples, each one in a single direction
+   */
+  public static JavaRDD<LinkageTriple> standardTriples(JavaRDD<LinkageTriple> triples, boolean bSymmetry) {
+    JavaPairRDD<String, LinkageTriple> byConcept = triples.flatMapToPair(triple -> {
+      List<Tuple2<String, LinkageTriple>> oriented = new ArrayList<>(2);
+      for (LinkageTriple direction : directions(triple, bSymmetry)) {
+        oriented.add(new Tuple2<>(direction.keyA, direction));
+      }
+      return oriented.iterator();
+    });
+    JavaPairRDD<String, Double> maxWeights = byConcept.mapValues(triple -> triple.weight).reduceByKey(Math::max);
+    return byConcept.join(maxWeights).values().map(pair -> {
+      LinkageTriple triple = pair._1;
+      triple.weight = standardWeight(triple.weight, pair._2);
+      return triple;
+    });
   }
 
-  private static double getMaxSimilarity(ESDriver es, String index, String type, String concept) {
+  /**
+   * Method of normalizing the weights of undirected pairs, e.g. keywords
+   * documents that are looked up from either term: each weight is divided by
+   * the larger of the largest weights of its two terms, so that it reads the
+   * same from both of them.
+   *
+   * @param pairs linkage triples, each pair of terms once
+   * @return the normalized pairs, to be written as they are
+   */
+  public static List<LinkageTriple> standardPairs(List<LinkageTriple> pairs) {
+    List<LinkageTriple> copies = new ArrayList<>();
+    Map<String, Double> maxWeights = new HashMap<>();
+    for (LinkageTriple pair : pairs) {
+      LinkageTriple copy = directed(pair.keyA, pair.keyB, pair.keyAId, pair.keyBId, pair.weight);
+      copies.add(copy);
+      maxWeights.merge(copy.keyA, copy.weight, Math::max);
+      maxWeights.merge(copy.keyB, copy.weight, Math::max);
+    }
+    for (LinkageTriple copy : copies) {
+      copy.weight = standardWeight(copy.weight, Math.max(maxWeights.get(copy.keyA), maxWeights.get(copy.keyB)));
+    }
+    return copies;
+  }
 
-    double maxSim = 1.0;
-    SearchRequestBuilder builder = es.getClient().prepareSearch(index).setTypes(type).setQuery(QueryBuilders.termQuery("concept_A", concept)).addSort("weight", SortOrder.DESC).setSize(1);
+  /**
+   * Method of normalizing the weights of undirected pairs inside Spark, see
+   * {@link #standardPairs(List)}
+   *
+   * @param pairs linkage triples, each pair of terms once
+   * @return the normalized pairs
+   */
+  public static JavaRDD<LinkageTriple> standardPairs(JavaRDD<LinkageTriple> pairs) {
+    JavaRDD<LinkageTriple> copies = pairs.map(pair -> directed(pair.keyA, pair.keyB, pair.keyAId, pair.keyBId, pair.weight));
+    JavaPairRDD<String, Double> maxWeights = copies.flatMapToPair(pair -> {
+      List<Tuple2<String, Double>> ends = new ArrayList<>(2);
+      ends.add(new Tuple2<>(pair.keyA, pair.weight));
+      ends.add(new Tuple2<>(pair.keyB, pair.weight));
+      return ends.iterator();
+    }).reduceByKey(Math::max);
+    return copies.mapToPair(pair -> new Tuple2<>(pair.keyA, pair)).join(maxWeights).values()
+        .mapToPair(withMaxA -> new Tuple2<>(withMaxA._1.keyB, withMaxA)).join(maxWeights).values().map(withMaxes -> {
+          LinkageTriple pair = withMaxes._1._1;
+          pair.weight = standardWeight(pair.weight, Math.max(withMaxes._1._2, withMaxes._2));
+          return pair;
+        });
+  }
 
-    SearchResponse usrhis = builder.execute().actionGet();
-    SearchHit[] hits = usrhis.getHits().getHits();
-    if (hits.length == 1) {
-      SearchHit hit = hits[0];
-      Map<String, Object> result = hit.getSource();
-      maxSim = (double) result.get("weight");
+  // each direction is a copy, with its weight rounded like the written weights
+  private static List<LinkageTriple> directions(LinkageTriple triple, boolean bSymmetry) {
+    List<LinkageTriple> directions = new ArrayList<>(2);
+    directions.add(directed(triple.keyA, triple.keyB, triple.keyAId, triple.keyBId, triple.weight));
+    if (bSymmetry) {
+      directions.add(directed(triple.keyB, triple.keyA, triple.keyBId, triple.keyAId, triple.weight));
     }
+    return directions;
+  }
 
-    if (maxSim == 0.0) {
-      maxSim = 1.0;
-    }
+  private static LinkageTriple directed(String keyA, String keyB, long keyAId, long keyBId, double weight) {
+    LinkageTriple triple = new LinkageTriple();
+    triple.keyA = keyA;
+    triple.keyB = keyB;
+    triple.keyAId = keyAId;
+    triple.keyBId = keyBId;
+    triple.weight = formatWeight(weight);
+    return triple;
+  }
 
-    return maxSim;
+  // concepts whose largest weight is 0 are left as they are
+  private static double standardWeight(double weight, double maxWeight) {
+    return formatWeight(maxWeight == 0.0 ? weight : weight / maxWeight);
   }
 }
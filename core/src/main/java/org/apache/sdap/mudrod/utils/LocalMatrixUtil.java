@@ -0,0 +1,320 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import com.github.fommil.netlib.LAPACK;
+import org.apache.sdap.mudrod.main.MudrodConstants;
+import org.apache.spark.mllib.linalg.SparseVector;
+import org.apache.spark.mllib.linalg.Vector;
+import org.apache.spark.mllib.linalg.Vectors;
+import org.apache.spark.mllib.linalg.distributed.MatrixEntry;
+import org.netlib.util.intW;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * In-JVM versions of the TF-IDF, truncated SVD and cosine similarity steps of
+ * {@link MatrixUtil} and {@link SimilarityUtil}, for matrices small enough to
+ * hold on the driver. They skip Spark job scheduling and shuffles and run on
+ * all cores of the driver. Results match the Spark versions up to rounding,
+ * and up to the sign of each SVD dimension, which is arbitrary in both.
+ */
+public class LocalMatrixUtil {
+
+  // singular values below this fraction of the largest are dropped, like RowMatrix.computeSVD
+  private static final double SVD_RCOND = 1.0E-9d;
+
+  private LocalMatrixUtil() {
+  }
+
+  /**
+   * @param rows  number of rows of a matrix
+   * @param cols  number of columns of the matrix
+   * @param props the Mudrod configuration
+   * @return true if the matrix has at most mudrod.matrix.local.max.cells cells
+   */
+  public static boolean fitsLocally(long rows, long cols, Properties props) {
+    long maxCells = Long.parseLong(props.getProperty(MudrodConstants.MATRIX_LOCAL_MAX_CELLS, "0"));
+    return maxCells > 0 && rows * cols <= maxCells;
+  }
+
+  /**
+   * Local version of {@link MatrixUtil#createTFIDFMatrix(org.apache.spark.mllib.linalg.distributed.RowMatrix)},
+   * the inverse document frequency of MLlib's IDF with each row as a document
+   *
+   * @param rows matrix rows, all of the same size
+   * @return TF-IDF rows, sparse where the input rows are
+   */
+  public static Vector[] createTFIDFMatrix(Vector[] rows) {
+    if (rows.length == 0) {
+      return rows;
+    }
+    int numCols = rows[0].size();
+    long[] docFreq = new long[numCols];
+    for (Vector row : rows) {
+      SparseVector active = row.toSparse();
+      for (int k = 0; k < active.indices().length; k++) {
+        if (active.values()[k] > 0.0) {
+          docFreq[active.indices()[k]]++;
+        }
+      }
+    }
+    double[] idf = new double[numCols];
+    for (int j = 0; j < numCols; j++) {
+      idf[j] = Math.log((rows.length + 1.0) / (docFreq[j] + 1.0));
+    }
+
+    Vector[] tfidf = new Vector[rows.length];
+    IntStream.range(0, rows.length).parallel().forEach(r -> {
+      if (rows[r] instanceof SparseVector) {
+        SparseVector row = (SparseVector) rows[r];
+        double[] values = new double[row.indices().length];
+        for (int k = 0; k < values.length; k++) {
+          values[k] = row.values()[k] * idf[row.indices()[k]];
+        }
+        tfidf[r] = Vectors.sparse(numCols, row.indices(), values);
+      } else {
+        double[] values = rows[r].toArray().clone();
+        for (int j = 0; j < numCols; j++) {
+          values[j] *= idf[j];
+        }
+        tfidf[r] = Vectors.dense(values);
+      }
+    });
+    return tfidf;
+  }
+
+  /**
+   * Local version of {@link MatrixUtil#buildSVDMatrix(org.apache.spark.mllib.linalg.distributed.RowMatrix, int)}.
+   * Like RowMatrix.computeSVD on small matrices, the top eigenvectors of the
+   * Gramian are computed with LAPACK, using the Gramian of the rows when
+   * there are fewer rows than columns.
+   *
+   * @param rows      matrix rows, all of the same size
+   * @param dimension number of dimensions to keep
+   * @return U * S, each row corresponding to an input row, with one column
+   * per singular value above the relative tolerance
+   */
+  public static Vector[] buildSVDMatrix(Vector[] rows, int dimension) {
+    if (rows.length == 0) {
+      return rows;
+    }
+    int numRows = rows.length;
+    int numCols = rows[0].size();
+
+    int[][] rowIndices = new int[numRows][];
+    double[][] rowValues = new double[numRows][];
+    for (int r = 0; r < numRows; r++) {
+      SparseVector row = rows[r].toSparse();
+      rowIndices[r] = row.indices();
+      rowValues[r] = row.values();
+    }
+    int[][] colIndices = new int[numCols][];
+    double[][] colValues = new double[numCols][];
+    transpose(rowIndices, rowValues, colIndices, colValues);
+
+    boolean byRows = numRows < numCols;
+    int size = byRows ? numRows : numCols;
+    double[] gram = byRows ? gramian(rowIndices, rowValues, colIndices, colValues) : gramian(colIndices, colValues, rowIndices, rowValues);
+
+    int k = Math.min(dimension, size);
+    double[] eigenvalues = new double[size];
+    double[] eigenvectors = new double[size * k];
+    symmetricEigs(gram, size, k, eigenvalues, eigenvectors);
+
+    // LAPACK returns the eigenvalues in ascending order
+    double sigmaMax = Math.sqrt(Math.max(eigenvalues[k - 1], 0.0));
+    int kept = 0;
+    while (kept < k && Math.sqrt(Math.max(eigenvalues[k - 1 - kept], 0.0)) > SVD_RCOND * sigmaMax) {
+      kept++;
+    }
+    int sk = kept;
+
+    Vector[] us = new Vector[numRows];
+    IntStream.range(0, numRows).parallel().forEach(r -> {
+      double[] values = new double[sk];
+      for (int c = 0; c < sk; c++) {
+        int col = (k - 1 - c) * size;
+        if (byRows) {
+          // the eigenvectors are U, scale them by the singular values
+          values[c] = eigenvectors[col + r] * Math.sqrt(eigenvalues[k - 1 - c]);
+        } else {
+          // the eigenvectors are V, U * S = A * V
+          double sum = 0.0;
+          for (int t = 0; t < rowIndices[r].length; t++) {
+            sum += rowValues[r][t] * eigenvectors[col + rowIndices[r][t]];
+          }
+          values[c] = sum;
+        }
+      }
+      us[r] = Vectors.dense(values);
+    });
+    return us;
+  }
+
+  /**
+   * Local version of {@link SimilarityUtil#calculateSimilarityFromVector(org.apache.spark.api.java.JavaRDD)}
+   *
+   * @param rows vectors, each corresponding to a term
+   * @return cosine similarity of each pair of rows i &lt; j that share a non zero
+   * dimension, like RowMatrix.columnSimilarities of the transpose
+   */
+  public static List<MatrixEntry> calculateSimilarityFromVector(Vector[] rows) {
+    return calculateSimilarityFromVector(rows, Double.NEGATIVE_INFINITY, 0);
+  }
+
+  /**
+   * Method of calculating the cosine similarities of rows, keeping only the
+   * pairs the distributed path would write: those of at least minSimilarity
+   * (e.g. the DIMSUM threshold or mudrod.similarity.min.weight), and, if topK
+   * is positive, only the pairs among the topK most similar rows of either of
+   * their rows, like {@link SimilarityUtil#selectTriples(org.apache.spark.api.java.JavaRDD, double, int, boolean)}
+   * of symmetric triples. Each thread keeps at most topK pairs per row, so the
+   * pairs are selected before they are collected.
+   *
+   * @param rows          vectors, each corresponding to a term
+   * @param minSimilarity smallest similarity kept
+   * @param topK          number of most similar rows kept per row, 0 keeps all
+   * @return cosine similarity of the selected pairs of rows i &lt; j that share
+   * a non zero dimension
+   */
+  public static List<MatrixEntry> calculateSimilarityFromVector(Vector[] rows, double minSimilarity, int topK) {
+    int n = rows.length;
+    double[][] dense = new double[n][];
+    double[] norms = new double[n];
+    for (int i = 0; i < n; i++) {
+      dense[i] = rows[i].toArray();
+      norms[i] = Vectors.norm(rows[i], 2.0);
+    }
+
+    if (topK <= 0) {
+      return IntStream.range(0, n).parallel().mapToObj(i -> {
+        List<MatrixEntry> entries = new ArrayList<>();
+        for (int j = i + 1; j < n; j++) {
+          double similarity = cosine(dense, norms, i, j);
+          if (similarity != 0.0 && similarity >= minSimilarity) {
+            entries.add(new MatrixEntry(i, j, similarity));
+          }
+        }
+        return entries;
+      }).flatMap(List::stream).collect(Collectors.toList());
+    }
+
+    // each row compares itself with all other rows, a pair is kept once if in the top of either row
+    Map<Long, MatrixEntry> selected = IntStream.range(0, n).parallel().mapToObj(i -> {
+      PriorityQueue<MatrixEntry> top = new PriorityQueue<>(topK + 1, Comparator.comparingDouble(MatrixEntry::value));
+      for (int j = 0; j < n; j++) {
+        double similarity = j == i ? 0.0 : cosine(dense, norms, i, j);
+        if (similarity != 0.0 && similarity >= minSimilarity) {
+          top.add(new MatrixEntry(Math.min(i, j), Math.max(i, j), similarity));
+          if (top.size() > topK) {
+            top.poll();
+          }
+        }
+      }
+      return top;
+    }).flatMap(PriorityQueue::stream).collect(Collectors.toMap(entry -> entry.i() * n + entry.j(), entry -> entry, (a, b) -> a));
+    return new ArrayList<>(selected.values());
+  }
+
+  private static double cosine(double[][] dense, double[] norms, int i, int j) {
+    if (norms[i] == 0.0 || norms[j] == 0.0) {
+      return 0.0;
+    }
+    double[] a = dense[i];
+    double[] b = dense[j];
+    double dot = 0.0;
+    for (int d = 0; d < a.length; d++) {
+      dot += a[d] * b[d];
+    }
+    return dot / (norms[i] * norms[j]);
+  }
+
+  /**
+   * Fill the columns of a sparse matrix given by its rows
+   */
+  private static void transpose(int[][] rowIndices, double[][] rowValues, int[][] colIndices, double[][] colValues) {
+    int[] counts = new int[colIndices.length];
+    for (int[] indices : rowIndices) {
+      for (int index : indices) {
+        counts[index]++;
+      }
+    }
+    for (int c = 0; c < colIndices.length; c++) {
+      colIndices[c] = new int[counts[c]];
+      colValues[c] = new double[counts[c]];
+    }
+    int[] filled = new int[colIndices.length];
+    for (int r = 0; r < rowIndices.length; r++) {
+      for (int t = 0; t < rowIndices[r].length; t++) {
+        int c = rowIndices[r][t];
+        colIndices[c][filled[c]] = r;
+        colValues[c][filled[c]] = rowValues[r][t];
+        filled[c]++;
+      }
+    }
+  }
+
+  /**
+   * Gramian G = L * L^T of the lines L of a sparse matrix, given by its lines
+   * and by its transpose, each thread filling whole rows of G
+   *
+   * @return G, column major
+   */
+  private static double[] gramian(int[][] lineIndices, double[][] lineValues, int[][] crossIndices, double[][] crossValues) {
+    int size = lineIndices.length;
+    double[] gram = new double[size * size];
+    IntStream.range(0, size).parallel().forEach(i -> {
+      int offset = i * size;
+      for (int t = 0; t < lineIndices[i].length; t++) {
+        int[] indices = crossIndices[lineIndices[i][t]];
+        double[] values = crossValues[lineIndices[i][t]];
+        double a = lineValues[i][t];
+        for (int s = 0; s < indices.length; s++) {
+          gram[offset + indices[s]] += a * values[s];
+        }
+      }
+    });
+    return gram;
+  }
+
+  /**
+   * Largest k eigenvalues and eigenvectors of a symmetric matrix with LAPACK
+   * dsyevr, in ascending order
+   */
+  private static void symmetricEigs(double[] matrix, int size, int k, double[] eigenvalues, double[] eigenvectors) {
+    LAPACK lapack = LAPACK.getInstance();
+    intW found = new intW(0);
+    intW info = new intW(0);
+    int[] support = new int[2 * Math.max(1, k)];
+    double[] workSize = new double[1];
+    int[] iworkSize = new int[1];
+    lapack.dsyevr("V", "I", "U", size, matrix, size, 0.0, 0.0, size - k + 1, size, 0.0, found, eigenvalues, eigenvectors, size, support, workSize, -1, iworkSize, -1,
+        info);
+    double[] work = new double[(int) workSize[0]];
+    int[] iwork = new int[iworkSize[0]];
+    lapack.dsyevr("V", "I", "U", size, matrix, size, 0.0, 0.0, size - k + 1, size, 0.0, found, eigenvalues, eigenvectors, size, support, work, work.length, iwork,
+        iwork.length, info);
+    if (info.val != 0) {
+      throw new IllegalStateException("LAPACK dsyevr failed with info " + info.val);
+    }
+  }
+}
@@ -14,27 +14,34 @@
 package org.apache.sdap.mudrod.utils;
 
 import org.apache.sdap.mudrod.driver.SparkDriver;
+import org.apache.sdap.mudrod.main.MudrodConstants;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
-import org.apache.spark.api.java.Optional;
 import org.apache.spark.api.java.function.*;
+import org.apache.spark.broadcast.Broadcast;
 import org.apache.spark.mllib.feature.IDF;
 import org.apache.spark.mllib.feature.IDFModel;
 import org.apache.spark.mllib.linalg.*;
 import org.apache.spark.mllib.linalg.distributed.IndexedRow;
 import org.apache.spark.mllib.linalg.distributed.IndexedRowMatrix;
 import org.apache.spark.mllib.linalg.distributed.RowMatrix;
+import org.apache.spark.storage.StorageLevel;
 import scala.Tuple2;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.stream.Stream;
 
 /**
@@ -42,6 +49,9 @@ import java.util.stream.Stream;
  */
 public class MatrixUtil {
 
+  public static final String SVD_EXACT = "exact";
+  public static final String SVD_RANDOMIZED = "randomized";
+
   private MatrixUtil() {
   }
 
@@ -71,6 +81,34 @@ public class MatrixUtil {
     return u.multiply(Matrices.diag(s));
   }
 
+  /**
+   * buildSVDMatrix: Generate SVD matrix from TF-IDF matrix with the SVD
+   * method selected by mudrod.svd.method: exact, see
+   * {@link #buildSVDMatrix(RowMatrix, int)}, or randomized, see
+   * {@link RandomizedSVD}.
+   *
+   * @param tfidfMatrix
+   *          each row is a term and each column is a document name and each
+   *          cell is the TF-IDF value of the term in the corresponding
+   *          document.
+   * @param dimension
+   *          Column number of the SVD matrix
+   * @param props
+   *          the Mudrod configuration
+   * @return RowMatrix, each row is a term and each column is a dimension in the
+   *         feature space.
+   */
+  public static RowMatrix buildSVDMatrix(RowMatrix tfidfMatrix, int dimension, Properties props) {
+    if (!SVD_RANDOMIZED.equals(props.getProperty(MudrodConstants.SVD_METHOD, SVD_EXACT))) {
+      return buildSVDMatrix(tfidfMatrix, dimension);
+    }
+
+    int oversampling = Integer.parseInt(props.getProperty(MudrodConstants.SVD_OVERSAMPLING, "10"));
+    int powerIterations = Integer.parseInt(props.getProperty(MudrodConstants.SVD_POWER_ITERATIONS, "2"));
+    SingularValueDecomposition<RowMatrix, Matrix> svd = RandomizedSVD.computeSVD(tfidfMatrix, dimension, oversampling, powerIterations);
+    return svd.U().multiply(Matrices.diag(svd.s()));
+  }
+
   /**
    * buildSVDMatrix: Generate SVD matrix from Vector RDD.
    *
@@ -108,234 +146,264 @@ public class MatrixUtil {
   }
 
   /**
-   * Create matrix from doc-terms JavaPairRDD.
+   * Create matrix from doc-terms JavaPairRDD. The terms of each document are
+   * counted locally and the counts of each term are gathered into primitive
+   * buffers, so one record per distinct term of a document is shuffled.
    *
    * @param uniqueDocRDD
    *          doc-terms JavaPairRDD, in which each key is a doc name, and value
    *          is term list extracted from that doc
-   * @return LabeledRowMatrix {@link LabeledRowMatrix}
+   * @return LabeledRowMatrix {@link LabeledRowMatrix}, cached until
+   *         {@link LabeledRowMatrix#unpersist()}
    */
   public static LabeledRowMatrix createWordDocMatrix(JavaPairRDD<String, List<String>> uniqueDocRDD) {
+    boolean persisted = persistIfNeeded(uniqueDocRDD);
     // Index documents with unique IDs
     JavaPairRDD<List<String>, Long> corpus = uniqueDocRDD.values().zipWithIndex();
-    // cal word-doc numbers
-    JavaPairRDD<Tuple2<String, Long>, Double> worddocNumRDD = corpus.flatMapToPair(new PairFlatMapFunction<Tuple2<List<String>, Long>, Tuple2<String, Long>, Double>() {
-      /**
-       *
-       */
-      private static final long serialVersionUID = 1L;
-
-      @Override
-      public Iterator<Tuple2<Tuple2<String, Long>, Double>> call(Tuple2<List<String>, Long> docwords) throws Exception {
-        List<Tuple2<Tuple2<String, Long>, Double>> pairs = new ArrayList<>();
-        List<String> words = docwords._1;
-        for (String word : words) {
-          Tuple2<String, Long> worddoc = new Tuple2<>(word, docwords._2);
-          pairs.add(new Tuple2<Tuple2<String, Long>, Double>(worddoc, 1.0));
-        }
-        return pairs.iterator();
-      }
-    }).reduceByKey(new Function2<Double, Double, Double>() {
-      /**
-       *
-       */
-      private static final long serialVersionUID = 1L;
-
-      @Override
-      public Double call(Double first, Double second) throws Exception {
-        return first + second;
-      }
-    });
-    // cal word doc-numbers
-    JavaPairRDD<String, Tuple2<List<Long>, List<Double>>> wordDocnumRDD = worddocNumRDD
-        .mapToPair(new PairFunction<Tuple2<Tuple2<String, Long>, Double>, String, Tuple2<List<Long>, List<Double>>>() {
-          /**
-           *
-           */
-          private static final long serialVersionUID = 1L;
-
-          @Override
-          public Tuple2<String, Tuple2<List<Long>, List<Double>>> call(Tuple2<Tuple2<String, Long>, Double> worddocNum) throws Exception {
-            List<Long> docs = new ArrayList<>();
-            docs.add(worddocNum._1._2);
-            List<Double> nums = new ArrayList<>();
-            nums.add(worddocNum._2);
-            Tuple2<List<Long>, List<Double>> docmums = new Tuple2<>(docs, nums);
-            return new Tuple2<>(worddocNum._1._1, docmums);
-          }
-        });
-    // trans to vector
-    final int corporsize = (int) uniqueDocRDD.keys().count();
-    JavaPairRDD<String, Vector> wordVectorRDD = wordDocnumRDD.reduceByKey(new Function2<Tuple2<List<Long>, List<Double>>, Tuple2<List<Long>, List<Double>>, Tuple2<List<Long>, List<Double>>>() {
-      /**
-       *
-       */
-      private static final long serialVersionUID = 1L;
-
-      @Override
-      public Tuple2<List<Long>, List<Double>> call(Tuple2<List<Long>, List<Double>> arg0, Tuple2<List<Long>, List<Double>> arg1) throws Exception {
-        arg0._1.addAll(arg1._1);
-        arg0._2.addAll(arg1._2);
-        return new Tuple2<>(arg0._1, arg0._2);
-      }
-    }).mapToPair(new PairFunction<Tuple2<String, Tuple2<List<Long>, List<Double>>>, String, Vector>() {
-      /**
-       *
-       */
-      private static final long serialVersionUID = 1L;
-
-      @Override
-      public Tuple2<String, Vector> call(Tuple2<String, Tuple2<List<Long>, List<Double>>> arg0) throws Exception {
-        int docsize = arg0._2._1.size();
-        int[] intArray = new int[docsize];
-        double[] doubleArray = new double[docsize];
-        for (int i = 0; i < docsize; i++) {
-          intArray[i] = arg0._2._1.get(i).intValue();
-          doubleArray[i] = arg0._2._2.get(i).intValue();
-        }
-        Vector sv = Vectors.sparse(corporsize, intArray, doubleArray);
-        return new Tuple2<>(arg0._1, sv);
+    List<String> colkeys = uniqueDocRDD.keys().collect();
+    final int corporsize = colkeys.size();
+
+    // word -> (doc ID, number of the word in the doc), packed in one long
+    JavaPairRDD<String, Long> wordDocNumRDD = corpus.flatMapToPair(docwords -> {
+      long docId = docwords._2;
+      List<Tuple2<String, Long>> pairs = new ArrayList<>();
+      for (Map.Entry<String, Integer> wordNum : countTerms(docwords._1).entrySet()) {
+        pairs.add(new Tuple2<>(wordNum.getKey(), docId << 32 | wordNum.getValue()));
       }
+      return pairs.iterator();
     });
 
-    RowMatrix wordDocMatrix = new RowMatrix(wordVectorRDD.values().rdd());
+    JavaPairRDD<String, Vector> wordVectorRDD = wordDocNumRDD.aggregateByKey(new SparseRowBuffer(), SparseRowBuffer::addPacked, SparseRowBuffer::merge)
+        .mapValues(buffer -> buffer.toVector(corporsize)).persist(StorageLevel.MEMORY_AND_DISK());
 
     LabeledRowMatrix labeledRowMatrix = new LabeledRowMatrix();
-    labeledRowMatrix.rowMatrix = wordDocMatrix;
+    labeledRowMatrix.rowMatrix = new RowMatrix(wordVectorRDD.values().rdd());
+    // keys and rows come from the same cached RDD so that they stay aligned
     labeledRowMatrix.rowkeys = wordVectorRDD.keys().collect();
-    labeledRowMatrix.colkeys = uniqueDocRDD.keys().collect();
+    labeledRowMatrix.colkeys = colkeys;
+    labeledRowMatrix.cachedRows = wordVectorRDD;
+
+    if (persisted) {
+      uniqueDocRDD.unpersist(false);
+    }
     return labeledRowMatrix;
   }
 
+  /**
+   * Create matrix from doc-terms JavaPairRDD, the transpose of
+   * {@link #createWordDocMatrix(JavaPairRDD)}. Term IDs are broadcast, so each
+   * document row is built where the document is.
+   *
+   * @param uniqueDocRDD
+   *          doc-terms JavaPairRDD, in which each key is a doc name, and value
+   *          is term list extracted from that doc
+   * @param sc
+   *          spark context
+   * @return LabeledRowMatrix {@link LabeledRowMatrix}, cached until
+   *         {@link LabeledRowMatrix#unpersist()}
+   */
   public static LabeledRowMatrix createDocWordMatrix(JavaPairRDD<String, List<String>> uniqueDocRDD, JavaSparkContext sc) {
+    boolean persisted = persistIfNeeded(uniqueDocRDD);
     // Index word with unique IDs
-    JavaPairRDD<String, Long> wordIDRDD = uniqueDocRDD.values().flatMap(new FlatMapFunction<List<String>, String>() {
-      /**
-       *
-       */
-      private static final long serialVersionUID = 1L;
-
-      @Override
-      public Iterator<String> call(List<String> arg0) throws Exception {
-        return arg0.iterator();
+    List<String> colkeys = uniqueDocRDD.values().flatMap(List::iterator).distinct().collect();
+    Map<String, Integer> wordIDs = new HashMap<>();
+    for (String word : colkeys) {
+      wordIDs.put(word, wordIDs.size());
+    }
+    Broadcast<Map<String, Integer>> wordIDsBroadcast = sc.broadcast(wordIDs);
+    final int wordsize = colkeys.size();
+
+    // documents appearing more than once are merged into one row
+    JavaPairRDD<String, Vector> docVectorRDD = uniqueDocRDD.mapValues(words -> {
+      Map<String, Integer> ids = wordIDsBroadcast.value();
+      SparseRowBuffer buffer = new SparseRowBuffer();
+      for (Map.Entry<String, Integer> wordNum : countTerms(words).entrySet()) {
+        buffer.add(ids.get(wordNum.getKey()), wordNum.getValue());
       }
-    }).distinct().zipWithIndex();
+      return buffer;
+    }).reduceByKey(SparseRowBuffer::merge).mapValues(buffer -> buffer.toVector(wordsize)).persist(StorageLevel.MEMORY_AND_DISK());
 
-    //
-    JavaPairRDD<Tuple2<String, String>, Double> docwordNumRDD = uniqueDocRDD.flatMapToPair(new PairFlatMapFunction<Tuple2<String, List<String>>, Tuple2<String, String>, Double>() {
+    LabeledRowMatrix labeledRowMatrix = new LabeledRowMatrix();
+    labeledRowMatrix.rowMatrix = new RowMatrix(docVectorRDD.values().rdd());
+    labeledRowMatrix.rowkeys = docVectorRDD.keys().collect();
+    labeledRowMatrix.colkeys = colkeys;
+    labeledRowMatrix.cachedRows = docVectorRDD;
 
-      /**
-       *
-       */
-      private static final long serialVersionUID = 1L;
+    wordIDsBroadcast.unpersist(false);
+    if (persisted) {
+      uniqueDocRDD.unpersist(false);
+    }
+    return labeledRowMatrix;
+  }
 
-      @Override
-      public Iterator<Tuple2<Tuple2<String, String>, Double>> call(Tuple2<String, List<String>> docwords) throws Exception {
-        List<Tuple2<Tuple2<String, String>, Double>> pairs = new ArrayList<>();
-        List<String> words = docwords._2;
-        for (String word : words) {
-          Tuple2<String, String> worddoc = new Tuple2<>(docwords._1, word);
-          pairs.add(new Tuple2<Tuple2<String, String>, Double>(worddoc, 1.0));
-        }
-        return pairs.iterator();
-      }
-    }).reduceByKey(new Function2<Double, Double, Double>() {
-      /**
-       *
-       */
-      private static final long serialVersionUID = 1L;
+  private static Map<String, Integer> countTerms(List<String> words) {
+    Map<String, Integer> counts = new HashMap<>();
+    for (String word : words) {
+      counts.merge(word, 1, Integer::sum);
+    }
+    return counts;
+  }
 
-      @Override
-      public Double call(Double first, Double second) throws Exception {
-        return first + second;
-      }
-    });
+  /**
+   * Persist an RDD read more than once unless the caller already did
+   *
+   * @return true if the RDD was persisted here and should be unpersisted
+   */
+  private static boolean persistIfNeeded(JavaPairRDD<?, ?> rdd) {
+    if (rdd.getStorageLevel().equals(StorageLevel.NONE())) {
+      rdd.persist(StorageLevel.MEMORY_AND_DISK());
+      return true;
+    }
+    return false;
+  }
 
-    //
-    JavaPairRDD<String, Tuple2<String, Double>> wordDocnumRDD = docwordNumRDD.mapToPair(new PairFunction<Tuple2<Tuple2<String, String>, Double>, String, Tuple2<String, Double>>() {
-      /**
-       *
-       */
-      private static final long serialVersionUID = 1L;
+  /**
+   * Growable column indices and values of one sparse matrix row, used to
+   * aggregate rows without boxing each entry.
+   */
+  static final class SparseRowBuffer implements Serializable {
 
-      @Override
-      public Tuple2<String, Tuple2<String, Double>> call(Tuple2<Tuple2<String, String>, Double> arg0) throws Exception {
+    private static final long serialVersionUID = 1L;
+
+    private int[] indices = new int[4];
+    private double[] values = new double[4];
+    private int size = 0;
 
-        Tuple2<String, Double> wordmums = new Tuple2<>(arg0._1._1, arg0._2);
-        return new Tuple2<>(arg0._1._2, wordmums);
+    SparseRowBuffer add(int index, double value) {
+      if (size == indices.length) {
+        indices = Arrays.copyOf(indices, size * 2);
+        values = Arrays.copyOf(values, size * 2);
       }
-    });
+      indices[size] = index;
+      values[size] = value;
+      size++;
+      return this;
+    }
 
-    //
+    /**
+     * @param packed column index in the high 32 bits and count in the low 32
+     *               bits
+     */
+    SparseRowBuffer addPacked(long packed) {
+      return add((int) (packed >>> 32), (int) packed);
+    }
 
-    JavaPairRDD<String, Tuple2<Tuple2<String, Double>, Optional<Long>>> testRDD = wordDocnumRDD.leftOuterJoin(wordIDRDD);
+    SparseRowBuffer merge(SparseRowBuffer other) {
+      SparseRowBuffer target = this;
+      SparseRowBuffer source = other;
+      if (other.size > size) {
+        target = other;
+        source = this;
+      }
+      for (int i = 0; i < source.size; i++) {
+        target.add(source.indices[i], source.values[i]);
+      }
+      return target;
+    }
 
-    int wordsize = (int) wordIDRDD.count();
-    JavaPairRDD<String, Vector> docVectorRDD = testRDD.mapToPair(new PairFunction<Tuple2<String, Tuple2<Tuple2<String, Double>, Optional<Long>>>, String, Tuple2<List<Long>, List<Double>>>() {
-      /**
-       *
-       */
-      private static final long serialVersionUID = 1L;
+    /**
+     * @param vectorSize number of columns
+     * @return the row with its indices sorted and the values of repeated
+     * indices summed
+     */
+    Vector toVector(int vectorSize) {
+      boolean sorted = true;
+      for (int i = 1; i < size && sorted; i++) {
+        sorted = indices[i - 1] < indices[i];
+      }
+      if (sorted) {
+        return Vectors.sparse(vectorSize, Arrays.copyOf(indices, size), Arrays.copyOf(values, size));
+      }
 
-      @Override
-      public Tuple2<String, Tuple2<List<Long>, List<Double>>> call(Tuple2<String, Tuple2<Tuple2<String, Double>, Optional<Long>>> arg0) throws Exception {
-        Optional<Long> oid = arg0._2._2;
-        Long wordId = (long) 0;
-        if (oid.isPresent()) {
-          wordId = oid.get();
+      // sort positions by index: index in the high bits, position in the low bits
+      long[] order = new long[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = (long) indices[i] << 32 | i;
+      }
+      Arrays.sort(order);
+      int[] sortedIndices = new int[size];
+      double[] sortedValues = new double[size];
+      int n = 0;
+      for (long entry : order) {
+        int index = (int) (entry >>> 32);
+        double value = values[(int) entry];
+        if (n > 0 && sortedIndices[n - 1] == index) {
+          sortedValues[n - 1] += value;
+        } else {
+          sortedIndices[n] = index;
+          sortedValues[n] = value;
+          n++;
         }
-
-        List<Long> word = new ArrayList<>();
-        word.add(wordId);
-
-        List<Double> count = new ArrayList<>();
-        count.add(arg0._2._1._2);
-
-        Tuple2<List<Long>, List<Double>> wordcount = new Tuple2<>(word, count);
-
-        return new Tuple2<>(arg0._2._1._1, wordcount);
       }
+      return Vectors.sparse(vectorSize, Arrays.copyOf(sortedIndices, n), Arrays.copyOf(sortedValues, n));
+    }
+  }
 
-    }).reduceByKey(new Function2<Tuple2<List<Long>, List<Double>>, Tuple2<List<Long>, List<Double>>, Tuple2<List<Long>, List<Double>>>() {
-      /**
-       *
-       */
-      private static final long serialVersionUID = 1L;
+  /**
+   * Load term vectors from a matrix written by
+   * {@link #exportMatrix(RowMatrix, List, List, String, Properties)}, or from a
+   * CSV file if there is no binary matrix at the path.
+   *
+   * @param spark
+   *          spark instance
+   * @param fileName
+   *          matrix directory or csv matrix file
+   * @param skipNum
+   *          the numbers of rows of a csv file which should be skipped
+   * @return JavaPairRDD, each key is a term, and value is the vector of the
+   *         term in feature space, null if the matrix is empty.
+   */
+  public static JavaPairRDD<String, Vector> loadMatrix(SparkDriver spark, String fileName, int skipNum) {
+    if (!SparseMatrixFile.exists(fileName)) {
+      return loadVectorFromCSV(spark, fileName, skipNum);
+    }
 
-      @Override
-      public Tuple2<List<Long>, List<Double>> call(Tuple2<List<Long>, List<Double>> arg0, Tuple2<List<Long>, List<Double>> arg1) throws Exception {
-        arg0._1.addAll(arg1._1);
-        arg0._2.addAll(arg1._2);
-        return new Tuple2<>(arg0._1, arg0._2);
-      }
-    }).mapToPair(new PairFunction<Tuple2<String, Tuple2<List<Long>, List<Double>>>, String, Vector>() {
-      /**
-       *
-       */
-      private static final long serialVersionUID = 1L;
+    JavaPairRDD<String, Vector> rows;
+    try {
+      rows = SparseMatrixFile.load(spark.sc, fileName);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return rows.isEmpty() ? null : rows;
+  }
 
-      @Override
-      public Tuple2<String, Vector> call(Tuple2<String, Tuple2<List<Long>, List<Double>>> arg0) throws Exception {
-        int docsize = arg0._2._1.size();
-        int[] intArray = new int[docsize];
-        double[] doubleArray = new double[docsize];
-        for (int i = 0; i < docsize; i++) {
-          intArray[i] = arg0._2._1.get(i).intValue();
-          doubleArray[i] = arg0._2._2.get(i).intValue();
-        }
-        Vector sv = Vectors.sparse(wordsize, intArray, doubleArray);
-        return new Tuple2<>(arg0._1, sv);
-      }
-    });
+  /**
+   * Export a matrix in the binary format of {@link SparseMatrixFile}, written
+   * from the executors. The matrix is deflate compressed if
+   * mudrod.matrix.compress is true, and also exported to fileName.csv for
+   * debugging if mudrod.matrix.csv.export is true.
+   *
+   * @param matrix
+   *          spark row matrix
+   * @param rowKeys
+   *          matrix row names, in the order of the matrix rows
+   * @param colKeys
+   *          matrix coloum names
+   * @param fileName
+   *          matrix directory
+   * @param props
+   *          the Mudrod configuration
+   */
+  public static void exportMatrix(RowMatrix matrix, List<String> rowKeys, List<String> colKeys, String fileName, Properties props) {
+    if (matrix.rows().isEmpty()) {
+      return;
+    }
 
-    RowMatrix docwordMatrix = new RowMatrix(docVectorRDD.values().rdd());
+    JavaSparkContext sc = JavaSparkContext.fromSparkContext(matrix.rows().sparkContext());
+    Broadcast<List<String>> keys = sc.broadcast(rowKeys);
+    JavaPairRDD<String, Vector> rows = matrix.rows().toJavaRDD().zipWithIndex().mapToPair(row -> new Tuple2<>(keys.value().get(row._2.intValue()), row._1));
 
-    LabeledRowMatrix labeledRowMatrix = new LabeledRowMatrix();
-    labeledRowMatrix.rowMatrix = docwordMatrix;
-    labeledRowMatrix.rowkeys = docVectorRDD.keys().collect();
-    labeledRowMatrix.colkeys = wordIDRDD.keys().collect();
+    try {
+      SparseMatrixFile.write(rows, colKeys, fileName, Boolean.parseBoolean(props.getProperty(MudrodConstants.MATRIX_COMPRESS, "true")));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      keys.destroy();
+    }
 
-    return labeledRowMatrix;
+    if (Boolean.parseBoolean(props.getProperty(MudrodConstants.MATRIX_CSV_EXPORT, "false"))) {
+      exportToCSV(matrix, rowKeys, colKeys, fileName + ".csv");
+    }
   }
 
   /**
@@ -349,7 +417,8 @@ public class MatrixUtil {
    *          the numbers of rows which should be skipped Ignore the top skip
    *          number rows of the csv file
    * @return JavaPairRDD, each key is a term, and value is the vector of the
-   *         term in feature space.
+   *         term in feature space, with every column of the file as in
+   *         {@link #loadMatrix(SparkDriver, String, int)}.
    */
   public static JavaPairRDD<String, Vector> loadVectorFromCSV(SparkDriver spark, String csvFileName, int skipNum) {
     // skip the first line (header), important!
@@ -377,19 +446,14 @@ public class MatrixUtil {
 
       @Override
       public Tuple2<String, Vector> call(Tuple2<String, Long> t) throws Exception {
+        // a trailing comma, as in older exports, is dropped by split
         String[] fields = t._1.split(",");
         String word = fields[0];
-        int fieldsize = fields.length;
-        int nStart = 1;
-        int nEnd = fieldsize - 1;
-        if (fieldsize < 2) {
-          nStart = 0;
-          nEnd = 0;
-        }
-        String[] numfields = Arrays.copyOfRange(fields, nStart, nEnd);
+        String[] numfields = Arrays.copyOfRange(fields, Math.min(1, fields.length), fields.length);
 
         double[] nums = Stream.of(numfields).mapToDouble(Double::parseDouble).toArray();
-        Vector vec = Vectors.dense(nums);
+        // sparse when that is smaller, so the similarity kernels skip the zeros
+        Vector vec = Vectors.dense(nums).compressed();
         return new Tuple2<>(word, vec);
       }
     });
@@ -447,9 +511,8 @@ public class MatrixUtil {
       return;
     }
 
-    int rownum = (int) matrix.numRows();
     int colnum = (int) matrix.numCols();
-    List<Vector> rows = matrix.rows().toJavaRDD().collect();
+    Iterator<Vector> rows = matrix.rows().toJavaRDD().toLocalIterator();
 
     File file = new File(fileName);
     if (file.exists()) {
@@ -462,20 +525,18 @@ public class MatrixUtil {
     }
     try (FileWriter fw = new FileWriter(file.getAbsoluteFile());
             BufferedWriter bw = new BufferedWriter(fw);){
-      String coltitle = " Num" + ",";
+      StringBuilder coltitle = new StringBuilder(" Num");
       for (int j = 0; j < colnum; j++) {
-        coltitle += "\"" + colKeys.get(j) + "\",";
+        coltitle.append(",\"").append(colKeys.get(j)).append('"');
       }
-      coltitle = coltitle.substring(0, coltitle.length() - 1);
       bw.write(coltitle + "\n");
 
-      for (int i = 0; i < rownum; i++) {
-        double[] rowvlaue = rows.get(i).toArray();
-        String row = rowKeys.get(i) + ",";
+      for (int i = 0; rows.hasNext(); i++) {
+        double[] rowvlaue = rows.next().toArray();
+        StringBuilder row = new StringBuilder(rowKeys.get(i));
         for (int j = 0; j < colnum; j++) {
-          row += rowvlaue[j] + ",";
+          row.append(',').append(rowvlaue[j]);
         }
-        row = row.substring(0, row.length() - 1);
         bw.write(row + "\n");
       }
     } catch (IOException e) {
@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Occurrence counts of (row, column) id pairs, the non zero cells of a sparse
+ * count matrix built one occurrence at a time. Counted pairs are kept sorted
+ * as packed longs next to their counts, about 12 bytes per distinct pair, and
+ * new occurrences are buffered and merged into them when the buffer is full.
+ * Not thread safe.
+ */
+public class PairCounts {
+
+  private static final int MIN_BUFFER = 1 << 16;
+
+  private long[] pairs = new long[0];
+  private int[] counts = new int[0];
+  private int size = 0;
+  private long[] buffer = new long[MIN_BUFFER];
+  private int buffered = 0;
+
+  /**
+   * Method of counting one occurrence of a pair
+   *
+   * @param row    row id, at least 0
+   * @param column column id, at least 0
+   */
+  public void add(int row, int column) {
+    if (buffered == buffer.length) {
+      compact();
+    }
+    buffer[buffered++] = (long) row << 32 | column;
+  }
+
+  /**
+   * @return the number of distinct pairs
+   */
+  public int size() {
+    compact();
+    return size;
+  }
+
+  // sorts the buffer and merges it into the counted pairs, summing the counts of equal pairs
+  private void compact() {
+    if (buffered == 0) {
+      return;
+    }
+    Arrays.sort(buffer, 0, buffered);
+    long[] mergedPairs = new long[size + buffered];
+    int[] mergedCounts = new int[size + buffered];
+    int n = 0;
+    int i = 0;
+    int j = 0;
+    while (i < size || j < buffered) {
+      long pair;
+      int count;
+      if (j == buffered || (i < size && pairs[i] <= buffer[j])) {
+        pair = pairs[i];
+        count = counts[i++];
+      } else {
+        pair = buffer[j++];
+        count = 1;
+      }
+      if (n > 0 && mergedPairs[n - 1] == pair) {
+        mergedCounts[n - 1] += count;
+      } else {
+        mergedPairs[n] = pair;
+        mergedCounts[n++] = count;
+      }
+    }
+    pairs = Arrays.copyOf(mergedPairs, n);
+    counts = Arrays.copyOf(mergedCounts, n);
+    size = n;
+    buffered = 0;
+    // a buffer as large as the counted pairs keeps the merging cost linear overall
+    if (buffer.length < size) {
+      buffer = new long[size];
+    }
+  }
+
+  /**
+   * @return the rows holding at least one pair, by increasing row id, each
+   * with its column ids in increasing order
+   */
+  public Iterator<Row> rows() {
+    compact();
+    return new Iterator<Row>() {
+      private int next = 0;
+
+      @Override
+      public boolean hasNext() {
+        return next < size;
+      }
+
+      @Override
+      public Row next() {
+        if (next >= size) {
+          throw new NoSuchElementException();
+        }
+        int row = (int) (pairs[next] >>> 32);
+        int end = next;
+        while (end < size && (int) (pairs[end] >>> 32) == row) {
+          end++;
+        }
+        int[] columns = new int[end - next];
+        for (int k = 0; k < columns.length; k++) {
+          columns[k] = (int) pairs[next + k];
+        }
+        Row result = new Row(row, columns, Arrays.copyOfRange(counts, next, end));
+        next = end;
+        return result;
+      }
+    };
+  }
+
+  /**
+   * The counted pairs of one row
+   */
+  public static class Row {
+    public final int row;
+    public final int[] columns;
+    public final int[] counts;
+
+    Row(int row, int[] columns, int[] counts) {
+      this.row = row;
+      this.columns = columns;
+      this.counts = counts;
+    }
+  }
+}
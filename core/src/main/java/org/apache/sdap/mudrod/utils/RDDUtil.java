@@ -13,21 +13,93 @@
  */
 package org.apache.sdap.mudrod.utils;
 
+import org.apache.sdap.mudrod.main.MudrodConstants;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.function.FlatMapFunction;
+import org.apache.spark.storage.StorageLevel;
+import org.apache.spark.util.LongAccumulator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * ClassName: RDDUtil Function: Mudrod Spark RDD common methods
  */
 public class RDDUtil {
 
+  private static final Logger LOG = LoggerFactory.getLogger(RDDUtil.class);
+
+  private static final String DEFAULT_STORAGE_LEVEL = "MEMORY_AND_DISK_SER";
+
+  // partitions computed from the lineage of each persisted stage
+  private static final Map<String, LongAccumulator> STAGE_COMPUTATIONS = new ConcurrentHashMap<>();
+
   public RDDUtil() {
   }
 
+  /**
+   * @param props the Mudrod configuration
+   * @return the storage level of mudrod.spark.storage.level
+   */
+  public static StorageLevel storageLevel(Properties props) {
+    String level = props.getProperty(MudrodConstants.SPARK_STORAGE_LEVEL, DEFAULT_STORAGE_LEVEL).trim();
+    try {
+      return StorageLevel.fromString(level);
+    } catch (IllegalArgumentException e) {
+      LOG.warn("Unknown storage level {}, using {}", level, DEFAULT_STORAGE_LEVEL);
+      return StorageLevel.fromString(DEFAULT_STORAGE_LEVEL);
+    }
+  }
+
+  /**
+   * Persist an RDD read by several actions at a stage boundary, so that its
+   * lineage, e.g. Elasticsearch reads, is computed once. The partitions
+   * computed from the lineage are counted and reported by
+   * {@link #unpersist(JavaRDD, String)}.
+   *
+   * @param rdd   RDD to persist
+   * @param stage stage name, unique among the stages persisted at a time
+   * @param props the Mudrod configuration, see {@link #storageLevel(Properties)}
+   * @return the persisted RDD, to be used instead of rdd
+   */
+  public static <T> JavaRDD<T> persist(JavaRDD<T> rdd, String stage, Properties props) {
+    LongAccumulator computations = rdd.context().longAccumulator(stage + " partitions computed");
+    STAGE_COMPUTATIONS.put(stage, computations);
+    JavaRDD<T> counted = rdd.mapPartitions(partition -> {
+      computations.add(1);
+      return partition;
+    }, true).setName(stage);
+
+    StorageLevel level = storageLevel(props);
+    return level.equals(StorageLevel.NONE()) ? counted : counted.persist(level);
+  }
+
+  /**
+   * Unpersist an RDD of {@link #persist(JavaRDD, String, Properties)} once
+   * the downstream stages are done, logging how many of its partitions were
+   * computed more than once
+   *
+   * @param rdd   persisted RDD
+   * @param stage stage name
+   * @return the number of partitions computed again from the lineage
+   */
+  public static <T> long unpersist(JavaRDD<T> rdd, String stage) {
+    rdd.unpersist(false);
+    LongAccumulator computations = STAGE_COMPUTATIONS.remove(stage);
+    if (computations == null) {
+      return 0;
+    }
+    long recomputations = Math.max(0, computations.value() - rdd.getNumPartitions());
+    LOG.info("Stage {}: computed {} partitions for {} partitions, {} recomputations.", stage, computations.value(), rdd.getNumPartitions(), recomputations);
+    return recomputations;
+  }
+
   /**
    * getAllWordsInDoc: Extracted all unique terms from all docs.
    *
@@ -0,0 +1,223 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import com.github.fommil.netlib.LAPACK;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.mllib.linalg.Matrices;
+import org.apache.spark.mllib.linalg.Matrix;
+import org.apache.spark.mllib.linalg.SingularValueDecomposition;
+import org.apache.spark.mllib.linalg.SparseVector;
+import org.apache.spark.mllib.linalg.Vector;
+import org.apache.spark.mllib.linalg.Vectors;
+import org.apache.spark.mllib.linalg.distributed.RowMatrix;
+import org.netlib.util.intW;
+
+import java.util.Random;
+
+/**
+ * Randomized truncated SVD of a distributed row matrix A (m x n), after
+ * Halko, Martinsson and Tropp, "Finding structure with randomness". The top
+ * right singular subspace is sketched by applying A^T A to k + oversampling
+ * Gaussian vectors, refined by power iterations, and the SVD is completed on
+ * the small projected problem on the driver. Each application of A^T A is a
+ * single pass over the rows, so the whole decomposition takes
+ * powerIterations + 2 passes plus the lazy computation of U, against the
+ * hundreds of passes ARPACK may take in {@link RowMatrix#computeSVD}.
+ */
+public class RandomizedSVD {
+
+  // singular values below this fraction of the largest are dropped, like RowMatrix.computeSVD
+  private static final double RCOND = 1.0E-9d;
+  private static final long SEED = 0x5DEECE66DL;
+
+  private RandomizedSVD() {
+  }
+
+  /**
+   * Method of computing the randomized truncated SVD of a matrix
+   *
+   * @param matrix          matrix A, each row a term
+   * @param k               number of singular values, at most the number of
+   *                        columns
+   * @param oversampling    extra random vectors beyond k, improving accuracy
+   *                        at little cost
+   * @param powerIterations passes of A^T A applied to the sketch, improving
+   *                        accuracy when the singular values decay slowly
+   * @return U, s and V of the decomposition, with fewer than k singular values
+   * if the matrix has a lower numerical rank
+   */
+  public static SingularValueDecomposition<RowMatrix, Matrix> computeSVD(RowMatrix matrix, int k, int oversampling, int powerIterations) {
+    int n = (int) matrix.numCols();
+    k = Math.min(k, n);
+    int l = Math.min(k + Math.max(oversampling, 0), n);
+
+    // Q: orthonormal basis of the sketch of the row space, n x l row major
+    Random random = new Random(SEED);
+    double[] q = new double[n * l];
+    for (int i = 0; i < q.length; i++) {
+      q[i] = random.nextGaussian();
+    }
+    for (int iteration = 0; iteration <= Math.max(powerIterations, 0); iteration++) {
+      q = orthonormalize(multiplyGramian(matrix, q, l), n, l);
+    }
+
+    // project A^T A onto the sketch, M = Q^T A^T A Q, and diagonalize it
+    double[] z = multiplyGramian(matrix, q, l);
+    double[] projected = new double[l * l];
+    for (int i = 0; i < n; i++) {
+      for (int a = 0; a < l; a++) {
+        double qa = q[i * l + a];
+        for (int b = 0; b < l; b++) {
+          projected[a * l + b] += qa * z[i * l + b];
+        }
+      }
+    }
+    double[] eigenvalues = new double[l];
+    symmetricEigs(projected, l, eigenvalues);
+
+    // eigenvalues are in ascending order, keep the k largest above the tolerance
+    double sigmaMax = Math.sqrt(Math.max(eigenvalues[l - 1], 0.0));
+    int sk = 0;
+    while (sk < k && Math.sqrt(Math.max(eigenvalues[l - 1 - sk], 0.0)) > RCOND * sigmaMax) {
+      sk++;
+    }
+
+    // V = Q W, column major for Spark, and V S^-1 to compute U = A V S^-1
+    double[] sigmas = new double[sk];
+    double[] v = new double[n * sk];
+    double[] vScaled = new double[n * sk];
+    for (int c = 0; c < sk; c++) {
+      int eigen = l - 1 - c;
+      sigmas[c] = Math.sqrt(eigenvalues[eigen]);
+      for (int i = 0; i < n; i++) {
+        double sum = 0.0;
+        for (int a = 0; a < l; a++) {
+          sum += q[i * l + a] * projected[eigen * l + a];
+        }
+        v[c * n + i] = sum;
+        vScaled[c * n + i] = sum / sigmas[c];
+      }
+    }
+
+    RowMatrix u = matrix.multiply(Matrices.dense(n, sk, vScaled));
+    return new SingularValueDecomposition<>(u, Vectors.dense(sigmas), Matrices.dense(n, sk, v));
+  }
+
+  /**
+   * One pass over the rows computing A^T A X = sum over rows a of a^T (a X)
+   *
+   * @param x n x l row major
+   * @return n x l row major
+   */
+  private static double[] multiplyGramian(RowMatrix matrix, double[] x, int l) {
+    int n = (int) matrix.numCols();
+    JavaSparkContext sc = JavaSparkContext.fromSparkContext(matrix.rows().sparkContext());
+    Broadcast<double[]> xBroadcast = sc.broadcast(x);
+    try {
+      // the accumulator is allocated on first use so that the zero value is cheap to ship
+      double[] result = matrix.rows().toJavaRDD().treeAggregate(null, (double[] acc, Vector row) -> {
+        double[] sum = acc == null ? new double[n * l] : acc;
+        double[] xs = xBroadcast.value();
+        SparseVector active = row.toSparse();
+        int[] indices = active.indices();
+        double[] values = active.values();
+        double[] y = new double[l];
+        for (int t = 0; t < indices.length; t++) {
+          int offset = indices[t] * l;
+          for (int c = 0; c < l; c++) {
+            y[c] += values[t] * xs[offset + c];
+          }
+        }
+        for (int t = 0; t < indices.length; t++) {
+          int offset = indices[t] * l;
+          for (int c = 0; c < l; c++) {
+            sum[offset + c] += values[t] * y[c];
+          }
+        }
+        return sum;
+      }, (double[] a, double[] b) -> {
+        if (a == null) {
+          return b;
+        }
+        if (b != null) {
+          for (int i = 0; i < a.length; i++) {
+            a[i] += b[i];
+          }
+        }
+        return a;
+      }, 2);
+      return result == null ? new double[n * l] : result;
+    } finally {
+      xBroadcast.destroy();
+    }
+  }
+
+  /**
+   * Orthonormal basis of the columns of an n x l row major matrix with LAPACK
+   * QR
+   *
+   * @return n x l row major
+   */
+  private static double[] orthonormalize(double[] x, int n, int l) {
+    double[] a = new double[n * l];
+    for (int i = 0; i < n; i++) {
+      for (int c = 0; c < l; c++) {
+        a[c * n + i] = x[i * l + c];
+      }
+    }
+
+    LAPACK lapack = LAPACK.getInstance();
+    double[] tau = new double[l];
+    intW info = new intW(0);
+    double[] workSize = new double[1];
+    lapack.dgeqrf(n, l, a, n, tau, workSize, -1, info);
+    double[] work = new double[Math.max((int) workSize[0], l)];
+    lapack.dgeqrf(n, l, a, n, tau, work, work.length, info);
+    checkInfo("dgeqrf", info);
+    lapack.dorgqr(n, l, l, a, n, tau, workSize, -1, info);
+    work = new double[Math.max((int) workSize[0], l)];
+    lapack.dorgqr(n, l, l, a, n, tau, work, work.length, info);
+    checkInfo("dorgqr", info);
+
+    double[] q = new double[n * l];
+    for (int i = 0; i < n; i++) {
+      for (int c = 0; c < l; c++) {
+        q[i * l + c] = a[c * n + i];
+      }
+    }
+    return q;
+  }
+
+  /**
+   * All eigenvalues, ascending, and eigenvectors of a symmetric matrix with
+   * LAPACK dsyev, the eigenvectors replacing the matrix column by column
+   */
+  private static void symmetricEigs(double[] matrix, int size, double[] eigenvalues) {
+    LAPACK lapack = LAPACK.getInstance();
+    intW info = new intW(0);
+    double[] workSize = new double[1];
+    lapack.dsyev("V", "U", size, matrix, size, eigenvalues, workSize, -1, info);
+    double[] work = new double[Math.max((int) workSize[0], 3 * size)];
+    lapack.dsyev("V", "U", size, matrix, size, eigenvalues, work, work.length, info);
+    checkInfo("dsyev", info);
+  }
+
+  private static void checkInfo(String routine, intW info) {
+    if (info.val != 0) {
+      throw new IllegalStateException("LAPACK " + routine + " failed with info " + info.val);
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * A thread-safe, least-recently-used cache of serialized results. The cache
+ * is bounded by the approximate memory used by its keys and values, entries
+ * expire after a fixed time to live, and the whole cache is dropped whenever
+ * the generation reported by the generation source changes.
+ */
+public class ResultCache {
+
+  // approximate per-entry overhead of the map entry, cache entry and strings
+  private static final long ENTRY_OVERHEAD = 96;
+
+  private final long maxWeight;
+  private final long ttlMillis;
+  private final long generationCheckMillis;
+  private final LongSupplier generationSource;
+
+  private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long weight = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+  private long invalidations = 0;
+  private long generation = Long.MIN_VALUE;
+  private volatile long generationCheckedAt = 0;
+
+  private static class CacheEntry {
+    final String value;
+    final long weight;
+    final long expiresAt;
+
+    CacheEntry(String value, long weight, long expiresAt) {
+      this.value = value;
+      this.weight = weight;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /**
+   * @param maxWeight             maximum approximate memory use in bytes
+   * @param ttlMillis             time to live of an entry in milliseconds
+   * @param generationSource      supplies the current data generation, or null
+   * @param generationCheckMillis minimum time between two generation checks
+   */
+  public ResultCache(long maxWeight, long ttlMillis, LongSupplier generationSource, long generationCheckMillis) {
+    this.maxWeight = maxWeight;
+    this.ttlMillis = ttlMillis;
+    this.generationSource = generationSource;
+    this.generationCheckMillis = generationCheckMillis;
+  }
+
+  /**
+   * @param key cache key
+   * @return the cached value, or null if it is missing or has expired
+   */
+  public String get(String key) {
+    checkGeneration();
+    synchronized (this) {
+      CacheEntry entry = entries.get(key);
+      if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+        remove(key);
+        entry = null;
+      }
+      if (entry == null) {
+        misses++;
+        return null;
+      }
+      hits++;
+      return entry.value;
+    }
+  }
+
+  /**
+   * @param key   cache key
+   * @param value value to cache
+   */
+  public synchronized void put(String key, String value) {
+    long entryWeight = ENTRY_OVERHEAD + 2L * (key.length() + value.length());
+    if (entryWeight > maxWeight) {
+      return;
+    }
+    remove(key);
+    entries.put(key, new CacheEntry(value, entryWeight, System.currentTimeMillis() + ttlMillis));
+    weight += entryWeight;
+
+    Iterator<Map.Entry<String, CacheEntry>> it = entries.entrySet().iterator();
+    while (weight > maxWeight && it.hasNext()) {
+      weight -= it.next().getValue().weight;
+      it.remove();
+      evictions++;
+    }
+  }
+
+  /**
+   * @return a stamp of the cache contents, taken by a computation before it
+   * reads the data it will cache, see {@link #put(String, String, long)}
+   */
+  public synchronized long stamp() {
+    return invalidations;
+  }
+
+  /**
+   * Cache a value unless the cache has been invalidated since the stamp was
+   * taken, as the value may then have been computed from replaced data.
+   *
+   * @param key   cache key
+   * @param value value to cache
+   * @param stamp stamp taken before the value was computed, see {@link #stamp()}
+   */
+  public synchronized void put(String key, String value, long stamp) {
+    if (stamp == invalidations) {
+      put(key, value);
+    }
+  }
+
+  /**
+   * Drop all cached entries.
+   */
+  public synchronized void invalidateAll() {
+    entries.clear();
+    weight = 0;
+    invalidations++;
+  }
+
+  private void remove(String key) {
+    CacheEntry old = entries.remove(key);
+    if (old != null) {
+      weight -= old.weight;
+    }
+  }
+
+  private void checkGeneration() {
+    long now = System.currentTimeMillis();
+    if (generationSource == null || now - generationCheckedAt < generationCheckMillis) {
+      return;
+    }
+    generationCheckedAt = now;
+    long current = generationSource.getAsLong();
+    synchronized (this) {
+      if (current != generation) {
+        if (generation != Long.MIN_VALUE) {
+          invalidateAll();
+        }
+        generation = current;
+      }
+    }
+  }
+
+  /**
+   * @return a snapshot of the cache statistics: entry count, approximate
+   * memory use in bytes, hits, misses, hit rate, evictions and invalidations
+   */
+  public synchronized Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("entries", entries.size());
+    stats.put("weightBytes", weight);
+    stats.put("maxWeightBytes", maxWeight);
+    stats.put("hits", hits);
+    stats.put("misses", misses);
+    stats.put("hitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+    stats.put("evictions", evictions);
+    stats.put("invalidations", invalidations);
+    stats.put("generation", generation);
+    return stats;
+  }
+}
@@ -16,13 +16,19 @@ package org.apache.sdap.mudrod.utils;
 import org.apache.sdap.mudrod.discoveryengine.MudrodAbstract;
 import org.apache.sdap.mudrod.driver.ESDriver;
 import org.apache.sdap.mudrod.driver.SparkDriver;
+import org.apache.sdap.mudrod.main.MudrodConstants;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.mllib.linalg.Vector;
 import org.apache.spark.mllib.linalg.distributed.CoordinateMatrix;
+import org.apache.spark.mllib.linalg.distributed.MatrixEntry;
 import org.apache.spark.mllib.linalg.distributed.RowMatrix;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.Tuple2;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
 
@@ -35,12 +41,17 @@ public class SVDUtil extends MudrodAbstract {
    *
    */
   private static final long serialVersionUID = 1L;
+  private static final Logger LOG = LoggerFactory.getLogger(SVDUtil.class);
   // wordRDD: terms extracted from all documents
   JavaRDD<String> wordRDD;
+  // numTerms: number of terms in wordRDD
+  private long numTerms;
   // svdMatrix: svd matrix
   private RowMatrix svdMatrix;
   // simMatrix: similarity matrix
   private CoordinateMatrix simMatrix;
+  // wordDocMatrix: cached term rows the distributed svd matrix is derived from
+  private transient LabeledRowMatrix wordDocMatrix;
 
   /**
    * Creates a new instance of SVDUtil.
@@ -54,7 +65,8 @@ public class SVDUtil extends MudrodAbstract {
   }
 
   /**
-   * Build SVD matrix from docment-terms pairs.
+   * Build SVD matrix from docment-terms pairs. Matrices of at most
+   * mudrod.matrix.local.max.cells cells are decomposed on the driver.
    *
    * @param docwordRDD    JavaPairRDD, key is short name of data set and values are terms in
    *                      the corresponding data set
@@ -65,15 +77,26 @@ public class SVDUtil extends MudrodAbstract {
 
     RowMatrix svdMatrix = null;
     LabeledRowMatrix wordDocMatrix = MatrixUtil.createWordDocMatrix(docwordRDD);
-    RowMatrix ifIdfMatrix = MatrixUtil.createTFIDFMatrix(wordDocMatrix.rowMatrix);
-    svdMatrix = MatrixUtil.buildSVDMatrix(ifIdfMatrix, svdDimension);
+    if (LocalMatrixUtil.fitsLocally(wordDocMatrix.rowkeys.size(), wordDocMatrix.colkeys.size(), props)) {
+      Vector[] tfidfMatrix = LocalMatrixUtil.createTFIDFMatrix(collectRows(wordDocMatrix.rowMatrix));
+      wordDocMatrix.unpersist();
+      svdMatrix = toRowMatrix(LocalMatrixUtil.buildSVDMatrix(tfidfMatrix, svdDimension));
+    } else {
+      RowMatrix ifIdfMatrix = MatrixUtil.createTFIDFMatrix(wordDocMatrix.rowMatrix);
+      svdMatrix = MatrixUtil.buildSVDMatrix(ifIdfMatrix, svdDimension, props);
+      // kept until the linkage is inserted, as the svd rows are computed from it
+      this.wordDocMatrix = wordDocMatrix;
+    }
     this.svdMatrix = svdMatrix;
-    this.wordRDD = RDDUtil.getAllWordsInDoc(docwordRDD);
+    // the rows of the matrix, in the same order
+    this.wordRDD = spark.sc.parallelize(wordDocMatrix.rowkeys);
+    this.numTerms = wordDocMatrix.rowkeys.size();
     return svdMatrix;
   }
 
   /**
-   * Build svd matrix from CSV file.
+   * Build svd matrix from CSV file. Matrices of at most
+   * mudrod.matrix.local.max.cells cells are decomposed on the driver.
    *
    * @param tfidfCSVfile  tf-idf matrix csv file
    * @param svdDimension: Dimension of matrix after singular value decomposition
@@ -81,25 +104,54 @@ public class SVDUtil extends MudrodAbstract {
    */
   public RowMatrix buildSVDMatrix(String tfidfCSVfile, int svdDimension) {
     RowMatrix svdMatrix = null;
-    JavaPairRDD<String, Vector> tfidfRDD = MatrixUtil.loadVectorFromCSV(spark, tfidfCSVfile, 2);
-    JavaRDD<Vector> vectorRDD = tfidfRDD.values();
-
-    svdMatrix = MatrixUtil.buildSVDMatrix(vectorRDD, svdDimension);
+    JavaPairRDD<String, Vector> tfidfRDD = MatrixUtil.loadMatrix(spark, tfidfCSVfile, 2);
+    this.numTerms = tfidfRDD.count();
+    if (LocalMatrixUtil.fitsLocally(numTerms, tfidfRDD.values().first().size(), props)) {
+      List<Tuple2<String, Vector>> rows = tfidfRDD.collect();
+      List<String> keys = new ArrayList<>(rows.size());
+      Vector[] tfidfMatrix = new Vector[rows.size()];
+      for (int i = 0; i < tfidfMatrix.length; i++) {
+        keys.add(rows.get(i)._1);
+        tfidfMatrix[i] = rows.get(i)._2;
+      }
+      svdMatrix = toRowMatrix(LocalMatrixUtil.buildSVDMatrix(tfidfMatrix, svdDimension));
+      this.wordRDD = spark.sc.parallelize(keys);
+    } else {
+      JavaRDD<Vector> vectorRDD = tfidfRDD.values();
+      svdMatrix = MatrixUtil.buildSVDMatrix(new RowMatrix(vectorRDD.rdd()), svdDimension, props);
+      this.wordRDD = tfidfRDD.keys();
+    }
     this.svdMatrix = svdMatrix;
 
-    this.wordRDD = tfidfRDD.keys();
-
     return svdMatrix;
   }
 
   /**
-   * Calculate similarity
+   * Calculate similarity, on the driver if the SVD matrix and the term pairs
+   * have at most mudrod.matrix.local.max.cells cells
    */
   public void calSimilarity() {
-    CoordinateMatrix simMatrix = SimilarityUtil.calculateSimilarityFromMatrix(svdMatrix);
+    long numTerms = svdMatrix.numRows();
+    double threshold = Double.parseDouble(props.getProperty(MudrodConstants.SIMILARITY_THRESHOLD, "0"));
+    if (LocalMatrixUtil.fitsLocally(numTerms, numTerms, props) && LocalMatrixUtil.fitsLocally(numTerms, svdMatrix.numCols(), props)) {
+      // pairs below the DIMSUM threshold are dropped, as their distributed estimates are not reliable
+      List<MatrixEntry> entries = LocalMatrixUtil.calculateSimilarityFromVector(collectRows(svdMatrix), threshold > 0 ? threshold : Double.NEGATIVE_INFINITY, 0);
+      this.simMatrix = new CoordinateMatrix(spark.sc.parallelize(entries).rdd(), numTerms, numTerms);
+      return;
+    }
+
+    CoordinateMatrix simMatrix = SimilarityUtil.calculateSimilarityFromMatrix(svdMatrix, threshold);
     this.simMatrix = simMatrix;
   }
 
+  private static Vector[] collectRows(RowMatrix matrix) {
+    return matrix.rows().toJavaRDD().collect().toArray(new Vector[0]);
+  }
+
+  private RowMatrix toRowMatrix(Vector[] rows) {
+    return new RowMatrix(spark.sc.parallelize(Arrays.asList(rows)).rdd());
+  }
+
   /**
    * Insert linkage triples to elasticsearch
    *
@@ -107,11 +159,16 @@ public class SVDUtil extends MudrodAbstract {
    * @param type  linkage triple name
    */
   public void insertLinkageToES(String index, String type) {
-    List<LinkageTriple> triples = SimilarityUtil.matrixToTriples(wordRDD, simMatrix);
-    try {
-      LinkageTriple.insertTriples(es, triples, index, type);
-    } catch (IOException e) {
-      e.printStackTrace();
+    JavaRDD<LinkageTriple> triples = SimilarityUtil.matrixToTripleRDD(wordRDD, numTerms, simMatrix);
+    if (triples == null) {
+      LOG.error("Similarity matrix does not match its {} terms, publishing an empty {}/{}", numTerms, index, type);
+    } else if (Boolean.parseBoolean(props.getProperty(MudrodConstants.SIMILARITY_NORMALIZE, "false"))) {
+      triples = LinkageTriple.standardPairs(triples);
+    }
+    LinkageTriple.saveTriplesToES(es, triples, index, type, false, false);
+    if (wordDocMatrix != null) {
+      wordDocMatrix.unpersist();
+      wordDocMatrix = null;
     }
   }
 
@@ -15,17 +15,28 @@ package org.apache.sdap.mudrod.utils;
 
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
 import org.apache.spark.api.java.Optional;
 import org.apache.spark.api.java.function.Function;
 import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.mllib.linalg.DenseVector;
+import org.apache.spark.mllib.linalg.SparseVector;
 import org.apache.spark.mllib.linalg.Vector;
+import org.apache.spark.mllib.linalg.Vectors;
 import org.apache.spark.mllib.linalg.distributed.CoordinateMatrix;
 import org.apache.spark.mllib.linalg.distributed.IndexedRowMatrix;
 import org.apache.spark.mllib.linalg.distributed.MatrixEntry;
 import org.apache.spark.mllib.linalg.distributed.RowMatrix;
 import scala.Tuple2;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Similarity and distrance calculation utilities
@@ -35,6 +46,9 @@ public class SimilarityUtil {
   public static final int SIM_COSINE = 3;
   public static final int SIM_HELLINGER = 2;
   public static final int SIM_PEARSON = 1;
+
+  private static final long LSH_SEED = 0x5DEECE66DL;
+
   /**
    * CalSimilarityFromMatrix: Calculate term similarity from matrix.
    *
@@ -49,6 +63,22 @@ public class SimilarityUtil {
     return SimilarityUtil.calculateSimilarityFromVector(vecs);
   }
 
+  /**
+   * Calculate term similarity from matrix, approximately for term pairs less
+   * similar than the threshold.
+   *
+   * @param svdMatrix Each row is corresponding to a term, and each column is
+   *                  corresponding to a dimension of feature
+   * @param threshold DIMSUM similarity threshold, see
+   *                  {@link #calculateSimilarityFromVector(JavaRDD, double)}
+   * @return CoordinateMatrix, the cell value is the similarity between the
+   * two terms
+   */
+  public static CoordinateMatrix calculateSimilarityFromMatrix(RowMatrix svdMatrix, double threshold) {
+    JavaRDD<Vector> vecs = svdMatrix.rows().toJavaRDD();
+    return SimilarityUtil.calculateSimilarityFromVector(vecs, threshold);
+  }
+
   /**
    * CalSimilarityFromVector:Calculate term similarity from vector.
    *
@@ -63,6 +93,28 @@ public class SimilarityUtil {
     return transposeMatrix.columnSimilarities();
   }
 
+  /**
+   * Calculate term similarity from vector with DIMSUM sampling. Cosine
+   * similarities above the threshold are estimated with bounded relative
+   * error while the work spent on less similar pairs, which may be dropped,
+   * shrinks as the threshold grows.
+   *
+   * @param vecs      Each vector is corresponding to a term in the feature space.
+   * @param threshold similarity threshold between 0 and 1, 0 computes the
+   *                  exact similarities
+   * @return CoordinateMatrix, each row is corresponding to a term, and each
+   * column is also a term, the cell value is the similarity between the
+   * two terms
+   */
+  public static CoordinateMatrix calculateSimilarityFromVector(JavaRDD<Vector> vecs, double threshold) {
+    if (threshold <= 0) {
+      return calculateSimilarityFromVector(vecs);
+    }
+    IndexedRowMatrix indexedMatrix = MatrixUtil.buildIndexRowMatrix(vecs);
+    RowMatrix transposeMatrix = MatrixUtil.transposeMatrix(indexedMatrix);
+    return transposeMatrix.columnSimilarities(threshold);
+  }
+
   /**
    * Calculate term similarity from vector.
    *
@@ -128,6 +180,152 @@ public class SimilarityUtil {
     });
   }
 
+  /**
+   * Calculate term similarity from vector, comparing only candidate pairs
+   * found by locality sensitive hashing when LSH is enabled for the
+   * similarity type. Only {@link #SIM_PEARSON} supports LSH, other types and
+   * a non-positive number of bands fall back to comparing all pairs.
+   *
+   * @param importRDD the vectors keyed by term
+   * @param simType   the similarity calculation to execute, see
+   *                  {@link #calculateSimilarityFromVector(JavaPairRDD, int)}
+   * @param bands     number of LSH bands, see
+   *                  {@link #calculatePearsonSimilarityLSH(JavaPairRDD, int, int)}
+   * @param rows      number of min hashes per band
+   * @return linkage triples of the compared pairs, in both directions
+   */
+  public static JavaRDD<LinkageTriple> calculateSimilarityFromVector(JavaPairRDD<String, Vector> importRDD, int simType, int bands, int rows) {
+    if (simType != SIM_PEARSON || bands <= 0 || rows <= 0) {
+      return calculateSimilarityFromVector(importRDD, simType);
+    }
+    return calculatePearsonSimilarityLSH(importRDD, bands, rows);
+  }
+
+  /**
+   * Calculate the Pearson similarity, see
+   * {@link #pearsonDistance(Vector, Vector)}, of the term pairs that share a
+   * bucket in at least one band of a MinHash LSH, instead of all pairs. Each
+   * min hash of two terms agrees with probability J, the Jaccard similarity
+   * of their sets of positive dimensions, which grows with their Pearson
+   * similarity, so a pair is compared with probability 1 - (1 - J^rows)^bands.
+   * More bands raise the recall and the number of compared pairs, more rows
+   * lower both, mostly for dissimilar pairs. Terms without any positive value
+   * are skipped.
+   *
+   * @param importRDD the vectors keyed by term
+   * @param bands     number of bands, each an independent chance to become candidates
+   * @param rows      number of min hashes per band
+   * @return linkage triples of the candidate pairs, in both directions
+   */
+  public static JavaRDD<LinkageTriple> calculatePearsonSimilarityLSH(JavaPairRDD<String, Vector> importRDD, int bands, int rows) {
+    JavaPairRDD<String, int[]> activeRDD = importRDD.mapValues(SimilarityUtil::activeIndices).filter(f -> f._2.length > 0);
+
+    JavaPairRDD<Tuple2<Integer, Long>, Tuple2<String, int[]>> bucketRDD = activeRDD.flatMapToPair(f -> {
+      List<Tuple2<Tuple2<Integer, Long>, Tuple2<String, int[]>>> buckets = new ArrayList<>(bands);
+      for (int band = 0; band < bands; band++) {
+        buckets.add(new Tuple2<>(new Tuple2<>(band, signature(f._2, band, rows)), f));
+      }
+      return buckets.iterator();
+    });
+
+    JavaPairRDD<Tuple2<String, String>, Double> candidateRDD = bucketRDD.groupByKey().flatMapToPair(bucket -> {
+      List<Tuple2<String, int[]>> members = new ArrayList<>();
+      bucket._2.forEach(members::add);
+      List<Tuple2<Tuple2<String, String>, Double>> pairs = new ArrayList<>();
+      for (int i = 0; i < members.size(); i++) {
+        for (int j = i + 1; j < members.size(); j++) {
+          Tuple2<String, int[]> a = members.get(i);
+          Tuple2<String, int[]> b = members.get(j);
+          int order = a._1.compareTo(b._1);
+          if (order == 0) {
+            continue;
+          }
+          Tuple2<String, String> pair = order < 0 ? new Tuple2<>(a._1, b._1) : new Tuple2<>(b._1, a._1);
+          pairs.add(new Tuple2<>(pair, binaryCosine(a._2, b._2)));
+        }
+      }
+      return pairs.iterator();
+    });
+
+    // pairs sharing buckets in several bands are only kept once
+    return candidateRDD.reduceByKey((x, y) -> x).flatMap(f -> {
+      LinkageTriple ab = new LinkageTriple();
+      ab.keyA = f._1._1;
+      ab.keyB = f._1._2;
+      ab.weight = f._2;
+      LinkageTriple ba = new LinkageTriple();
+      ba.keyA = f._1._2;
+      ba.keyB = f._1._1;
+      ba.weight = f._2;
+      return Arrays.asList(ab, ba).iterator();
+    });
+  }
+
+  /**
+   * @return the sorted indices of the positive values of the vector
+   */
+  static int[] activeIndices(Vector vec) {
+    SparseVector sparse = vec.toSparse();
+    int[] indices = sparse.indices();
+    double[] values = sparse.values();
+    int[] active = new int[values.length];
+    int n = 0;
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] > 0) {
+        active[n++] = indices[i];
+      }
+    }
+    return Arrays.copyOf(active, n);
+  }
+
+  /**
+   * MinHash signature of a set of indices for one band, combining the
+   * minimum of each of its pseudo random hash functions into one long, so no
+   * permutations need to be stored or shipped.
+   */
+  static long signature(int[] active, int band, int rows) {
+    long signature = band;
+    for (int row = 0; row < rows; row++) {
+      long hash = LSH_SEED + (long) (band * rows + row) * 0x9E3779B97F4A7C15L;
+      long min = Long.MAX_VALUE;
+      for (int index : active) {
+        min = Math.min(min, mix(hash ^ (index * 0xC2B2AE3D27D4EB4FL)));
+      }
+      signature = mix(signature * 31 + min);
+    }
+    return signature;
+  }
+
+  // finalizer of SplitMix64
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * @return the number of shared active indices divided by the geometric mean
+   * of the numbers of active indices, equal to
+   * {@link #pearsonDistance(Vector, Vector)} of the binary vectors
+   */
+  static double binaryCosine(int[] a, int[] b) {
+    int shared = 0;
+    int i = 0;
+    int j = 0;
+    while (i < a.length && j < b.length) {
+      if (a[i] < b[j]) {
+        i++;
+      } else if (a[i] > b[j]) {
+        j++;
+      } else {
+        shared++;
+        i++;
+        j++;
+      }
+    }
+    return shared / (Math.sqrt(a.length) * Math.sqrt(b.length));
+  }
+
   /**
    * MatrixtoTriples:Convert term similarity matrix to linkage triple list.
    *
@@ -137,7 +335,35 @@ public class SimilarityUtil {
    * @return linkage triple list
    */
   public static List<LinkageTriple> matrixToTriples(JavaRDD<String> keys, CoordinateMatrix simMatirx) {
-    if (simMatirx.numCols() != keys.count()) {
+    JavaRDD<LinkageTriple> tripleRDD = matrixToTripleRDD(keys, simMatirx);
+    return tripleRDD == null ? null : tripleRDD.collect();
+  }
+
+  /**
+   * Convert term similarity matrix to a distributed linkage triple RDD,
+   * without collecting it.
+   *
+   * @param keys      each key is a term
+   * @param simMatirx term similarity matrix, in which each row and column is a term and
+   *                  the cell value is the similarity between the two terms
+   * @return linkage triple RDD, null if the matrix does not match the keys
+   */
+  public static JavaRDD<LinkageTriple> matrixToTripleRDD(JavaRDD<String> keys, CoordinateMatrix simMatirx) {
+    return matrixToTripleRDD(keys, keys.count(), simMatirx);
+  }
+
+  /**
+   * Convert term similarity matrix to a distributed linkage triple RDD, see
+   * {@link #matrixToTripleRDD(JavaRDD, CoordinateMatrix)}, with the number of
+   * keys already known, so that they are not counted again.
+   *
+   * @param keys      each key is a term
+   * @param numKeys   number of keys
+   * @param simMatirx term similarity matrix
+   * @return linkage triple RDD, null if the matrix does not match the keys
+   */
+  public static JavaRDD<LinkageTriple> matrixToTripleRDD(JavaRDD<String> keys, long numKeys, CoordinateMatrix simMatirx) {
+    if (simMatirx.numCols() != numKeys) {
       return null;
     }
 
@@ -203,20 +429,146 @@ public class SimilarityUtil {
         return triple;
       }
     });
-    return tripleRDD.collect();
+    return tripleRDD;
+  }
+
+  /**
+   * Update the cosine similarities of the rows of a matrix after some rows
+   * were added, removed or changed. The similarity of two unchanged rows does
+   * not depend on the other rows, so it is kept from the previous triples;
+   * the changed rows are collected and compared with every row in one pass
+   * over the matrix. Like {@link #calculateSimilarityFromVector(JavaRDD)},
+   * only pairs sharing a non zero dimension get a triple.
+   *
+   * @param importRDD rows keyed by term
+   * @param changed   terms whose row was added, removed or changed
+   * @param previous  triples of the previous matrix, each pair once
+   * @return linkage triples of the matrix, each pair once
+   */
+  public static JavaRDD<LinkageTriple> updateSimilarityFromVector(JavaPairRDD<String, Vector> importRDD, Set<String> changed, JavaRDD<LinkageTriple> previous) {
+    JavaSparkContext sc = JavaSparkContext.fromSparkContext(importRDD.context());
+    Broadcast<Set<String>> changedKeys = sc.broadcast(new HashSet<>(changed));
+    Map<String, SparseVector> changedRows = new HashMap<>();
+    for (Tuple2<String, Vector> row : importRDD.filter(row -> changedKeys.value().contains(row._1)).collect()) {
+      changedRows.put(row._1, row._2.toSparse());
+    }
+    Broadcast<Map<String, SparseVector>> changedVectors = sc.broadcast(changedRows);
+
+    JavaRDD<LinkageTriple> kept = previous.filter(t -> !changedKeys.value().contains(t.keyA) && !changedKeys.value().contains(t.keyB));
+    JavaRDD<LinkageTriple> updated = importRDD.flatMap(row -> {
+      List<LinkageTriple> triples = new ArrayList<>();
+      boolean rowChanged = changedKeys.value().contains(row._1);
+      SparseVector a = row._2.toSparse();
+      double normA = Vectors.norm(a, 2.0);
+      for (Map.Entry<String, SparseVector> other : changedVectors.value().entrySet()) {
+        // a pair of changed rows is compared once
+        if (rowChanged && row._1.compareTo(other.getKey()) >= 0) {
+          continue;
+        }
+        double dot = dot(a, other.getValue());
+        if (dot != 0.0) {
+          LinkageTriple triple = new LinkageTriple();
+          triple.keyA = row._1;
+          triple.keyB = other.getKey();
+          triple.weight = dot / (normA * Vectors.norm(other.getValue(), 2.0));
+          triples.add(triple);
+        }
+      }
+      return triples.iterator();
+    });
+    return kept.union(updated);
+  }
+
+  private static double dot(SparseVector a, SparseVector b) {
+    int[] indicesA = a.indices();
+    int[] indicesB = b.indices();
+    double sum = 0.0;
+    int i = 0;
+    int j = 0;
+    while (i < indicesA.length && j < indicesB.length) {
+      if (indicesA[i] < indicesB[j]) {
+        i++;
+      } else if (indicesA[i] > indicesB[j]) {
+        j++;
+      } else {
+        sum += a.values()[i++] * b.values()[j++];
+      }
+    }
+    return sum;
   }
 
   /**
-   * Calculate similarity (Hellinger Distance) between vectors
+   * Select the linkage triples worth keeping inside Spark: those with a weight
+   * of at least minWeight and, if topK is positive, among the topK heaviest
+   * triples of their term.
+   *
+   * @param triples   linkage triples
+   * @param minWeight minimum weight, NaN weights are always dropped
+   * @param topK      number of triples kept per term, 0 keeps all of them
+   * @param symmetric true if each pair occurs once and belongs to both of its
+   *                  terms, in which case it is kept if it is among the topK of
+   *                  either term; otherwise it belongs to its first term
+   * @return the selected triples
+   */
+  public static JavaRDD<LinkageTriple> selectTriples(JavaRDD<LinkageTriple> triples, double minWeight, int topK, boolean symmetric) {
+    JavaRDD<LinkageTriple> selected = triples.filter(t -> t.weight >= minWeight);
+    if (topK <= 0) {
+      return selected;
+    }
+
+    JavaPairRDD<String, LinkageTriple> byTerm = symmetric ?
+        selected.flatMapToPair(t -> Arrays.asList(new Tuple2<>(t.keyA, t), new Tuple2<>(t.keyB, t)).iterator()) :
+        selected.mapToPair(t -> new Tuple2<>(t.keyA, t));
+    JavaRDD<LinkageTriple> top = byTerm.aggregateByKey(new ArrayList<LinkageTriple>(), (list, t) -> addBounded(list, t, topK), (a, b) -> {
+      for (LinkageTriple t : b) {
+        addBounded(a, t, topK);
+      }
+      return a;
+    }).flatMap(f -> trim(f._2, topK).iterator());
+
+    if (!symmetric) {
+      return top;
+    }
+    // a pair in the top of both of its terms is only kept once
+    return top.mapToPair(t -> new Tuple2<>(new Tuple2<>(t.keyA, t.keyB), t)).reduceByKey((a, b) -> a).values();
+  }
+
+  private static ArrayList<LinkageTriple> addBounded(ArrayList<LinkageTriple> list, LinkageTriple triple, int topK) {
+    list.add(triple);
+    // trimming in batches keeps the amortized cost per triple low
+    if (list.size() >= 2 * topK) {
+      trim(list, topK);
+    }
+    return list;
+  }
+
+  private static ArrayList<LinkageTriple> trim(ArrayList<LinkageTriple> list, int topK) {
+    list.sort((a, b) -> Double.compare(b.weight, a.weight));
+    if (list.size() > topK) {
+      list.subList(topK, list.size()).clear();
+    }
+    return list;
+  }
+
+  /**
+   * Calculate similarity (Hellinger Distance) between vectors. Two dense
+   * vectors are compared element by element, otherwise only the non zero
+   * entries of the sparse forms are visited.
    *
    * @param vecA initial vector from which to calculate a similarity
    * @param vecB second vector involved in similarity calculation
    * @return similarity between two vectors
    */
   public static double hellingerDistance(Vector vecA, Vector vecB) {
-    double[] arrA = vecA.toArray();
-    double[] arrB = vecB.toArray();
+    if (vecA instanceof DenseVector && vecB instanceof DenseVector) {
+      return hellingerDistance(((DenseVector) vecA).values(), ((DenseVector) vecB).values());
+    }
+    SparseVector sparseA = vecA.toSparse();
+    SparseVector sparseB = vecB.toSparse();
+    return hellingerDistance(sparseA.indices(), sparseA.values(), sparseB.indices(), sparseB.values());
+  }
 
+  static double hellingerDistance(double[] arrA, double[] arrB) {
     double sim = 0.0;
 
     int arrsize = arrA.length;
@@ -233,16 +585,51 @@ public class SimilarityUtil {
   }
 
   /**
-   * Calculate similarity (Pearson Distance) between vectors
+   * Hellinger distance of two sparse vectors given by their sorted indices and
+   * values; an index missing from one vector contributes the value of the
+   * other one.
+   */
+  static double hellingerDistance(int[] indicesA, double[] valuesA, int[] indicesB, double[] valuesB) {
+    double sim = 0.0;
+
+    int i = 0;
+    int j = 0;
+    while (i < indicesA.length || j < indicesB.length) {
+      double sqrtDiff;
+      if (j == indicesB.length || (i < indicesA.length && indicesA[i] < indicesB[j])) {
+        sqrtDiff = Math.sqrt(valuesA[i++]);
+      } else if (i == indicesA.length || indicesB[j] < indicesA[i]) {
+        sqrtDiff = -Math.sqrt(valuesB[j++]);
+      } else {
+        sqrtDiff = Math.sqrt(valuesA[i++]) - Math.sqrt(valuesB[j++]);
+      }
+      sim += sqrtDiff * sqrtDiff;
+    }
+
+    sim = sim / Math.sqrt(2);
+
+    return sim;
+  }
+
+  /**
+   * Calculate similarity (Pearson Distance) between vectors. Two dense
+   * vectors are compared element by element, otherwise only the non zero
+   * entries of the sparse forms are visited.
    *
    * @param vecA initial vector from which to calculate a similarity
    * @param vecB second vector involved in similarity calculation
    * @return similarity between two vectors
    */
   public static double pearsonDistance(Vector vecA, Vector vecB) {
-    double[] arrA = vecA.toArray();
-    double[] arrB = vecB.toArray();
+    if (vecA instanceof DenseVector && vecB instanceof DenseVector) {
+      return pearsonDistance(((DenseVector) vecA).values(), ((DenseVector) vecB).values());
+    }
+    SparseVector sparseA = vecA.toSparse();
+    SparseVector sparseB = vecB.toSparse();
+    return pearsonDistance(sparseA.indices(), sparseA.values(), sparseB.indices(), sparseB.values());
+  }
 
+  static double pearsonDistance(double[] arrA, double[] arrB) {
     int viewA = 0;
     int viewB = 0;
     int viewAB = 0;
@@ -264,6 +651,43 @@ public class SimilarityUtil {
     return viewAB / (Math.sqrt(viewA) * Math.sqrt(viewB));
   }
 
+  /**
+   * Pearson distance of two sparse vectors given by their sorted indices and
+   * values, intersecting the indices by merging them.
+   */
+  static double pearsonDistance(int[] indicesA, double[] valuesA, int[] indicesB, double[] valuesB) {
+    int viewA = countPositive(valuesA);
+    int viewB = countPositive(valuesB);
+    int viewAB = 0;
+
+    int i = 0;
+    int j = 0;
+    while (i < indicesA.length && j < indicesB.length) {
+      if (indicesA[i] < indicesB[j]) {
+        i++;
+      } else if (indicesA[i] > indicesB[j]) {
+        j++;
+      } else {
+        if (valuesA[i] > 0 && valuesB[j] > 0) {
+          viewAB++;
+        }
+        i++;
+        j++;
+      }
+    }
+    return viewAB / (Math.sqrt(viewA) * Math.sqrt(viewB));
+  }
+
+  private static int countPositive(double[] values) {
+    int count = 0;
+    for (double value : values) {
+      if (value > 0) {
+        count++;
+      }
+    }
+    return count;
+  }
+
   /**
    * calculate similarity between vectors
    *
@@ -0,0 +1,87 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent identical requests: while a computation for a key is
+ * in flight, further callers with the same key wait for it and receive its
+ * result instead of starting their own.
+ *
+ * @param <K> request key type
+ * @param <V> result type
+ */
+public class SingleFlight<K, V> {
+
+  private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder executions = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+
+  /**
+   * Method of running the loader for a key, or joining the run already in
+   * flight for the same key
+   *
+   * @param key    request key
+   * @param loader computation to run if none is in flight for the key
+   * @return the result of the loader
+   * @throws ExecutionException if the loader failed, wrapping its cause
+   */
+  public V execute(K key, Callable<V> loader) throws ExecutionException {
+    calls.increment();
+    CompletableFuture<V> future = new CompletableFuture<>();
+    CompletableFuture<V> running = inFlight.putIfAbsent(key, future);
+    if (running != null) {
+      coalesced.increment();
+      try {
+        return running.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ExecutionException(e);
+      }
+    }
+
+    executions.increment();
+    try {
+      V value = loader.call();
+      future.complete(value);
+      return value;
+    } catch (Throwable e) {
+      future.completeExceptionally(e);
+      throw new ExecutionException(e);
+    } finally {
+      inFlight.remove(key, future);
+    }
+  }
+
+  /**
+   * @return a snapshot of the coalescing statistics: total calls, loader
+   * executions, coalesced calls and computations currently in flight
+   */
+  public Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("calls", calls.sum());
+    stats.put("executions", executions.sum());
+    stats.put("coalesced", coalesced.sum());
+    stats.put("inFlight", inFlight.size());
+    return stats;
+  }
+}
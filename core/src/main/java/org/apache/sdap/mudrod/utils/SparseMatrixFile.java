@@ -0,0 +1,362 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.TaskContext;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.mllib.linalg.SparseVector;
+import org.apache.spark.mllib.linalg.Vector;
+import org.apache.spark.mllib.linalg.Vectors;
+import scala.Tuple2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Binary file format for labeled sparse matrices passed between pipeline
+ * steps, replacing CSV. A matrix is a directory holding
+ * <ul>
+ * <li>{@value #COLUMNS_FILE}: the column key dictionary</li>
+ * <li>part-NNNNN files: one block of rows each, written by one Spark task.
+ * Each row is its key followed by its non zero column indices and values,
+ * or by all values when most of them are non zero</li>
+ * </ul>
+ * Blocks are optionally deflate compressed. Matrices are written through a
+ * temporary directory that replaces the previous matrix once complete, so a
+ * step may overwrite the matrix it reads from.
+ */
+public class SparseMatrixFile {
+
+  public static final String COLUMNS_FILE = "_columns";
+
+  private static final int MAGIC = 0x4D4D5458;
+  private static final int VERSION = 1;
+  private static final byte COMPRESSED = 1;
+  private static final String PART_PREFIX = "part-";
+  private static final String TMP_SUFFIX = "._tmp";
+  private static final int DENSE_ROW = -1;
+  private static final int END_OF_BLOCK = -1;
+
+  private SparseMatrixFile() {
+  }
+
+  /**
+   * @param path matrix directory
+   * @return true if a binary matrix exists at the path
+   */
+  public static boolean exists(String path) {
+    try {
+      Path columns = new Path(path, COLUMNS_FILE);
+      return columns.getFileSystem(new Configuration()).exists(columns);
+    } catch (IOException | IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Method of writing a matrix, each Spark task writing its rows to its own
+   * block
+   *
+   * @param rows     matrix rows keyed by row key, all of the same size
+   * @param colKeys  column keys
+   * @param path     matrix directory, replaced if it exists
+   * @param compress true to deflate the blocks
+   * @throws IOException if the matrix cannot be written
+   */
+  public static void write(JavaPairRDD<String, Vector> rows, List<String> colKeys, String path, boolean compress) throws IOException {
+    Path tmp = createTmp(path, colKeys);
+    String tmpDir = tmp.toString();
+    rows.foreachPartition(partition -> writeBlock(partition, new Path(tmpDir, String.format("%s%05d", PART_PREFIX, TaskContext.getPartitionId())), compress));
+    replace(tmp, path);
+  }
+
+  /**
+   * Method of writing a matrix from the driver into a single block, reading
+   * the rows one at a time
+   *
+   * @param rows     matrix rows keyed by row key, all of the same size
+   * @param colKeys  column keys
+   * @param path     matrix directory, replaced if it exists
+   * @param compress true to deflate the block
+   * @throws IOException if the matrix cannot be written
+   */
+  public static void write(Iterator<Tuple2<String, Vector>> rows, List<String> colKeys, String path, boolean compress) throws IOException {
+    Path tmp = createTmp(path, colKeys);
+    writeBlock(rows, new Path(tmp, String.format("%s%05d", PART_PREFIX, 0)), compress);
+    replace(tmp, path);
+  }
+
+  private static Path createTmp(String path, List<String> colKeys) throws IOException {
+    Path tmp = new Path(path + TMP_SUFFIX);
+    FileSystem fs = tmp.getFileSystem(new Configuration());
+    fs.delete(tmp, true);
+    fs.mkdirs(tmp);
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fs.create(new Path(tmp, COLUMNS_FILE), true)))) {
+      writeHeader(out, (byte) 0);
+      out.writeInt(colKeys.size());
+      for (String key : colKeys) {
+        writeString(out, key);
+      }
+    }
+    return tmp;
+  }
+
+  private static void writeBlock(Iterator<Tuple2<String, Vector>> rows, Path part, boolean compress) throws IOException {
+    try (DataOutputStream out = openBlock(part.getFileSystem(new Configuration()).create(part, true), compress)) {
+      while (rows.hasNext()) {
+        Tuple2<String, Vector> row = rows.next();
+        writeRow(out, row._1, row._2);
+      }
+      out.writeInt(END_OF_BLOCK);
+    }
+  }
+
+  private static void replace(Path tmp, String path) throws IOException {
+    Path target = new Path(path);
+    FileSystem fs = target.getFileSystem(new Configuration());
+    fs.delete(target, true);
+    if (!fs.rename(tmp, target)) {
+      throw new IOException("Unable to move matrix " + tmp + " to " + target);
+    }
+  }
+
+  /**
+   * @param path matrix directory
+   * @return the column keys of the matrix
+   * @throws IOException if the matrix cannot be read
+   */
+  public static List<String> readColumnKeys(String path) throws IOException {
+    Path columns = new Path(path, COLUMNS_FILE);
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(columns.getFileSystem(new Configuration()).open(columns)))) {
+      readHeader(in, columns);
+      int size = in.readInt();
+      List<String> keys = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        keys.add(readString(in));
+      }
+      return keys;
+    }
+  }
+
+  /**
+   * Method of loading a matrix into an RDD, one partition per block, read in
+   * parallel by the executors
+   *
+   * @param sc   spark context
+   * @param path matrix directory
+   * @return rows keyed by row key
+   * @throws IOException if the blocks cannot be listed
+   */
+  public static JavaPairRDD<String, Vector> load(JavaSparkContext sc, String path) throws IOException {
+    List<String> parts = listBlocks(path);
+    return sc.parallelize(parts, Math.max(parts.size(), 1)).flatMapToPair(part -> {
+      Path block = new Path(part);
+      return new RowIterator(block.getFileSystem(new Configuration()).open(block), block);
+    });
+  }
+
+  /**
+   * Method of streaming through the rows of a matrix locally, one block after
+   * the other
+   *
+   * @param path     matrix directory
+   * @param consumer receives each row key and row
+   * @throws IOException if the matrix cannot be read
+   */
+  public static void forEachRow(String path, BiConsumer<String, Vector> consumer) throws IOException {
+    for (String part : listBlocks(path)) {
+      Path block = new Path(part);
+      RowIterator rows = new RowIterator(block.getFileSystem(new Configuration()).open(block), block);
+      try {
+        while (rows.hasNext()) {
+          Tuple2<String, Vector> row = rows.next();
+          consumer.accept(row._1, row._2);
+        }
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      } finally {
+        rows.close();
+      }
+    }
+  }
+
+  private static List<String> listBlocks(String path) throws IOException {
+    Path dir = new Path(path);
+    List<String> parts = new ArrayList<>();
+    for (FileStatus status : dir.getFileSystem(new Configuration()).listStatus(dir)) {
+      if (status.getPath().getName().startsWith(PART_PREFIX)) {
+        parts.add(status.getPath().toString());
+      }
+    }
+    parts.sort(null);
+    return parts;
+  }
+
+  private static DataOutputStream openBlock(OutputStream stream, boolean compress) throws IOException {
+    DataOutputStream header = new DataOutputStream(stream);
+    writeHeader(header, compress ? COMPRESSED : 0);
+    header.flush();
+    OutputStream body = compress ? new DeflaterOutputStream(stream, new Deflater(Deflater.BEST_SPEED), 1 << 16) : stream;
+    return new DataOutputStream(new BufferedOutputStream(body, 1 << 16));
+  }
+
+  private static void writeHeader(DataOutputStream out, byte flags) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeByte(flags);
+  }
+
+  private static byte readHeader(DataInputStream in, Path file) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException(file + " is not a matrix file");
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported matrix file version " + version + " of " + file);
+    }
+    return in.readByte();
+  }
+
+  static void writeRow(DataOutputStream out, String key, Vector row) throws IOException {
+    writeString(out, key);
+    out.writeInt(row.size());
+    int nonZeros = row.numNonzeros();
+    if (2 * nonZeros > row.size()) {
+      out.writeInt(DENSE_ROW);
+      for (double value : row.toArray()) {
+        out.writeDouble(value);
+      }
+      return;
+    }
+
+    out.writeInt(nonZeros);
+    SparseVector sparse = row.toSparse();
+    for (int index : sparse.indices()) {
+      out.writeInt(index);
+    }
+    for (double value : sparse.values()) {
+      out.writeDouble(value);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return readString(in, in.readInt());
+  }
+
+  private static String readString(DataInputStream in, int length) throws IOException {
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Lazily reads the rows of one block and closes it after the last row.
+   */
+  private static class RowIterator implements Iterator<Tuple2<String, Vector>> {
+    private final DataInputStream in;
+    private Tuple2<String, Vector> next;
+
+    RowIterator(InputStream stream, Path block) throws IOException {
+      DataInputStream header = new DataInputStream(stream);
+      byte flags = readHeader(header, block);
+      InputStream body = (flags & COMPRESSED) != 0 ? new InflaterInputStream(stream, new Inflater(), 1 << 16) : stream;
+      this.in = new DataInputStream(new BufferedInputStream(body, 1 << 16));
+      this.next = readNext();
+    }
+
+    private Tuple2<String, Vector> readNext() throws IOException {
+      int keyLength = in.readInt();
+      if (keyLength == END_OF_BLOCK) {
+        in.close();
+        return null;
+      }
+      String key = readString(in, keyLength);
+      int size = in.readInt();
+      int nonZeros = in.readInt();
+      if (nonZeros == DENSE_ROW) {
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+          values[i] = in.readDouble();
+        }
+        return new Tuple2<>(key, Vectors.dense(values));
+      }
+
+      int[] indices = new int[nonZeros];
+      double[] values = new double[nonZeros];
+      for (int i = 0; i < nonZeros; i++) {
+        indices[i] = in.readInt();
+      }
+      for (int i = 0; i < nonZeros; i++) {
+        values[i] = in.readDouble();
+      }
+      return new Tuple2<>(key, Vectors.sparse(size, indices, values));
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Tuple2<String, Vector> next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      Tuple2<String, Vector> current = next;
+      try {
+        next = readNext();
+      } catch (IOException e) {
+        close();
+        throw new UncheckedIOException(e);
+      }
+      return current;
+    }
+
+    void close() {
+      try {
+        in.close();
+      } catch (IOException e) {
+        // nothing left to read
+      }
+    }
+  }
+}
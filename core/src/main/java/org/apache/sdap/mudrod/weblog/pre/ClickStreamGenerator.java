@@ -17,8 +17,10 @@ import org.apache.sdap.mudrod.discoveryengine.DiscoveryStepAbstract;
 import org.apache.sdap.mudrod.driver.ESDriver;
 import org.apache.sdap.mudrod.driver.SparkDriver;
 import org.apache.sdap.mudrod.main.MudrodConstants;
+import org.apache.sdap.mudrod.utils.IncrementalMatrix;
 import org.apache.sdap.mudrod.utils.LabeledRowMatrix;
 import org.apache.sdap.mudrod.utils.MatrixUtil;
+import org.apache.sdap.mudrod.utils.RDDUtil;
 import org.apache.sdap.mudrod.weblog.structure.session.ClickStream;
 import org.apache.sdap.mudrod.weblog.structure.session.SessionExtractor;
 import org.apache.spark.api.java.JavaPairRDD;
@@ -26,6 +28,8 @@ import org.apache.spark.api.java.JavaRDD;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 
@@ -50,21 +54,78 @@ public class ClickStreamGenerator extends DiscoveryStepAbstract {
     startTime = System.currentTimeMillis();
 
     String clickstremMatrixFile = props.getProperty(MudrodConstants.CLICKSTREAM_PATH);
+    if (IncrementalMatrix.isEnabled(props)) {
+      generateIncrementally(clickstremMatrixFile);
+    } else {
+      generate(clickstremMatrixFile);
+    }
+
+    endTime = System.currentTimeMillis();
+    LOG.info("ClickStreamGenerator complete. Time elapsed {} seconds.", (endTime - startTime) / 1000);
+    return null;
+  }
+
+  /**
+   * Method of building the click stream matrix from all log indices
+   *
+   * @param clickstreamMatrixFile click stream matrix directory
+   */
+  private void generate(String clickstreamMatrixFile) {
+    JavaRDD<ClickStream> clickstreamRDD = null;
     try {
       SessionExtractor extractor = new SessionExtractor();
-      JavaRDD<ClickStream> clickstreamRDD = extractor.extractClickStreamFromES(this.props, this.es, this.spark);
+      clickstreamRDD = extractor.extractClickStreamFromES(this.props, this.es, this.spark);
       int weight = Integer.parseInt(props.getProperty(MudrodConstants.DOWNLOAD_WEIGHT));
       JavaPairRDD<String, List<String>> metaddataQueryRDD = extractor.bulidDataQueryRDD(clickstreamRDD, weight);
       LabeledRowMatrix wordDocMatrix = MatrixUtil.createWordDocMatrix(metaddataQueryRDD);
 
-      MatrixUtil.exportToCSV(wordDocMatrix.rowMatrix, wordDocMatrix.rowkeys, wordDocMatrix.colkeys, clickstremMatrixFile);
+      MatrixUtil.exportMatrix(wordDocMatrix.rowMatrix, wordDocMatrix.rowkeys, wordDocMatrix.colkeys, clickstreamMatrixFile, props);
+      wordDocMatrix.unpersist();
     } catch (Exception e) {
       LOG.error("Encountered error within ClickStreamGenerator: {}", e);
+    } finally {
+      if (clickstreamRDD != null) {
+        RDDUtil.unpersist(clickstreamRDD, SessionExtractor.CLICKSTREAM_STAGE);
+      }
     }
+  }
 
-    endTime = System.currentTimeMillis();
-    LOG.info("ClickStreamGenerator complete. Time elapsed {} seconds.", (endTime - startTime) / 1000);
-    return null;
+  /**
+   * Method of adding the click streams of the log indices not processed by
+   * previous runs to the click stream matrix, see {@link IncrementalMatrix}
+   *
+   * @param clickstreamMatrixFile click stream matrix directory
+   */
+  private void generateIncrementally(String clickstreamMatrixFile) {
+    String prefix = props.getProperty(MudrodConstants.LOG_INDEX);
+    int weight = Integer.parseInt(props.getProperty(MudrodConstants.DOWNLOAD_WEIGHT));
+    IncrementalMatrix matrix = new IncrementalMatrix(clickstreamMatrixFile, props);
+    SessionExtractor extractor = new SessionExtractor();
+    try {
+      List<String> suffixes = new ArrayList<>();
+      for (String logIndex : matrix.pendingIndices(es.getIndexListWithPrefix(prefix), prefix)) {
+        String suffix = IncrementalMatrix.suffixOf(logIndex, prefix);
+        JavaRDD<ClickStream> clickstreamRDD = extractor.extractClickStreamFromES(props, es, spark, Collections.singletonList(logIndex));
+        try {
+          LabeledRowMatrix wordDocMatrix = MatrixUtil.createWordDocMatrix(extractor.bulidDataQueryRDD(clickstreamRDD, weight));
+          MatrixUtil.exportMatrix(wordDocMatrix.rowMatrix, wordDocMatrix.rowkeys, wordDocMatrix.colkeys, matrix.partPath(suffix), props);
+          wordDocMatrix.unpersist();
+        } finally {
+          RDDUtil.unpersist(clickstreamRDD, SessionExtractor.CLICKSTREAM_STAGE);
+        }
+        suffixes.add(suffix);
+      }
+
+      if (suffixes.isEmpty()) {
+        LOG.info("No new log index for the click stream matrix");
+        return;
+      }
+      LOG.info("Adding log indices {} to the click stream matrix", suffixes);
+      matrix.fold(spark.sc, suffixes);
+      matrix.exportAggregate(spark.sc, clickstreamMatrixFile);
+    } catch (Exception e) {
+      LOG.error("Encountered error within ClickStreamGenerator: {}", e);
+    }
   }
 
   @Override
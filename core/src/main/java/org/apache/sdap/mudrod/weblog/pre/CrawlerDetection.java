@@ -17,6 +17,7 @@ import org.apache.sdap.mudrod.discoveryengine.DiscoveryStepAbstract;
 import org.apache.sdap.mudrod.driver.ESDriver;
 import org.apache.sdap.mudrod.driver.SparkDriver;
 import org.apache.sdap.mudrod.main.MudrodConstants;
+import org.apache.sdap.mudrod.utils.RDDUtil;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.function.FlatMapFunction;
 import org.apache.spark.api.java.function.Function2;
@@ -58,6 +59,7 @@ public class CrawlerDetection extends LogAbstract {
    */
   private static final long serialVersionUID = 1L;
   private static final Logger LOG = LoggerFactory.getLogger(CrawlerDetection.class);
+  private static final String CRAWLER_USERS_STAGE = "crawler detection users";
 
   /**
    * Paramterized constructor to instantiate a configured instance of
@@ -109,7 +111,7 @@ public class CrawlerDetection extends LogAbstract {
 
   void checkByRateInParallel() throws InterruptedException, IOException {
 
-    JavaRDD<String> userRDD = getUserRDD(this.httpType);
+    JavaRDD<String> userRDD = RDDUtil.persist(getUserRDD(this.httpType), CRAWLER_USERS_STAGE, props);
     LOG.info("Original User count: {}", userRDD.count());
 
     int userCount = 0;
@@ -127,6 +129,7 @@ public class CrawlerDetection extends LogAbstract {
       return realUserNums.iterator();
     }).reduce((Function2<Integer, Integer, Integer>) (a, b) -> a + b);
 
+    RDDUtil.unpersist(userRDD, CRAWLER_USERS_STAGE);
     LOG.info("Final user count: {}", Integer.toString(userCount));
   }
 
@@ -13,20 +13,26 @@
  */
 package org.apache.sdap.mudrod.weblog.pre;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.sdap.mudrod.driver.ESDriver;
 import org.apache.sdap.mudrod.driver.SparkDriver;
 import org.apache.sdap.mudrod.main.MudrodConstants;
-import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.apache.sdap.mudrod.utils.IncrementalMatrix;
+import org.apache.sdap.mudrod.utils.PairCounts;
+import org.apache.sdap.mudrod.utils.SparseMatrixFile;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.mllib.linalg.SparseVector;
+import org.apache.spark.mllib.linalg.Vector;
+import org.apache.spark.mllib.linalg.Vectors;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.search.aggregations.AggregationBuilders;
-import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.SearchHit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import scala.Tuple2;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
 
@@ -38,6 +44,10 @@ public class HistoryGenerator extends LogAbstract {
   private static final long serialVersionUID = 1L;
   private static final Logger LOG = LoggerFactory.getLogger(HistoryGenerator.class);
 
+  // row of the partial matrices holding the number of sessions of each IP
+  static final String SESSIONS_ROW = "_sessions";
+  private static final int SESSION_PAGE_SIZE = 1000;
+
   public HistoryGenerator(Properties props, ESDriver es, SparkDriver spark) {
     super(props, es, spark);
   }
@@ -47,7 +57,11 @@ public class HistoryGenerator extends LogAbstract {
     LOG.info("Starting HistoryGenerator...");
     startTime = System.currentTimeMillis();
 
-    generateBinaryMatrix();
+    if (IncrementalMatrix.isEnabled(props)) {
+      generateBinaryMatrixIncrementally();
+    } else {
+      generateBinaryMatrix();
+    }
 
     endTime = System.currentTimeMillis();
     LOG.info("HistoryGenerator complete. Time elapsed {} seconds", (endTime - startTime) / 1000);
@@ -55,103 +69,279 @@ public class HistoryGenerator extends LogAbstract {
   }
 
   /**
-   * Method to generate a binary user*query matrix (stored in temporary .csv
-   * file)
+   * Method to generate a binary user*query matrix, in the format of
+   * {@link SparseMatrixFile}. The (query, IP) pairs of the sessions are read
+   * in pages and counted sparsely, then the rows are written one at a time:
+   * IPs of more than mudrod.query.min sessions, queries of at least
+   * mudrod.query.min IPs.
    */
   public void generateBinaryMatrix() {
+    String matrixPath = props.getProperty(MudrodConstants.USER_HISTORY_PATH);
     try {
-      File file = new File(props.getProperty(MudrodConstants.USER_HISTORY_PATH));
-      if (file.exists()) {
-        file.delete();
+      List<String> logIndexList = es.getIndexListWithPrefix(
+          props.getProperty(MudrodConstants.LOG_INDEX));
+      SessionCounts counts = countSessions(logIndexList.toArray(new String[0]));
+      LOG.info("{}: {}", this.sessionStats, counts.sessionCount);
+      if (counts.sessionCount == 0) {
+        FileUtils.deleteQuietly(new File(matrixPath));
+        return;
       }
 
-      file.createNewFile();
-
-      FileWriter fw = new FileWriter(file.getAbsoluteFile());
-      try (BufferedWriter bw = new BufferedWriter(fw)) {
-        bw.write("Num" + ",");
-
-        // step 1: write first row of csv
-        List<String> logIndexList = es.getIndexListWithPrefix(
-            props.getProperty(MudrodConstants.LOG_INDEX));
+      int queryMin = Integer.parseInt(props.getProperty(MudrodConstants.QUERY_MIN));
+      List<String> ipList = new ArrayList<>();
+      int[] columns = new int[counts.ips.size()];
+      for (int i = 0; i < columns.length; i++) {
+        // filter out less active users/ips
+        columns[i] = -1;
+        if (counts.sessions[i] > queryMin) {
+          columns[i] = ipList.size();
+          ipList.add(counts.ips.get(i));
+        }
+      }
 
-        String[] logIndices = logIndexList.toArray(new String[0]);
-        String[] statictypeArray = new String[]{this.sessionStats};
-        int docCount = es.getDocCount(logIndices, statictypeArray);
+      int size = ipList.size();
+      Iterator<PairCounts.Row> keywordRows = counts.pairs.rows();
+      Iterator<Tuple2<String, Vector>> rows = new Iterator<Tuple2<String, Vector>>() {
+        private Tuple2<String, Vector> next = advance();
 
-        LOG.info("{}: {}", this.sessionStats, docCount);
+        private Tuple2<String, Vector> advance() {
+          while (keywordRows.hasNext()) {
+            PairCounts.Row row = keywordRows.next();
+            // the number of distinct users of the query
+            if (row.columns.length < queryMin) {
+              continue;
+            }
+            int[] indices = new int[row.columns.length];
+            int n = 0;
+            for (int ip : row.columns) {
+              if (columns[ip] >= 0) {
+                indices[n++] = columns[ip];
+              }
+            }
+            double[] ones = new double[n];
+            Arrays.fill(ones, 1.0);
+            return new Tuple2<>(counts.keywords.get(row.row), Vectors.sparse(size, Arrays.copyOf(indices, n), ones));
+          }
+          return null;
+        }
 
-        if (docCount == 0) {
-          bw.close();
-          file.delete();
-          return;
+        @Override
+        public boolean hasNext() {
+          return next != null;
         }
 
-        SearchResponse sr = es.getClient()
-            .prepareSearch(logIndices)
-            .setTypes(statictypeArray)
-            .setQuery(QueryBuilders.matchAllQuery())
-            .setSize(0)
-            .addAggregation(AggregationBuilders.terms("IPs")
-                .field("IP")
-                .size(docCount))
-            .execute()
-            .actionGet();
-        Terms ips = sr.getAggregations().get("IPs");
-        List<String> ipList = new ArrayList<>();
-        for (Terms.Bucket entry : ips.getBuckets()) {
-          // filter
-          if (entry.getDocCount() > Integer.parseInt(props.getProperty(MudrodConstants.QUERY_MIN))) {
-            // out less active users/ips
-            ipList.add(entry.getKey().toString());
+        @Override
+        public Tuple2<String, Vector> next() {
+          if (next == null) {
+            throw new NoSuchElementException();
           }
+          Tuple2<String, Vector> current = next;
+          next = advance();
+          return current;
         }
-        bw.write(String.join(",", ipList) + "\n");
-
-        // step 2: step the rest rows of csv
-        SearchRequestBuilder sr2Builder = es.getClient()
-            .prepareSearch(logIndices)
-            .setTypes(statictypeArray)
-            .setQuery(QueryBuilders.matchAllQuery())
-            .setSize(0)
-            .addAggregation(AggregationBuilders.terms("KeywordAgg")
-                .field("keywords")
-                .size(docCount)
-                .subAggregation(AggregationBuilders.terms("IPAgg")
-                    .field("IP")
-                    .size(docCount)));
-
-        SearchResponse sr2 = sr2Builder.execute().actionGet();
-        Terms keywords = sr2.getAggregations().get("KeywordAgg");
-
-        for (Terms.Bucket keyword : keywords.getBuckets()) {
-
-          Map<String, Integer> ipMap = new HashMap<>();
-          Terms ipAgg = keyword.getAggregations().get("IPAgg");
-
-          int distinctUser = ipAgg.getBuckets().size();
-          if (distinctUser >= Integer.parseInt(props.getProperty(MudrodConstants.QUERY_MIN))) {
-            bw.write(keyword.getKey() + ",");
-            for (Terms.Bucket IP : ipAgg.getBuckets()) {
-
-              ipMap.put(IP.getKey().toString(), 1);
-            }
-            for (String anIpList : ipList) {
-              if (ipMap.containsKey(anIpList)) {
-                bw.write(ipMap.get(anIpList) + ",");
-              } else {
-                bw.write("0,");
-              }
-            }
-            bw.write("\n");
-          }
+      };
+
+      boolean compress = Boolean.parseBoolean(props.getProperty(MudrodConstants.MATRIX_COMPRESS, "true"));
+      SparseMatrixFile.write(rows, ipList, matrixPath, compress);
+    } catch (IOException e) {
+      LOG.error("Error writing the user history matrix", e);
+    }
+  }
+
+  /**
+   * Numbers of sessions of each IP, and of each IP searching each query, in
+   * some log indices
+   */
+  private static class SessionCounts {
+    private final Map<String, Integer> keywordIds = new HashMap<>();
+    private final List<String> keywords = new ArrayList<>();
+    private final Map<String, Integer> ipIds = new HashMap<>();
+    private final List<String> ips = new ArrayList<>();
+    private int[] sessions = new int[16];
+    private final PairCounts pairs = new PairCounts();
+    private long sessionCount = 0;
+
+    private void add(String ip, Collection<String> sessionKeywords) {
+      sessionCount++;
+      int ipId = ipIds.computeIfAbsent(ip, key -> {
+        ips.add(key);
+        return ips.size() - 1;
+      });
+      if (ipId == sessions.length) {
+        sessions = Arrays.copyOf(sessions, 2 * sessions.length);
+      }
+      sessions[ipId]++;
+      for (String keyword : sessionKeywords) {
+        int keywordId = keywordIds.computeIfAbsent(keyword, key -> {
+          keywords.add(key);
+          return keywords.size() - 1;
+        });
+        pairs.add(keywordId, ipId);
+      }
+    }
+  }
+
+  /**
+   * Method of reading the IP and queries of every session of some log
+   * indices, a page at a time, only fetching these two fields
+   */
+  private SessionCounts countSessions(String... logIndices) {
+    SessionCounts counts = new SessionCounts();
+    if (logIndices.length == 0) {
+      return counts;
+    }
+
+    SearchResponse scrollResp = es.getClient()
+        .prepareSearch(logIndices)
+        .setTypes(this.sessionStats)
+        .setQuery(QueryBuilders.matchAllQuery())
+        .setFetchSource(new String[]{"IP", "keywords"}, null)
+        .setScroll(new TimeValue(60000))
+        .setSize(SESSION_PAGE_SIZE)
+        .execute()
+        .actionGet();
+    while (scrollResp.getHits().getHits().length > 0) {
+      for (SearchHit hit : scrollResp.getHits().getHits()) {
+        Map<String, Object> session = hit.getSource();
+        Object ip = session.get("IP");
+        if (ip != null) {
+          counts.add(ip.toString(), keywordsOf(session.get("keywords")));
         }
       }
-      fw.close();
+      scrollResp = es.getClient().prepareSearchScroll(scrollResp.getScrollId()).setScroll(new TimeValue(60000)).execute().actionGet();
+    }
+    return counts;
+  }
+
+  /**
+   * @return the distinct terms the csv analyzer of the keywords field
+   * indexes, so that the queries match those of a terms aggregation
+   */
+  static Set<String> keywordsOf(Object keywords) {
+    Set<String> terms = new LinkedHashSet<>();
+    if (keywords == null) {
+      return terms;
+    }
+    for (String term : keywords.toString().split(",")) {
+      if (!term.isEmpty()) {
+        terms.add(term.toLowerCase(Locale.ROOT));
+      }
+    }
+    return terms;
+  }
+
+  /**
+   * Method of adding the search history of the log indices not processed by
+   * previous runs to the user*query matrix, see {@link IncrementalMatrix}.
+   * Each log index contributes the number of sessions of each IP searching
+   * each query, and the number of sessions of each IP in row
+   * {@value #SESSIONS_ROW}. The binary matrix is exported from their sums
+   * with the filters of {@link #generateBinaryMatrix()}, in the format of
+   * {@link SparseMatrixFile}, and its changed rows are recorded.
+   */
+  public void generateBinaryMatrixIncrementally() {
+    String prefix = props.getProperty(MudrodConstants.LOG_INDEX);
+    String matrixPath = props.getProperty(MudrodConstants.USER_HISTORY_PATH);
+    IncrementalMatrix matrix = new IncrementalMatrix(matrixPath, props);
+    try {
+      List<String> suffixes = new ArrayList<>();
+      for (String logIndex : matrix.pendingIndices(es.getIndexListWithPrefix(prefix), prefix)) {
+        String suffix = IncrementalMatrix.suffixOf(logIndex, prefix);
+        writeSessionCounts(logIndex, matrix.partPath(suffix));
+        suffixes.add(suffix);
+      }
+
+      if (suffixes.isEmpty()) {
+        LOG.info("No new log index for the user history matrix");
+        return;
+      }
+      LOG.info("Adding log indices {} to the user history matrix", suffixes);
+      matrix.fold(spark.sc, suffixes);
+      exportBinaryMatrix(matrix, matrixPath);
     } catch (IOException e) {
-      e.printStackTrace();
+      LOG.error("Error building the user history matrix incrementally", e);
+    }
+  }
+
+  /**
+   * Method of writing the number of sessions of each IP searching each query
+   * in one log index
+   */
+  private void writeSessionCounts(String logIndex, String path) throws IOException {
+    SessionCounts counts = countSessions(logIndex);
+    LOG.info("{} {}: {}", logIndex, this.sessionStats, counts.sessionCount);
+    if (counts.sessionCount == 0) {
+      return;
     }
 
+    int size = counts.ips.size();
+    double[] sessions = new double[size];
+    for (int i = 0; i < size; i++) {
+      sessions[i] = counts.sessions[i];
+    }
+    List<Tuple2<String, Vector>> rows = new ArrayList<>();
+    rows.add(new Tuple2<>(SESSIONS_ROW, Vectors.dense(sessions)));
+    Iterator<PairCounts.Row> keywordRows = counts.pairs.rows();
+    while (keywordRows.hasNext()) {
+      PairCounts.Row row = keywordRows.next();
+      double[] values = new double[row.counts.length];
+      for (int k = 0; k < values.length; k++) {
+        values[k] = row.counts[k];
+      }
+      rows.add(new Tuple2<>(counts.keywords.get(row.row), Vectors.sparse(size, row.columns, values)));
+    }
+
+    boolean compress = Boolean.parseBoolean(props.getProperty(MudrodConstants.MATRIX_COMPRESS, "true"));
+    SparseMatrixFile.write(rows.iterator(), counts.ips, path, compress);
+  }
+
+  /**
+   * Method of exporting the binary user*query matrix of the summed counts:
+   * IPs of more than mudrod.query.min sessions, queries of at least
+   * mudrod.query.min IPs
+   */
+  private void exportBinaryMatrix(IncrementalMatrix matrix, String matrixPath) throws IOException {
+    JavaPairRDD<String, Vector> aggregate = matrix.loadAggregate(spark.sc);
+    List<Vector> sessions = aggregate == null ? Collections.emptyList() : aggregate.lookup(SESSIONS_ROW);
+    if (sessions.isEmpty()) {
+      return;
+    }
+
+    int queryMin = Integer.parseInt(props.getProperty(MudrodConstants.QUERY_MIN));
+    List<String> ips = matrix.aggregateColumns();
+    List<String> ipList = new ArrayList<>();
+    int[] columns = new int[ips.size()];
+    double[] sessionCounts = sessions.get(0).toArray();
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = -1;
+      if (sessionCounts[i] > queryMin) {
+        columns[i] = ipList.size();
+        ipList.add(ips.get(i));
+      }
+    }
+
+    int size = ipList.size();
+    JavaPairRDD<String, Vector> rows = aggregate.filter(row -> !SESSIONS_ROW.equals(row._1) && row._2.numNonzeros() >= queryMin).mapValues(row -> {
+      SparseVector active = row.toSparse();
+      int[] indices = new int[active.indices().length];
+      int n = 0;
+      for (int index : active.indices()) {
+        if (columns[index] >= 0) {
+          indices[n++] = columns[index];
+        }
+      }
+      double[] ones = new double[n];
+      Arrays.fill(ones, 1.0);
+      return Vectors.sparse(size, Arrays.copyOf(indices, n), ones);
+    });
+
+    if (SparseMatrixFile.exists(matrixPath)) {
+      Set<String> changed = IncrementalMatrix.changedRows(SparseMatrixFile.load(spark.sc, matrixPath), SparseMatrixFile.readColumnKeys(matrixPath), rows, ipList);
+      LOG.info("{} rows of the user history matrix changed", changed.size());
+      matrix.addChangedRows(changed);
+    }
+    boolean compress = Boolean.parseBoolean(props.getProperty(MudrodConstants.MATRIX_COMPRESS, "true"));
+    SparseMatrixFile.write(rows, ipList, matrixPath, compress);
   }
 
   @Override
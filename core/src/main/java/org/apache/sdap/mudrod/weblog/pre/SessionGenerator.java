@@ -16,6 +16,7 @@ package org.apache.sdap.mudrod.weblog.pre;
 import org.apache.sdap.mudrod.driver.ESDriver;
 import org.apache.sdap.mudrod.driver.SparkDriver;
 import org.apache.sdap.mudrod.main.MudrodConstants;
+import org.apache.sdap.mudrod.utils.RDDUtil;
 import org.apache.sdap.mudrod.weblog.structure.session.Session;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.function.FlatMapFunction;
@@ -56,6 +57,7 @@ public class SessionGenerator extends LogAbstract {
    */
   private static final long serialVersionUID = 1L;
   private static final Logger LOG = LoggerFactory.getLogger(SessionGenerator.class);
+  private static final String SESSION_USERS_STAGE = "session combination users";
 
   public SessionGenerator(Properties props, ESDriver es, SparkDriver spark) {
     super(props, es, spark);
@@ -318,7 +320,7 @@ public class SessionGenerator extends LogAbstract {
 
   public void combineShortSessionsInParallel(int timeThres) throws InterruptedException, IOException {
 
-    JavaRDD<String> userRDD = getUserRDD(this.cleanupType);
+    JavaRDD<String> userRDD = RDDUtil.persist(getUserRDD(this.cleanupType), SESSION_USERS_STAGE, props);
 
     userRDD.foreachPartition(new VoidFunction<Iterator<String>>() {
       /**
@@ -339,6 +341,7 @@ public class SessionGenerator extends LogAbstract {
       }
     });
     LOG.info("Final Session count (after combining short sessions): {}", Long.toString(userRDD.count()));
+    RDDUtil.unpersist(userRDD, SESSION_USERS_STAGE);
   }
 
   public void combineShortSessions(ESDriver es, String user, int timeThres) throws ElasticsearchException, IOException {
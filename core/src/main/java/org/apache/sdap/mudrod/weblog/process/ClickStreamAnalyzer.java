@@ -20,11 +20,11 @@ import org.apache.sdap.mudrod.main.MudrodConstants;
 import org.apache.sdap.mudrod.semantics.SVDAnalyzer;
 import org.apache.sdap.mudrod.ssearch.ClickStreamImporter;
 import org.apache.sdap.mudrod.utils.LinkageTriple;
+import org.apache.spark.api.java.JavaRDD;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.util.List;
 import java.util.Properties;
 
 /**
@@ -58,12 +58,12 @@ public class ClickStreamAnalyzer extends DiscoveryStepAbstract {
         svd.getSVDMatrix(clickstreamMatrixFile, 
             Integer.parseInt(props.getProperty(MudrodConstants.CLICKSTREAM_SVD_DIM)), 
             props.getProperty(MudrodConstants.CLICKSTREAM_SVD_PATH));
-        List<LinkageTriple> tripleList = svd.calTermSimfromMatrix(props.getProperty(MudrodConstants.CLICKSTREAM_SVD_PATH));
-        svd.saveToES(tripleList, props.getProperty(MudrodConstants.ES_INDEX_NAME), MudrodConstants.CLICK_STREAM_LINKAGE_TYPE);
+        JavaRDD<LinkageTriple> triples = svd.calTermSimRDD(props.getProperty(MudrodConstants.CLICKSTREAM_SVD_PATH), 1);
+        svd.saveToES(triples, props.getProperty(MudrodConstants.ES_INDEX_NAME), MudrodConstants.CLICK_STREAM_LINKAGE_TYPE, false, false);
       
         // Store click stream in ES for the ranking use
         ClickStreamImporter cs = new ClickStreamImporter(props, es, spark);
-        cs.importfromCSVtoES();
+        cs.importFromMatrixToES();
       }
     } catch (Exception e) {
       LOG.error("Encountered an error during execution of ClickStreamAnalyzer.", e);
@@ -18,11 +18,13 @@ import org.apache.sdap.mudrod.driver.ESDriver;
 import org.apache.sdap.mudrod.driver.SparkDriver;
 import org.apache.sdap.mudrod.main.MudrodConstants;
 import org.apache.sdap.mudrod.semantics.SemanticAnalyzer;
+import org.apache.sdap.mudrod.utils.IncrementalMatrix;
 import org.apache.sdap.mudrod.utils.LinkageTriple;
+import org.apache.spark.api.java.JavaRDD;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
+import java.io.IOException;
 import java.util.Properties;
 
 /**
@@ -49,8 +51,19 @@ public class UserHistoryAnalyzer extends DiscoveryStepAbstract {
     startTime = System.currentTimeMillis();
 
     SemanticAnalyzer sa = new SemanticAnalyzer(props, es, spark);
-    List<LinkageTriple> tripleList = sa.calTermSimfromMatrix(props.getProperty(MudrodConstants.USER_HISTORY_PATH));
-    sa.saveToES(tripleList, props.getProperty(MudrodConstants.ES_INDEX_NAME), props.getProperty(MudrodConstants.USER_HISTORY_LINKAGE_TYPE));
+    String userHistoryMatrix = props.getProperty(MudrodConstants.USER_HISTORY_PATH);
+    JavaRDD<LinkageTriple> triples;
+    if (IncrementalMatrix.isEnabled(props)) {
+      try {
+        triples = sa.updateTermSimRDD(userHistoryMatrix, new IncrementalMatrix(userHistoryMatrix, props));
+      } catch (IOException e) {
+        LOG.error("Error updating the user history similarities, computing all of them", e);
+        triples = sa.calTermSimRDD(userHistoryMatrix, 1);
+      }
+    } else {
+      triples = sa.calTermSimRDD(userHistoryMatrix, 1);
+    }
+    sa.saveToES(triples, props.getProperty(MudrodConstants.ES_INDEX_NAME), props.getProperty(MudrodConstants.USER_HISTORY_LINKAGE_TYPE), false, false);
 
     endTime = System.currentTimeMillis();
     es.refreshIndex();
@@ -16,6 +16,7 @@ package org.apache.sdap.mudrod.weblog.structure.session;
 import org.apache.sdap.mudrod.driver.ESDriver;
 import org.apache.sdap.mudrod.driver.SparkDriver;
 import org.apache.sdap.mudrod.main.MudrodConstants;
+import org.apache.sdap.mudrod.utils.RDDUtil;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
@@ -48,6 +49,9 @@ public class SessionExtractor implements Serializable {
 
   private static final Logger LOG = LoggerFactory.getLogger(SessionExtractor.class);
 
+  // persisted stage of the click streams, unpersisted by the callers once done with them
+  public static final String CLICKSTREAM_STAGE = "clickstream";
+
   /**
    *
    */
@@ -67,15 +71,38 @@ public class SessionExtractor implements Serializable {
    *          the Elasticsearch drive
    * @param spark
    *          the spark driver
-   * @return clickstream list in JavaRDD format {@link ClickStream}
+   * @return clickstream list in JavaRDD format {@link ClickStream}, persisted,
+   *         see {@link RDDUtil#unpersist(JavaRDD, String)} with
+   *         {@link #CLICKSTREAM_STAGE}
    */
   public JavaRDD<ClickStream> extractClickStreamFromES(Properties props, ESDriver es, SparkDriver spark) {
 	return getClickStreamListInParallel(props, spark, es);
   }
 
+  /**
+   * extractClickStreamFromES:Extract click streams from some of the log
+   * indices stored in Elasticsearch
+   *
+   * @param props
+   *          the Mudrod configuration
+   * @param es
+   *          the Elasticsearch drive
+   * @param spark
+   *          the spark driver
+   * @param logIndexList
+   *          log index names
+   * @return clickstream list in JavaRDD format {@link ClickStream}, persisted
+   *         like {@link #extractClickStreamFromES(Properties, ESDriver, SparkDriver)}
+   */
+  public JavaRDD<ClickStream> extractClickStreamFromES(Properties props, ESDriver es, SparkDriver spark, List<String> logIndexList) {
+    return getClickStreamListInParallel(props, spark, es, logIndexList);
+  }
+
   protected JavaRDD<ClickStream> getClickStreamListInParallel(Properties props, SparkDriver spark, ESDriver es) {
+    return getClickStreamListInParallel(props, spark, es, es.getIndexListWithPrefix(props.getProperty(MudrodConstants.LOG_INDEX)));
+  }
 
-    List<String> logIndexList = es.getIndexListWithPrefix(props.getProperty(MudrodConstants.LOG_INDEX));
+  protected JavaRDD<ClickStream> getClickStreamListInParallel(Properties props, SparkDriver spark, ESDriver es, List<String> logIndexList) {
 
     LOG.info("Retrieved {}", logIndexList.toString());
 
@@ -113,6 +140,8 @@ public class SessionExtractor implements Serializable {
       }
     });
 
+    // read every session from Elasticsearch once, see RDDUtil#unpersist
+    clickStreamRDD = RDDUtil.persist(clickStreamRDD, CLICKSTREAM_STAGE, props);
     LOG.info("Clickstream number: {}", clickStreamRDD.count());
 
     return clickStreamRDD;
@@ -0,0 +1,37 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.driver;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestESDriver {
+
+  @Test
+  public void testStaleVersionsKeepRetainedAndNewerVersions() {
+    List<String> versions = Arrays.asList("mudrod_t_v3", "mudrod_t_v12", "mudrod_t_v1", "mudrod_t_v7", "mudrod_t_v5");
+
+    assertEquals(Arrays.asList("mudrod_t_v3", "mudrod_t_v1"), ESDriver.staleVersions(versions, "mudrod_t_v7", 1));
+    assertEquals(Arrays.asList("mudrod_t_v5", "mudrod_t_v3", "mudrod_t_v1"), ESDriver.staleVersions(versions, "mudrod_t_v7", 0));
+    assertEquals(Collections.emptyList(), ESDriver.staleVersions(versions, "mudrod_t_v7", 5));
+    // a version built after the published one is never dropped
+    assertEquals(Collections.emptyList(), ESDriver.staleVersions(versions, "mudrod_t_v1", 0));
+    assertEquals(Collections.emptyList(), ESDriver.staleVersions(Collections.singletonList("mudrod_t_v2"), "mudrod_t_v2", 1));
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.integration;
+
+import org.apache.sdap.mudrod.utils.LinkageTriple;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestLinkageGraph {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static LinkageTriple triple(String keyA, String keyB, double weight) {
+    LinkageTriple triple = new LinkageTriple();
+    triple.keyA = keyA;
+    triple.keyB = keyB;
+    triple.weight = weight;
+    return triple;
+  }
+
+  @Test
+  public void testRelatedTermsSortedByWeight() throws IOException {
+    List<LinkageTriple> history = new ArrayList<>(Arrays.asList(triple("ocean wind", "sea surface wind", 0.5), triple("ocean wind", "ocean wind", 1.0),
+        triple("ocean wind", "quikscat", 0.9), triple("sst", "sea surface temperature", 0.8)));
+    Map<String, List<LinkageTriple>> triples = new LinkedHashMap<>();
+    triples.put("history", history);
+    triples.put("ontology", Arrays.asList(triple("oc\u00e9an", "sea", 0.7)));
+
+    File file = new File(folder.getRoot(), "graph.bin");
+    LinkageGraph.write(file, triples);
+    LinkageGraph graph = LinkageGraph.open(file);
+
+    assertTrue(graph.hasModel("history"));
+    assertFalse(graph.hasModel("clickstream"));
+    assertEquals(7, graph.getTermCount());
+
+    Map<String, Double> related = graph.getRelatedTerms("ocean wind", "history", 11);
+    assertEquals(Arrays.asList("quikscat", "sea surface wind"), new ArrayList<>(related.keySet()));
+    assertEquals(0.9, related.get("quikscat"), 1e-6);
+
+    assertEquals(1, graph.getRelatedTerms("ocean wind", "history", 1).size());
+    assertEquals(0.7, graph.getRelatedTerms("oc\u00e9an", "ontology", 11).get("sea"), 1e-6);
+    assertTrue(graph.getRelatedTerms("sst", "ontology", 11).isEmpty());
+    assertTrue(graph.getRelatedTerms("unknown", "history", 11).isEmpty());
+  }
+}
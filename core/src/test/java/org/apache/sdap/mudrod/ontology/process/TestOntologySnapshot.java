@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.ontology.process;
+
+import org.apache.jena.ontology.Individual;
+import org.apache.jena.ontology.OntClass;
+import org.apache.jena.ontology.OntModel;
+import org.apache.jena.ontology.OntModelSpec;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestOntologySnapshot {
+
+  private static final String NS = "http://example.org/ocean#";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File writeOntology() throws Exception {
+    OntModel model = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM, null);
+    OntClass ocean = model.createClass(NS + "Ocean");
+    ocean.addLabel("ocean", null);
+    OntClass sea = model.createClass(NS + "Sea");
+    sea.addLabel("sea", null);
+    ocean.addSubClass(sea);
+    OntClass marine = model.createClass(NS + "MarineBody");
+    ocean.addEquivalentClass(marine);
+    Individual pacific = model.createIndividual(NS + "Pacific", ocean);
+    pacific.addLabel("pacific ocean", null);
+    Individual southPacific = model.createIndividual(NS + "SouthPacific", ocean);
+    southPacific.addLabel("south pacific", null);
+    pacific.addSameAs(southPacific);
+
+    File file = folder.newFile("ocean.owl");
+    try (OutputStream out = new FileOutputStream(file)) {
+      model.write(out, "RDF/XML");
+    }
+    return file;
+  }
+
+  @Test
+  public void testSnapshotAnswersLikeTheParsedOntology() throws Exception {
+    File owl = writeOntology();
+    LocalOntology parsed = new LocalOntology(null, false);
+    parsed.load(new String[] { owl.toURI().toString() });
+
+    assertEquals(set("sea", "pacific ocean", "south pacific"), set(parsed.subclasses("Ocean")));
+    assertEquals(set("ocean", "Marine Body"), set(parsed.synonyms("ocean")));
+    assertEquals(set("pacific ocean", "south pacific"), set(parsed.synonyms("pacific ocean")));
+    assertTrue(set(parsed.synonyms("unknown")).isEmpty());
+
+    File file = new File(folder.getRoot(), "snapshots/ocean.snapshot");
+    parsed.getSnapshot().write(file);
+    OntologySnapshot snapshot;
+    try (InputStream in = new FileInputStream(file)) {
+      snapshot = OntologySnapshot.read(in);
+    }
+    assertEquals(parsed.getSnapshot().size(), snapshot.size());
+    for (String term : Arrays.asList("ocean", "sea", "marine body", "pacific ocean", "south pacific")) {
+      assertEquals(set(parsed.synonyms(term)), snapshot.synonyms(term));
+      assertEquals(set(parsed.subclasses(term)), snapshot.subclasses(term));
+    }
+
+    // an existing snapshot is loaded instead of reading the ontology
+    LocalOntology loaded = new LocalOntology(file.getPath());
+    assertEquals(set("sea", "pacific ocean", "south pacific"), set(loaded.subclasses("ocean")));
+  }
+
+  private static Set<String> set(String... values) {
+    return new HashSet<>(Arrays.asList(values));
+  }
+
+  private static Set<String> set(java.util.Iterator<String> values) {
+    Set<String> result = new HashSet<>();
+    values.forEachRemaining(result::add);
+    return result;
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.recommendation.structure;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-pair cost of the metadata feature similarity, on the original metadata
+ * maps and on the pre-encoded form. Run with
+ * mvn -pl core test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.apache.sdap.mudrod.recommendation.structure.MetadataSimilarityBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MetadataSimilarityBenchmark {
+
+  private static final int RECORDS = 256;
+
+  private PODAACMetadataFeature feature;
+  private MetadataEncoder encoder;
+  private Map<String, Object>[] metadata;
+  private EncodedMetadata[] encoded;
+  private final double[] weights = new double[2];
+  private int next = 0;
+
+  @Setup
+  @SuppressWarnings("unchecked")
+  public void setup() {
+    feature = new PODAACMetadataFeature();
+    feature.inital();
+    encoder = new MetadataEncoder(feature);
+    Random random = new Random(42);
+    metadata = new Map[RECORDS];
+    encoded = new EncodedMetadata[RECORDS];
+    for (int i = 0; i < RECORDS; i++) {
+      metadata[i] = TestMetadataEncoder.randomMetadata(feature, random);
+      encoded[i] = encoder.encode(metadata[i]);
+    }
+  }
+
+  @Benchmark
+  public void mapPair(Blackhole blackhole) {
+    int i = next++ & (RECORDS - 1);
+    int j = (i * 31 + 7) & (RECORDS - 1);
+    blackhole.consume(feature.weightedSimilarity(feature.featureSimilarity(metadata[i], metadata[j])));
+    blackhole.consume(feature.weightedSimilarity(feature.featureSimilarity(metadata[j], metadata[i])));
+  }
+
+  @Benchmark
+  public void encodedPair(Blackhole blackhole) {
+    int i = next++ & (RECORDS - 1);
+    int j = (i * 31 + 7) & (RECORDS - 1);
+    encoder.weightedSimilarity(encoded[i], encoded[j], weights);
+    blackhole.consume(weights[0]);
+    blackhole.consume(weights[1]);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(MetadataSimilarityBenchmark.class.getSimpleName()).build()).run();
+  }
+}
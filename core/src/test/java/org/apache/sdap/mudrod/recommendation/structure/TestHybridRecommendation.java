@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.recommendation.structure;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import org.apache.sdap.mudrod.integration.LinkageGraph;
+import org.apache.sdap.mudrod.integration.LinkageGraphStore;
+import org.apache.sdap.mudrod.main.MudrodConstants;
+import org.apache.sdap.mudrod.utils.LinkageTriple;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestHybridRecommendation {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static LinkageTriple triple(String keyA, String keyB, double weight) {
+    LinkageTriple triple = new LinkageTriple();
+    triple.keyA = keyA;
+    triple.keyB = keyB;
+    triple.weight = weight;
+    return triple;
+  }
+
+  @Test
+  public void testRecommendFromStore() throws IOException {
+    Map<String, List<LinkageTriple>> triples = new LinkedHashMap<>();
+    triples.put(MudrodConstants.METADATA_FEATURE_SIM_TYPE, Arrays.asList(triple("A", "B", 0.9), triple("A", "C", 0.3)));
+    triples.put(MudrodConstants.METADATA_WORD_SIM_TYPE, Arrays.asList(triple("A", "C", 0.8), triple("A", "D", 0.5)));
+    triples.put(MudrodConstants.METADATA_SESSION_SIM_TYPE, Arrays.asList(triple("A", "D", 0.1)));
+    File file = new File(folder.getRoot(), "recommendation_store.bin");
+    LinkageGraph.write(file, triples);
+
+    HybridRecommendation recommendation = new HybridRecommendation(null, null, null);
+    recommendation.setRecommendationStore(new LinkageGraphStore(file));
+    JsonObject json = recommendation.getRecomDataInJson("A", 2);
+
+    JsonArray variableSim = json.getAsJsonArray("variableSim");
+    assertEquals(2, variableSim.size());
+    assertEquals("B", variableSim.get(0).getAsJsonObject().get("name").getAsString());
+    assertEquals(0.9, variableSim.get(0).getAsJsonObject().get("weight").getAsDouble(), 0);
+
+    // C: 0.3 + 0.8, B: 0.9, D: 0.5 + 0.1
+    JsonArray linked = json.getAsJsonArray("linked");
+    assertEquals(2, linked.size());
+    assertEquals("C", linked.get(0).getAsJsonObject().get("name").getAsString());
+    assertEquals(1.1, linked.get(0).getAsJsonObject().get("weight").getAsDouble(), 0);
+    assertEquals("B", linked.get(1).getAsJsonObject().get("name").getAsString());
+
+    assertEquals(0, recommendation.getRecomDataInJson("unknown", 2).getAsJsonArray("linked").size());
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.recommendation.structure;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestMetadataEncoder {
+
+  private static final String[] VALUES = { "ocean", "wind", "sst", "l2", "l3", "modis", "quikscat", "netcdf", "hdf", "global" };
+
+  /**
+   * Generate a normalized metadata record with the fields read by
+   * {@link PODAACMetadataFeature}.
+   */
+  static Map<String, Object> randomMetadata(PODAACMetadataFeature feature, Random random) {
+    Map<String, Object> metadata = new HashMap<>();
+    for (Map.Entry<String, Integer> variable : feature.featureTypes.entrySet()) {
+      if (variable.getValue().equals(MetadataFeature.VAR_ORDINAL)) {
+        metadata.put(variable.getKey(), random.nextInt(5) + 1.0);
+      } else if (Math.floorMod(variable.getKey().hashCode(), 4) == 0) {
+        // a variable holds either single values or lists in every record
+        metadata.put(variable.getKey(), VALUES[random.nextInt(VALUES.length)]);
+      } else {
+        List<String> values = new ArrayList<>();
+        for (int i = random.nextInt(4) + 1; i > 0; i--) {
+          values.add(VALUES[random.nextInt(VALUES.length)]);
+        }
+        metadata.put(variable.getKey(), values);
+      }
+    }
+
+    double south = random.nextInt(180) - 90.0;
+    double north = Math.min(90, south + random.nextInt(90) + 1);
+    double west = random.nextInt(360) - 180.0;
+    double east = Math.min(180, west + random.nextInt(180) + 1);
+    metadata.put("DatasetCoverage-Derivative-NorthLat", north);
+    metadata.put("DatasetCoverage-Derivative-SouthLat", south);
+    metadata.put("DatasetCoverage-Derivative-WestLon", west);
+    metadata.put("DatasetCoverage-Derivative-EastLon", east);
+    metadata.put("DatasetCoverage-Derivative-Area", (north - south) * (east - west));
+
+    long start = 1000000000000L + random.nextInt(100000) * 100000L;
+    metadata.put("Dataset-DatasetCoverage-StartTimeLong", Long.toString(start));
+    metadata.put("Dataset-DatasetCoverage-StopTimeLong", Long.toString(start + (random.nextInt(100000) + 1) * 100000L));
+    return metadata;
+  }
+
+  @Test
+  public void testMatchesMapBasedSimilarity() {
+    PODAACMetadataFeature feature = new PODAACMetadataFeature();
+    feature.inital();
+    MetadataEncoder encoder = new MetadataEncoder(feature);
+    Random random = new Random(42);
+
+    double[] weights = new double[2];
+    for (int n = 0; n < 200; n++) {
+      Map<String, Object> a = randomMetadata(feature, random);
+      Map<String, Object> b = randomMetadata(feature, random);
+      EncodedMetadata encodedA = encoder.encode(a);
+      EncodedMetadata encodedB = encoder.encode(b);
+
+      double aToB = feature.weightedSimilarity(feature.featureSimilarity(a, b));
+      double bToA = feature.weightedSimilarity(feature.featureSimilarity(b, a));
+      assertEquals(aToB, encoder.weightedSimilarity(encodedA, encodedB), 1e-9);
+      encoder.weightedSimilarity(encodedA, encodedB, weights);
+      assertEquals(aToB, weights[0], 1e-9);
+      assertEquals(bToA, weights[1], 1e-9);
+    }
+  }
+
+  @Test
+  public void testCategoricalSimilarityCountsDuplicates() {
+    byte list = EncodedMetadata.LIST;
+    assertEquals(2.0 / 3, MetadataEncoder.categoricalSimilarity(list, new int[] { 1, 1, 2 }, list, new int[] { 1, 3 }), 1e-9);
+    assertEquals(0.0, MetadataEncoder.categoricalSimilarity(list, new int[0], list, new int[] { 1 }), 1e-9);
+    assertEquals(1.0, MetadataEncoder.categoricalSimilarity(EncodedMetadata.SINGLE, new int[] { 4 }, EncodedMetadata.SINGLE, new int[] { 4 }), 1e-9);
+    assertEquals(0.0, MetadataEncoder.categoricalSimilarity(EncodedMetadata.SINGLE, new int[] { 4 }, list, new int[] { 4 }), 1e-9);
+  }
+}
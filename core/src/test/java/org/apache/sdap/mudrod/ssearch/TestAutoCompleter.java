@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.ssearch;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestAutoCompleter {
+
+  @Test
+  public void testSuggestionsRankedByPopularity() throws IOException {
+    AutoCompleter autoCompleter = new AutoCompleter(null, null);
+    assertFalse(autoCompleter.isReady());
+
+    Map<String, Long> phrases = new HashMap<>();
+    phrases.put("ocean wind", 3L);
+    phrases.put("ocean temperature", 10L);
+    phrases.put("sea surface temperature", 7L);
+    autoCompleter.build(phrases);
+
+    assertTrue(autoCompleter.isReady());
+    assertEquals("ocean temperature", autoCompleter.suggest("Ocean", 10).get(0));
+    assertEquals(1, autoCompleter.suggest("ocean", 1).size());
+  }
+
+  @Test
+  public void testSuggestionsKeepCasing() throws IOException {
+    AutoCompleter autoCompleter = new AutoCompleter(null, null);
+    Map<String, Long> phrases = new LinkedHashMap<>();
+    phrases.put("MODIS Aqua", 3L);
+    phrases.put("modis aqua", 2L);
+    phrases.put("modis terra", 4L);
+    autoCompleter.build(phrases);
+
+    // the first spelling of a phrase is suggested, with the popularity of all of them
+    assertEquals(Arrays.asList("MODIS Aqua", "modis terra"), autoCompleter.suggest("modis", 10));
+  }
+
+  @Test
+  public void testFuzzyPrefix() throws IOException {
+    AutoCompleter autoCompleter = new AutoCompleter(null, null);
+    Map<String, Long> phrases = new HashMap<>();
+    phrases.put("sea surface temperature", 7L);
+    phrases.put("salinity", 2L);
+    autoCompleter.build(phrases);
+
+    List<String> suggestions = autoCompleter.suggest("sea surfce", 10);
+    assertEquals("sea surface temperature", suggestions.get(0));
+    assertTrue(autoCompleter.suggest("", 10).isEmpty());
+  }
+}
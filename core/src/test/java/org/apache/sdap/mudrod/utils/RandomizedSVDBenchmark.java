@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.mllib.linalg.Matrices;
+import org.apache.spark.mllib.linalg.Matrix;
+import org.apache.spark.mllib.linalg.SingularValueDecomposition;
+import org.apache.spark.mllib.linalg.Vector;
+import org.apache.spark.mllib.linalg.distributed.RowMatrix;
+
+import java.util.Arrays;
+
+/**
+ * Run time and accuracy of {@link RandomizedSVD} against
+ * RowMatrix.computeSVD on the synthetic topic corpus of
+ * {@link SimilarityRecallBenchmark}. Accuracy is the similarity of the right
+ * singular subspaces, see {@link TestRandomizedSVD#subspaceSimilarity}, of
+ * all k and of the leading k / 5 dimensions, the variance of the matrix
+ * captured relative to the exact SVD, and the largest relative error of the
+ * singular values. Run with
+ * mvn -pl core test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.apache.sdap.mudrod.utils.RandomizedSVDBenchmark
+ * -Dexec.args="rows columns dimension"
+ */
+public class RandomizedSVDBenchmark {
+
+  // oversampling, power iterations
+  private static final int[][] SETTINGS = { { 10, 0 }, { 10, 1 }, { 10, 2 }, { 20, 2 }, { 10, 4 } };
+
+  public static void main(String[] args) {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int cols = args.length > 1 ? Integer.parseInt(args[1]) : 1500;
+    int k = args.length > 2 ? Integer.parseInt(args[2]) : 150;
+
+    SparkConf conf = new SparkConf().setAppName("RandomizedSVDBenchmark").setMaster("local[*]").set("spark.ui.enabled", "false");
+    try (JavaSparkContext sc = new JavaSparkContext(conf)) {
+      sc.setLogLevel("WARN");
+      RowMatrix matrix = new RowMatrix(sc.parallelizePairs(SimilarityRecallBenchmark.syntheticCorpus(rows, cols, 42L), 8).values().cache().rdd());
+      matrix.numRows();
+      System.out.printf("%d x %d, k = %d%n", rows, cols, k);
+
+      long start = System.currentTimeMillis();
+      SingularValueDecomposition<RowMatrix, Matrix> exact = matrix.computeSVD(k, false, 1.0E-9d);
+      System.out.printf("computeSVD                           %8dms%n", System.currentTimeMillis() - start);
+
+      for (int[] setting : SETTINGS) {
+        start = System.currentTimeMillis();
+        SingularValueDecomposition<RowMatrix, Matrix> randomized = RandomizedSVD.computeSVD(matrix, k, setting[0], setting[1]);
+        long elapsed = System.currentTimeMillis() - start;
+        System.out.printf("randomized oversampling=%-3d power=%-2d %8dms  subspace %.4f  leading %.4f  variance %.4f  max sigma error %.4f%n", setting[0], setting[1],
+            elapsed, TestRandomizedSVD.subspaceSimilarity(exact.V(), randomized.V()), TestRandomizedSVD.subspaceSimilarity(leading(exact.V(), k / 5), leading(randomized.V(), k / 5)),
+            sumOfSquares(randomized.s()) / sumOfSquares(exact.s()), maxRelativeError(exact.s(), randomized.s()));
+      }
+    }
+  }
+
+  private static Matrix leading(Matrix matrix, int cols) {
+    double[] values = Arrays.copyOf(matrix.toArray(), matrix.numRows() * cols);
+    return Matrices.dense(matrix.numRows(), cols, values);
+  }
+
+  private static double sumOfSquares(Vector vector) {
+    double sum = 0.0;
+    for (double value : vector.toArray()) {
+      sum += value * value;
+    }
+    return sum;
+  }
+
+  private static double maxRelativeError(Vector expected, Vector actual) {
+    double max = 0.0;
+    for (int i = 0; i < Math.min(expected.size(), actual.size()); i++) {
+      max = Math.max(max, Math.abs(expected.apply(i) - actual.apply(i)) / expected.apply(i));
+    }
+    return max;
+  }
+}
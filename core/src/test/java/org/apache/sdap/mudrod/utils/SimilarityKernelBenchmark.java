@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import org.apache.spark.mllib.linalg.Vector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-pair cost of the Pearson and Hellinger kernels on dense and sparse
+ * vectors. A session-dataset matrix row has one column per session and is
+ * non zero only for the few sessions that viewed the dataset, well below 1%
+ * of the columns. Run with
+ * mvn -pl core test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.apache.sdap.mudrod.utils.SimilarityKernelBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SimilarityKernelBenchmark {
+
+  private static final int VECTORS = 64;
+
+  @Param({ "20000" })
+  private int size;
+
+  @Param({ "0.001", "0.01", "0.1" })
+  private double density;
+
+  private Vector[] dense;
+  private Vector[] sparse;
+  private int next = 0;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    dense = new Vector[VECTORS];
+    sparse = new Vector[VECTORS];
+    for (int i = 0; i < VECTORS; i++) {
+      dense[i] = TestSimilarityUtil.randomVector(random, size, density);
+      sparse[i] = dense[i].toSparse();
+    }
+  }
+
+  private int nextPair() {
+    next = (next + 1) % VECTORS;
+    return next;
+  }
+
+  @Benchmark
+  public double pearsonDense() {
+    int i = nextPair();
+    return SimilarityUtil.pearsonDistance(dense[i], dense[(i + 1) % VECTORS]);
+  }
+
+  @Benchmark
+  public double pearsonSparse() {
+    int i = nextPair();
+    return SimilarityUtil.pearsonDistance(sparse[i], sparse[(i + 1) % VECTORS]);
+  }
+
+  @Benchmark
+  public double hellingerDense() {
+    int i = nextPair();
+    return SimilarityUtil.hellingerDistance(dense[i], dense[(i + 1) % VECTORS]);
+  }
+
+  @Benchmark
+  public double hellingerSparse() {
+    int i = nextPair();
+    return SimilarityUtil.hellingerDistance(sparse[i], sparse[(i + 1) % VECTORS]);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(SimilarityKernelBenchmark.class.getSimpleName()).build()).run();
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.mllib.linalg.Vector;
+import org.apache.spark.mllib.linalg.Vectors;
+import org.apache.spark.mllib.linalg.distributed.CoordinateMatrix;
+import scala.Tuple2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Recall@K and run time of the approximate similarity paths of
+ * {@link SimilarityUtil} against the exact ones, on a synthetic corpus of
+ * terms that co-occur mostly within latent topics. Run with
+ * mvn -pl core test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.apache.sdap.mudrod.utils.SimilarityRecallBenchmark
+ * -Dexec.args="terms dimensions K"
+ */
+public class SimilarityRecallBenchmark {
+
+  private static final int TOPICS = 40;
+  private static final double IN_TOPIC_RATE = 0.3;
+  private static final double OFF_TOPIC_RATE = 0.002;
+
+  private static final int[][] LSH_SETTINGS = { { 16, 2 }, { 32, 2 }, { 64, 2 }, { 128, 2 }, { 64, 3 } };
+  private static final double[] DIMSUM_THRESHOLDS = { 0.1, 0.3, 0.5 };
+
+  public static void main(String[] args) {
+    int terms = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int dimensions = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    int k = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+    SparkConf conf = new SparkConf().setAppName("SimilarityRecallBenchmark").setMaster("local[*]").set("spark.ui.enabled", "false");
+    try (JavaSparkContext sc = new JavaSparkContext(conf)) {
+      sc.setLogLevel("WARN");
+      JavaPairRDD<String, Vector> corpus = sc.parallelizePairs(syntheticCorpus(terms, dimensions, 42L)).cache();
+      corpus.count();
+      System.out.printf("%d terms, %d dimensions, %d topics, recall@%d%n", terms, dimensions, TOPICS, k);
+
+      long start = System.currentTimeMillis();
+      Map<String, Set<String>> exactPearson = topK(SimilarityUtil.calculateSimilarityFromVector(corpus, SimilarityUtil.SIM_PEARSON).collect(), k);
+      System.out.printf("pearson exact                   %8dms%n", System.currentTimeMillis() - start);
+      for (int[] setting : LSH_SETTINGS) {
+        start = System.currentTimeMillis();
+        List<LinkageTriple> triples = SimilarityUtil.calculatePearsonSimilarityLSH(corpus, setting[0], setting[1]).collect();
+        long elapsed = System.currentTimeMillis() - start;
+        System.out.printf("pearson lsh bands=%-3d rows=%-3d %8dms  pairs %6.2f%%  recall %.3f%n", setting[0], setting[1], elapsed,
+            100.0 * triples.size() / ((double) terms * (terms - 1)), recall(exactPearson, topK(triples, k)));
+      }
+
+      JavaRDD<String> keys = corpus.keys();
+      start = System.currentTimeMillis();
+      Map<String, Set<String>> exactCosine = topK(cosineTriples(keys, SimilarityUtil.calculateSimilarityFromVector(corpus.values())), k);
+      System.out.printf("cosine exact                    %8dms%n", System.currentTimeMillis() - start);
+      for (double threshold : DIMSUM_THRESHOLDS) {
+        start = System.currentTimeMillis();
+        List<LinkageTriple> triples = cosineTriples(keys, SimilarityUtil.calculateSimilarityFromVector(corpus.values(), threshold));
+        long elapsed = System.currentTimeMillis() - start;
+        System.out.printf("cosine dimsum threshold=%-7.2f %8dms  pairs %6.2f%%  recall %.3f%n", threshold, elapsed, 100.0 * triples.size() / ((double) terms * (terms - 1)),
+            recall(exactCosine, topK(triples, k)));
+      }
+    }
+  }
+
+  /**
+   * Terms belong to one topic and occur in each dimension of their topic, and
+   * rarely in other dimensions, with weights between 0 and 1.
+   */
+  static List<Tuple2<String, Vector>> syntheticCorpus(int terms, int dimensions, long seed) {
+    Random random = new Random(seed);
+    List<Tuple2<String, Vector>> corpus = new ArrayList<>(terms);
+    for (int term = 0; term < terms; term++) {
+      int topic = term % TOPICS;
+      double[] values = new double[dimensions];
+      for (int dim = 0; dim < dimensions; dim++) {
+        double rate = dim % TOPICS == topic ? IN_TOPIC_RATE : OFF_TOPIC_RATE;
+        if (random.nextDouble() < rate) {
+          values[dim] = random.nextDouble();
+        }
+      }
+      corpus.add(new Tuple2<>("term" + term, Vectors.dense(values).compressed()));
+    }
+    return corpus;
+  }
+
+  // columnSimilarities only returns the upper triangle
+  private static List<LinkageTriple> cosineTriples(JavaRDD<String> keys, CoordinateMatrix simMatrix) {
+    List<LinkageTriple> triples = new ArrayList<>();
+    for (LinkageTriple triple : SimilarityUtil.matrixToTriples(keys, simMatrix)) {
+      triples.add(triple);
+      LinkageTriple reverse = new LinkageTriple();
+      reverse.keyA = triple.keyB;
+      reverse.keyB = triple.keyA;
+      reverse.weight = triple.weight;
+      triples.add(reverse);
+    }
+    return triples;
+  }
+
+  /**
+   * @return for each term, its k most similar terms with a positive similarity
+   */
+  static Map<String, Set<String>> topK(List<LinkageTriple> triples, int k) {
+    Map<String, List<LinkageTriple>> byTerm = new HashMap<>();
+    for (LinkageTriple triple : triples) {
+      if (triple.weight > 0) {
+        byTerm.computeIfAbsent(triple.keyA, key -> new ArrayList<>()).add(triple);
+      }
+    }
+    Map<String, Set<String>> topK = new HashMap<>();
+    for (Map.Entry<String, List<LinkageTriple>> entry : byTerm.entrySet()) {
+      List<LinkageTriple> neighbors = entry.getValue();
+      neighbors.sort((a, b) -> Double.compare(b.weight, a.weight));
+      Set<String> keys = new HashSet<>();
+      for (int i = 0; i < Math.min(k, neighbors.size()); i++) {
+        keys.add(neighbors.get(i).keyB);
+      }
+      topK.put(entry.getKey(), keys);
+    }
+    return topK;
+  }
+
+  /**
+   * @return the fraction of the exact top K neighbors found in the approximate
+   * top K, over all terms
+   */
+  static double recall(Map<String, Set<String>> exact, Map<String, Set<String>> approximate) {
+    long expected = 0;
+    long found = 0;
+    for (Map.Entry<String, Set<String>> entry : exact.entrySet()) {
+      expected += entry.getValue().size();
+      Set<String> neighbors = approximate.get(entry.getKey());
+      if (neighbors != null) {
+        for (String neighbor : entry.getValue()) {
+          if (neighbors.contains(neighbor)) {
+            found++;
+          }
+        }
+      }
+    }
+    return expected == 0 ? 1.0 : (double) found / expected;
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.mllib.linalg.Vector;
+import org.apache.spark.mllib.linalg.Vectors;
+import org.apache.spark.mllib.linalg.distributed.MatrixEntry;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import scala.Tuple2;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestIncrementalMatrix {
+
+  private static JavaSparkContext sc;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @BeforeClass
+  public static void setUp() {
+    sc = new JavaSparkContext(new SparkConf().setAppName("TestIncrementalMatrix").setMaster("local[2]").set("spark.ui.enabled", "false"));
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    sc.close();
+  }
+
+  private static void writePart(IncrementalMatrix matrix, String suffix, List<String> colKeys, List<Tuple2<String, Vector>> rows) throws Exception {
+    SparseMatrixFile.write(sc.parallelizePairs(rows, 2), colKeys, matrix.partPath(suffix), false);
+  }
+
+  @Test
+  public void testFoldSumsPartsByKey() throws Exception {
+    String path = new File(folder.getRoot(), "clickstream").getPath();
+    IncrementalMatrix matrix = new IncrementalMatrix(path, new Properties());
+    assertNull(matrix.loadAggregate(sc));
+
+    writePart(matrix, "2017_01", Arrays.asList("a", "b"),
+        Arrays.asList(new Tuple2<>("sst", Vectors.dense(1, 2)), new Tuple2<>("wind", Vectors.sparse(2, new int[] { 1 }, new double[] { 3 }))));
+    matrix.fold(sc, Collections.singletonList("2017_01"));
+    assertEquals(Collections.singleton("2017_01"), matrix.foldedSuffixes());
+    assertEquals(Collections.singletonList("log2017_02"), matrix.pendingIndices(Arrays.asList("log2017_02", "log2017_01"), "log"));
+
+    // new columns are appended, a day without counts is only recorded
+    writePart(matrix, "2017_02", Arrays.asList("c", "a"),
+        Arrays.asList(new Tuple2<>("sst", Vectors.dense(4, 5)), new Tuple2<>("ocean", Vectors.sparse(2, new int[] { 0 }, new double[] { 1 }))));
+    matrix.fold(sc, Arrays.asList("2017_02", "2017_03"));
+
+    assertEquals(Arrays.asList("a", "b", "c"), matrix.aggregateColumns());
+    Map<String, Vector> aggregate = matrix.loadAggregate(sc).collectAsMap();
+    assertEquals(3, aggregate.size());
+    assertEquals(Vectors.dense(6, 2, 4), aggregate.get("sst").toDense());
+    assertEquals(Vectors.dense(0, 3, 0), aggregate.get("wind").toDense());
+    assertEquals(Vectors.dense(0, 0, 1), aggregate.get("ocean").toDense());
+    assertEquals(new HashSet<>(Arrays.asList("2017_01", "2017_02", "2017_03")), matrix.foldedSuffixes());
+    assertTrue(matrix.pendingIndices(Arrays.asList("log2017_01", "log2017_02", "log2017_03"), "log").isEmpty());
+
+    String exported = new File(folder.getRoot(), "exported").getPath();
+    matrix.exportAggregate(sc, exported);
+    assertEquals(aggregate, SparseMatrixFile.load(sc, exported).collectAsMap());
+  }
+
+  @Test
+  public void testChangedRowsComparesByColumnKey() throws Exception {
+    JavaPairRDD<String, Vector> before = sc.parallelizePairs(Arrays.asList(new Tuple2<>("same", Vectors.dense(1, 0, 2)), new Tuple2<>("changed", Vectors.dense(1, 1, 0)),
+        new Tuple2<>("removed", Vectors.dense(0, 0, 1))));
+    JavaPairRDD<String, Vector> after = sc.parallelizePairs(Arrays.asList(new Tuple2<>("same", Vectors.dense(2, 1, 0)), new Tuple2<>("changed", Vectors.dense(1, 0, 0)),
+        new Tuple2<>("added", Vectors.dense(0, 1, 0))));
+    Set<String> changed = IncrementalMatrix.changedRows(before, Arrays.asList("a", "b", "c"), after, Arrays.asList("c", "a", "d"));
+    assertEquals(new HashSet<>(Arrays.asList("changed", "removed", "added")), changed);
+
+    String path = new File(folder.getRoot(), "userhistory").getPath();
+    IncrementalMatrix matrix = new IncrementalMatrix(path, new Properties());
+    matrix.addChangedRows(Arrays.asList("changed", "removed"));
+    matrix.addChangedRows(Collections.singletonList("added"));
+    assertEquals(changed, matrix.changedRows());
+    matrix.clearChangedRows();
+    assertTrue(matrix.changedRows().isEmpty());
+  }
+
+  @Test
+  public void testUpdatedSimilaritiesMatchFullComputation() throws Exception {
+    List<Tuple2<String, Vector>> rows = binaryRows(60, 40, 1L);
+    List<Tuple2<String, Vector>> updatedRows = new ArrayList<>(binaryRows(60, 40, 2L).subList(0, 10));
+    updatedRows.addAll(rows.subList(10, rows.size() - 5));
+    updatedRows.add(new Tuple2<>("new term", Vectors.dense(new double[40]).compressed()));
+    updatedRows.add(new Tuple2<>("another term", binaryRows(1, 40, 3L).get(0)._2));
+    Set<String> changed = IncrementalMatrix.changedRows(sc.parallelizePairs(rows), columns(40), sc.parallelizePairs(updatedRows), columns(40));
+
+    String path = new File(folder.getRoot(), "userhistory").getPath();
+    IncrementalMatrix matrix = new IncrementalMatrix(path, new Properties());
+    matrix.saveSimilarities(sc.parallelize(similarities(rows)));
+    List<LinkageTriple> updated = SimilarityUtil.updateSimilarityFromVector(sc.parallelizePairs(updatedRows, 3), changed, matrix.loadSimilarities(sc)).collect();
+
+    Map<Set<String>, Double> expected = weights(similarities(updatedRows));
+    Map<Set<String>, Double> actual = weights(updated);
+    assertEquals(expected.size(), updated.size());
+    assertEquals(expected.keySet(), actual.keySet());
+    for (Map.Entry<Set<String>, Double> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), actual.get(entry.getKey()), 1e-12);
+    }
+  }
+
+  private static List<String> columns(int size) {
+    List<String> columns = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      columns.add("ip" + i);
+    }
+    return columns;
+  }
+
+  private static List<Tuple2<String, Vector>> binaryRows(int terms, int users, long seed) {
+    Random random = new Random(seed);
+    List<Tuple2<String, Vector>> rows = new ArrayList<>();
+    for (int term = 0; term < terms; term++) {
+      double[] values = new double[users];
+      for (int user = 0; user < users; user++) {
+        values[user] = random.nextDouble() < 0.1 ? 1 : 0;
+      }
+      rows.add(new Tuple2<>("term" + term, Vectors.dense(values).compressed()));
+    }
+    return rows;
+  }
+
+  private static List<LinkageTriple> similarities(List<Tuple2<String, Vector>> rows) {
+    Vector[] vectors = new Vector[rows.size()];
+    for (int i = 0; i < vectors.length; i++) {
+      vectors[i] = rows.get(i)._2;
+    }
+    List<LinkageTriple> triples = new ArrayList<>();
+    for (MatrixEntry entry : LocalMatrixUtil.calculateSimilarityFromVector(vectors)) {
+      LinkageTriple triple = new LinkageTriple();
+      triple.keyA = rows.get((int) entry.i())._1;
+      triple.keyB = rows.get((int) entry.j())._1;
+      triple.weight = entry.value();
+      triples.add(triple);
+    }
+    return triples;
+  }
+
+  private static Map<Set<String>, Double> weights(List<LinkageTriple> triples) {
+    Map<Set<String>, Double> weights = new HashMap<>();
+    for (LinkageTriple triple : triples) {
+      weights.put(new HashSet<>(Arrays.asList(triple.keyA, triple.keyB)), triple.weight);
+    }
+    return weights;
+  }
+}
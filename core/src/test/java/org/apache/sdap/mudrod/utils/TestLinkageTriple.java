@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.junit.Test;
+
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLinkageTriple {
+
+  @Test
+  public void testFormatWeightRoundsLikeDecimalFormat() {
+    DecimalFormat df = new DecimalFormat("#.00");
+    for (double weight : new double[] { 0.125, 0.135, 0.994, 0.995, 1.0 / 3, 12.345678, 0 }) {
+      assertEquals(Double.parseDouble(df.format(weight)), LinkageTriple.formatWeight(weight), 0);
+    }
+    assertEquals(0, LinkageTriple.formatWeight(Double.NaN), 0);
+    assertTrue(LinkageTriple.formatWeight(0.5) == 0.5);
+  }
+
+  @Test
+  public void testStandardTriplesNormalizeByConcept() {
+    List<LinkageTriple> triples = Arrays.asList(triple("a", "b", 0.5), triple("a", "c", 0.25), triple("b", "c", 0.8), triple("d", "e", 0));
+    Map<String, Double> expected = new HashMap<>();
+    expected.put("a,b", 1.0);
+    expected.put("a,c", 0.5);
+    expected.put("b,a", 0.62);
+    expected.put("b,c", 1.0);
+    expected.put("c,a", 0.31);
+    expected.put("c,b", 1.0);
+    expected.put("d,e", 0.0);
+    expected.put("e,d", 0.0);
+
+    assertEquals(expected, weights(LinkageTriple.standardTriples(triples, true)));
+    SparkConf conf = new SparkConf().setAppName("TestLinkageTriple").setMaster("local[2]").set("spark.ui.enabled", "false");
+    try (JavaSparkContext sc = new JavaSparkContext(conf)) {
+      assertEquals(expected, weights(LinkageTriple.standardTriples(sc.parallelize(triples, 2), true).collect()));
+    }
+    // the input triples are left as they are
+    assertEquals(0.5, triples.get(0).weight, 0);
+    assertEquals(3, LinkageTriple.standardTriples(triples.subList(0, 3), false).size());
+  }
+
+  @Test
+  public void testStandardPairsNormalizeByBothTerms() {
+    List<LinkageTriple> pairs = Arrays.asList(triple("a", "b", 0.5), triple("a", "c", 0.25), triple("b", "c", 0.8), triple("d", "e", 0));
+    Map<String, Double> expected = new HashMap<>();
+    expected.put("a,b", 0.62);
+    expected.put("a,c", 0.31);
+    expected.put("b,c", 1.0);
+    expected.put("d,e", 0.0);
+
+    assertEquals(expected, weights(LinkageTriple.standardPairs(pairs)));
+    SparkConf conf = new SparkConf().setAppName("TestLinkageTriple").setMaster("local[2]").set("spark.ui.enabled", "false");
+    try (JavaSparkContext sc = new JavaSparkContext(conf)) {
+      assertEquals(expected, weights(LinkageTriple.standardPairs(sc.parallelize(pairs, 2)).collect()));
+    }
+    assertEquals(0.5, pairs.get(0).weight, 0);
+  }
+
+  private static Map<String, Double> weights(List<LinkageTriple> triples) {
+    Map<String, Double> weights = new HashMap<>();
+    for (LinkageTriple triple : triples) {
+      weights.put(triple.keyA + "," + triple.keyB, triple.weight);
+    }
+    return weights;
+  }
+
+  private static LinkageTriple triple(String keyA, String keyB, double weight) {
+    LinkageTriple triple = new LinkageTriple();
+    triple.keyA = keyA;
+    triple.keyB = keyB;
+    triple.weight = weight;
+    return triple;
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import org.apache.sdap.mudrod.main.MudrodConstants;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.mllib.linalg.Vector;
+import org.apache.spark.mllib.linalg.Vectors;
+import org.apache.spark.mllib.linalg.distributed.MatrixEntry;
+import org.apache.spark.mllib.linalg.distributed.RowMatrix;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestLocalMatrixUtil {
+
+  private static final double TOLERANCE = 1e-6;
+
+  private static JavaSparkContext sc;
+
+  @BeforeClass
+  public static void setUp() {
+    sc = new JavaSparkContext(new SparkConf().setAppName("TestLocalMatrixUtil").setMaster("local[2]").set("spark.ui.enabled", "false"));
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    sc.close();
+  }
+
+  private static Vector[] randomMatrix(int rows, int cols, long seed) {
+    Random random = new Random(seed);
+    Vector[] matrix = new Vector[rows];
+    for (int i = 0; i < rows; i++) {
+      matrix[i] = TestSimilarityUtil.randomVector(random, cols, 0.3).compressed();
+    }
+    return matrix;
+  }
+
+  private static RowMatrix toRowMatrix(Vector[] rows) {
+    return new RowMatrix(sc.parallelize(Arrays.asList(rows), 3).rdd());
+  }
+
+  private static Vector[] collect(RowMatrix matrix) {
+    return matrix.rows().toJavaRDD().collect().toArray(new Vector[0]);
+  }
+
+  @Test
+  public void testFitsLocally() {
+    Properties props = new Properties();
+    assertFalse(LocalMatrixUtil.fitsLocally(10, 10, props));
+    props.setProperty(MudrodConstants.MATRIX_LOCAL_MAX_CELLS, "100");
+    assertTrue(LocalMatrixUtil.fitsLocally(10, 10, props));
+    assertFalse(LocalMatrixUtil.fitsLocally(10, 11, props));
+  }
+
+  @Test
+  public void testTFIDFMatchesSpark() {
+    Vector[] matrix = randomMatrix(40, 30, 1L);
+    Vector[] expected = collect(MatrixUtil.createTFIDFMatrix(toRowMatrix(matrix)));
+    Vector[] actual = LocalMatrixUtil.createTFIDFMatrix(matrix);
+    for (int i = 0; i < matrix.length; i++) {
+      assertArrayEquals(expected[i].toArray(), actual[i].toArray(), TOLERANCE);
+    }
+  }
+
+  @Test
+  public void testSVDMatchesSpark() {
+    // the Gramian of the columns, then of the rows
+    assertSVDMatchesSpark(randomMatrix(60, 20, 2L), 5);
+    assertSVDMatchesSpark(randomMatrix(20, 60, 3L), 5);
+  }
+
+  private static void assertSVDMatchesSpark(Vector[] matrix, int dimension) {
+    Vector[] expected = collect(MatrixUtil.buildSVDMatrix(toRowMatrix(matrix), dimension));
+    Vector[] actual = LocalMatrixUtil.buildSVDMatrix(matrix, dimension);
+    assertEquals(expected.length, actual.length);
+    assertEquals(expected[0].size(), actual[0].size());
+    for (int c = 0; c < dimension; c++) {
+      // the sign of each singular vector is arbitrary
+      double dot = 0.0;
+      for (int r = 0; r < matrix.length; r++) {
+        dot += expected[r].apply(c) * actual[r].apply(c);
+      }
+      double sign = Math.signum(dot);
+      for (int r = 0; r < matrix.length; r++) {
+        assertEquals(expected[r].apply(c), sign * actual[r].apply(c), TOLERANCE);
+      }
+    }
+  }
+
+  @Test
+  public void testSimilarityMatchesSpark() {
+    Vector[] matrix = randomMatrix(50, 10, 4L);
+    Map<String, Double> expected = new HashMap<>();
+    for (MatrixEntry entry : SimilarityUtil.calculateSimilarityFromVector(sc.parallelize(Arrays.asList(matrix), 3)).entries().toJavaRDD().collect()) {
+      expected.put(entry.i() + "," + entry.j(), entry.value());
+    }
+    List<MatrixEntry> actual = LocalMatrixUtil.calculateSimilarityFromVector(matrix);
+
+    assertEquals(expected.size(), actual.size());
+    for (MatrixEntry entry : actual) {
+      assertEquals(expected.get(entry.i() + "," + entry.j()), entry.value(), TOLERANCE);
+    }
+  }
+
+  @Test
+  public void testSimilaritySelectsLikeSelectTriples() {
+    // dense rows, so that no two pairs are equally similar
+    Random random = new Random(5L);
+    Vector[] matrix = new Vector[40];
+    for (int i = 0; i < matrix.length; i++) {
+      matrix[i] = Vectors.dense(random.doubles(8).toArray());
+    }
+    List<MatrixEntry> all = LocalMatrixUtil.calculateSimilarityFromVector(matrix);
+    Set<String> expected = new HashSet<>();
+    for (int row = 0; row < matrix.length; row++) {
+      List<MatrixEntry> ofRow = new ArrayList<>();
+      for (MatrixEntry entry : all) {
+        if ((entry.i() == row || entry.j() == row) && entry.value() >= 0.1) {
+          ofRow.add(entry);
+        }
+      }
+      ofRow.sort((a, b) -> Double.compare(b.value(), a.value()));
+      for (MatrixEntry entry : ofRow.subList(0, Math.min(3, ofRow.size()))) {
+        expected.add(entry.i() + "," + entry.j());
+      }
+    }
+
+    List<MatrixEntry> selected = LocalMatrixUtil.calculateSimilarityFromVector(matrix, 0.1, 3);
+    Set<String> actual = new HashSet<>();
+    for (MatrixEntry entry : selected) {
+      assertTrue(entry.i() < entry.j());
+      actual.add(entry.i() + "," + entry.j());
+    }
+    assertEquals(expected.size(), selected.size());
+    assertEquals(expected, actual);
+  }
+}
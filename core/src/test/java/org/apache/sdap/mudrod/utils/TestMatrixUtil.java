@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import org.apache.sdap.mudrod.driver.SparkDriver;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.mllib.linalg.SparseVector;
+import org.apache.spark.mllib.linalg.Vector;
+import org.apache.spark.mllib.linalg.Vectors;
+import org.apache.spark.storage.StorageLevel;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import scala.Tuple2;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TestMatrixUtil {
+
+  private static JavaSparkContext sc;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @BeforeClass
+  public static void setUp() {
+    sc = new JavaSparkContext(new SparkConf().setAppName("TestMatrixUtil").setMaster("local[2]").set("spark.ui.enabled", "false"));
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    sc.close();
+  }
+
+  private static JavaPairRDD<String, List<String>> docs() {
+    return sc.parallelizePairs(Arrays.asList(new Tuple2<>("doc0", Arrays.asList("ocean", "wind", "ocean")), new Tuple2<>("doc1", Arrays.asList("sst", "ocean")),
+        new Tuple2<>("doc2", Arrays.asList("wind", "wind", "wind")), new Tuple2<>("doc3", Arrays.asList("sst"))), 3);
+  }
+
+  private static double count(LabeledRowMatrix matrix, String row, String col) {
+    List<Vector> rows = matrix.rowMatrix.rows().toJavaRDD().collect();
+    return rows.get(matrix.rowkeys.indexOf(row)).apply(matrix.colkeys.indexOf(col));
+  }
+
+  @Test
+  public void testWordDocMatrixCountsTerms() {
+    LabeledRowMatrix matrix = MatrixUtil.createWordDocMatrix(docs());
+
+    assertEquals(Arrays.asList("doc0", "doc1", "doc2", "doc3"), matrix.colkeys);
+    assertEquals(3, matrix.rowkeys.size());
+    assertEquals(2.0, count(matrix, "ocean", "doc0"), 0.0);
+    assertEquals(1.0, count(matrix, "ocean", "doc1"), 0.0);
+    assertEquals(0.0, count(matrix, "ocean", "doc2"), 0.0);
+    assertEquals(3.0, count(matrix, "wind", "doc2"), 0.0);
+    assertEquals(1.0, count(matrix, "sst", "doc3"), 0.0);
+    for (Vector row : matrix.rowMatrix.rows().toJavaRDD().collect()) {
+      assertEquals(4, row.size());
+    }
+
+    JavaPairRDD<String, Vector> rows = matrix.cachedRows;
+    matrix.unpersist();
+    assertEquals(StorageLevel.NONE(), rows.getStorageLevel());
+  }
+
+  @Test
+  public void testDocWordMatrixIsTranspose() {
+    LabeledRowMatrix wordDoc = MatrixUtil.createWordDocMatrix(docs());
+    LabeledRowMatrix docWord = MatrixUtil.createDocWordMatrix(docs(), sc);
+
+    assertEquals(4, docWord.rowkeys.size());
+    assertEquals(3, docWord.colkeys.size());
+    for (String doc : wordDoc.colkeys) {
+      for (String word : wordDoc.rowkeys) {
+        assertEquals(count(wordDoc, word, doc), count(docWord, doc, word), 0.0);
+      }
+    }
+  }
+
+  @Test
+  public void testCSVMatrixKeepsAllColumns() throws IOException {
+    LabeledRowMatrix matrix = MatrixUtil.createWordDocMatrix(docs());
+    String csv = folder.newFile("matrix.csv").getPath();
+    MatrixUtil.exportToCSV(matrix.rowMatrix, matrix.rowkeys, matrix.colkeys, csv);
+    SparkDriver spark = new SparkDriver();
+    spark.sc = sc;
+
+    Map<String, Vector> loaded = MatrixUtil.loadVectorFromCSV(spark, csv, 1).collectAsMap();
+    assertEquals(matrix.rowkeys.size(), loaded.size());
+    for (String word : matrix.rowkeys) {
+      assertEquals(4, loaded.get(word).size());
+      for (String doc : matrix.colkeys) {
+        assertEquals(count(matrix, word, doc), loaded.get(word).apply(matrix.colkeys.indexOf(doc)), 0.0);
+      }
+    }
+  }
+
+  @Test
+  public void testSparseRowBufferSortsAndSumsIndices() {
+    MatrixUtil.SparseRowBuffer buffer = new MatrixUtil.SparseRowBuffer();
+    buffer.add(7, 1).add(2, 3).add(5, 1).add(2, 1);
+    MatrixUtil.SparseRowBuffer other = new MatrixUtil.SparseRowBuffer();
+    other.addPacked(9L << 32 | 4);
+
+    SparseVector row = (SparseVector) buffer.merge(other).toVector(10);
+    assertArrayEquals(new int[] { 2, 5, 7, 9 }, row.indices());
+    assertArrayEquals(new double[] { 4, 1, 1, 4 }, row.values(), 0.0);
+    assertEquals(Vectors.sparse(10, new int[0], new double[0]), new MatrixUtil.SparseRowBuffer().toVector(10));
+  }
+}
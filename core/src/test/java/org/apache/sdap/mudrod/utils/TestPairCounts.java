@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestPairCounts {
+
+  @Test
+  public void testRowsMatchBoxedCounts() {
+    // enough occurrences to merge the buffer several times
+    Random random = new Random(7L);
+    PairCounts counts = new PairCounts();
+    Map<Integer, Map<Integer, Integer>> expected = new TreeMap<>();
+    for (int i = 0; i < 300000; i++) {
+      int row = random.nextInt(2000);
+      int column = random.nextInt(300);
+      counts.add(row, column);
+      expected.computeIfAbsent(row, key -> new TreeMap<>()).merge(column, 1, Integer::sum);
+    }
+
+    int distinct = 0;
+    Iterator<Map.Entry<Integer, Map<Integer, Integer>>> expectedRows = expected.entrySet().iterator();
+    Iterator<PairCounts.Row> rows = counts.rows();
+    while (rows.hasNext()) {
+      PairCounts.Row row = rows.next();
+      Map.Entry<Integer, Map<Integer, Integer>> expectedRow = expectedRows.next();
+      assertEquals(expectedRow.getKey().intValue(), row.row);
+      assertEquals(expectedRow.getValue().size(), row.columns.length);
+      int k = 0;
+      for (Map.Entry<Integer, Integer> cell : expectedRow.getValue().entrySet()) {
+        assertEquals(cell.getKey().intValue(), row.columns[k]);
+        assertEquals(cell.getValue().intValue(), row.counts[k]);
+        k++;
+      }
+      distinct += row.columns.length;
+    }
+    assertFalse(expectedRows.hasNext());
+    assertEquals(distinct, counts.size());
+  }
+
+  @Test
+  public void testCountsAfterIterating() {
+    PairCounts counts = new PairCounts();
+    assertFalse(counts.rows().hasNext());
+    counts.add(1, 2);
+    counts.add(0, 5);
+    assertTrue(counts.rows().hasNext());
+    counts.add(1, 2);
+
+    Iterator<PairCounts.Row> rows = counts.rows();
+    PairCounts.Row first = rows.next();
+    assertEquals(0, first.row);
+    assertEquals(5, first.columns[0]);
+    PairCounts.Row second = rows.next();
+    assertEquals(1, second.row);
+    assertEquals(2, second.columns[0]);
+    assertEquals(2, second.counts[0]);
+    assertFalse(rows.hasNext());
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import org.apache.sdap.mudrod.main.MudrodConstants;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.storage.StorageLevel;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestRDDUtil {
+
+  private static JavaSparkContext sc;
+
+  @BeforeClass
+  public static void setUp() {
+    sc = new JavaSparkContext(new SparkConf().setAppName("TestRDDUtil").setMaster("local[2]").set("spark.ui.enabled", "false"));
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    sc.close();
+  }
+
+  private static Properties storageLevel(String level) {
+    Properties props = new Properties();
+    props.setProperty(MudrodConstants.SPARK_STORAGE_LEVEL, level);
+    return props;
+  }
+
+  @Test
+  public void testStorageLevel() {
+    assertEquals(StorageLevel.MEMORY_ONLY(), RDDUtil.storageLevel(storageLevel("MEMORY_ONLY")));
+    assertEquals(StorageLevel.MEMORY_AND_DISK_SER(), RDDUtil.storageLevel(new Properties()));
+    assertEquals(StorageLevel.MEMORY_AND_DISK_SER(), RDDUtil.storageLevel(storageLevel("SOMEWHERE")));
+  }
+
+  @Test
+  public void testPersistedStageIsComputedOnce() {
+    JavaRDD<Integer> rdd = RDDUtil.persist(sc.parallelize(Arrays.asList(1, 2, 3, 4, 5, 6), 3), "persisted", storageLevel("MEMORY_AND_DISK_SER"));
+    assertEquals(6, rdd.count());
+    assertEquals(21, (int) rdd.reduce(Integer::sum));
+    assertEquals(0, RDDUtil.unpersist(rdd, "persisted"));
+  }
+
+  @Test
+  public void testRecomputationsAreReported() {
+    JavaRDD<Integer> rdd = RDDUtil.persist(sc.parallelize(Arrays.asList(1, 2, 3, 4, 5, 6), 3), "recomputed", storageLevel("NONE"));
+    assertEquals(6, rdd.count());
+    assertEquals(21, (int) rdd.reduce(Integer::sum));
+    assertEquals(3, RDDUtil.unpersist(rdd, "recomputed"));
+  }
+}
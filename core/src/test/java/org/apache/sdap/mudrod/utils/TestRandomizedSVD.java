@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.mllib.linalg.Matrices;
+import org.apache.spark.mllib.linalg.Matrix;
+import org.apache.spark.mllib.linalg.SingularValueDecomposition;
+import org.apache.spark.mllib.linalg.Vector;
+import org.apache.spark.mllib.linalg.Vectors;
+import org.apache.spark.mllib.linalg.distributed.RowMatrix;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestRandomizedSVD {
+
+  private static JavaSparkContext sc;
+
+  @BeforeClass
+  public static void setUp() {
+    sc = new JavaSparkContext(new SparkConf().setAppName("TestRandomizedSVD").setMaster("local[2]").set("spark.ui.enabled", "false"));
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    sc.close();
+  }
+
+  /**
+   * Rows of a random matrix of the given rank plus Gaussian noise
+   */
+  static List<Vector> lowRankMatrix(int rows, int cols, int rank, double noise, long seed) {
+    Random random = new Random(seed);
+    double[][] left = new double[rows][rank];
+    double[][] right = new double[rank][cols];
+    for (int r = 0; r < rank; r++) {
+      // decaying spectrum
+      double scale = 10.0 / (r + 1);
+      for (int i = 0; i < rows; i++) {
+        left[i][r] = random.nextGaussian() * scale;
+      }
+      for (int j = 0; j < cols; j++) {
+        right[r][j] = random.nextGaussian();
+      }
+    }
+    List<Vector> matrix = new ArrayList<>(rows);
+    for (int i = 0; i < rows; i++) {
+      double[] values = new double[cols];
+      for (int j = 0; j < cols; j++) {
+        for (int r = 0; r < rank; r++) {
+          values[j] += left[i][r] * right[r][j];
+        }
+        values[j] += noise * random.nextGaussian();
+      }
+      matrix.add(Vectors.dense(values));
+    }
+    return matrix;
+  }
+
+  /**
+   * @return the mean squared cosine of the principal angles between the
+   * column spaces of two matrices with orthonormal columns, 1 if they span
+   * the same subspace
+   */
+  static double subspaceSimilarity(Matrix a, Matrix b) {
+    int k = Math.min(a.numCols(), b.numCols());
+    double sum = 0.0;
+    for (int c = 0; c < a.numCols(); c++) {
+      for (int d = 0; d < b.numCols(); d++) {
+        double dot = 0.0;
+        for (int i = 0; i < a.numRows(); i++) {
+          dot += a.apply(i, c) * b.apply(i, d);
+        }
+        sum += dot * dot;
+      }
+    }
+    return sum / k;
+  }
+
+  @Test
+  public void testMatchesExactSVDOfLowRankMatrix() {
+    RowMatrix matrix = new RowMatrix(sc.parallelize(lowRankMatrix(200, 40, 8, 0.0, 1L), 3).rdd());
+    SingularValueDecomposition<RowMatrix, Matrix> exact = matrix.computeSVD(5, true, 1.0E-9d);
+    SingularValueDecomposition<RowMatrix, Matrix> randomized = RandomizedSVD.computeSVD(matrix, 5, 5, 1);
+
+    assertEquals(5, randomized.s().size());
+    for (int i = 0; i < 5; i++) {
+      assertEquals(exact.s().apply(i), randomized.s().apply(i), 1e-6 * exact.s().apply(0));
+    }
+    assertEquals(1.0, subspaceSimilarity(exact.V(), randomized.V()), 1e-9);
+
+    // U S = A V up to the sign of each dimension
+    List<Vector> exactUS = exact.U().multiply(Matrices.diag(exact.s())).rows().toJavaRDD().collect();
+    List<Vector> randomizedUS = randomized.U().multiply(Matrices.diag(randomized.s())).rows().toJavaRDD().collect();
+    for (int c = 0; c < 5; c++) {
+      double sign = Math.signum(exact.V().apply(0, c) * randomized.V().apply(0, c));
+      for (int r = 0; r < exactUS.size(); r++) {
+        assertEquals(exactUS.get(r).apply(c), sign * randomizedUS.get(r).apply(c), 1e-6);
+      }
+    }
+  }
+
+  @Test
+  public void testPowerIterationsRecoverNoisySubspace() {
+    RowMatrix matrix = new RowMatrix(sc.parallelize(lowRankMatrix(300, 60, 10, 0.5, 2L), 3).rdd());
+    SingularValueDecomposition<RowMatrix, Matrix> exact = matrix.computeSVD(10, false, 1.0E-9d);
+    SingularValueDecomposition<RowMatrix, Matrix> randomized = RandomizedSVD.computeSVD(matrix, 10, 10, 2);
+
+    assertTrue(subspaceSimilarity(exact.V(), randomized.V()) > 0.99);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(exact.s().apply(i), randomized.s().apply(i), 0.01 * exact.s().apply(i));
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestResultCache {
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() {
+    // room for exactly two entries of a one character key and value
+    ResultCache cache = new ResultCache(2 * (96 + 4), 60000, null, 0);
+    cache.put("a", "1");
+    cache.put("b", "2");
+    cache.get("a");
+    cache.put("c", "3");
+
+    assertEquals("1", cache.get("a"));
+    assertNull(cache.get("b"));
+    assertEquals("3", cache.get("c"));
+    assertEquals(1L, cache.getStats().get("evictions"));
+  }
+
+  @Test
+  public void testGenerationChangeInvalidates() {
+    AtomicLong generation = new AtomicLong(1);
+    ResultCache cache = new ResultCache(1024 * 1024, 60000, generation::get, 0);
+    cache.put("query", "result");
+    assertEquals("result", cache.get("query"));
+
+    generation.incrementAndGet();
+    assertNull(cache.get("query"));
+    assertEquals(1L, cache.getStats().get("invalidations"));
+  }
+
+  @Test
+  public void testPutAfterInvalidationIsDropped() {
+    AtomicLong generation = new AtomicLong(1);
+    ResultCache cache = new ResultCache(1024 * 1024, 60000, generation::get, 0);
+    assertNull(cache.get("query"));
+    long stamp = cache.stamp();
+
+    // the data is replaced while the result is computed
+    generation.incrementAndGet();
+    assertNull(cache.get("other"));
+    cache.put("query", "stale", stamp);
+    assertNull(cache.get("query"));
+
+    cache.put("query", "fresh", cache.stamp());
+    assertEquals("fresh", cache.get("query"));
+  }
+}
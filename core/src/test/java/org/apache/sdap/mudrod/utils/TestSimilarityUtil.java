@@ -0,0 +1,138 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.mllib.linalg.Vector;
+import org.apache.spark.mllib.linalg.Vectors;
+import org.apache.spark.mllib.linalg.distributed.CoordinateMatrix;
+import org.apache.spark.mllib.linalg.distributed.MatrixEntry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestSimilarityUtil {
+
+  @Test
+  public void testBinaryCosineMatchesPearson() {
+    Vector a = Vectors.dense(0.5, 0, 2, 0, 1, 0, 3);
+    Vector b = Vectors.dense(1, 1, 0, 0, 4, 0, 0.1);
+    int[] activeA = SimilarityUtil.activeIndices(a);
+    int[] activeB = SimilarityUtil.activeIndices(b);
+
+    assertArrayEquals(new int[] { 0, 2, 4, 6 }, activeA);
+    assertEquals(SimilarityUtil.pearsonDistance(a, b), SimilarityUtil.binaryCosine(activeA, activeB), 1e-12);
+  }
+
+  @Test
+  public void testSignatureDependsOnlyOnTheSet() {
+    int[] set = { 1, 5, 9, 42 };
+    assertEquals(SimilarityUtil.signature(set, 3, 2), SimilarityUtil.signature(new int[] { 1, 5, 9, 42 }, 3, 2));
+    assertNotEquals(SimilarityUtil.signature(set, 3, 2), SimilarityUtil.signature(set, 4, 2));
+  }
+
+  @Test
+  public void testSparseKernelsMatchDense() {
+    Random random = new Random(7);
+    for (double density : new double[] { 0.0, 0.01, 0.2, 1.0 }) {
+      for (int n = 0; n < 20; n++) {
+        Vector a = randomVector(random, 500, density);
+        Vector b = randomVector(random, 500, density);
+        Vector sparseA = a.toSparse();
+        Vector sparseB = b.toSparse();
+
+        double pearson = SimilarityUtil.pearsonDistance(a, b);
+        assertEquals(pearson, SimilarityUtil.pearsonDistance(sparseA, sparseB), 1e-12);
+        assertEquals(pearson, SimilarityUtil.pearsonDistance(a, sparseB), 1e-12);
+
+        double hellinger = SimilarityUtil.hellingerDistance(a, b);
+        assertEquals(hellinger, SimilarityUtil.hellingerDistance(sparseA, sparseB), 1e-12);
+        assertEquals(hellinger, SimilarityUtil.hellingerDistance(sparseA, b), 1e-12);
+      }
+    }
+  }
+
+  static Vector randomVector(Random random, int size, double density) {
+    double[] values = new double[size];
+    for (int i = 0; i < size; i++) {
+      if (random.nextDouble() < density) {
+        values[i] = random.nextInt(5);
+      }
+    }
+    return Vectors.dense(values);
+  }
+
+  @Test
+  public void testSelectTriplesKeepsTopKPerTerm() {
+    List<LinkageTriple> triples = Arrays.asList(triple("a", "b", 0.9), triple("a", "c", 0.5), triple("a", "d", 0.1), triple("b", "c", 0.8), triple("b", "d", Double.NaN),
+        triple("c", "d", 0.05));
+
+    SparkConf conf = new SparkConf().setAppName("TestSimilarityUtil").setMaster("local[2]").set("spark.ui.enabled", "false");
+    try (JavaSparkContext sc = new JavaSparkContext(conf)) {
+      // each triple belongs to its first term: a keeps b and c, b keeps c, c keeps d
+      assertEquals(new TreeSet<>(Arrays.asList("a,b", "a,c", "b,c")), pairs(SimilarityUtil.selectTriples(sc.parallelize(triples), 0.2, 2, false).collect()));
+      assertEquals(new TreeSet<>(Arrays.asList("a,b", "a,c", "b,c", "c,d")), pairs(SimilarityUtil.selectTriples(sc.parallelize(triples), 0, 2, false).collect()));
+      // each triple belongs to both terms: a and b keep each other, c keeps b and d keeps a
+      assertEquals(new TreeSet<>(Arrays.asList("a,b", "b,c", "a,d")), pairs(SimilarityUtil.selectTriples(sc.parallelize(triples), 0, 1, true).collect()));
+    }
+  }
+
+  @Test
+  public void testMatrixToTripleRDDWithKnownKeyCount() {
+    List<MatrixEntry> entries = Arrays.asList(new MatrixEntry(0, 1, 0.5), new MatrixEntry(1, 2, 0.25));
+
+    SparkConf conf = new SparkConf().setAppName("TestSimilarityUtil").setMaster("local[2]").set("spark.ui.enabled", "false");
+    try (JavaSparkContext sc = new JavaSparkContext(conf)) {
+      JavaRDD<String> keys = sc.parallelize(Arrays.asList("a", "b", "c"), 2);
+      CoordinateMatrix simMatrix = new CoordinateMatrix(sc.parallelize(entries).rdd(), 3, 3);
+
+      Set<String> counted = pairs(SimilarityUtil.matrixToTripleRDD(keys, simMatrix).collect());
+      assertEquals(new TreeSet<>(Arrays.asList("a,b", "b,c")), counted);
+      assertEquals(counted, pairs(SimilarityUtil.matrixToTripleRDD(keys, 3, simMatrix).collect()));
+      // a count that does not match the matrix is rejected like a counted one
+      assertNull(SimilarityUtil.matrixToTripleRDD(keys, 2, simMatrix));
+    }
+  }
+
+  private static LinkageTriple triple(String keyA, String keyB, double weight) {
+    LinkageTriple triple = new LinkageTriple();
+    triple.keyA = keyA;
+    triple.keyB = keyB;
+    triple.weight = weight;
+    return triple;
+  }
+
+  private static Set<String> pairs(List<LinkageTriple> triples) {
+    List<String> pairs = new ArrayList<>();
+    for (LinkageTriple triple : triples) {
+      pairs.add(triple.keyA + "," + triple.keyB);
+    }
+    Set<String> unique = new TreeSet<>(pairs);
+    assertEquals(pairs.size(), unique.size());
+    return unique;
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestSingleFlight {
+
+  @Test
+  public void testConcurrentCallsShareOneExecution() throws Exception {
+    SingleFlight<String, String> flight = new SingleFlight<>();
+    AtomicInteger executions = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    int callers = 8;
+
+    ExecutorService pool = Executors.newFixedThreadPool(callers);
+    List<Future<String>> results = new ArrayList<>();
+    for (int i = 0; i < callers; i++) {
+      results.add(pool.submit(() -> flight.execute("ocean wind", () -> {
+        executions.incrementAndGet();
+        release.await();
+        return "result";
+      })));
+    }
+    // wait until every caller has either started the loader or joined it
+    while ((long) flight.getStats().get("executions") + (long) flight.getStats().get("coalesced") < callers) {
+      Thread.sleep(5);
+    }
+    release.countDown();
+
+    for (Future<String> result : results) {
+      assertEquals("result", result.get(10, TimeUnit.SECONDS));
+    }
+    pool.shutdown();
+
+    assertEquals(1, executions.get());
+    assertEquals((long) callers - 1, flight.getStats().get("coalesced"));
+    assertEquals(0, flight.getStats().get("inFlight"));
+  }
+
+  @Test
+  public void testFailureIsNotRemembered() throws Exception {
+    SingleFlight<String, String> flight = new SingleFlight<>();
+    try {
+      flight.execute("sst", () -> {
+        throw new IllegalStateException("search failed");
+      });
+      fail("expected the loader failure to be rethrown");
+    } catch (ExecutionException e) {
+      assertEquals(IllegalStateException.class, e.getCause().getClass());
+    }
+    assertEquals("result", flight.execute("sst", () -> "result"));
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.mllib.linalg.Vector;
+import org.apache.spark.mllib.linalg.Vectors;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import scala.Tuple2;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestSparseMatrixFile {
+
+  private static JavaSparkContext sc;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @BeforeClass
+  public static void setUp() {
+    sc = new JavaSparkContext(new SparkConf().setAppName("TestSparseMatrixFile").setMaster("local[2]").set("spark.ui.enabled", "false"));
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    sc.close();
+  }
+
+  private static List<Tuple2<String, Vector>> rows() {
+    return Arrays.asList(new Tuple2<>("sea surface temperature", Vectors.sparse(4, new int[] { 1, 3 }, new double[] { 0.5, 2 })),
+        new Tuple2<>("ocean wind", Vectors.dense(1, 2, 0, 4)), new Tuple2<>("empty", Vectors.sparse(4, new int[0], new double[0])),
+        new Tuple2<>("sst", Vectors.dense(0, 0, 0, 7)));
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    for (boolean compress : new boolean[] { false, true }) {
+      String path = new File(folder.getRoot(), "matrix" + compress).getPath();
+      assertFalse(SparseMatrixFile.exists(path));
+      SparseMatrixFile.write(sc.parallelizePairs(rows(), 3), Arrays.asList("a", "b", "c", "d"), path, compress);
+
+      assertTrue(SparseMatrixFile.exists(path));
+      assertEquals(Arrays.asList("a", "b", "c", "d"), SparseMatrixFile.readColumnKeys(path));
+
+      Map<String, Vector> loaded = SparseMatrixFile.load(sc, path).collectAsMap();
+      Map<String, Vector> streamed = new HashMap<>();
+      SparseMatrixFile.forEachRow(path, streamed::put);
+      for (Tuple2<String, Vector> row : rows()) {
+        assertEquals(row._2, loaded.get(row._1));
+        assertEquals(row._2, streamed.get(row._1));
+      }
+      assertEquals(rows().size(), loaded.size());
+      assertEquals(rows().size(), streamed.size());
+    }
+  }
+
+  @Test
+  public void testWriteFromDriver() throws Exception {
+    String path = new File(folder.getRoot(), "local").getPath();
+    SparseMatrixFile.write(rows().iterator(), Arrays.asList("a", "b", "c", "d"), path, true);
+
+    Map<String, Vector> loaded = SparseMatrixFile.load(sc, path).collectAsMap();
+    for (Tuple2<String, Vector> row : rows()) {
+      assertEquals(row._2, loaded.get(row._1));
+    }
+    assertEquals(rows().size(), loaded.size());
+  }
+
+  @Test
+  public void testOverwriteMatrixBeingRead() throws Exception {
+    String path = new File(folder.getRoot(), "matrix").getPath();
+    SparseMatrixFile.write(sc.parallelizePairs(rows(), 2), Arrays.asList("a", "b", "c", "d"), path, true);
+
+    JavaPairRDD<String, Vector> scaled = SparseMatrixFile.load(sc, path).mapValues(v -> {
+      double[] values = v.toArray();
+      for (int i = 0; i < values.length; i++) {
+        values[i] *= 2;
+      }
+      return Vectors.dense(values);
+    });
+    SparseMatrixFile.write(scaled, Arrays.asList("a", "b", "c", "d"), path, true);
+
+    assertEquals(Vectors.dense(2, 4, 0, 8), SparseMatrixFile.load(sc, path).collectAsMap().get("ocean wind"));
+    assertFalse(new File(path + "._tmp").exists());
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sdap.mudrod.utils;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import scala.Tuple2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Time to build the word-document and document-word matrices of a synthetic
+ * corpus with Zipf distributed words, 1M tokens by default. Run with
+ * mvn -pl core test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.apache.sdap.mudrod.utils.WordDocMatrixBenchmark
+ * -Dexec.args="documents tokensPerDocument vocabulary"
+ */
+public class WordDocMatrixBenchmark {
+
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) {
+    int documents = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int tokens = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    int vocabulary = args.length > 2 ? Integer.parseInt(args[2]) : 50000;
+
+    SparkConf conf = new SparkConf().setAppName("WordDocMatrixBenchmark").setMaster("local[*]").set("spark.ui.enabled", "false");
+    try (JavaSparkContext sc = new JavaSparkContext(conf)) {
+      sc.setLogLevel("WARN");
+      JavaPairRDD<String, List<String>> corpus = sc.parallelizePairs(syntheticCorpus(documents, tokens, vocabulary, 42L), 8).cache();
+      corpus.count();
+      System.out.printf("%d documents, %d tokens, %d words%n", documents, (long) documents * tokens, vocabulary);
+
+      for (int round = 0; round < ROUNDS; round++) {
+        long start = System.currentTimeMillis();
+        LabeledRowMatrix wordDoc = MatrixUtil.createWordDocMatrix(corpus);
+        long nonZeros = wordDoc.rowMatrix.rows().toJavaRDD().map(v -> (long) v.numNonzeros()).reduce(Long::sum);
+        long wordDocTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        LabeledRowMatrix docWord = MatrixUtil.createDocWordMatrix(corpus, sc);
+        docWord.rowMatrix.rows().count();
+        long docWordTime = System.currentTimeMillis() - start;
+
+        System.out.printf("round %d: word-doc %dx%d (%d non zeros) %dms, doc-word %dx%d %dms%n", round, wordDoc.rowkeys.size(), wordDoc.colkeys.size(), nonZeros, wordDocTime,
+            docWord.rowkeys.size(), docWord.colkeys.size(), docWordTime);
+      }
+    }
+  }
+
+  static List<Tuple2<String, List<String>>> syntheticCorpus(int documents, int tokens, int vocabulary, long seed) {
+    // inverse transform sampling of a Zipf distribution with exponent 1
+    double[] cumulative = new double[vocabulary];
+    double sum = 0;
+    for (int i = 0; i < vocabulary; i++) {
+      sum += 1.0 / (i + 1);
+      cumulative[i] = sum;
+    }
+
+    Random random = new Random(seed);
+    List<Tuple2<String, List<String>>> corpus = new ArrayList<>(documents);
+    for (int doc = 0; doc < documents; doc++) {
+      List<String> words = new ArrayList<>(tokens);
+      for (int t = 0; t < tokens; t++) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+        words.add("word" + (index < 0 ? -index - 1 : index));
+      }
+      corpus.add(new Tuple2<>("doc" + doc, words));
+    }
+    return corpus;
+  }
+}
@@ -20,12 +20,24 @@ import javax.servlet.annotation.WebListener;
 
 import org.apache.sdap.mudrod.driver.ESDriver;
 import org.apache.sdap.mudrod.driver.SparkDriver;
+import org.apache.commons.lang.StringUtils;
+import org.apache.sdap.mudrod.integration.LinkageGraphStore;
+import org.apache.sdap.mudrod.integration.LinkageIntegration;
+import org.apache.sdap.mudrod.main.MudrodConstants;
 import org.apache.sdap.mudrod.main.MudrodEngine;
+import org.apache.sdap.mudrod.recommendation.structure.HybridRecommendation;
+import org.apache.sdap.mudrod.ssearch.AutoCompleter;
 import org.apache.sdap.mudrod.ssearch.Ranker;
 import org.apache.sdap.mudrod.ssearch.Searcher;
 import org.apache.sdap.mudrod.tools.EONETIngester;
+import org.apache.sdap.mudrod.utils.ResultCache;
+import org.apache.sdap.mudrod.utils.SingleFlight;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Application Lifecycle Listener implementation class MudrodContextListener
@@ -33,7 +45,12 @@ import java.util.Properties;
 @WebListener
 public class MudrodContextListener implements ServletContextListener {
 
+  private static final Logger LOG = LoggerFactory.getLogger(MudrodContextListener.class);
+
   MudrodEngine me = null;
+  LinkageGraphStore graphStore = null;
+  LinkageGraphStore recomStore = null;
+  AutoCompleter autoCompleter = null;
 
   /**
    * Default constructor.
@@ -47,6 +64,15 @@ public class MudrodContextListener implements ServletContextListener {
    */
   @Override
   public void contextDestroyed(ServletContextEvent arg0) {
+    if (graphStore != null) {
+      graphStore.close();
+    }
+    if (recomStore != null) {
+      recomStore.close();
+    }
+    if (autoCompleter != null) {
+      autoCompleter.close();
+    }
     me.end();
   }
 
@@ -57,18 +83,62 @@ public class MudrodContextListener implements ServletContextListener {
   public void contextInitialized(ServletContextEvent arg0) {
     me = new MudrodEngine();
     Properties props = me.loadConfig();
+    MudrodEngine.loadDataPathConfig(props, props.getProperty(MudrodConstants.DATA_DIR));
     me.setESDriver(new ESDriver(props));
     me.setSparkDriver(new SparkDriver(props));
     ESDriver es = me.getESDriver();
+    es.startMetadataRefresh(Long.parseLong(props.getProperty(MudrodConstants.ES_METADATA_REFRESH_INTERVAL, "30")));
 
     ServletContext ctx = arg0.getServletContext();
     Searcher searcher = new Searcher(props, es, null);
     Ranker ranker = new Ranker(props, es, me.getSparkDriver());
     EONETIngester eonetIngester = new EONETIngester(props, es, null);
+    LinkageIntegration linkageIntegration = searcher.getDispatcher().getLinkageIntegration();
+    graphStore = startStore(props, MudrodConstants.LINKAGE_GRAPH_PATH);
+    linkageIntegration.setLinkageGraphStore(graphStore);
     ctx.setAttribute("MudrodInstance", me);
     ctx.setAttribute("MudrodSearcher", searcher);
     ctx.setAttribute("MudrodRanker", ranker);
     ctx.setAttribute("MudrodEONETIngester", eonetIngester);
+    ctx.setAttribute("MudrodLinkageIntegration", linkageIntegration);
+
+    HybridRecommendation recommendation = new HybridRecommendation(props, es, null);
+    recomStore = startStore(props, MudrodConstants.RECOM_STORE_PATH);
+    recommendation.setRecommendationStore(recomStore);
+    ctx.setAttribute("MudrodHybridRecommendation", recommendation);
+
+    long cacheSize = Long.parseLong(props.getProperty(MudrodConstants.SEARCH_CACHE_SIZE, "0")) * 1024 * 1024;
+    if (cacheSize > 0) {
+      String index = props.getProperty(MudrodConstants.ES_INDEX_NAME);
+      long ttl = TimeUnit.SECONDS.toMillis(Long.parseLong(props.getProperty(MudrodConstants.SEARCH_CACHE_TTL, "600")));
+      long generationCheck = TimeUnit.SECONDS.toMillis(Long.parseLong(props.getProperty(MudrodConstants.INDEX_GENERATION_CHECK_INTERVAL, "10")));
+      ctx.setAttribute("MudrodSearchCache", new ResultCache(cacheSize, ttl, () -> es.getIndexGeneration(index), generationCheck));
+    }
+
+    autoCompleter = new AutoCompleter(props, es);
+    autoCompleter.start(Long.parseLong(props.getProperty(MudrodConstants.INDEX_GENERATION_CHECK_INTERVAL, "10")));
+    ctx.setAttribute("MudrodAutoCompleter", autoCompleter);
+
+    if (Boolean.parseBoolean(props.getProperty(MudrodConstants.REQUEST_COALESCING, "true"))) {
+      ctx.setAttribute("MudrodSearchFlight", new SingleFlight<String, String>());
+      ctx.setAttribute("MudrodRecommendationFlight", new SingleFlight<String, String>());
+    }
   }
 
+  /**
+   * Start a store of the file configured under key, or by default in the data
+   * directory. Without either, lookups keep using Elasticsearch.
+   *
+   * @return the started store, or null if no path is configured
+   */
+  private static LinkageGraphStore startStore(Properties props, String key) {
+    String path = props.getProperty(key);
+    if (StringUtils.isBlank(path)) {
+      LOG.info("Neither {} nor {} is set, lookups use Elasticsearch", key, MudrodConstants.DATA_DIR);
+      return null;
+    }
+    LinkageGraphStore store = new LinkageGraphStore(new File(path));
+    store.start(Long.parseLong(props.getProperty(MudrodConstants.LINKAGE_GRAPH_REFRESH_INTERVAL, "60")));
+    return store;
+  }
 }
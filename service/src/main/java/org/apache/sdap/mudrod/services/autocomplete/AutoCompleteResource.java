@@ -17,6 +17,7 @@ import com.google.gson.Gson;
 
 import org.apache.sdap.mudrod.main.MudrodConstants;
 import org.apache.sdap.mudrod.main.MudrodEngine;
+import org.apache.sdap.mudrod.ssearch.AutoCompleter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,10 +36,13 @@ import java.util.List;
 public class AutoCompleteResource {
 
   private static final Logger LOG = LoggerFactory.getLogger(AutoCompleteResource.class);
+  private static final int MAX_SUGGESTIONS = 100;
   private MudrodEngine mEngine;
+  private AutoCompleter autoCompleter;
 
   public AutoCompleteResource(@Context ServletContext sc) {
     this.mEngine = (MudrodEngine) sc.getAttribute("MudrodInstance");
+    this.autoCompleter = (AutoCompleter) sc.getAttribute("MudrodAutoCompleter");
   }
 
   @GET
@@ -54,12 +58,18 @@ public class AutoCompleteResource {
   @Consumes("text/plain")
   public Response autoComplete(@QueryParam("term") String term) {
     List<AutoCompleteData> result = new ArrayList<>();
-    List<String> suggestList = mEngine.getESDriver().autoComplete(mEngine.getConfig().getProperty(MudrodConstants.ES_INDEX_NAME), term);
+    List<String> suggestList;
+    if (autoCompleter != null && autoCompleter.isReady()) {
+      suggestList = autoCompleter.suggest(term, MAX_SUGGESTIONS);
+    } else {
+      // the in-memory suggester is still being built
+      suggestList = mEngine.getESDriver().autoComplete(mEngine.getConfig().getProperty(MudrodConstants.ES_INDEX_NAME), term);
+    }
     for (final String item : suggestList) {
       result.add(new AutoCompleteData(item, item));
     }
     String json = new Gson().toJson(result);
-    LOG.info("Response received: {}", json);
+    LOG.debug("Response received: {}", json);
     return Response.ok(json, MediaType.APPLICATION_JSON).build();
   }
 
@@ -13,6 +13,7 @@
  */
 package org.apache.sdap.mudrod.services.recommendation;
 
+import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
 import javax.servlet.ServletContext;
@@ -21,12 +22,16 @@ import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import org.apache.sdap.mudrod.main.MudrodEngine;
 import org.apache.sdap.mudrod.recommendation.structure.HybridRecommendation;
+import org.apache.sdap.mudrod.utils.SingleFlight;
+
+import java.util.concurrent.ExecutionException;
 
 /**
  * A hybrid recommendation resource for datasets.
@@ -35,9 +40,14 @@ import org.apache.sdap.mudrod.recommendation.structure.HybridRecommendation;
 public class HybridRecomDatasetsResource {
 
   private MudrodEngine mEngine;
+  private HybridRecommendation recommendation;
+  private SingleFlight<String, String> flight;
 
+  @SuppressWarnings("unchecked")
   public HybridRecomDatasetsResource(@Context ServletContext sc) {
     this.mEngine = (MudrodEngine) sc.getAttribute("MudrodInstance");
+    this.recommendation = (HybridRecommendation) sc.getAttribute("MudrodHybridRecommendation");
+    this.flight = (SingleFlight<String, String>) sc.getAttribute("MudrodRecommendationFlight");
   }
 
   @GET
@@ -52,13 +62,33 @@ public class HybridRecomDatasetsResource {
   @Produces(MediaType.APPLICATION_JSON)
   @Consumes("text/plain")
   public Response hybridRecommendation(@QueryParam("shortname") String shortName) {
-    JsonObject json = new JsonObject();
-    if (shortName != null) {
-      HybridRecommendation recom = new HybridRecommendation(mEngine.getConfig(), mEngine.getESDriver(), null);
-      json = new JsonObject();
-      json.add("HybridRecommendationData", recom.getRecomDataInJson(shortName, 10));
+    if (shortName == null) {
+      return Response.ok(new JsonObject().toString(), MediaType.APPLICATION_JSON).build();
+    }
+    String json;
+    try {
+      json = flight == null ? recommend(shortName) : flight.execute(shortName, () -> recommend(shortName));
+    } catch (ExecutionException e) {
+      throw new WebApplicationException(e.getCause());
     }
-    return Response.ok(json.toString(), MediaType.APPLICATION_JSON).build();
+    return Response.ok(json, MediaType.APPLICATION_JSON).build();
+  }
+
+  @GET
+  @Path("/coalescing")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response coalescingStats() {
+    if (flight == null) {
+      return Response.status(Response.Status.NOT_FOUND).entity("Request coalescing is disabled").build();
+    }
+    return Response.ok(new Gson().toJson(flight.getStats()), MediaType.APPLICATION_JSON).build();
+  }
+
+  private String recommend(String shortName) {
+    HybridRecommendation recom = recommendation != null ? recommendation : new HybridRecommendation(mEngine.getConfig(), mEngine.getESDriver(), null);
+    JsonObject json = new JsonObject();
+    json.add("HybridRecommendationData", recom.getRecomDataInJson(shortName, 10));
+    return json.toString();
   }
 
 }
@@ -14,13 +14,13 @@
 package org.apache.sdap.mudrod.services.search;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonObject;
 
 import org.apache.sdap.mudrod.main.MudrodConstants;
 import org.apache.sdap.mudrod.main.MudrodEngine;
 import org.apache.sdap.mudrod.ssearch.Ranker;
 import org.apache.sdap.mudrod.ssearch.Searcher;
+import org.apache.sdap.mudrod.utils.ResultCache;
+import org.apache.sdap.mudrod.utils.SingleFlight;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,7 +29,16 @@ import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A Mudrod Metadata Search Resource
@@ -38,15 +47,23 @@ import java.util.Properties;
 public class SearchMetadataResource {
 
   private static final Logger LOG = LoggerFactory.getLogger(SearchMetadataResource.class);
+  // only one in every DEBUG_SAMPLE_RATE responses is logged in full at debug level
+  private static final long DEBUG_SAMPLE_RATE = 100;
+  private static final AtomicLong RESPONSE_COUNT = new AtomicLong();
 
   private MudrodEngine mEngine;
   private Searcher searcher;
   private Ranker ranker;
+  private ResultCache cache;
+  private SingleFlight<String, String> flight;
 
+  @SuppressWarnings("unchecked")
   public SearchMetadataResource(@Context ServletContext sc) {
     this.mEngine = (MudrodEngine) sc.getAttribute("MudrodInstance");
     this.searcher = (Searcher) sc.getAttribute("MudrodSearcher");
     this.ranker = (Ranker) sc.getAttribute("MudrodRanker");
+    this.cache = (ResultCache) sc.getAttribute("MudrodSearchCache");
+    this.flight = (SingleFlight<String, String>) sc.getAttribute("MudrodSearchFlight");
   }
 
   @GET
@@ -60,15 +77,130 @@ public class SearchMetadataResource {
   @Path("/search")
   @Produces(MediaType.APPLICATION_JSON)
   @Consumes("text/plain")
-  public Response searchMetadata(@QueryParam("query") String query, @QueryParam("operator") String operator, @QueryParam("rankoption") String rankoption) {
+  public Response searchMetadata(@QueryParam("query") String query, @QueryParam("operator") String operator, @QueryParam("rankoption") String rankoption,
+      @QueryParam("from") @DefaultValue("0") int from, @QueryParam("size") @DefaultValue("500") int size) {
+    if (from < 0 || size < 0) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("from and size must not be negative").build();
+    }
+    if ((long) from + size > searcher.getMaxResultWindow()) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("from + size must not exceed " + searcher.getMaxResultWindow()).build();
+    }
     Properties config = mEngine.getConfig();
-    String fileList = searcher
-        .ssearch(config.getProperty(MudrodConstants.ES_INDEX_NAME), config.getProperty(MudrodConstants.RAW_METADATA_TYPE), query, operator, //please replace it with and, or, phrase
-            rankoption, ranker);
-    Gson gson = new GsonBuilder().create();
-    String json = gson.toJson(gson.fromJson(fileList, JsonObject.class));
-    LOG.debug("Response received: {}", json);
-    return Response.ok(json, MediaType.APPLICATION_JSON).build();
+    String index = config.getProperty(MudrodConstants.ES_INDEX_NAME);
+    String type = config.getProperty(MudrodConstants.RAW_METADATA_TYPE);
+
+    String key = requestKey(query, operator, rankoption, from, size);
+    String cached = cache == null ? null : cache.get(key);
+    if (cached != null) {
+      logSampled(cached);
+      return Response.ok(cached, MediaType.APPLICATION_JSON).build();
+    }
+    // coalesced requests share one result string, others are streamed as they are written
+    if (flight != null) {
+      String json;
+      try {
+        json = flight.execute(key, () -> search(key, index, type, query, operator, rankoption, from, size));
+      } catch (ExecutionException e) {
+        throw new WebApplicationException(e.getCause());
+      }
+      logSampled(json);
+      return Response.ok(json, MediaType.APPLICATION_JSON).build();
+    }
+
+    // a result computed while the cache is invalidated is returned but not stored
+    long stamp = cache == null ? 0 : cache.stamp();
+    StreamingOutput stream = output -> {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+      boolean sampled = LOG.isDebugEnabled() && RESPONSE_COUNT.incrementAndGet() % DEBUG_SAMPLE_RATE == 0;
+      if (cache == null && !sampled) {
+        searcher.ssearch(index, type, query, operator, rankoption, ranker, from, size, writer);
+      } else {
+        StringWriter json = new StringWriter();
+        searcher.ssearch(index, type, query, operator, rankoption, ranker, from, size, tee(writer, json));
+        if (sampled) {
+          LOG.debug("Response received: {}", json);
+        }
+        if (cache != null) {
+          cache.put(key, json.toString(), stamp);
+        }
+      }
+      writer.flush();
+    };
+    return Response.ok(stream, MediaType.APPLICATION_JSON).build();
+  }
+
+  @GET
+  @Path("/coalescing")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response coalescingStats() {
+    if (flight == null) {
+      return Response.status(Response.Status.NOT_FOUND).entity("Request coalescing is disabled").build();
+    }
+    return Response.ok(new Gson().toJson(flight.getStats()), MediaType.APPLICATION_JSON).build();
+  }
+
+  @GET
+  @Path("/cache")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response cacheStats() {
+    if (cache == null) {
+      return Response.status(Response.Status.NOT_FOUND).entity("The search result cache is disabled").build();
+    }
+    return Response.ok(new Gson().toJson(cache.getStats()), MediaType.APPLICATION_JSON).build();
+  }
+
+  /**
+   * Method of running a search into a string and storing it in the result
+   * cache, if there is one
+   */
+  private String search(String key, String index, String type, String query, String operator, String rankoption, int from, int size) throws IOException {
+    // a result computed while the cache is invalidated is returned but not stored
+    long stamp = cache == null ? 0 : cache.stamp();
+    StringWriter out = new StringWriter();
+    searcher.ssearch(index, type, query, operator, rankoption, ranker, from, size, out);
+    String json = out.toString();
+    if (cache != null) {
+      cache.put(key, json, stamp);
+    }
+    return json;
+  }
+
+  // writes to the response and keeps a copy of it
+  private static Writer tee(Writer out, StringWriter copy) {
+    return new Writer() {
+      @Override
+      public void write(char[] cbuf, int off, int len) throws IOException {
+        out.write(cbuf, off, len);
+        copy.write(cbuf, off, len);
+      }
+
+      @Override
+      public void write(String str, int off, int len) throws IOException {
+        out.write(str, off, len);
+        copy.write(str, off, len);
+      }
+
+      @Override
+      public void flush() throws IOException {
+        out.flush();
+      }
+
+      @Override
+      public void close() throws IOException {
+        out.close();
+      }
+    };
+  }
+
+  // the query is searched with case-sensitive term queries, so it is keyed exactly as given
+  private static String requestKey(String query, String operator, String rankoption, int from, int size) {
+    return query + "\n" + operator + "\n" + rankoption + "\n" + from + "\n" + size;
+  }
+
+  private static void logSampled(String json) {
+    if (LOG.isDebugEnabled() && RESPONSE_COUNT.incrementAndGet() % DEBUG_SAMPLE_RATE == 0) {
+      LOG.debug("Response received: {}", json);
+    }
   }
 
 }
@@ -17,7 +17,6 @@ import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
 import org.apache.sdap.mudrod.integration.LinkageIntegration;
-import org.apache.sdap.mudrod.main.MudrodEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,10 +34,10 @@ public class SearchVocabResource {
 
   private static final Logger LOG = LoggerFactory.getLogger(SearchMetadataResource.class);
 
-  private MudrodEngine mEngine;
+  private LinkageIntegration li;
 
   public SearchVocabResource(@Context ServletContext sc) {
-    this.mEngine = (MudrodEngine) sc.getAttribute("MudrodInstance");
+    this.li = (LinkageIntegration) sc.getAttribute("MudrodLinkageIntegration");
   }
 
   @GET
@@ -55,7 +54,6 @@ public class SearchVocabResource {
   public Response searchVocabulary(@QueryParam("query") String concept) {
     JsonObject json = new JsonObject();
     if (concept != null) {
-      LinkageIntegration li = new LinkageIntegration(mEngine.getConfig(), mEngine.getESDriver(), null);
       json = new JsonObject();
       json.add("graph", li.getIngeratedListInJson(concept));
     }
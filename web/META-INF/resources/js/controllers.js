@@ -80,8 +80,9 @@ searchControllers.controller('metadataViewCtrl', ['$rootScope', '$scope', '$loca
 
         $scope.searchComplete = false;
 
+        var PAGE_SIZE = 10;
         var vm = this;
-        vm.PDItems = [];
+        vm.items = [];
         vm.pager = {};
         vm.setPage = setPage;
         vm.rankData = rankData;
@@ -119,20 +120,12 @@ searchControllers.controller('metadataViewCtrl', ['$rootScope', '$scope', '$loca
         $rootScope.searchOptions = SearchOptions.getSearchOptions();
         searchMetadata();
 
-        function initController() {
-            vm.setPage(1);
-        }
-
         function setPage(page) {
-            if (page < 1 || page > vm.pager.totalPages) {
+            if (page < 1 || (vm.pager.totalPages && page > vm.pager.totalPages)) {
                 return;
             }
 
-            // get pager object from service
-            vm.pager = PagerService.GetPager(vm.PDItems.length, page);
-
-            // get current page of items
-            vm.items = vm.PDItems.slice(vm.pager.startIndex, vm.pager.endIndex + 1);
+            searchMetadata(page);
         }
 
         function rankData(opt) {
@@ -147,14 +140,16 @@ searchControllers.controller('metadataViewCtrl', ['$rootScope', '$scope', '$loca
             $location.search(qParams);
         }
 
-        function searchMetadata() {
-            MetaData.get({query: word, operator: opt, rankoption: rankopt},
+        function searchMetadata(page) {
+            page = page || 1;
+            MetaData.get({query: word, operator: opt, rankoption: rankopt, from: (page - 1) * PAGE_SIZE, size: PAGE_SIZE},
                 function success(response) {
-                    vm.PDItems = response.PDResults;
-                    vm.totalMatches = vm.PDItems.length;
+                    vm.items = response.PDResults;
+                    vm.totalMatches = response.PDTotal;
                     vm.query = word;
                     vm.opt = opt;
-                    initController();
+                    // get pager object from service
+                    vm.pager = PagerService.GetPager(vm.totalMatches, page, PAGE_SIZE);
                     $scope.searchComplete = true;
                 },
                 function error(errorResponse) {